@@ -115,6 +115,44 @@ public class ElementTest {
         Assert.assertEquals("explicit child namespace", "urn:zimbraMail", json.getElement("foo").getNamespaceURI(""));
     }
 
+    @Test
+    public void marshalChildXml() throws Exception {
+        marshalChild(SoapProtocol.Soap12);
+    }
+
+    @Test
+    public void marshalChildJson() throws Exception {
+        marshalChild(SoapProtocol.SoapJS);
+    }
+
+    private void marshalChild(SoapProtocol proto) throws Exception {
+        Element resp = Element.create(proto, MailConstants.SEARCH_RESPONSE);
+        List<Element> hits = Lists.newArrayList();
+        for (int i = 0; i < 3; i++) {
+            Element m = resp.addNonUniqueElement(MailConstants.E_MSG).addAttribute(MailConstants.A_ID, i);
+            m.addNonUniqueElement(MailConstants.E_EMAIL).addAttribute(MailConstants.A_ADDRESS, "a&b<" + i + "\"");
+            m.addNonUniqueElement(MailConstants.E_SUBJECT).setText("subject \u00e9 " + i);
+            hits.add(m);
+        }
+        Element info = resp.addUniqueElement(MailConstants.E_INFO).addAttribute("x", "y");
+        Element env = proto.soapEnvelope(resp);
+        String expected = env.toString();
+        String expectedPretty = env.prettyPrint();
+
+        for (Element hit : hits) {
+            Element marshaled = resp.marshalChild(hit);
+            Assert.assertTrue(marshaled instanceof Element.MarshaledElement);
+            Assert.assertSame(resp, marshaled.getParent());
+            Assert.assertNull(hit.getParent());
+            Assert.assertSame("not a child any more", hit, resp.marshalChild(hit));
+        }
+        Assert.assertTrue(resp.marshalChild(info) instanceof Element.MarshaledElement);
+        Assert.assertEquals(expected, env.toString());
+        Assert.assertEquals("pretty printing still works", expectedPretty.replaceAll("\\s", ""),
+                env.prettyPrint().replaceAll("\\s", ""));
+        Assert.assertEquals(MailConstants.E_MSG, resp.listElements(MailConstants.E_MSG).get(2).getName());
+    }
+
     @Test
     public void getPathElementList() {
         Element e = XMLElement.mFactory.createElement("parent");
@@ -0,0 +1,162 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Histogram} and {@link PercentileCalculator}.
+ */
+public class HistogramTest {
+
+    @Test
+    public void buckets() {
+        for (long value = 0; value < 100000; value++) {
+            int index = Histogram.indexOf(value);
+            Assert.assertTrue("value " + value, value <= Histogram.highestValueOf(index));
+            if (index > 0) {
+                Assert.assertTrue("value " + value, value > Histogram.highestValueOf(index - 1));
+            }
+            // never more than 1/16 too high
+            Assert.assertTrue("value " + value, Histogram.highestValueOf(index) - value <= value / 16);
+        }
+        Assert.assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(Histogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram histogram = new Histogram(100000);
+        Histogram.Snapshot empty = histogram.getSnapshot();
+        Assert.assertEquals(0, empty.getCount());
+        Assert.assertEquals(0, empty.getValueAtPercentile(99));
+        Assert.assertEquals(0, empty.getMax());
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Histogram.Snapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000, snapshot.getMax());
+        assertNear(500, snapshot.getValueAtPercentile(50));
+        assertNear(900, snapshot.getValueAtPercentile(90));
+        assertNear(990, snapshot.getValueAtPercentile(99));
+        Assert.assertEquals("top bucket reports the exact maximum", 1000, snapshot.getValueAtPercentile(99.9));
+        Assert.assertEquals(1, snapshot.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void outOfRange() {
+        Histogram histogram = new Histogram(1000);
+        histogram.record(-5);
+        histogram.record(50000);
+        Histogram.Snapshot snapshot = histogram.getSnapshot();
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(50));
+        Assert.assertEquals(50000, snapshot.getValueAtPercentile(100));
+        Assert.assertEquals(50000, snapshot.getMax());
+    }
+
+    @Test
+    public void snapshotAndReset() {
+        Histogram histogram = new Histogram(1000);
+        histogram.record(10);
+        histogram.record(20);
+        Histogram.Snapshot snapshot = histogram.getSnapshotAndReset();
+        Assert.assertEquals(2, snapshot.getCount());
+        Assert.assertEquals(20, snapshot.getMax());
+        Assert.assertEquals(0, histogram.getSnapshot().getCount());
+        histogram.record(5);
+        Assert.assertEquals(5, histogram.getSnapshot().getMax());
+    }
+
+    @Test
+    public void since() {
+        Histogram histogram = new Histogram(100000);
+        histogram.record(3000);
+        Histogram.Snapshot first = histogram.getSnapshot();
+        histogram.record(10);
+        histogram.record(200);
+        Histogram.Snapshot delta = histogram.getSnapshot().since(first);
+        Assert.assertEquals(2, delta.getCount());
+        assertNear(200, delta.getMax());
+        Assert.assertEquals(10, delta.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        final Histogram histogram = new Histogram(100000);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(i % 1000);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        long seen = 0;
+        for (int i = 0; i < 20; i++) {
+            seen += histogram.getSnapshotAndReset().getCount();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        seen += histogram.getSnapshotAndReset().getCount();
+        Assert.assertEquals("no value lost across resets", 400000, seen);
+    }
+
+    @Test
+    public void calculator() {
+        StopWatch stopWatch = new StopWatch();
+        stopWatch.increment(7);
+        PercentileCalculator calc = new PercentileCalculator(stopWatch.getHistogram(), "soap_ms");
+        Assert.assertEquals(Arrays.asList("soap_ms_p50", "soap_ms_p90", "soap_ms_p99", "soap_ms_p999", "soap_ms_max"),
+                calc.getNames());
+        Assert.assertEquals("only values since construction", Arrays.<Object>asList(0L, 0L, 0L, 0L, 0L),
+                calc.getData());
+
+        for (int i = 0; i < 99; i++) {
+            stopWatch.increment(10);
+        }
+        stopWatch.increment(400);
+        List<Object> data = calc.getData();
+        Assert.assertEquals(10L, data.get(0));
+        Assert.assertEquals(10L, data.get(1));
+        Assert.assertEquals(10L, data.get(2));
+        Assert.assertEquals(400L, data.get(3));
+        Assert.assertEquals(400L, data.get(4));
+        Assert.assertEquals(100, calc.getSnapshot().getCount());
+        Assert.assertEquals(101, stopWatch.getCount());
+
+        calc.reset();
+        Assert.assertEquals(0, calc.getSnapshot().getCount());
+        stopWatch.increment(30);
+        Assert.assertEquals(30L, calc.getData().get(4));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        Assert.assertTrue("expected about " + expected + ", was " + actual,
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
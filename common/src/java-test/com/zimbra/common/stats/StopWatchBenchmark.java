@@ -0,0 +1,62 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+/**
+ * Times {@link StopWatch#increment(long)}, which also records into a {@link Histogram}, against a plain
+ * {@link Counter}, with several threads sharing one instance the way request threads share
+ * <tt>ZimbraPerf.STOPWATCH_SOAP</tt>.
+ * <p>
+ * Usage: <tt>StopWatchBenchmark [threads] [iterations per thread]</tt>.
+ */
+public class StopWatchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+        for (int pass = 0; pass < 3; pass++) { // the first passes warm up
+            long counter = time(new Counter(), threads, iterations);
+            long stopWatch = time(new StopWatch(), threads, iterations);
+            if (pass == 2) {
+                System.out.printf("%d threads  Counter %5.1fns  StopWatch %5.1fns per call%n", threads,
+                        (double) counter / iterations, (double) stopWatch / iterations);
+            }
+        }
+    }
+
+    private static long time(final Counter counter, int threadCount, final int iterations) throws Exception {
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < iterations; i++) {
+                        counter.increment(i & 255);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -59,4 +59,22 @@ public class BEncodingTest {
         Assert.assertEquals(new TreeMap<Object, Object>(), decoded.get("yy"));
     }
 
+    @Test
+    public void range() throws Exception {
+        String encoded = "xxd1:ali1e2:abe1:bd1:cdeee";
+        Assert.assertEquals(encoded.length(), BEncoding.skip(encoded, 2, encoded.length()));
+        Assert.assertEquals(15, BEncoding.skip(encoded, 6, encoded.length()));
+        Map<String, Object> decoded = BEncoding.decode(encoded, 2, encoded.length());
+        Assert.assertEquals("{a=[1, ab], b={c={}}}", new TreeMap<String, Object>(decoded).toString());
+        Assert.assertEquals("ab", BEncoding.decode(encoded, 10, 14));
+
+        for (String bad : new String[] {"d1:a", "i12", "5:abc", "l1:ai1e", "d1:ae", "ix1e", "-1:"}) {
+            try {
+                BEncoding.skip(bad, 0, bad.length());
+                Assert.fail(bad);
+            } catch (BEncoding.BEncodingException expected) {
+            }
+        }
+    }
+
 }
@@ -0,0 +1,62 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ZimbraServletOutputStream}.
+ */
+public class ZimbraServletOutputStreamTest {
+
+    @Test
+    public void utf8() throws Exception {
+        // long enough to cross several buffer boundaries, with surrogate pairs landing on some of them
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            text.append(i % 7 == 0 ? "\ud83d\ude00" : i % 5 == 0 ? "\u00e9" : "x");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZimbraServletOutputStream out = new ZimbraServletOutputStream(bytes);
+        out.append('<');
+        out.append(text);
+        out.append(text.toString(), 2, text.length() - 2);
+        out.append(new StringBuffer("\u4e2d>"));
+        out.flush();
+
+        String expected = "<" + text + text.substring(2, text.length() - 2) + "\u4e2d>";
+        Assert.assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+    }
+
+    @Test
+    public void flushIsIncremental() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZimbraServletOutputStream out = new ZimbraServletOutputStream(bytes);
+        out.append("abc");
+        Assert.assertEquals("buffered", 0, bytes.size());
+        out.flush();
+        out.flush();
+        out.append("def");
+        out.flush();
+        Assert.assertEquals("abcdef", bytes.toString("UTF-8"));
+    }
+}
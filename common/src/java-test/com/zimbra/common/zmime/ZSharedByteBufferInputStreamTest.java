@@ -0,0 +1,96 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.zmime;
+
+import java.nio.ByteBuffer;
+
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.ByteUtil;
+
+public class ZSharedByteBufferInputStreamTest {
+    private void checkStream(ZSharedByteBufferInputStream is, String expected) throws Exception {
+        int length = expected.length();
+
+        Assert.assertEquals("position is 0", 0L, is.getPosition());
+        Assert.assertEquals("available is " + length, length, is.available());
+        Assert.assertArrayEquals(length + " bytes match", expected.getBytes(), ByteUtil.readInput(is, 100, 100));
+        Assert.assertEquals("position is " + length, length, is.getPosition());
+
+        Assert.assertEquals("read() eof", -1, is.read());
+        byte[] buf = new byte[10];
+        Assert.assertEquals("read(byte[]) eof", -1, is.read(buf));
+        Assert.assertEquals("read(byte[], int, int) eof", -1, is.read(buf, 5, 2));
+
+        is.close();
+    }
+
+    private static ByteBuffer direct(String content) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(content.length());
+        buf.put(content.getBytes());
+        buf.flip();
+        return buf;
+    }
+
+    @Test
+    public void stream() throws Exception {
+        ZSharedByteBufferInputStream is = new ZSharedByteBufferInputStream(direct("0123456789"));
+        checkStream(is.newStream(0, 10), "0123456789");
+        checkStream(is.newStream(0, -1), "0123456789");
+        checkStream(is.newStream(1, 9), "12345678");
+        checkStream(is.newStream(1, -1), "123456789");
+
+        ZSharedByteBufferInputStream substream = is.newStream(2, 8);
+        checkStream(substream.newStream(0, 6), "234567");
+        checkStream(substream.newStream(0, -1), "234567");
+        checkStream(substream.newStream(0, 4), "2345");
+        checkStream(substream.newStream(2, 6), "4567");
+        checkStream(substream.newStream(2, -1), "4567");
+        checkStream(substream.newStream(2, 4), "45");
+        checkStream(substream.newStream(4, 100), "67");
+        checkStream(substream, "234567");
+
+        checkStream(is, "0123456789");
+    }
+
+    @Test
+    public void markAndSkip() throws Exception {
+        ZSharedByteBufferInputStream is = new ZSharedByteBufferInputStream(direct("0123456789"));
+        Assert.assertEquals("skip 3", 3, is.skip(3));
+        is.mark(0);
+        Assert.assertEquals("read after skip", '3', is.read());
+        Assert.assertEquals("skip past end", 6, is.skip(100));
+        is.reset();
+        Assert.assertEquals("position after reset", 3L, is.getPosition());
+        Assert.assertEquals("read after reset", '3', is.read());
+    }
+
+    @Test
+    public void parse() throws Exception {
+        String msg = "From: test@example.com\r\nSubject: off-heap\r\n\r\nbody text\r\n";
+        ByteBuffer buf = direct(msg);
+        MimeMessage mm = new ZMimeMessage(Session.getInstance(new java.util.Properties()),
+                new ZSharedByteBufferInputStream(buf));
+        Assert.assertEquals("subject", "off-heap", mm.getSubject());
+        Assert.assertEquals("content", "body text\r\n", mm.getContent());
+        Assert.assertEquals("backing buffer untouched", 0, buf.position());
+    }
+}
@@ -151,6 +151,11 @@ public final class LC {
     public static final KnownKey zimbra_store_copy_buffer_size_kb = KnownKey.newKey(16); // KB
     public static final KnownKey zimbra_nio_file_copy_chunk_size_kb = KnownKey.newKey(512); // KB
     public static final KnownKey zimbra_blob_input_stream_buffer_size_kb = KnownKey.newKey(1); // KB
+    // the file store links new blobs of at least min size to an existing copy of the same content on the volume,
+    // found by digest in the volume's dedupe directory; entries no blob links to any more are swept every interval
+    public static final KnownKey zimbra_store_dedupe_enabled = KnownKey.newKey(false);
+    public static final KnownKey zimbra_store_dedupe_min_size = KnownKey.newKey(4096);
+    public static final KnownKey zimbra_store_dedupe_sweep_interval = KnownKey.newKey(60); // mins
 
     @Supported
     public static final KnownKey zimbra_mailbox_manager_hardref_cache = KnownKey.newKey(2500);
@@ -164,6 +169,11 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_mailbox_galsync_cache = KnownKey.newKey(10000);
 
+    // estimated heap footprint of the mail items cached for all mailboxes
+    public static final KnownKey zimbra_mailbox_item_cache_max_bytes = KnownKey.newKey(128L * 1024 * 1024);
+    // most mail items cached for one mailbox outside of a transaction (keep above zimbra_mailbox_galsync_cache)
+    public static final KnownKey zimbra_mailbox_item_cache_max_items = KnownKey.newKey(20000);
+
     @Supported
     public static final KnownKey zimbra_mailbox_change_checkpoint_frequency = KnownKey.newKey(100);
 
@@ -175,12 +185,39 @@ public final class LC {
 
     public static final KnownKey zimbra_mailbox_lock_readwrite = KnownKey.newKey(true);
 
+    // threads still waiting for a mailbox lock after this long sample the owner and waiter stacks; 0 disables
+    @Reloadable
+    public static final KnownKey zimbra_mailbox_lock_slow_wait_ms = KnownKey.newKey(1000);
+
+    // total bytes of message data (plus per-entry overhead) held by the message cache
+    public static final KnownKey zimbra_message_cache_max_bytes = KnownKey.newKey(256L * 1024 * 1024);
+
+    // messages smaller than this are copied into direct (off-heap) buffers instead of being streamed from disk
+    public static final KnownKey zimbra_message_cache_offheap_threshold_kb = KnownKey.newKey(64); // KB
+
+    // log redo entries through the group-commit writer instead of FileLogWriter
+    public static final KnownKey zimbra_redolog_group_commit = KnownKey.newKey(false);
+
+    // number of slots in the group-commit writer's ring buffer; rounded up to a power of two
+    public static final KnownKey zimbra_redolog_group_commit_ring_size = KnownKey.newKey(4096);
+
+    // threads redoing the uncommitted ops found by crash recovery, and ops queued for them; ops of a mailbox that
+    // change unrelated items are redone in parallel
+    public static final KnownKey zimbra_redolog_recovery_threads = KnownKey.newKey(4);
+    public static final KnownKey zimbra_redolog_recovery_max_pending = KnownKey.newKey(1000);
+
     @Supported
     public static final KnownKey zimbra_index_threads = KnownKey.newKey(10);
 
     @Supported
     public static final KnownKey zimbra_reindex_threads = KnownKey.newKey(10);
 
+    // threads shared by all mailboxes that fetch and parse items for batch indexing; 0 means one per CPU
+    public static final KnownKey zimbra_index_parse_threads = KnownKey.newKey(0);
+
+    // items a batch index may have fetched or parsed ahead of the single thread that writes them to the index
+    public static final KnownKey zimbra_index_pipeline_depth = KnownKey.newKey(64);
+
     @Supported
     public static final KnownKey zimbra_index_max_readers = KnownKey.newKey(35);
 
@@ -196,6 +233,10 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_index_reader_cache_ttl = KnownKey.newKey(300);
 
+    // how often searchers left stale by index commits are reopened and warmed up in the background, in milliseconds;
+    // 0 reopens them in the indexing thread on every commit
+    public static final KnownKey zimbra_index_searcher_refresh_interval_ms = KnownKey.newKey(1000);
+
     @Supported
     public static final KnownKey zimbra_index_deferred_items_failure_delay = KnownKey.newKey(300);
 
@@ -301,6 +342,9 @@ public final class LC {
     public static final KnownKey soap_response_chunked_transfer_encoding_enabled = KnownKey.newKey(true);
     public static final KnownKey zimbra_servlet_output_stream_buffer_size = KnownKey.newKey(5120);
 
+    @Reloadable
+    public static final KnownKey soap_jaxb_direct_to_element = KnownKey.newKey(true);
+
     public static final KnownKey rest_response_cache_control_value = KnownKey.newKey("no-store, no-cache");
 
     @Reloadable
@@ -468,6 +512,11 @@ public final class LC {
     public static final KnownKey ldap_cache_xmppcomponent_maxsize = KnownKey.newKey(100);
     public static final KnownKey ldap_cache_xmppcomponent_maxage = KnownKey.newKey(15);
 
+    // threads that reload cached LDAP accounts and named entries used during the last ldap_cache_refresh_ahead_percent
+    // of their maxage, so that requests don't have to; 0 lets entries expire and be reloaded by the next lookup
+    public static final KnownKey ldap_cache_refresh_threads = KnownKey.newKey(2);
+    public static final KnownKey ldap_cache_refresh_ahead_percent = KnownKey.newKey(20);
+
     @Supported
     public static final KnownKey ldap_cache_zimlet_maxsize = KnownKey.newKey(100);
 
@@ -655,6 +704,10 @@ public final class LC {
     @Supported
     public static final KnownKey calendar_cache_lru_size = KnownKey.newKey(1000);
 
+    // bytes of encoded calendar summaries held by the calendar summary cache, mostly off-heap
+    @Supported
+    public static final KnownKey calendar_cache_max_bytes = KnownKey.newKey(128L * 1024 * 1024);
+
     @Supported
     public static final KnownKey calendar_cache_range_month_from = KnownKey.newKey(0);
 
@@ -675,6 +728,10 @@ public final class LC {
     public static final KnownKey nio_pop3_enabled = KnownKey.newKey(true);
 
     public static final KnownKey nio_max_write_queue_size = KnownKey.newKey(10000);
+    // IMAP and POP3 send uncompressed message blobs of at least min size straight from the blob file to connections
+    // that aren't encrypted (FileChannel.transferTo, or a MINA file region) rather than copying them through the heap
+    public static final KnownKey zero_copy_transfer_enabled = KnownKey.newKey(true);
+    public static final KnownKey zero_copy_transfer_min_size = KnownKey.newKey(64 * 1024);
 
     public static final KnownKey imap_max_request_size = KnownKey.newKey(10 * 1024);
     public static final KnownKey imap_max_nesting_in_search_request = KnownKey.newKey(100);
@@ -696,6 +753,17 @@ public final class LC {
     public static final KnownKey imap_throttle_acct_limit = KnownKey.newKey(5000);
     public static final KnownKey imap_throttle_command_limit = KnownKey.newKey(25);
     public static final KnownKey imap_throttle_fetch = KnownKey.newKey(true);
+    // FETCH loads items in chunks of between min and max items, sized so that writing a chunk out takes about
+    // target millis; 0 max items disables the prefetch
+    public static final KnownKey imap_fetch_prefetch_min_items = KnownKey.newKey(32);
+    public static final KnownKey imap_fetch_prefetch_max_items = KnownKey.newKey(1000);
+    public static final KnownKey imap_fetch_prefetch_target_millis = KnownKey.newKey(250);
+    // threads parsing the messages of prefetched chunks ahead of the FETCH response writers
+    public static final KnownKey imap_fetch_prefetch_threads = KnownKey.newKey(4);
+    // bytes of precomputed BODY, BODYSTRUCTURE and ENVELOPE responses kept in memory, and on disk when
+    // imap_use_ehcache is set; 0 memory size disables the cache
+    public static final KnownKey imap_structure_cache_memory_size = KnownKey.newKey(32L * 1024 * 1024);
+    public static final KnownKey imap_structure_cache_disk_size = KnownKey.newKey(2L * 1024 * 1024 * 1024);
     public static final KnownKey data_source_imap_reuse_connections = KnownKey.newKey(false);
 
     @Supported
@@ -1054,6 +1122,10 @@ public final class LC {
 
     @Supported
     public static final KnownKey contact_ranking_enabled = KnownKey.newKey(true);
+    // number of mailboxes whose contacts are kept in memory for autocomplete, 0 to always use the search index
+    public static final KnownKey contact_autocomplete_index_mailboxes = KnownKey.newKey(1000);
+    // mailboxes with more contacts than this use the search index for autocomplete
+    public static final KnownKey contact_autocomplete_index_max_contacts = KnownKey.newKey(20000);
 
 
     public static final KnownKey jdbc_results_streaming_enabled = KnownKey.newKey(true);
@@ -1069,6 +1141,15 @@ public final class LC {
     public static final KnownKey zimbra_lmtp_validate_messages = KnownKey.newKey(true);
     public static final KnownKey zimbra_lmtp_max_line_length = KnownKey.newKey(10240);
 
+    // threads shared by all LMTP connections that deliver a message to its recipients' mailboxes in parallel, on top of
+    // the connection thread itself; 0 delivers to one mailbox after another on the connection thread
+    public static final KnownKey zimbra_lmtp_delivery_threads = KnownKey.newKey(8);
+    // lock stripes of the Message-ID dedupe cache
+    public static final KnownKey zimbra_lmtp_dedupe_cache_segments = KnownKey.newKey(16);
+    // also record delivered Message-IDs in the ephemeral store, so that dedupe survives a restart and is shared by all
+    // mailstores using the same store; needs a non-LDAP ephemeral backend
+    public static final KnownKey zimbra_lmtp_dedupe_ephemeral = KnownKey.newKey(false);
+
     public static final KnownKey data_source_scheduling_enabled = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_email = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_contacts = KnownKey.newKey(true);
@@ -491,6 +491,18 @@ public abstract class Element implements Cloneable {
     /** Serialize this <tt>Element</tt> to an <code>Appendable</code>. */
     public abstract void marshal(Appendable out) throws IOException;
 
+    /**
+     * Replaces a finished child with its serialized form, so that a handler producing many children can let each
+     * child's subtree be garbage collected as soon as it is complete instead of holding the whole response tree
+     * until it is written.  The child must not be modified afterwards.  Does nothing if <tt>child</tt> is not a
+     * direct child of this <tt>Element</tt>.
+     *
+     * @return the {@link MarshaledElement} now held in place of <tt>child</tt>, or <tt>child</tt> itself
+     */
+    public Element marshalChild(Element child) {
+        return child;
+    }
+
     private static final String FORTY_SPACES = "                                        ";
     protected void indent(Appendable sb, int indent, boolean newline) throws IOException {
         if (indent < 0)
@@ -1055,6 +1067,32 @@ public abstract class Element implements Cloneable {
             return kvp;
         }
 
+        @Override
+        public Element marshalChild(Element child) {
+            if (!(child instanceof JSONElement) || child.mParent != this) {
+                return child;
+            }
+            Element marshaled = new MarshaledElement((JSONElement) child);
+            Object obj = mAttributes.get(child.getName());
+            if (obj == child) {
+                mAttributes.put(child.getName(), marshaled);
+            } else if (obj instanceof List<?>) {
+                @SuppressWarnings("unchecked")
+                List<Object> content = (List<Object>) obj;
+                // the finished child is nearly always the one most recently added
+                int index = content.lastIndexOf(child);
+                if (index < 0) {
+                    return child;
+                }
+                content.set(index, marshaled);
+            } else {
+                return child;
+            }
+            marshaled.mParent = this;
+            child.mParent = null;
+            return marshaled;
+        }
+
         @Override
         protected void detach(Element elt) throws ContainerException {
             if (elt == null)
@@ -1482,8 +1520,8 @@ public abstract class Element implements Cloneable {
                         out.append(value.toString());
                     } else if (value instanceof JSONElement) {
                         ((JSONElement) value).marshal(out, indent, safe);
-                    } else if (value instanceof FileBackedElement) {
-                        ((FileBackedElement) value).marshal(out);
+                    } else if (value instanceof FileBackedElement || value instanceof MarshaledElement) {
+                        ((Element) value).marshal(out);
                     } else if (value instanceof Element) {
                         out.append('"').append(StringUtil.jsEncode(value)).append('"');
                     } else if (!(value instanceof List<?>)) {
@@ -1501,6 +1539,8 @@ public abstract class Element implements Cloneable {
                                     ((JSONElement) child).marshal(out, lindent, safe);
                                 } else if (child instanceof JSONKeyValuePair) {
                                     out.append(child.toString());
+                                } else if (child instanceof MarshaledElement) {
+                                    ((MarshaledElement) child).marshal(out);
                                 } else {
                                     out.append('"').append(StringUtil.jsEncode(child)).append('"');
                                 }
@@ -1731,6 +1771,23 @@ public abstract class Element implements Cloneable {
             return name;
         }
 
+        @Override
+        public Element marshalChild(Element child) {
+            if (!(child instanceof XMLElement) || child.mParent != this || mChildren == null) {
+                return child;
+            }
+            // the finished child is nearly always the one most recently added
+            int index = mChildren.lastIndexOf(child);
+            if (index < 0) {
+                return child;
+            }
+            Element marshaled = new MarshaledElement((XMLElement) child);
+            mChildren.set(index, marshaled);
+            marshaled.mParent = this;
+            child.mParent = null;
+            return marshaled;
+        }
+
         @Override
         protected void detach(Element elt) throws ContainerException {
             super.detach(elt);
@@ -1994,7 +2051,7 @@ public abstract class Element implements Cloneable {
                     for (Element child : mChildren) {
                         if (child instanceof XMLElement) {
                             ((XMLElement) child).marshal(out, indent < 0 ? -1 : indent + INDENT_SIZE, safe);
-                        } else if (child instanceof FileBackedElement) {
+                        } else if (child instanceof FileBackedElement || child instanceof MarshaledElement) {
                             child.marshal(out);
                         } else {
                             out.append(xmlEncode(child.toString(), false));
@@ -2176,6 +2233,131 @@ public abstract class Element implements Cloneable {
         }
     }
 
+    /**
+     * Read-only {@link Element} standing in for a child that has been serialized by {@link Element#marshalChild}.
+     * Only the compact serialized form is kept, which is a fraction of the size of the subtree it replaces.
+     */
+    public static final class MarshaledElement extends Element {
+        private final String content;
+
+        MarshaledElement(Element elt) {
+            mName = elt.mName;
+            mPrefix = elt.mPrefix;
+            StringBuilder sb = new StringBuilder(256);
+            try {
+                elt.marshal(sb);
+            } catch (IOException e) {
+                // should really not happen with the StringBuilder impl of Appendable
+                throw new IllegalStateException(e);
+            }
+            content = sb.toString();
+        }
+
+        @Override
+        public void destroy() {
+        }
+
+        @Override
+        public ElementFactory getFactory() {
+            return null;
+        }
+
+        @Override
+        public Element addNonUniqueElement(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Element addNonUniqueElement(QName qname) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Element addNonUniqueElement(Element elt) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Element setText(String text) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Element addAttribute(String key, String value, Disposition disp) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public KeyValuePair addKeyValuePair(String key, String value, String eltname, String attrname) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Element clone() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Element getOptionalElement(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<Attribute> listAttributes() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Element> listElements(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean hasChildren() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<KeyValuePair> listKeyValuePairs(String eltname, String attrname) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getText() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        String getRawText() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getAttribute(String key, String defaultValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String prettyPrint() {
+            return content;
+        }
+
+        @Override
+        public String prettyPrint(boolean safe) {
+            return content;
+        }
+
+        @Override
+        public void marshal(Appendable out) throws IOException {
+            out.append(content);
+        }
+
+        @Override
+        public String toString() {
+            return content;
+        }
+    }
+
     public static void main(String[] args) throws ContainerException, SoapParseException {
         System.out.println(Element.parseJSON("{ 'a':'b'}").getAttribute("a", null));
         System.out.println(Element.parseJSON("{ '_attrs' : {'a':'b'}}").getAttribute("a", null));
@@ -0,0 +1,180 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, fixed-size histogram of non-negative <tt>long</tt> values, used to report latency
+ * percentiles.
+ * <p>
+ * Buckets are log-linear: values below 16 each get their own bucket, and every power of two
+ * above that is split into 16 equal buckets, so a percentile is never off by more than 1/16
+ * (6.25%) of its value.  Values above the highest trackable value are counted in the last
+ * bucket; the maximum is always tracked exactly.  {@link #record} is a single atomic increment
+ * plus a read of the maximum, and never allocates.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param highestTrackableValue values above this are counted in the last bucket
+     */
+    public Histogram(long highestTrackableValue) {
+        if (highestTrackableValue < 1) {
+            throw new IllegalArgumentException("highestTrackableValue must be positive: " + highestTrackableValue);
+        }
+        buckets = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(Math.min(indexOf(value), buckets.length() - 1));
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+        }
+    }
+
+    /**
+     * Returns a copy of the current bucket counts.
+     */
+    public Snapshot getSnapshot() {
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return new Snapshot(counts, max.get());
+    }
+
+    /**
+     * Returns a copy of the current bucket counts and clears them.  Values recorded while this
+     * runs are either in the returned snapshot or left for the next one, never lost.
+     */
+    public Snapshot getSnapshotAndReset() {
+        long max = this.max.getAndSet(0);
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.getAndSet(i, 0);
+        }
+        return new Snapshot(counts, max);
+    }
+
+    public void reset() {
+        getSnapshotAndReset();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the highest value that is counted in the given bucket.
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Bucket counts of a {@link Histogram} at some point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long max;
+
+        Snapshot(long[] counts, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the largest value recorded, or <tt>0</tt> if the snapshot is empty.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the value below which the given percentage of the recorded values fall, or
+         * <tt>0</tt> if the snapshot is empty.
+         *
+         * @param percentile between <tt>0</tt> and <tt>100</tt>
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, Math.min(count, (long) Math.ceil(percentile / 100.0 * count)));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return valueOf(i);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Returns the values recorded between <tt>earlier</tt> and this snapshot, both taken from
+         * the same {@link Histogram}.  The maximum of the difference is exact when it falls in the
+         * same bucket as the overall maximum, and the top of its bucket otherwise.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            int top = -1;
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = counts[i] - earlier.counts[i];
+                if (delta[i] > 0) {
+                    top = i;
+                }
+            }
+            return new Snapshot(delta, top < 0 ? 0 : valueOf(top));
+        }
+
+        private long valueOf(int index) {
+            return index == Math.min(indexOf(max), counts.length - 1) ? max : Math.min(highestValueOf(index), max);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reports the p50, p90, p99, p99.9 and maximum of the values recorded in the wrapped
+ * <tt>Histogram</tt> between subsequent calls to {@link #reset}.  For a prefix of
+ * <tt>soap_ms</tt>, the names are <tt>soap_ms_p50</tt>, <tt>soap_ms_p90</tt>,
+ * <tt>soap_ms_p99</tt>, <tt>soap_ms_p999</tt> and <tt>soap_ms_max</tt>.
+ */
+public class PercentileCalculator
+implements Accumulator {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] SUFFIXES = { "_p50", "_p90", "_p99", "_p999", "_max" };
+
+    private final Histogram mHistogram;
+    private final List<String> mNames;
+    private Histogram.Snapshot mLast;
+
+    public PercentileCalculator(Histogram histogram, String prefix) {
+        mHistogram = histogram;
+        mNames = getNames(prefix);
+        mLast = histogram.getSnapshot();
+    }
+
+    /**
+     * Returns the names of the columns reported for the given prefix.
+     */
+    public static List<String> getNames(String prefix) {
+        List<String> names = new ArrayList<String>(SUFFIXES.length);
+        for (String suffix : SUFFIXES) {
+            names.add(prefix + suffix);
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * Returns the p50, p90, p99, p99.9 and maximum of the given snapshot, in that order.
+     */
+    public static List<Object> getData(Histogram.Snapshot snapshot) {
+        List<Object> data = new ArrayList<Object>(SUFFIXES.length);
+        for (double percentile : PERCENTILES) {
+            data.add(snapshot.getValueAtPercentile(percentile));
+        }
+        data.add(snapshot.getMax());
+        return data;
+    }
+
+    /**
+     * Returns the values recorded since the last call to {@link #reset}.
+     */
+    public synchronized Histogram.Snapshot getSnapshot() {
+        return mHistogram.getSnapshot().since(mLast);
+    }
+
+    ////////////// Accumulator implementation ///////////////////
+
+    @Override
+    public List<Object> getData() {
+        return getData(getSnapshot());
+    }
+
+    @Override
+    public List<String> getNames() {
+        return mNames;
+    }
+
+    @Override
+    public synchronized void reset() {
+        mLast = mHistogram.getSnapshot();
+    }
+}
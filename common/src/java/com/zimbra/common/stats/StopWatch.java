@@ -17,13 +17,22 @@
 
 package com.zimbra.common.stats;
 
+import com.zimbra.common.util.Constants;
+
 /**
  * A <code>Counter</code> that supports <code>start()</code>
  * and <code>stop()</code> methods for conveniently timing events.
+ * Elapsed times are also recorded in a {@link Histogram}, so that
+ * percentiles can be reported alongside the average.
  */
 public class StopWatch
 extends Counter {
 
+    /** Elapsed times above an hour are counted as an hour, except for the maximum. */
+    private static final long HIGHEST_TRACKABLE_MILLIS = Constants.MILLIS_PER_HOUR;
+
+    private final Histogram mHistogram = new Histogram(HIGHEST_TRACKABLE_MILLIS);
+
     public long start() {
         return System.currentTimeMillis();
     }
@@ -33,4 +42,20 @@ extends Counter {
         increment(elapsed);
         return elapsed;
     }
-}
\ No newline at end of file
+
+    @Override
+    public void increment(long value) {
+        super.increment(value);
+        mHistogram.record(value);
+    }
+
+    public Histogram getHistogram() {
+        return mHistogram;
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        mHistogram.reset();
+    }
+}
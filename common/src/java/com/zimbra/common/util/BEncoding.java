@@ -30,8 +30,8 @@ import java.util.TreeMap;
 public final class BEncoding {
 
     public static final class BEncodingException extends Exception {
-        BEncodingException(String msg)   { super(msg); }
-        BEncodingException(Exception e)  { super(e); }
+        public BEncodingException(String msg)   { super(msg); }
+        public BEncodingException(Exception e)  { super(e); }
     }
 
     public static String encode(Map<?, ?> object) {
@@ -45,10 +45,18 @@ public final class BEncoding {
     public static <T> T decode(String data) throws BEncodingException {
         if (data == null)
             return null;
+        return decode(data, 0, data.length());
+    }
+
+    /**
+     * Decodes the single value encoded in {@code data[start, end)}, reading the characters in place.
+     */
+    public static <T> T decode(CharSequence data, int start, int end) throws BEncodingException {
         try {
             Offset offset = new Offset();
-            Object result = decode(data.toCharArray(), offset);
-            if (offset.offset != data.length()) {
+            offset.offset = start;
+            Object result = decode(data, offset);
+            if (offset.offset != end) {
                 throw new BEncodingException("extra characters at end of encoded string");
             }
             @SuppressWarnings("unchecked")
@@ -61,7 +69,78 @@ public final class BEncoding {
         }
     }
 
-    private static StringBuilder encode(StringBuilder sb, Object object) {
+    /**
+     * Returns the offset just past the value that starts at {@code start}, checking that it is well formed the way
+     * {@link #decode(String)} would, but without building it.
+     *
+     * @param end the end of the encoded data; the value must not extend past it
+     */
+    public static int skip(CharSequence data, int start, int end) throws BEncodingException {
+        try {
+            int offset = skipValue(data, start, end);
+            if (offset < 0) {
+                throw new BEncodingException("unexpected end of list or dictionary");
+            }
+            return offset;
+        } catch (BEncodingException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new BEncodingException(e);
+        }
+    }
+
+    /** Returns the offset past the value at {@code offset}, or -1 if it is the terminator of a list or dictionary. */
+    private static int skipValue(CharSequence data, int offset, int end) throws BEncodingException {
+        if (offset >= end) {
+            throw new BEncodingException("truncated encoded string");
+        }
+        switch (data.charAt(offset)) {
+            case 'd':
+                offset++;
+                int key;
+                while ((key = skipValue(data, offset, end)) >= 0) {
+                    int value = skipValue(data, key, end);
+                    if (value < 0) {
+                        throw new BEncodingException("missing dictionary value for key " +
+                                data.subSequence(offset, key));
+                    }
+                    offset = value;
+                }
+                return offset + 1;
+            case 'l':
+                offset++;
+                int next;
+                while ((next = skipValue(data, offset, end)) >= 0) {
+                    offset = next;
+                }
+                return offset + 1;
+            case 'e':
+                return -1;
+            case 'i':
+                int terminator = indexOf(data, 'e', offset + 1, end);
+                parseLong(data, offset + 1, terminator);
+                return terminator + 1;
+            default:
+                int colon = indexOf(data, ':', offset, end);
+                long length = parseLong(data, offset, colon);
+                if (length < 0 || length > end - colon - 1) {
+                    throw new BEncodingException("invalid string length " + length);
+                }
+                return colon + 1 + (int) length;
+        }
+    }
+
+    private static int indexOf(CharSequence data, char c, int offset, int end) throws BEncodingException {
+        for (int i = offset; i < end; i++) {
+            if (data.charAt(i) == c) {
+                return i;
+            }
+        }
+        throw new BEncodingException("truncated encoded string");
+    }
+
+    /** Appends the encoded form of a value. */
+    public static StringBuilder encode(StringBuilder sb, Object object) {
         if (object instanceof Map) {
             SortedMap<?, ?> tree = (object instanceof SortedMap ?
                     (SortedMap<?, ?>) object : new TreeMap<Object, Object>((Map<?, ?>) object));
@@ -95,9 +174,9 @@ public final class BEncoding {
         int offset;
     }
 
-    private static Object decode(char[] buffer, Offset offset) throws BEncodingException {
+    private static Object decode(CharSequence buffer, Offset offset) throws BEncodingException {
         Object key, value;
-        char c = buffer[offset.offset++];
+        char c = buffer.charAt(offset.offset++);
         switch (c) {
             case 'd':
                 Map<String, Object> map = new HashMap<String, Object>();
@@ -127,14 +206,35 @@ public final class BEncoding {
                 long length = readLong(buffer, offset, ':');
                 int start = offset.offset;
                 offset.offset += length;
-                return new String(buffer, start, (int) length);
+                return buffer.subSequence(start, (int) (start + length)).toString();
         }
     }
 
-    private static long readLong(char[] buffer, Offset offset, char terminator) {
+    private static long readLong(CharSequence buffer, Offset offset, char terminator) {
         int start = offset.offset;
-        while (buffer[offset.offset++] != terminator) ;
-        return Long.parseLong(new String(buffer, start, offset.offset - start - 1));
+        while (buffer.charAt(offset.offset++) != terminator) ;
+        return parseLong(buffer, start, offset.offset - 1);
+    }
+
+    /** {@link Long#parseLong(String)} on {@code data[start, end)}, without a copy in the common case. */
+    private static long parseLong(CharSequence data, int start, int end) {
+        int len = end - start;
+        if (len > 0 && len < 19) {
+            boolean negative = data.charAt(start) == '-';
+            long value = 0;
+            int i = negative ? start + 1 : start;
+            for (; i < end; i++) {
+                char c = data.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+            }
+            if (i == end && (!negative || len > 1)) {
+                return negative ? -value : value;
+            }
+        }
+        return Long.parseLong(data.subSequence(start, end).toString());
     }
 
 }
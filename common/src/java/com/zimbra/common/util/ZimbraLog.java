@@ -797,6 +797,26 @@ public final class ZimbraLog {
         ZimbraLog.addToContext(C_OPROTO, protocol);
     }
 
+    /**
+     * Returns a copy of the current thread's logging context, for {@link #setContext} on a thread that does work on
+     * this thread's behalf.
+     */
+    public static Map<String, String> getContext() {
+        Map<String, String> contextMap = sContextMap.get();
+        return contextMap == null ? Collections.<String, String>emptyMap() :
+                new LinkedHashMap<String, String>(contextMap);
+    }
+
+    /**
+     * Replaces the current thread's logging context with one returned by {@link #getContext}.
+     */
+    public static void setContext(Map<String, String> context) {
+        clearContext();
+        for (Map.Entry<String, String> entry : context.entrySet()) {
+            addToContext(entry.getKey(), entry.getValue());
+        }
+    }
+
     /**
      * Clears the current thread's logging context.
      *
@@ -17,8 +17,13 @@
 package com.zimbra.common.util;
 
 import java.io.IOException;
-
-import javax.servlet.ServletOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 import com.zimbra.common.localconfig.LC;
 
@@ -57,57 +62,111 @@ import com.zimbra.common.localconfig.LC;
  * This wrapper implements the append methods by converting data to UTF-8 and 
  * write to the ServletOutputStream.  This way IOexception won't be eaten(problem of doing 1), 
  * and we don't interfere with jetty's process in deciding on the transfer encoding(problem of doing 2).
+ *
+ * Characters are buffered in a fixed array and encoded straight into a reusable byte array, so writing
+ * a response of any size allocates nothing per append or per flush.
  */
 
 public class ZimbraServletOutputStream implements Appendable {
 
     private static final int BUFFER_SIZE = LC.zimbra_servlet_output_stream_buffer_size.intValueWithinRange(512, 20480);
-    ServletOutputStream mOut;
-    
-    // buffer to avoid frequent toString().getBytes()
-    StringBuilder mBuffer = new StringBuilder(BUFFER_SIZE);
-    
-    public ZimbraServletOutputStream(ServletOutputStream out) {
+    private final OutputStream mOut;
+
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mLength;
+    // a full buffer of ASCII encodes in one pass; anything wider is written out in several
+    private final ByteBuffer mBytes = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * @param out usually a {@link javax.servlet.ServletOutputStream}; any stream will do when the caller
+     *            needs the encoded bytes before sending them, e.g. to set a Content-Length
+     */
+    public ZimbraServletOutputStream(OutputStream out) {
         mOut = out;
     }
-    
+
+    @Override
     public Appendable append(CharSequence csq) throws IOException {
-        append(csq, 0, csq.length());
-        return this;
+        if (csq == null) {
+            csq = "null";
+        }
+        return append(csq, 0, csq.length());
     }
 
+    @Override
     public Appendable append(char c) throws IOException {
-        if (mBuffer.length() + 1 > BUFFER_SIZE)
-            flush();
-        mBuffer.append(c);
+        if (mLength == BUFFER_SIZE) {
+            encode(true);
+        }
+        mBuffer[mLength++] = c;
         return this;
     }
 
+    @Override
     public Appendable append(CharSequence csq, int start, int end) throws IOException {
-        int lenToAppend = end - start;
-        
-        if (lenToAppend >= BUFFER_SIZE) {
-            // data to append itself exceeds our threshold, don't let the buffer grow(realloc)
-            flush(); // flush existing data in the buffer
-            write(csq.subSequence(start, end).toString()); // then directly flush this append data out without buffering
-        } else {
-            if (mBuffer.length() + lenToAppend > BUFFER_SIZE)
-                flush();
-            mBuffer.append(csq, start, end);
+        if (csq == null) {
+            csq = "null";
+        }
+        while (start < end) {
+            if (mLength == BUFFER_SIZE) {
+                encode(true);
+            }
+            int len = Math.min(end - start, BUFFER_SIZE - mLength);
+            if (csq instanceof String) {
+                ((String) csq).getChars(start, start + len, mBuffer, mLength);
+            } else if (csq instanceof StringBuilder) {
+                ((StringBuilder) csq).getChars(start, start + len, mBuffer, mLength);
+            } else {
+                for (int i = 0; i < len; i++) {
+                    mBuffer[mLength + i] = csq.charAt(start + i);
+                }
+            }
+            mLength += len;
+            start += len;
         }
-        
         return this;
     }
-    
-    private void write(String str) throws IOException {
-        mOut.write(str.getBytes("utf-8"));
-    }
-    
+
+    /** Encodes any buffered characters and writes them to the underlying stream, without flushing it. */
     public void flush() throws IOException {
-        if (mBuffer.length() > 0) {
-            write(mBuffer.toString());
-            mBuffer.setLength(0);
+        encode(false);
+    }
+
+    /**
+     * @param partial more characters follow, so a trailing high surrogate is held back for the low surrogate
+     *                that completes it rather than being encoded on its own as a malformed character
+     */
+    private void encode(boolean partial) throws IOException {
+        int count = mLength;
+        if (partial && count > 0 && Character.isHighSurrogate(mBuffer[count - 1])) {
+            count--;
         }
+        if (count == 0) {
+            return;
+        }
+        CharBuffer chars = CharBuffer.wrap(mBuffer, 0, count);
+        mEncoder.reset();
+        CoderResult result;
+        do {
+            result = mEncoder.encode(chars, mBytes, true);
+            drain();
+        } while (result.isOverflow());
+        do {
+            result = mEncoder.flush(mBytes);
+            drain();
+        } while (result.isOverflow());
+        if (count < mLength) {
+            mBuffer[0] = mBuffer[count];
+        }
+        mLength -= count;
     }
 
+    private void drain() throws IOException {
+        if (mBytes.position() > 0) {
+            mOut.write(mBytes.array(), 0, mBytes.position());
+            mBytes.clear();
+        }
+    }
 }
@@ -0,0 +1,110 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.zmime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import javax.mail.internet.SharedInputStream;
+
+/**
+ * A {@link SharedInputStream} over a {@link ByteBuffer}.  When the buffer is direct, message
+ * content parsed from this stream stays off the Java heap: substreams handed out by
+ * {@link #newStream} are read-only views of the same buffer, not copies.
+ * <p>
+ * Each stream instance keeps its own position, so streams may be read concurrently as long as
+ * a single instance is not shared between threads.
+ */
+public class ZSharedByteBufferInputStream extends InputStream implements SharedInputStream {
+    private final ByteBuffer buf;
+    private final int soff;
+    private int mark;
+
+    public ZSharedByteBufferInputStream(ByteBuffer buffer) {
+        this(buffer.asReadOnlyBuffer(), buffer.position());
+    }
+
+    private ZSharedByteBufferInputStream(ByteBuffer buf, int soff) {
+        this.buf = buf;
+        this.soff = soff;
+        this.mark = soff;
+    }
+
+    @Override
+    public int read() {
+        return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        } else if (!buf.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, buf.remaining());
+        buf.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        int count = (int) Math.min(n, buf.remaining());
+        buf.position(buf.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = buf.position();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        buf.position(mark);
+    }
+
+    @Override
+    public long getPosition() {
+        return buf.position() - soff;
+    }
+
+    @Override
+    public ZSharedByteBufferInputStream newStream(long start, long end) {
+        int eoff = buf.limit();
+        int newStart = (int) Math.min(eoff, soff + start);
+        int newEnd = end >= 0 ? (int) Math.min(eoff, soff + end) : eoff;
+        ByteBuffer view = buf.duplicate();
+        view.limit(newEnd);
+        view.position(newStart);
+        return new ZSharedByteBufferInputStream(view, newStart);
+    }
+}
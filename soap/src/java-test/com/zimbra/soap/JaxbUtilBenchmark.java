@@ -0,0 +1,112 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap;
+
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import org.dom4j.io.DocumentResult;
+
+import com.google.common.collect.Lists;
+import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.Element.XMLElement;
+import com.zimbra.soap.account.message.AuthRequest;
+import com.zimbra.soap.account.message.ModifyPrefsRequest;
+import com.zimbra.soap.account.type.Pref;
+import com.zimbra.soap.admin.message.CreateAccountRequest;
+import com.zimbra.soap.admin.type.Attr;
+import com.zimbra.soap.mail.message.SearchConvRequest;
+import com.zimbra.soap.type.AccountSelector;
+
+/**
+ * Times {@link JaxbUtil#jaxbToElement} and {@link JaxbUtil#elementToJaxb(Element, Class)} on a few of the most
+ * common admin and account requests, against the way they used to work: a {@link JAXBContext} created for the
+ * class on every call, then a marshaller from it, then a dom4j document converted to an {@link Element}.
+ * <p>
+ * Usage: <tt>JaxbUtilBenchmark [iterations]</tt>.
+ */
+public class JaxbUtilBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length == 0 ? 20000 : Integer.parseInt(args[0]);
+
+        AuthRequest auth = new AuthRequest(AccountSelector.fromName("user1@example.com"), "secret");
+        auth.setPersistAuthTokenCookie(true);
+        ModifyPrefsRequest prefs = new ModifyPrefsRequest();
+        List<Pref> prefList = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            prefList.add(new Pref("zimbraPref" + i, "value " + i));
+        }
+        prefs.setPrefs(prefList);
+        List<Attr> attrs = Lists.newArrayList();
+        for (int i = 0; i < 30; i++) {
+            attrs.add(new Attr("zimbraAttr" + i, "value " + i));
+        }
+        CreateAccountRequest create = new CreateAccountRequest("user2@example.com", "secret", attrs);
+        SearchConvRequest searchConv = new SearchConvRequest("123");
+
+        for (Object jaxb : new Object[] {auth, prefs, create, searchConv}) {
+            String name = jaxb.getClass().getSimpleName();
+            Element elt = JaxbUtil.jaxbToElement(jaxb, XMLElement.mFactory, true, false);
+            // the legacy path creates a JAXBContext per call, which is too slow for the full count
+            int legacyIterations = Math.max(1, iterations / 100);
+            for (int pass = 0; pass < 2; pass++) { // the first pass warms up
+                long legacy = time(legacyIterations, () -> legacyJaxbToElement(jaxb));
+                long dom4j = time(iterations, () -> JaxbUtil.marshalUsingDom4j(JaxbUtil.getPool(jaxb.getClass()),
+                        jaxb, XMLElement.mFactory, true));
+                long direct = time(iterations, () -> JaxbUtil.jaxbToElement(jaxb, XMLElement.mFactory, true, false));
+                long legacyParse = time(legacyIterations, () -> legacyElementToJaxb(elt, jaxb.getClass()));
+                long parse = time(iterations, () -> JaxbUtil.elementToJaxb(elt, jaxb.getClass()));
+                if (pass == 1) {
+                    System.out.printf("%-22s toElement: per-call context %8.1fus  pooled+dom4j %6.1fus" +
+                            "  pooled+direct %6.1fus  | toJaxb: per-call context %8.1fus  pooled %6.1fus%n", name,
+                            legacy / 1000.0 / legacyIterations, dom4j / 1000.0 / iterations,
+                            direct / 1000.0 / iterations, legacyParse / 1000.0 / legacyIterations,
+                            parse / 1000.0 / iterations);
+                }
+            }
+        }
+    }
+
+    private interface Op {
+        void run() throws Exception;
+    }
+
+    private static long time(int iterations, Op op) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static Element legacyJaxbToElement(Object jaxb) throws Exception {
+        Marshaller marshaller = JAXBContext.newInstance(jaxb.getClass()).createMarshaller();
+        DocumentResult dr = new DocumentResult();
+        marshaller.marshal(jaxb, dr);
+        return Element.convertDOM(dr.getDocument().getRootElement(), XMLElement.mFactory);
+    }
+
+    private static Object legacyElementToJaxb(Element elt, Class<?> klass) throws Exception {
+        Unmarshaller unmarshaller = JAXBContext.newInstance(klass).createUnmarshaller();
+        return ((JAXBElement<?>) unmarshaller.unmarshal(elt.toW3cDom().getDocumentElement(), klass)).getValue();
+    }
+}
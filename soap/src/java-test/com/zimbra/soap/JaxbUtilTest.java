@@ -0,0 +1,110 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap;
+
+import java.util.List;
+
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.Element.XMLElement;
+import com.zimbra.soap.account.message.AuthRequest;
+import com.zimbra.soap.account.message.ModifyPrefsRequest;
+import com.zimbra.soap.account.type.Pref;
+import com.zimbra.soap.jaxb.MixedTester;
+import com.zimbra.soap.jaxb.NamespaceDeltaElem;
+import com.zimbra.soap.jaxb.StringAttrStringElem;
+import com.zimbra.soap.jaxb.StringAttribIntValue;
+import com.zimbra.soap.type.AccountSelector;
+
+/**
+ * Unit test for {@link JaxbUtil}.
+ */
+public class JaxbUtilTest {
+
+    private static void assertSameAsDom4j(Object jaxb, boolean removePrefixes) throws Exception {
+        JaxbPool pool = JaxbUtil.getPool(jaxb.getClass());
+        Element expected = JaxbUtil.marshalUsingDom4j(pool, jaxb, XMLElement.mFactory, removePrefixes);
+        Element actual = JaxbUtil.jaxbToElement(jaxb, XMLElement.mFactory, removePrefixes, false);
+        Assert.assertEquals(expected.toString(), actual.toString());
+        Assert.assertEquals(expected.getQName(), actual.getQName());
+    }
+
+    @Test
+    public void direct() throws Exception {
+        AuthRequest auth = new AuthRequest(AccountSelector.fromName("user1@example.com"), "secret");
+        auth.setPersistAuthTokenCookie(true);
+        assertSameAsDom4j(auth, true);
+        assertSameAsDom4j(auth, false);
+
+        ModifyPrefsRequest prefs = new ModifyPrefsRequest();
+        prefs.setPrefs(Lists.newArrayList(new Pref("zimbraPrefSkin", " serenity & <co> "),
+                new Pref("zimbraPrefLocale", "")));
+        assertSameAsDom4j(prefs, true);
+
+        StringAttrStringElem sase = new StringAttrStringElem();
+        sase.setAttr1("attr \"1\"");
+        sase.setElem1("elem \u00e9");
+        NamespaceDeltaElem delta = new NamespaceDeltaElem();
+        delta.setSase(sase);
+        assertSameAsDom4j(delta, true);
+        assertSameAsDom4j(delta, false);
+    }
+
+    @Test
+    public void mixedContentFallsBack() throws Exception {
+        MixedTester mixed = new MixedTester();
+        List<Object> elems = Lists.newArrayList();
+        elems.add("text before ");
+        elems.add(new StringAttribIntValue("str", 3));
+        elems.add(" and after");
+        mixed.setElems(elems);
+        assertSameAsDom4j(mixed, true);
+        Element elt = JaxbUtil.jaxbToElement(mixed, XMLElement.mFactory, true, false);
+        Assert.assertFalse("flattened to text", elt.hasChildren());
+    }
+
+    @Test
+    public void namedElement() throws Exception {
+        Pref pref = new Pref("zimbraPrefSkin", "harmony");
+        Element expected = JaxbUtil.marshalUsingDom4j(JaxbUtil.getPool(Pref.class),
+                new JAXBElement<Pref>(new QName("urn:zimbraAccount", "pref"), Pref.class, pref),
+                XMLElement.mFactory, false);
+        Element actual = JaxbUtil.jaxbToNamedElement("pref", "urn:zimbraAccount", pref, XMLElement.mFactory);
+        Assert.assertEquals(expected.toString(), actual.toString());
+        Assert.assertEquals("harmony", actual.getText());
+    }
+
+    @Test
+    public void pool() throws Exception {
+        JaxbPool pool = JaxbUtil.getPool(AuthRequest.class);
+        Assert.assertSame("one context per class", pool, JaxbUtil.getPool(AuthRequest.class));
+        Marshaller first = pool.borrowMarshaller();
+        Marshaller second = pool.borrowMarshaller();
+        Assert.assertNotSame(first, second);
+        pool.release(first);
+        Assert.assertSame("idle marshaller reused", first, pool.borrowMarshaller());
+        pool.release(first);
+        pool.release(second);
+    }
+}
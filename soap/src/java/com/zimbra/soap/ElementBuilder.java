@@ -0,0 +1,137 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.dom4j.Namespace;
+import org.dom4j.QName;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.zimbra.common.soap.Element;
+
+/**
+ * Builds an {@link Element} straight from the SAX events of a JAXB marshaller, without the intermediate dom4j
+ * document.  The result is the same as {@link Element#convertDOM(org.dom4j.Element, Element.ElementFactory)}
+ * would produce from that document.
+ * <p>
+ * Content that {@code convertDOM} flattens to text - XHTML, or an element holding both text and child elements -
+ * is not handled here.  The builder stops at the first such element and {@link #isUnsupported()} returns
+ * {@code true}; the caller should then fall back to the dom4j conversion.
+ */
+final class ElementBuilder extends DefaultHandler {
+
+    private final Element.ElementFactory factory;
+    private final boolean removePrefixes;
+    private final List<Element> stack = new ArrayList<Element>();
+    private final List<StringBuilder> text = new ArrayList<StringBuilder>();
+    private int depth;
+    private Element root;
+    private boolean unsupported;
+
+    /**
+     * @param removePrefixes put every element in its namespace's default prefix, as
+     *                       {@code JaxbUtil.removeNamespacePrefixes} does
+     */
+    ElementBuilder(Element.ElementFactory factory, boolean removePrefixes) {
+        this.factory = factory;
+        this.removePrefixes = removePrefixes;
+    }
+
+    Element getRoot() {
+        return root;
+    }
+
+    boolean isUnsupported() {
+        return unsupported;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attrs) throws SAXException {
+        if (Element.XHTML_NS_URI.equalsIgnoreCase(uri)) {
+            unsupported();
+        }
+        Namespace ns;
+        int colon = qName.indexOf(':');
+        if (removePrefixes || colon < 0) {
+            ns = Namespace.get(uri);
+        } else {
+            ns = Namespace.get(qName.substring(0, colon), uri);
+        }
+        Element elt = factory.createElement(QName.get(localName, ns));
+        for (int i = 0, size = attrs.getLength(); i < size; i++) {
+            String name = attrs.getQName(i);
+            if (name == null || name.isEmpty()) {
+                name = attrs.getLocalName(i);
+            }
+            if (!name.startsWith("xmlns")) {
+                elt.addAttribute(name, attrs.getValue(i));
+            }
+        }
+        if (depth == 0) {
+            root = elt;
+        } else {
+            stack.get(depth - 1).addNonUniqueElement(elt);
+        }
+        if (depth == stack.size()) {
+            stack.add(elt);
+            text.add(new StringBuilder());
+        } else {
+            stack.set(depth, elt);
+            text.get(depth).setLength(0);
+        }
+        depth++;
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (depth > 0) {
+            text.get(depth - 1).append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        depth--;
+        Element elt = stack.get(depth);
+        StringBuilder content = text.get(depth);
+        if (!isBlank(content)) {
+            if (elt.hasChildren()) {
+                unsupported();
+            }
+            elt.setText(content.toString());
+        }
+        stack.set(depth, null);
+    }
+
+    private void unsupported() throws SAXException {
+        unsupported = true;
+        throw new SAXException("content must be flattened to text");
+    }
+
+    private static boolean isBlank(CharSequence content) {
+        for (int i = 0, len = content.length(); i < len; i++) {
+            if (content.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
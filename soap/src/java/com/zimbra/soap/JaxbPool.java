@@ -0,0 +1,96 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Marshallers and unmarshallers for one {@link JAXBContext}.  They are costly to create and not thread safe,
+ * so {@link JaxbUtil} borrows one for the length of a call and gives it back once the call has succeeded.
+ * Nothing that borrows from the pool may change a marshaller's properties, listener or schema.
+ */
+final class JaxbPool {
+
+    /** Idle instances kept of each kind; more are created when needed, and dropped when given back. */
+    private static final int MAX_IDLE = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    private final JAXBContext context;
+    private final Queue<Marshaller> marshallers = new ConcurrentLinkedQueue<Marshaller>();
+    private final Queue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<Unmarshaller>();
+    private final AtomicInteger idleMarshallers = new AtomicInteger();
+    private final AtomicInteger idleUnmarshallers = new AtomicInteger();
+
+    JaxbPool(JAXBContext context) {
+        this.context = context;
+    }
+
+    JAXBContext getContext() {
+        return context;
+    }
+
+    Marshaller borrowMarshaller() throws JAXBException {
+        Marshaller marshaller = marshallers.poll();
+        if (marshaller == null) {
+            return context.createMarshaller();
+        }
+        idleMarshallers.decrementAndGet();
+        return marshaller;
+    }
+
+    void release(Marshaller marshaller) {
+        if (idleMarshallers.incrementAndGet() <= MAX_IDLE) {
+            marshallers.offer(marshaller);
+        } else {
+            idleMarshallers.decrementAndGet();
+        }
+    }
+
+    Unmarshaller borrowUnmarshaller() throws JAXBException {
+        Unmarshaller unmarshaller = unmarshallers.poll();
+        if (unmarshaller == null) {
+            return context.createUnmarshaller();
+        }
+        idleUnmarshallers.decrementAndGet();
+        return unmarshaller;
+    }
+
+    void release(Unmarshaller unmarshaller) {
+        if (idleUnmarshallers.incrementAndGet() <= MAX_IDLE) {
+            unmarshallers.offer(unmarshaller);
+        } else {
+            idleUnmarshallers.decrementAndGet();
+        }
+    }
+
+    /** Creates idle instances up to {@code count} of each kind, so that the first requests don't pay for them. */
+    void fill(int count) throws JAXBException {
+        count = Math.min(count, MAX_IDLE);
+        while (idleMarshallers.get() < count) {
+            release(context.createMarshaller());
+        }
+        while (idleUnmarshallers.get() < count) {
+            release(context.createUnmarshaller());
+        }
+    }
+}
@@ -21,7 +21,8 @@ import java.io.ByteArrayInputStream;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -44,7 +45,7 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mailbox.BaseItemInfo;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.AccountConstants;
@@ -74,7 +75,8 @@ public final class JaxbUtil {
     private static final String MAIL_JAXB_PACKAGE = "com.zimbra.soap.mail.message";
     private static final String ADMIN_EXT_JAXB_PACKAGE = "com.zimbra.soap.adminext.message";
     private static JAXBContext JAXB_CONTEXT;
-    private static Map <Class<?>,JAXBContext> classJaxbContexts;
+    private static JaxbPool CONTEXT_POOL;
+    private static final ConcurrentMap<Class<?>, JaxbPool> CLASS_POOLS = new ConcurrentHashMap<Class<?>, JaxbPool>();
 
     static {
         MESSAGE_CLASSES = new Class<?>[] {
@@ -1126,6 +1128,7 @@ public final class JaxbUtil {
 
         try {
             JAXB_CONTEXT = JAXBContext.newInstance(MESSAGE_CLASSES);
+            CONTEXT_POOL = new JaxbPool(JAXB_CONTEXT);
         } catch (JAXBException e) {
             throw new RuntimeException("Unable to initialize JAXB", e);
         }
@@ -1134,6 +1137,34 @@ public final class JaxbUtil {
     private JaxbUtil() {
     }
 
+    /**
+     * Fills the marshaller pools and marshals an empty instance of every class in {@code MESSAGE_CLASSES}, so
+     * that the JAXB runtime's lazily built per-class state is in place before the first real request.
+     */
+    public static void warmUp() {
+        long start = System.currentTimeMillis();
+        try {
+            getContextPool().fill(Runtime.getRuntime().availableProcessors());
+        } catch (JAXBException e) {
+            LOG.warn("unable to create JAXB marshallers", e);
+            return;
+        }
+        int warmed = 0;
+        for (Class<?> klass : MESSAGE_CLASSES) {
+            try {
+                java.lang.reflect.Constructor<?> ctor = klass.getDeclaredConstructor();
+                ctor.setAccessible(true);
+                jaxbToElement(ctor.newInstance(), XMLElement.mFactory);
+                warmed++;
+            } catch (Exception e) {
+                // some classes can't be marshaled without their required content; they warm up on first use
+                LOG.debug("JAXB warm up skipped %s", klass.getName(), e);
+            }
+        }
+        LOG.info("JAXB warm up marshaled %d of %d message classes in %dms", warmed, MESSAGE_CLASSES.length,
+                System.currentTimeMillis() - start);
+    }
+
     public static ImmutableList<Class<?>> getJaxbRequestAndResponseClasses() {
         return ImmutableList.<Class<?>>builder().add(MESSAGE_CLASSES).build();
     }
@@ -1171,27 +1202,55 @@ public final class JaxbUtil {
             return JacksonUtil.jaxbToJSONElement(o);
         }
         try {
-            Marshaller marshaller;
-            if (useContextMarshaller) {
-                marshaller = getContext().createMarshaller();
-            } else {
-                marshaller = createMarshaller(o.getClass());
+            JaxbPool pool = useContextMarshaller ? getContextPool() : getPool(o.getClass());
+            Element elt = null;
+            if (LC.soap_jaxb_direct_to_element.booleanValue()) {
+                elt = marshalDirect(pool, o, factory, removePrefixes);
             }
-            // marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            DocumentResult dr = new DocumentResult();
-            marshaller.marshal(o, dr);
-            Document theDoc = dr.getDocument();
-            org.dom4j.Element rootElem = theDoc.getRootElement();
-            if (removePrefixes) {
-                    JaxbUtil.removeNamespacePrefixes(rootElem);
-            }
-            return Element.convertDOM(rootElem, factory);
+            return elt != null ? elt : marshalUsingDom4j(pool, o, factory, removePrefixes);
         } catch (Exception e) {
             throw ServiceException.FAILURE("Unable to convert " +
                     o.getClass().getName() + " to Element", e);
         }
     }
 
+    /**
+     * Builds the {@link Element} from the marshaller's SAX events.  Returns {@code null} if the content needs
+     * flattening to text, which only the dom4j based conversion does.
+     */
+    private static Element marshalDirect(JaxbPool pool, Object o, Element.ElementFactory factory,
+            boolean removePrefixes) throws JAXBException {
+        ElementBuilder builder = new ElementBuilder(factory, removePrefixes);
+        Marshaller marshaller = pool.borrowMarshaller();
+        try {
+            marshaller.marshal(o, builder);
+        } catch (JAXBException e) {
+            if (builder.isUnsupported()) {
+                pool.release(marshaller);
+                return null;
+            }
+            throw e;
+        }
+        pool.release(marshaller);
+        return builder.getRoot();
+    }
+
+    /** Converts {@code o} by way of a dom4j document. */
+    static Element marshalUsingDom4j(JaxbPool pool, Object o, Element.ElementFactory factory,
+            boolean removePrefixes) throws JAXBException {
+        Marshaller marshaller = pool.borrowMarshaller();
+        // marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        DocumentResult dr = new DocumentResult();
+        marshaller.marshal(o, dr);
+        pool.release(marshaller);
+        Document theDoc = dr.getDocument();
+        org.dom4j.Element rootElem = theDoc.getRootElement();
+        if (removePrefixes) {
+                JaxbUtil.removeNamespacePrefixes(rootElem);
+        }
+        return Element.convertDOM(rootElem, factory);
+    }
+
     /**
      * @param o - associated JAXB class must have an @XmlRootElement annotation
      * @param factory - e.g. XmlElement.mFactory or JSONElement.mFactory
@@ -1229,16 +1288,21 @@ public final class JaxbUtil {
 
     private static JAXBContext getJaxbContext(Class<?> klass)
     throws JAXBException {
-        JAXBContext jaxb = null;
-        if (JaxbUtil.classJaxbContexts == null) {
-            JaxbUtil.classJaxbContexts = Maps.newHashMap();
-        }
-        if (JaxbUtil.classJaxbContexts.containsKey(klass)) {
-            jaxb = JaxbUtil.classJaxbContexts.get(klass);
-        } else {
-            jaxb = JAXBContext.newInstance(klass);
+        return getPool(klass).getContext();
+    }
+
+    /** Returns the pool for a {@link JAXBContext} of {@code klass} alone, creating the context on first use. */
+    static JaxbPool getPool(Class<?> klass) throws JAXBException {
+        JaxbPool pool = CLASS_POOLS.get(klass);
+        if (pool == null) {
+            // creating a context is slow, but two threads occasionally racing to create the same one is harmless
+            JaxbPool created = new JaxbPool(JAXBContext.newInstance(klass));
+            pool = CLASS_POOLS.putIfAbsent(klass, created);
+            if (pool == null) {
+                pool = created;
+            }
         }
-        return jaxb;
+        return pool;
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
@@ -1248,14 +1312,13 @@ public final class JaxbUtil {
             return JacksonUtil.jaxbToJSONElement(o, org.dom4j.QName.get(name, namespace));
         }
         try {
-            Marshaller marshaller = createMarshaller(o.getClass());
-            // marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-            DocumentResult dr = new DocumentResult();
-            marshaller.marshal(new JAXBElement(new QName(namespace, name),
-                    o.getClass(), o) , dr);
-            Document theDoc = dr.getDocument();
-            org.dom4j.Element rootElem = theDoc.getRootElement();
-            return Element.convertDOM(rootElem, factory);
+            JaxbPool pool = getPool(o.getClass());
+            JAXBElement jaxbElem = new JAXBElement(new QName(namespace, name), o.getClass(), o);
+            Element elt = null;
+            if (LC.soap_jaxb_direct_to_element.booleanValue()) {
+                elt = marshalDirect(pool, jaxbElem, factory, false);
+            }
+            return elt != null ? elt : marshalUsingDom4j(pool, jaxbElem, factory, false);
         } catch (Exception e) {
             throw ServiceException.FAILURE("Unable to convert " +
                     o.getClass().getName() + " to Element", e);
@@ -1527,17 +1590,19 @@ public final class JaxbUtil {
         }
         try {
             // LOG.warn("Dom to Xml:\n" + W3cDomUtil.asXML(document);
-            Unmarshaller unmarshaller;
+            JaxbPool pool = jaxbClassInContext ? getContextPool() : getPool(klass);
+            Unmarshaller unmarshaller = pool.borrowUnmarshaller();
+            T result;
             if (jaxbClassInContext) {
-                unmarshaller = getContext().createUnmarshaller();
-                return (T) unmarshaller.unmarshal(doc);
+                result = (T) unmarshaller.unmarshal(doc);
             } else {
                 org.w3c.dom.Element docElem = doc.getDocumentElement();
-                unmarshaller = createUnmarshaller(klass);
                 JAXBElement<T> ret =
                     (JAXBElement<T>) unmarshaller.unmarshal(docElem, klass);
-                return ret.getValue();
+                result = ret.getValue();
             }
+            pool.release(unmarshaller);
+            return result;
         } catch (JAXBException ex) {
             throw ServiceException.FAILURE("Unable to unmarshal response for " +
                     doc.getDocumentElement().getNodeName(), ex);
@@ -1620,6 +1685,13 @@ public final class JaxbUtil {
         return JAXB_CONTEXT;
     }
 
+    static JaxbPool getContextPool() {
+        if (CONTEXT_POOL == null) {
+            throw new IllegalStateException("JAXB has not been initialized");
+        }
+        return CONTEXT_POOL;
+    }
+
     public static CreateItemNotification getCreatedItemSOAP(BaseItemInfo mod) throws ServiceException {
         String tags = mod.getTags() == null ? null : Joiner.on(",").join(mod.getTags());
         ImapMessageInfo messageInfo = new ImapMessageInfo(mod.getIdInMailbox(), mod.getImapUid(), mod.getMailItemType().toString(), mod.getFlagBitmask(), tags);
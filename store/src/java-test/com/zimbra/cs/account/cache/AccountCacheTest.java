@@ -0,0 +1,145 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.NamedEntry;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.Server;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link AccountCache}, {@link NamedEntryCache} and {@link EntryCacheRefresher}.
+ */
+public final class AccountCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initProvisioning();
+    }
+
+    private static Account account(String name, String... aliases) {
+        String id = UUID.randomUUID().toString();
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, id);
+        attrs.put(Provisioning.A_zimbraMailAlias, aliases);
+        return new Account(name, id, attrs, null, Provisioning.getInstance());
+    }
+
+    @Test
+    public void lookups() {
+        AccountCache cache = new AccountCache(100, 0);
+        Account acct = account("user1@example.com", "alias1@example.com");
+        cache.put(acct);
+        Assert.assertSame(acct, cache.getById(acct.getId()));
+        Assert.assertSame(acct, cache.getByName("User1@Example.com"));
+        Assert.assertSame(acct, cache.getByName("alias1@example.com"));
+        Assert.assertNull(cache.getByName("other@example.com"));
+        Assert.assertEquals(1, cache.getSize());
+
+        cache.remove(acct);
+        Assert.assertNull(cache.getById(acct.getId()));
+        Assert.assertNull(cache.getByName("alias1@example.com"));
+    }
+
+    @Test
+    public void expiry() throws Exception {
+        AccountCache cache = new AccountCache(100, 50);
+        Account acct = account("user2@example.com");
+        cache.put(acct);
+        Assert.assertSame(acct, cache.getByName("user2@example.com"));
+        Thread.sleep(100);
+        Assert.assertNull(cache.getByName("user2@example.com"));
+        Assert.assertNull("all keys of the expired entry are dropped", cache.getById(acct.getId()));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void expiredEntryDoesNotDropNewerOne() throws Exception {
+        AccountCache cache = new AccountCache(100, 50);
+        Account acct = account("user3@example.com");
+        cache.put(acct);
+        Thread.sleep(100);
+        Account reloaded = account("user3@example.com");
+        cache.put(reloaded);
+        Assert.assertSame(reloaded, cache.getByName("user3@example.com"));
+        Assert.assertNull(cache.getById(acct.getId()));
+        Assert.assertSame(reloaded, cache.getById(reloaded.getId()));
+    }
+
+    @Test
+    public void refreshAhead() throws Exception {
+        EntryCacheRefresher refresher = new EntryCacheRefresher(1, 50);
+        final AccountCache cache = new AccountCache(100, 400, refresher);
+        final AtomicInteger reloads = new AtomicInteger();
+        final CountDownLatch reloaded = new CountDownLatch(1);
+        refresher.setLoader(new EntryCacheRefresher.Loader() {
+            @Override
+            public void reload(NamedEntry entry) throws ServiceException {
+                reloads.incrementAndGet();
+                cache.replace((Account) entry);
+                reloaded.countDown();
+            }
+        });
+        Account acct = account("user4@example.com");
+        cache.put(acct);
+        Assert.assertSame(acct, cache.getById(acct.getId()));
+        Assert.assertEquals("not due yet", 0, reloads.get());
+
+        Thread.sleep(250);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertSame("the cached copy is returned while it is refreshed", acct,
+                    cache.getById(acct.getId()));
+        }
+        Assert.assertTrue(reloaded.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals("refreshed once", 1, reloads.get());
+
+        Thread.sleep(250); // past the original lifetime
+        Assert.assertSame(acct, cache.getById(acct.getId()));
+    }
+
+    @Test
+    public void namedEntries() throws Exception {
+        NamedEntryCache<Server> cache = new NamedEntryCache<Server>(2, 50);
+        Server[] servers = new Server[3];
+        for (int i = 0; i < servers.length; i++) {
+            String id = UUID.randomUUID().toString();
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put(Provisioning.A_zimbraId, id);
+            servers[i] = new Server("server" + i + ".example.com", id, attrs, null, Provisioning.getInstance());
+            cache.put(servers[i]);
+        }
+        Assert.assertEquals("bounded", 2, cache.getSize());
+        Assert.assertSame(servers[2], cache.getByName("SERVER2.example.com"));
+        Assert.assertSame(servers[2], cache.getById(servers[2].getId()));
+        Thread.sleep(100);
+        Assert.assertNull(cache.getById(servers[2].getId()));
+        Assert.assertNull(cache.getByName("server2.example.com"));
+    }
+}
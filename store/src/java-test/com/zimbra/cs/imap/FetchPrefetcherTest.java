@@ -0,0 +1,127 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.mailbox.ZimbraMailItem;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTest;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mailbox.MessageCache;
+import com.zimbra.cs.mailbox.OperationContext;
+
+/**
+ * Unit test for {@link FetchPrefetcher}.
+ */
+public final class FetchPrefetcherTest {
+
+    private Account acct;
+    private Mailbox mbox;
+    private List<ImapMessage> messages;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, "12aa345b-2b47-44e6-8cb8-7fdfa18c1a9f");
+        acct = Provisioning.getInstance().createAccount("prefetch@zimbra.com", "secret", attrs);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        messages = new ArrayList<ImapMessage>();
+        for (int i = 0; i < 150; i++) {
+            Message msg = mbox.addMessage(null, MailboxTestUtil.generateMessage("message " + i),
+                    MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+            messages.add(new ImapMessage(msg));
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private FetchPrefetcher prefetcher(FetchPrefetcher.Content content) {
+        return new FetchPrefetcher(mbox, new OperationContext(acct), acct.getId(), messages, content);
+    }
+
+    @Test
+    public void inOrder() throws Exception {
+        FetchPrefetcher prefetcher = prefetcher(FetchPrefetcher.Content.NONE);
+        for (ImapMessage i4msg : messages) {
+            ZimbraMailItem item = prefetcher.get(i4msg);
+            Assert.assertNotNull(item);
+            Assert.assertEquals(i4msg.msgId, item.getIdInMailbox());
+        }
+        prefetcher.close();
+    }
+
+    @Test
+    public void deletedItem() throws Exception {
+        ImapMessage deleted = messages.get(3);
+        mbox.delete(null, deleted.msgId, MailItem.Type.MESSAGE);
+
+        FetchPrefetcher prefetcher = prefetcher(FetchPrefetcher.Content.NONE);
+        int found = 0;
+        for (ImapMessage i4msg : messages) {
+            ZimbraMailItem item = prefetcher.get(i4msg);
+            if (i4msg == deleted) {
+                Assert.assertNull(item);
+            } else if (item != null) {
+                Assert.assertEquals(i4msg.msgId, item.getIdInMailbox());
+                found++;
+            }
+        }
+        // only the chunk with the deleted item is left for the caller to look up
+        Assert.assertTrue(found > messages.size() / 2);
+        prefetcher.close();
+    }
+
+    @Test
+    public void content() throws Exception {
+        String digest = mbox.getMessageById(null, messages.get(messages.size() - 1).msgId).getDigest();
+        MessageCache.purge(digest);
+        Assert.assertFalse(MessageCache.contains(digest));
+
+        FetchPrefetcher prefetcher = prefetcher(FetchPrefetcher.Content.MIME);
+        for (ImapMessage i4msg : messages) {
+            prefetcher.get(i4msg);
+        }
+        for (int i = 0; i < 100 && !MessageCache.contains(digest); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(MessageCache.contains(digest));
+        prefetcher.close();
+    }
+}
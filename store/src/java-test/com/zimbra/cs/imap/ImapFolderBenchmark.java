@@ -0,0 +1,146 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Measures the heap held by an {@link ImapFolder} of 100k, 500k and 1M messages, and the size and
+ * speed of its serialized form as stored by the IMAP caches.  For comparison, the same messages
+ * are also serialized as a list of {@link ImapMessage} objects, the way folders used to be.
+ * <p>
+ * The {@link ImapFolderCodec} is also timed on its own, without the Java serialization wrapper,
+ * along with the delta the disk cache writes after the flags of 1% of the messages change.
+ * <p>
+ * One message in ten has been moved into the folder, so that its UID differs from its item id,
+ * and one in five carries one of a handful of tags.
+ * <p>
+ * Usage: <tt>ImapFolderBenchmark [messages...]</tt>.  Run with a heap of at least 1GB.
+ */
+public class ImapFolderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length == 0 ? new int[] {100000, 500000, 1000000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        MailboxTestUtil.initServer();
+        Account acct = Provisioning.getInstance().createAccount("test@zimbra.com", "secret",
+                new HashMap<String, Object>());
+        ImapPath path = new ImapPath("INBOX", new ImapCredentials(acct));
+
+        for (int size : sizes) {
+            long before = usedMemory();
+            ImapFolder i4folder = new ImapFolder(path, (byte) 0, null);
+            String[][] tagsets = {{"work"}, {"personal"}, {"work", "urgent"}};
+            for (int i = 1; i <= size; i++) {
+                int id = i % 10 == 0 ? i + size * 2 : i;
+                String[] tags = i % 5 == 0 ? tagsets[i % 3].clone() : null;
+                i4folder.cache(new ImapMessage(id, MailItem.Type.MESSAGE, i,
+                        i % 3 == 0 ? Flag.BITMASK_UNREAD : Flag.BITMASK_REPLIED, tags), false);
+            }
+            i4folder.getById(size * 2 + 10); // build the renumbered index
+            long heap = usedMemory() - before;
+
+            long start = System.nanoTime();
+            byte[] serialized = serialize(i4folder);
+            long writeNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            ImapFolder copy = (ImapFolder) deserialize(serialized);
+            long readNanos = System.nanoTime() - start;
+            if (copy.getSize() != size) {
+                throw new IllegalStateException("lost messages: " + copy.getSize());
+            }
+
+            List<ImapMessage> messages = new ArrayList<ImapMessage>(size);
+            for (int seq = 1; seq <= size; seq++) {
+                messages.add(i4folder.getBySequence(seq));
+            }
+            start = System.nanoTime();
+            byte[] legacy = serialize(messages);
+            long legacyWriteNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            deserialize(legacy);
+            long legacyReadNanos = System.nanoTime() - start;
+
+            System.out.printf("%8d messages: heap %6.1fMB (%3d bytes/msg)  serialized %6.1fMB write %5dms read %5dms" +
+                    "  | per-message objects %6.1fMB write %5dms read %5dms%n", size, mb(heap), heap / size,
+                    mb(serialized.length), writeNanos / 1000000, readNanos / 1000000,
+                    mb(legacy.length), legacyWriteNanos / 1000000, legacyReadNanos / 1000000);
+
+            start = System.nanoTime();
+            ByteBuffer full = ImapFolderCodec.encode(i4folder);
+            long encodeNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            ImapFolderCodec.Snapshot base = ImapFolderCodec.decode(full, null);
+            long decodeNanos = System.nanoTime() - start;
+            for (int seq = 1; seq <= size; seq += 100) {
+                i4folder.getBySequence(seq).flags |= Flag.BITMASK_FLAGGED;
+            }
+            start = System.nanoTime();
+            ByteBuffer delta = ImapFolderCodec.encodeDelta(i4folder, base, "base");
+            long deltaNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            ImapFolderCodec.decode(delta, base).toFolder();
+            long applyNanos = System.nanoTime() - start;
+
+            System.out.printf("%8s           codec encode %5dms decode %5dms  | 1%% delta %8.1fKB encode %5dms apply %5dms%n",
+                    "", encodeNanos / 1000000, decodeNanos / 1000000, delta.remaining() / 1024.0,
+                    deltaNanos / 1000000, applyNanos / 1000000);
+        }
+    }
+
+    private static byte[] serialize(Object obj) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(obj);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
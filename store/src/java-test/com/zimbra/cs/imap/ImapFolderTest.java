@@ -1,5 +1,12 @@
 package com.zimbra.cs.imap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
 
@@ -12,6 +19,8 @@ import org.junit.Test;
 
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.MailItem.Type;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
@@ -61,4 +70,102 @@ public class ImapFolderTest {
         Assert.assertNotNull(i4set);
         Assert.assertEquals(3, i4set.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void renumbered() throws Exception {
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", new ImapCredentials(acct)), (byte) 0, null);
+        i4folder.cache(new ImapMessage(300, Type.MESSAGE, 300, 0, null), false);
+        i4folder.cache(new ImapMessage(100, Type.MESSAGE, 400, 0, null), false);
+        i4folder.cache(new ImapMessage(200, Type.MESSAGE, 500, 0, null), false);
+        i4folder.cache(new ImapMessage(100, Type.MESSAGE, 600, 0, null), false);
+
+        Assert.assertEquals(300, i4folder.getById(300).imapUid);
+        Assert.assertEquals("highest UID wins", 600, i4folder.getById(100).imapUid);
+        Assert.assertEquals(500, i4folder.getById(200).imapUid);
+        Assert.assertNull(i4folder.getById(400));
+
+        i4folder.cache(new ImapMessage(150, Type.MESSAGE, 700, 0, null), false);
+        Assert.assertEquals("added after the index was built", 700, i4folder.getById(150).imapUid);
+        i4folder.markMessageExpunged(i4folder.getById(200));
+        i4folder.collapseExpunged(false);
+        Assert.assertNull(i4folder.getById(200));
+        Assert.assertEquals(4, i4folder.getById(150).sequence);
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", new ImapCredentials(acct)), (byte) 0, null);
+        String[] tags = new String[] {"red", "blue"};
+        i4folder.cache(new ImapMessage(5, Type.MESSAGE, 5, Flag.BITMASK_UNREAD, tags), true);
+        i4folder.cache(new ImapMessage(3, Type.CONTACT, 8, Flag.BITMASK_FLAGGED, null), false);
+        i4folder.cache(new ImapMessage(9, Type.MESSAGE, 9, 0, new String[] {"red", "blue"}), false);
+        i4folder.cache(new ImapMessage(20, Type.MESSAGE, 10, 0, new String[] {"green"}), false);
+        Assert.assertSame("tags interned", i4folder.getById(5).tags, i4folder.getById(9).tags);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(i4folder);
+        }
+        ImapFolder copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (ImapFolder) in.readObject();
+        }
+
+        Assert.assertEquals(4, copy.getSize());
+        for (int seq = 1; seq <= 4; seq++) {
+            ImapMessage expected = i4folder.getBySequence(seq);
+            ImapMessage actual = copy.getBySequence(seq);
+            Assert.assertEquals(seq, actual.sequence);
+            Assert.assertEquals(expected.msgId, actual.msgId);
+            Assert.assertEquals(expected.imapUid, actual.imapUid);
+            Assert.assertEquals(expected.flags, actual.flags);
+            Assert.assertEquals(expected.sflags, actual.sflags);
+            Assert.assertTrue(Arrays.equals(expected.tags, actual.tags));
+        }
+        Assert.assertEquals(MailItem.Type.CONTACT, copy.getById(3).getType());
+        Assert.assertEquals(10, copy.getById(20).imapUid);
+        Assert.assertSame(copy.getById(5).tags, copy.getById(9).tags);
+    }
+
+    @Test
+    public void codecDelta() throws Exception {
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", new ImapCredentials(acct)), (byte) 0, null);
+        for (int id = 1; id <= 40; id++) {
+            i4folder.cache(new ImapMessage(id, Type.MESSAGE, id, 0, id % 2 == 0 ? new String[] {"red"} : null), false);
+        }
+        ImapFolderCodec.Snapshot base = ImapFolderCodec.decode(ImapFolderCodec.encode(i4folder), null);
+        Assert.assertEquals(40, base.messages.size);
+
+        i4folder.getById(7).flags = Flag.BITMASK_FLAGGED;
+        i4folder.markMessageExpunged(i4folder.getById(12));
+        i4folder.collapseExpunged(false);
+        i4folder.cache(new ImapMessage(41, Type.MESSAGE, 41, Flag.BITMASK_UNREAD, new String[] {"blue"}), false);
+
+        ByteBuffer delta = ImapFolderCodec.encodeDelta(i4folder, base, "base");
+        Assert.assertNotNull(delta);
+        Assert.assertEquals("base", ImapFolderCodec.getBaseKey(delta));
+        Assert.assertTrue(delta.remaining() < ImapFolderCodec.encode(i4folder).remaining());
+
+        ImapFolder copy = ImapFolderCodec.decode(delta, base).toFolder();
+        Assert.assertEquals(i4folder.getSize(), copy.getSize());
+        for (int seq = 1; seq <= copy.getSize(); seq++) {
+            ImapMessage expected = i4folder.getBySequence(seq);
+            ImapMessage actual = copy.getBySequence(seq);
+            Assert.assertEquals(expected.msgId, actual.msgId);
+            Assert.assertEquals(expected.imapUid, actual.imapUid);
+            Assert.assertEquals(expected.flags, actual.flags);
+            Assert.assertTrue(Arrays.equals(expected.tags, actual.tags));
+        }
+        Assert.assertNull(copy.getById(12));
+
+        for (int id = 1; id <= 10; id++) {
+            i4folder.getById(id).flags = Flag.BITMASK_DELETED;
+        }
+        Assert.assertNull("too many changes for a delta", ImapFolderCodec.encodeDelta(i4folder, base, "base"));
+        try {
+            ImapFolderCodec.decode(delta, null);
+            Assert.fail("delta decoded without its base");
+        } catch (IOException expected) {
+        }
+    }
+}
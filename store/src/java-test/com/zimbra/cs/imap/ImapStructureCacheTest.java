@@ -0,0 +1,143 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTest;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Unit test for {@link ImapStructureCache}.
+ */
+public final class ImapStructureCacheTest {
+
+    private static final String MESSAGE =
+            "From: \"Séverine\" <severine@example.com>\r\n" +
+            "To: a@example.com, group: b@example.com, c@example.com;\r\n" +
+            "Subject: =?utf-8?B?w6ljaGFudGlsbG9u?=\r\n" +
+            "Message-ID: <1234@example.com>\r\n" +
+            "Date: Mon, 5 Oct 2026 10:00:00 +0000\r\n" +
+            "MIME-Version: 1.0\r\n" +
+            "Content-Type: multipart/mixed; boundary=\"outer\"\r\n" +
+            "\r\n" +
+            "--outer\r\n" +
+            "Content-Type: text/plain; charset=utf-8\r\n" +
+            "\r\n" +
+            "first line\r\n" +
+            "second line\r\n" +
+            "--outer\r\n" +
+            "Content-Type: application/octet-stream; name=\"a \\\"quoted\\\" name.bin\"\r\n" +
+            "Content-Disposition: attachment; filename=\"a \\\"quoted\\\" name.bin\"\r\n" +
+            "Content-Transfer-Encoding: base64\r\n" +
+            "\r\n" +
+            "AAECAwQF\r\n" +
+            "--outer\r\n" +
+            "Content-Type: message/rfc822\r\n" +
+            "\r\n" +
+            "From: inner@example.com\r\n" +
+            "Subject: inner\r\n" +
+            "\r\n" +
+            "inner body\r\n" +
+            "--outer--\r\n";
+
+    private Mailbox mbox;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, "12aa345b-2b47-44e6-8cb8-7fdfa18c1a9f");
+        Account acct = Provisioning.getInstance().createAccount("structure@zimbra.com", "secret", attrs);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static String serialize(MimeMessage mm, int which) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(out, false, "utf-8");
+        if (which == ImapStructureCache.ENVELOPE) {
+            ImapMessage.serializeEnvelope(ps, mm);
+        } else {
+            ImapMessage.serializeStructure(ps, mm, which == ImapStructureCache.BODYSTRUCTURE);
+        }
+        ps.flush();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String write(byte[] record, int which) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(out, false, "utf-8");
+        ImapStructureCache.write(ps, record, which);
+        ps.flush();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void sameAsSerialized() throws Exception {
+        Message msg = mbox.addMessage(null, new ParsedMessage(MESSAGE.getBytes(StandardCharsets.UTF_8), false),
+                MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        byte[] record = ImapStructureCache.getInstance().get(msg);
+        Assert.assertNotNull(record);
+        MimeMessage mm = ImapMessage.getMimeMessage(msg);
+        for (int which : new int[] { ImapStructureCache.BODY, ImapStructureCache.BODYSTRUCTURE,
+                ImapStructureCache.ENVELOPE }) {
+            Assert.assertEquals(serialize(mm, which), write(record, which));
+        }
+        Assert.assertTrue(write(record, ImapStructureCache.BODYSTRUCTURE).contains("\"MIXED\""));
+    }
+
+    @Test
+    public void sharedByContent() throws Exception {
+        Message first = mbox.addMessage(null, new ParsedMessage(MESSAGE.getBytes(StandardCharsets.UTF_8), false),
+                MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        Message second = mbox.addMessage(null, new ParsedMessage(MESSAGE.getBytes(StandardCharsets.UTF_8), false),
+                MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        Message other = mbox.addMessage(null, MailboxTestUtil.generateMessage("other"),
+                MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        ImapStructureCache cache = ImapStructureCache.getInstance();
+        Assert.assertArrayEquals(cache.get(first), cache.get(second));
+        Assert.assertFalse(write(cache.get(first), ImapStructureCache.ENVELOPE).equals(
+                write(cache.get(other), ImapStructureCache.ENVELOPE)));
+    }
+}
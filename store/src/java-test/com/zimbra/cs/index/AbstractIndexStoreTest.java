@@ -643,7 +643,7 @@ public abstract class AbstractIndexStoreTest {
         searcher.close();
     }
 
-    private Contact createContact(Mailbox mbox, String email)
+    protected Contact createContact(Mailbox mbox, String email)
             throws ServiceException {
         Folder folder = mbox.getFolderById(null, Mailbox.ID_FOLDER_CONTACTS);
         return mbox.createContact(null, new ParsedContact(
@@ -16,6 +16,15 @@
  */
 package com.zimbra.cs.index;
 
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+
 /**
  * Unit test for {@link LuceneIndex}.
  */
@@ -27,4 +36,58 @@ public final class LuceneIndexTest extends AbstractIndexStoreTest {
         // Default for LC.zimbra_class_index_store_factory.value() is USUALLY this
         return "com.zimbra.cs.index.LuceneIndex$Factory";
     }
+
+    @Before
+    public void pauseBackgroundRefresh() {
+        // the tests run the refresh themselves
+        LuceneIndex.setBackgroundRefresh(false);
+    }
+
+    @After
+    public void resumeBackgroundRefresh() {
+        LuceneIndex.setBackgroundRefresh(true);
+    }
+
+    @Test
+    public void backgroundRefresh() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        IndexStore index = mbox.index.getIndexStore();
+        createContact(mbox, "first@zimbra.com");
+        mbox.index.indexDeferredItems();
+        ZimbraIndexSearcher before = index.openSearcher();
+        Assert.assertEquals(1, before.getIndexReader().numDocs());
+
+        createContact(mbox, "second@zimbra.com");
+        mbox.index.indexDeferredItems();
+        Assert.assertEquals("open searcher keeps its view", 1, before.getIndexReader().numDocs());
+        Assert.assertTrue("left stale by the commit", ((LuceneIndex) index).hasStaleSearcher());
+
+        LuceneIndex.refreshStaleSearchers();
+        Assert.assertFalse("reopened by the refresh", ((LuceneIndex) index).hasStaleSearcher());
+        ZimbraIndexSearcher after = index.openSearcher();
+        Assert.assertNotSame(before, after);
+        Assert.assertEquals(2, after.getIndexReader().numDocs());
+        ZimbraIndexSearcher again = index.openSearcher();
+        Assert.assertSame("current searcher stays cached", after, again);
+        again.close();
+        after.close();
+        before.close();
+    }
+
+    @Test
+    public void searchReopensStaleSearcher() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        IndexStore index = mbox.index.getIndexStore();
+        createContact(mbox, "first@zimbra.com");
+        mbox.index.indexDeferredItems();
+        ZimbraIndexSearcher before = index.openSearcher();
+        before.close();
+
+        createContact(mbox, "second@zimbra.com");
+        mbox.index.indexDeferredItems();
+        ZimbraIndexSearcher after = index.openSearcher();
+        Assert.assertNotSame("reopened without waiting for the background refresh", before, after);
+        Assert.assertEquals(2, after.getIndexReader().numDocs());
+        after.close();
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link MessageIdDedupeCache}.
+ */
+public final class MessageIdDedupeCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void mailboxIds() {
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(4);
+        cache.configure(100, 0, false);
+        cache.add("<a@example.com>", 7);
+        cache.add("<a@example.com>", 3);
+        cache.add("<a@example.com>", 5);
+        cache.add("<a@example.com>", 5);
+        Assert.assertTrue(cache.contains("<a@example.com>", 3));
+        Assert.assertTrue(cache.contains("<a@example.com>", 5));
+        Assert.assertTrue(cache.contains("<a@example.com>", 7));
+        Assert.assertFalse(cache.contains("<a@example.com>", 4));
+        Assert.assertFalse(cache.contains("<b@example.com>", 3));
+
+        cache.remove("<a@example.com>", 5);
+        Assert.assertFalse(cache.contains("<a@example.com>", 5));
+        Assert.assertTrue(cache.contains("<a@example.com>", 3));
+        cache.remove("<a@example.com>", 3);
+        cache.remove("<a@example.com>", 7);
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void sizeLimit() {
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(1);
+        cache.configure(3, 0, false);
+        cache.add("<1@example.com>", 1);
+        cache.add("<2@example.com>", 1);
+        cache.add("<3@example.com>", 1);
+        Assert.assertTrue(cache.contains("<1@example.com>", 1)); // now the most recently used
+        cache.add("<4@example.com>", 1);
+        Assert.assertEquals(3, cache.size());
+        Assert.assertTrue(cache.contains("<1@example.com>", 1));
+        Assert.assertFalse("least recently used is dropped", cache.contains("<2@example.com>", 1));
+
+        cache.configure(1, 0, false);
+        Assert.assertEquals(1, cache.size());
+        cache.configure(0, 0, false);
+        cache.add("<5@example.com>", 1);
+        Assert.assertFalse("size 0 disables the cache", cache.contains("<5@example.com>", 1));
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(16);
+        cache.configure(100, 50, false);
+        cache.add("<old@example.com>", 1);
+        Assert.assertTrue(cache.contains("<old@example.com>", 1));
+        Thread.sleep(100);
+        Assert.assertFalse(cache.contains("<old@example.com>", 1));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        final MessageIdDedupeCache cache = new MessageIdDedupeCache(16);
+        cache.configure(100000, 0, false);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int mboxId = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 2000; i++) {
+                        cache.add("<" + i + "@example.com>", mboxId);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(2000, cache.size());
+        for (int i = 0; i < 2000; i++) {
+            for (int t = 0; t < threads.length; t++) {
+                Assert.assertTrue(cache.contains("<" + i + "@example.com>", t));
+            }
+        }
+    }
+
+    @Test
+    public void ephemeral() throws Exception {
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, UUID.randomUUID().toString());
+        Account account = Provisioning.getInstance().createAccount("dedupe@zimbra.com", "secret", attrs);
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(account);
+
+        MessageIdDedupeCache cache = new MessageIdDedupeCache(4);
+        cache.configure(100, 0, true);
+        cache.add("<e@example.com>", mbox);
+
+        // as after a restart, or on another mailstore
+        MessageIdDedupeCache other = new MessageIdDedupeCache(4);
+        other.configure(100, 0, true);
+        Assert.assertTrue(other.contains("<e@example.com>", mbox));
+        Assert.assertTrue("copied into memory", other.contains("<e@example.com>", mbox.getId()));
+
+        cache.remove("<e@example.com>", mbox);
+        MessageIdDedupeCache third = new MessageIdDedupeCache(4);
+        third.configure(100, 0, true);
+        Assert.assertFalse(third.contains("<e@example.com>", mbox));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+
+/**
+ * Unit test for {@link ZimbraLmtpBackend}.
+ */
+public final class ZimbraLmtpBackendTest {
+
+    private static final int ACCOUNTS = 20;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Provisioning prov = Provisioning.getInstance();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            HashMap<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put(Provisioning.A_zimbraId, UUID.randomUUID().toString());
+            prov.createAccount("rcpt" + i + "@zimbra.com", "secret", attrs);
+        }
+    }
+
+    private static LmtpEnvelope envelope(String... recipients) throws Exception {
+        LmtpEnvelope env = new LmtpEnvelope();
+        env.setSender(new LmtpAddress("<sender@example.com>", new String[] { "BODY", "SIZE" }, null));
+        for (String rcpt : recipients) {
+            env.addLocalRecipient(new LmtpAddress("<" + rcpt + ">", null, null));
+        }
+        return env;
+    }
+
+    private static void deliver(LmtpEnvelope env, String subject) throws Exception {
+        byte[] content = ("From: sender@example.com\r\nSubject: " + subject + "\r\nMessage-ID: <" + subject +
+                "@example.com>\r\n\r\nbody of " + subject + "\r\n").getBytes("US-ASCII");
+        LmtpConfig.getInstance().getLmtpBackend().deliver(env, new ByteArrayInputStream(content), content.length);
+    }
+
+    private static List<Integer> inbox(String name) throws Exception {
+        Account account = Provisioning.getInstance().getAccountByName(name);
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(account);
+        return mbox.getItemIds(null, Mailbox.ID_FOLDER_INBOX).getIds(MailItem.Type.MESSAGE);
+    }
+
+    @Test
+    public void manyRecipients() throws Exception {
+        String[] rcpts = new String[ACCOUNTS + 2];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            rcpts[i] = "rcpt" + i + "@zimbra.com";
+        }
+        rcpts[ACCOUNTS] = "nobody@zimbra.com";
+        rcpts[ACCOUNTS + 1] = "rcpt3@zimbra.com"; // a second recipient for the same mailbox
+        LmtpEnvelope env = envelope(rcpts);
+        deliver(env, "fanout");
+
+        List<LmtpAddress> recipients = env.getLocalRecipients();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            Assert.assertEquals(rcpts[i], LmtpReply.DELIVERY_OK, recipients.get(i).getDeliveryStatus());
+        }
+        Assert.assertEquals(LmtpReply.PERMANENT_FAILURE, recipients.get(ACCOUNTS).getDeliveryStatus());
+        Assert.assertEquals(LmtpReply.DELIVERY_OK, recipients.get(ACCOUNTS + 1).getDeliveryStatus());
+
+        for (int i = 0; i < ACCOUNTS; i++) {
+            List<Integer> ids = inbox(rcpts[i]);
+            Assert.assertEquals(rcpts[i], 1, ids.size());
+            Account account = Provisioning.getInstance().getAccountByName(rcpts[i]);
+            Message msg = MailboxManager.getInstance().getMailboxByAccount(account).getMessageById(null, ids.get(0));
+            Assert.assertEquals("fanout", msg.getSubject());
+            Assert.assertEquals("body of fanout", msg.getFragment());
+        }
+    }
+
+    @Test
+    public void singleRecipient() throws Exception {
+        LmtpEnvelope env = envelope("rcpt0@zimbra.com");
+        deliver(env, "single");
+        Assert.assertEquals(LmtpReply.DELIVERY_OK, env.getLocalRecipients().get(0).getDeliveryStatus());
+        Assert.assertEquals(1, inbox("rcpt0@zimbra.com").size());
+    }
+}
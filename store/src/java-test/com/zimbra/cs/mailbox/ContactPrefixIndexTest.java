@@ -0,0 +1,173 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.mail.internet.InternetAddress;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.ContactConstants;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.ContactAutoComplete.AutoCompleteResult;
+import com.zimbra.cs.mailbox.ContactAutoComplete.ContactEntry;
+import com.zimbra.cs.mime.ParsedContact;
+
+/**
+ * Unit test for {@link ContactPrefixIndex}.
+ */
+public final class ContactPrefixIndexTest {
+
+    private static final Set<Integer> CONTACTS = ImmutableSet.of(Mailbox.ID_FOLDER_CONTACTS);
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", attrs);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        LC.contact_autocomplete_index_mailboxes.setDefault(1000);
+        MailboxTestUtil.clearData();
+    }
+
+    private static Contact createContact(Mailbox mbox, int folderId, String... keyValues) throws Exception {
+        Map<String, Object> fields = new HashMap<String, Object>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            fields.put(keyValues[i], keyValues[i + 1]);
+        }
+        return mbox.createContact(null, new ParsedContact(fields), folderId, null);
+    }
+
+    private static List<String> query(Mailbox mbox, String str) throws Exception {
+        ContactAutoComplete autocomplete = new ContactAutoComplete(mbox.getAccount(), new OperationContext(mbox));
+        AutoCompleteResult result = autocomplete.query(str, null, 100);
+        List<String> keys = new ArrayList<String>();
+        for (ContactEntry entry : result.entries) {
+            keys.add(entry.getKey() + "/" + entry.mRanking);
+        }
+        return keys;
+    }
+
+    private static List<Integer> ids(List<ContactPrefixIndex.Entry> entries) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (ContactPrefixIndex.Entry entry : entries) {
+            ids.add(entry.id);
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Test
+    public void sameResultsAsSearch() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_firstName, "First",
+                ContactConstants.A_lastName, "Last", ContactConstants.A_email, "first.last@zimbra.com");
+        createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_fullName, "Conf - Hillview",
+                ContactConstants.A_email, "conf@zimbra.com", ContactConstants.A_email2, "hillview@zimbra.com");
+        createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_nickname, "fifi",
+                ContactConstants.A_email, "fiona@zimbra.com");
+        createContact(mbox, Mailbox.ID_FOLDER_AUTO_CONTACTS, ContactConstants.A_email, "firstcontact@example.com");
+        createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_type, ContactConstants.TYPE_GROUP,
+                ContactConstants.A_nickname, "Field team");
+        Contact trashed = createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_firstName, "Fido",
+                ContactConstants.A_email, "fido@zimbra.com");
+        mbox.move(null, trashed.getId(), MailItem.Type.CONTACT, Mailbox.ID_FOLDER_TRASH);
+        ContactRankings.increment(mbox.getAccountId(), Collections.singleton(new InternetAddress("fiona@zimbra.com")));
+
+        String[] queries = { "f", "fi", "first", "last", "first l", "last fi", "conf -", "hill", "fifi", "field",
+                "fido", "firstcontact@", "zimbra", "nobody" };
+        LC.contact_autocomplete_index_mailboxes.setDefault(0);
+        List<List<String>> searched = new ArrayList<List<String>>();
+        for (String query : queries) {
+            searched.add(query(mbox, query));
+        }
+        LC.contact_autocomplete_index_mailboxes.setDefault(1000);
+        Assert.assertNotNull(ContactPrefixIndex.build(mbox,
+                new ContactAutoComplete(mbox.getAccount(), null).getEmailKeys()));
+        for (int i = 0; i < queries.length; i++) {
+            Assert.assertEquals(queries[i], searched.get(i), query(mbox, queries[i]));
+        }
+        Assert.assertEquals(4, query(mbox, "fi").size());
+    }
+
+    @Test
+    public void changes() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Contact c1 = createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_firstName, "Alice",
+                ContactConstants.A_email, "alice@zimbra.com");
+        ContactPrefixIndex idx = ContactPrefixIndex.build(mbox, Collections.singleton(ContactConstants.A_email));
+        Assert.assertEquals(1, idx.size());
+
+        Contact c2 = createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_firstName, "Alan",
+                ContactConstants.A_email, "alan@zimbra.com");
+        Assert.assertEquals(Collections.singletonList(c2.getId()), ids(idx.search("alan", CONTACTS)));
+        Assert.assertEquals(2, idx.search("al", CONTACTS).size());
+
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put(ContactConstants.A_firstName, "Bob");
+        fields.put(ContactConstants.A_email, "bob@zimbra.com");
+        mbox.modifyContact(null, c1.getId(), new ParsedContact(fields));
+        Assert.assertEquals(Collections.singletonList(c2.getId()), ids(idx.search("al", CONTACTS)));
+        Assert.assertEquals(Collections.singletonList(c1.getId()), ids(idx.search("bo", CONTACTS)));
+        Assert.assertEquals(1, idx.searchEmail("BOB@zimbra.com", CONTACTS).size());
+        Assert.assertEquals(0, idx.searchEmail("alice@zimbra.com", CONTACTS).size());
+
+        mbox.move(null, c1.getId(), MailItem.Type.CONTACT, Mailbox.ID_FOLDER_AUTO_CONTACTS);
+        Assert.assertEquals(0, idx.search("bo", CONTACTS).size());
+        Assert.assertEquals(1, idx.search("bo", ImmutableSet.of(Mailbox.ID_FOLDER_AUTO_CONTACTS)).size());
+
+        mbox.delete(null, c2.getId(), MailItem.Type.CONTACT);
+        Assert.assertEquals(0, idx.search("al", CONTACTS).size());
+        Assert.assertEquals(1, idx.size());
+    }
+
+    @Test
+    public void tooManyContacts() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        LC.contact_autocomplete_index_max_contacts.setDefault(1);
+        try {
+            createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_email, "one@zimbra.com");
+            createContact(mbox, Mailbox.ID_FOLDER_CONTACTS, ContactConstants.A_email, "two@zimbra.com");
+            Assert.assertNull(ContactPrefixIndex.build(mbox, Collections.singleton(ContactConstants.A_email)));
+            Assert.assertNull(ContactPrefixIndex.get(mbox, Collections.singleton(ContactConstants.A_email)));
+        } finally {
+            LC.contact_autocomplete_index_max_contacts.setDefault(20000);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Unit test for {@link ItemCache}.
+ */
+public final class ItemCacheTest {
+
+    private Mailbox mbox;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+        mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ItemCache.setMaxBytes(LC.zimbra_mailbox_item_cache_max_bytes.longValue());
+        ItemCache.setMaxItems(LC.zimbra_mailbox_item_cache_max_items.intValue());
+        MailboxTestUtil.clearData();
+    }
+
+    private Message[] addMessages(int count) throws Exception {
+        Message[] msgs = new Message[count];
+        for (int i = 0; i < count; i++) {
+            String raw = "From: test@zimbra.com\r\nSubject: message " + i + "\r\n\r\nbody\r\n";
+            msgs[i] = mbox.addMessage(null, new ParsedMessage(raw.getBytes(), false),
+                    MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        }
+        return msgs;
+    }
+
+    /** Empties the server-wide pool and leaves room for {@code count} of the given messages. */
+    private static void resetBudget(Message msg, int count) {
+        ItemCache.setMaxBytes(0);
+        Assert.assertEquals("pool emptied", 0, ItemCache.getTotalBytes());
+        ItemCache.setMaxBytes(count * ItemCache.weigh(msg));
+    }
+
+    @Test
+    public void admission() throws Exception {
+        Message[] msgs = addMessages(4);
+        resetBudget(msgs[0], 3);
+
+        ItemCache cache = new ItemCache(mbox);
+        for (int i = 0; i < 3; i++) {
+            cache.put(msgs[i], true);
+        }
+        Assert.assertEquals(3, cache.size());
+
+        cache.put(msgs[3], false);
+        Assert.assertFalse("never requested, so not admitted to a full cache", cache.contains(msgs[3]));
+        Assert.assertTrue(cache.contains(msgs[0]));
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(cache.get(msgs[3].getId()));
+        }
+        cache.put(msgs[3], false);
+        Assert.assertTrue("admitted once popular", cache.contains(msgs[3]));
+        Assert.assertFalse("least recently used item evicted", cache.contains(msgs[0]));
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(3 * ItemCache.weigh(msgs[0]), ItemCache.getTotalBytes());
+    }
+
+    @Test
+    public void fairShare() throws Exception {
+        Message[] msgs = addMessages(5);
+        resetBudget(msgs[0], 4);
+
+        ItemCache small = new ItemCache(mbox);
+        ItemCache large = new ItemCache(mbox);
+        small.put(msgs[0], true);
+        for (int i = 1; i < 4; i++) {
+            large.put(msgs[i], true);
+        }
+        small.put(msgs[4], true);
+
+        Assert.assertTrue("under its share, so kept although least recently used", small.contains(msgs[0]));
+        Assert.assertTrue(small.contains(msgs[4]));
+        Assert.assertFalse("over its share, so evicted first", large.contains(msgs[1]));
+        Assert.assertEquals(2, small.size());
+        Assert.assertEquals(2, large.size());
+    }
+
+    @Test
+    public void pinned() throws Exception {
+        Message[] msgs = addMessages(3);
+        resetBudget(msgs[0], 2);
+
+        ItemCache cache = new ItemCache(mbox);
+        cache.pin();
+        for (Message msg : msgs) {
+            cache.put(msg, true);
+        }
+        Assert.assertEquals("nothing evicted during a transaction", 3, cache.size());
+        cache.unpin();
+        Assert.assertEquals("trimmed once the transaction ended", 2, cache.size());
+        Assert.assertFalse(cache.contains(msgs[0]));
+    }
+
+    @Test
+    public void maxItems() throws Exception {
+        Message[] msgs = addMessages(3);
+        resetBudget(msgs[0], 10);
+        ItemCache.setMaxItems(2);
+
+        ItemCache cache = new ItemCache(mbox);
+        cache.pin();
+        for (Message msg : msgs) {
+            cache.put(msg, true);
+        }
+        cache.unpin();
+        Assert.assertEquals("trimmed to the most items per mailbox", 2, cache.size());
+        for (Message msg : msgs) {
+            cache.put(msg, false);
+        }
+        Assert.assertEquals("read-only loads not admitted beyond it", 2, cache.size());
+    }
+
+    @Test
+    public void unload() throws Exception {
+        Message[] msgs = addMessages(2);
+        resetBudget(msgs[0], 10);
+
+        ItemCache cache = new ItemCache(mbox);
+        cache.put(msgs[0], true);
+        cache.unload();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals("the pool no longer refers to the mailbox", 0, ItemCache.getTotalBytes());
+
+        cache.pin();
+        cache.put(msgs[1], true);
+        cache.unload();
+        Assert.assertTrue("kept until the transaction ends", cache.contains(msgs[1]));
+        cache.unpin();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, ItemCache.getTotalBytes());
+    }
+
+    @Test
+    public void reload() throws Exception {
+        Message msg = addMessages(1)[0];
+        ItemCache.setMaxBytes(0);
+        Assert.assertEquals(0, ItemCache.getTotalBytes());
+
+        Message reloaded = mbox.getMessageById(null, msg.getId());
+        Assert.assertNotSame("reloaded from the database", msg, reloaded);
+        Assert.assertEquals(msg.getSubject(), reloaded.getSubject());
+        Assert.assertEquals("evicted again when the transaction ended", 0, ItemCache.getTotalBytes());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.index.SortBy;
+import com.zimbra.cs.index.ZimbraQueryResults;
+
+/**
+ * Unit test for {@link MailboxIndex}.
+ */
+public final class MailboxIndexTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void indexDeferredItems() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        // more than one chunk, and more than the pipeline holds at once
+        int count = Math.max(LC.zimbra_index_max_transaction_items.intValue(),
+                LC.zimbra_index_pipeline_depth.intValue()) + 10;
+        Set<Integer> ids = new HashSet<Integer>();
+        for (int i = 0; i < count; i++) {
+            ids.add(mbox.addMessage(null, MailboxTestUtil.generateMessage("pipelined " + i),
+                    MailboxTest.STANDARD_DELIVERY_OPTIONS, null).getId());
+        }
+        mbox.index.indexDeferredItems();
+
+        ZimbraQueryResults results = mbox.index.search(new OperationContext(mbox), "pipelined",
+                EnumSet.of(MailItem.Type.MESSAGE), SortBy.NONE, count * 2);
+        try {
+            Set<Integer> found = new HashSet<Integer>();
+            while (results.hasNext()) {
+                found.add(results.getNext().getItemId());
+            }
+            Assert.assertEquals(ids, found);
+        } finally {
+            results.close();
+        }
+        for (int id : ids) {
+            Assert.assertEquals("indexed id=" + id, id, mbox.getMessageById(null, id).getIndexId());
+        }
+    }
+}
@@ -36,6 +36,7 @@ import com.zimbra.cs.account.MockProvisioning;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.mailbox.Mailbox.FolderNode;
 import com.zimbra.cs.mailbox.MailboxLock.LockFailedException;
+import com.zimbra.cs.mailbox.lock.LockStats;
 import com.zimbra.cs.service.util.ItemId;
 
 public class MailboxLockTest {
@@ -687,4 +688,64 @@ public class MailboxLockTest {
             t.join();
         }
     }
+
+    @Test
+    public void optimisticRead() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        long stamp = mbox.lock.tryOptimisticRead();
+        Assert.assertTrue("stamp issued while unlocked", stamp != 0);
+        Assert.assertTrue("valid with no writer", mbox.lock.validate(stamp));
+
+        mbox.lock.lock(false);
+        mbox.lock.release();
+        Assert.assertTrue("readers don't invalidate", mbox.lock.validate(stamp));
+
+        mbox.lock.lock();
+        Assert.assertEquals("no stamp while write locked", 0, mbox.lock.tryOptimisticRead());
+        Assert.assertFalse("writer invalidates", mbox.lock.validate(stamp));
+        mbox.lock.release();
+        Assert.assertFalse("still invalid after the writer is done", mbox.lock.validate(stamp));
+        Assert.assertTrue(mbox.lock.validate(mbox.lock.tryOptimisticRead()));
+
+        long optimistic = mbox.lock.getStats().getOptimisticReads();
+        int changeId = mbox.getLastChangeID();
+        Assert.assertTrue(mbox.getModifiedFolders(changeId).isEmpty());
+        Assert.assertEquals("answered without the lock", optimistic + 1, mbox.lock.getStats().getOptimisticReads());
+    }
+
+    @Test
+    public void stats() throws Exception {
+        final Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        LockStats stats = mbox.lock.getStats();
+        long acquires = stats.getAcquires();
+        long holds = stats.getHoldTime().getCount();
+        long contended = stats.getContendedAcquires();
+
+        mbox.lock.lock();
+        mbox.lock.lock();
+        mbox.lock.release();
+        mbox.lock.release();
+        Assert.assertEquals("acquires", acquires + 2, stats.getAcquires());
+        Assert.assertEquals("one outermost write hold", holds + 1, stats.getHoldTime().getCount());
+
+        mbox.lock.lock();
+        Thread waiter = new Thread("MailboxLockTest-stats") {
+            @Override
+            public void run() {
+                mbox.lock.lock();
+                mbox.lock.release();
+            }
+        };
+        waiter.start();
+        while (!mbox.lock.hasQueuedThreads()) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        mbox.lock.release();
+        waiter.join();
+        Assert.assertEquals("contended", contended + 1, stats.getContendedAcquires());
+        Assert.assertTrue("queue depth", stats.getMaxQueueDepth() >= 1);
+        Assert.assertTrue("wait recorded", stats.getWaitTime().getMaxMicros() >= 40000);
+        Assert.assertTrue("server-wide", LockStats.SERVER.getContendedAcquires() >= stats.getContendedAcquires());
+    }
 }
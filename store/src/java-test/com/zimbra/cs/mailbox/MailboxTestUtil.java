@@ -192,6 +192,7 @@ public final class MailboxTestUtil {
     public static void clearData(String zimbraServerDir) throws Exception {
         HSQLDB.clearDatabase(zimbraServerDir);
         MailboxManager.getInstance().clearCache();
+        ContactPrefixIndex.clear();
         MailboxIndex.shutdown();
         File index = new File("build/test/index");
         if (index.isDirectory()) {
@@ -0,0 +1,132 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Unit test for {@link MessageCache}.
+ */
+public final class MessageCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static Message addMessage(Mailbox mbox, String subject) throws Exception {
+        String raw = "From: test@zimbra.com\r\nSubject: " + subject + "\r\n\r\nbody of " + subject + "\r\n";
+        return mbox.addMessage(null, new ParsedMessage(raw.getBytes(), false), MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+    }
+
+    @Test
+    public void offHeap() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Message msg = addMessage(mbox, "off-heap");
+        MessageCache.purge(msg.getDigest());
+        long dataSize = MessageCache.getDataSize();
+
+        long misses = ZimbraPerf.COUNTER_MBOX_MSG_CACHE_MISSES.getCount();
+        MimeMessage mm = MessageCache.getMimeMessage(msg, false);
+        Assert.assertEquals("subject", "off-heap", mm.getSubject());
+        Assert.assertTrue("cached", MessageCache.contains(msg.getDigest()));
+        Assert.assertEquals("data size", dataSize + msg.getSize(), MessageCache.getDataSize());
+        Assert.assertEquals("one miss", misses + 1, ZimbraPerf.COUNTER_MBOX_MSG_CACHE_MISSES.getCount());
+
+        long hits = ZimbraPerf.COUNTER_MBOX_MSG_CACHE_HITS.getCount();
+        Assert.assertSame("same structure on hit", mm, MessageCache.getMimeMessage(msg, false));
+        Assert.assertEquals("one hit", hits + 1, ZimbraPerf.COUNTER_MBOX_MSG_CACHE_HITS.getCount());
+
+        MessageCache.purge(msg.getDigest());
+        Assert.assertFalse("purged", MessageCache.contains(msg.getDigest()));
+        Assert.assertEquals("data size after purge", dataSize, MessageCache.getDataSize());
+        Assert.assertEquals("content survives purge", "body of off-heap\r\n", mm.getContent());
+    }
+
+    @Test
+    public void readOffHeap() throws Exception {
+        byte[] content = new byte[3000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        for (int hint : new int[] {content.length, 100, 5000, 0}) {
+            ByteBuffer buf = MessageCache.readOffHeap(new ByteArrayInputStream(content), hint);
+            Assert.assertEquals("size hint " + hint, content.length, buf.limit());
+            Assert.assertEquals("no slack, size hint " + hint, content.length, buf.capacity());
+            byte[] read = new byte[buf.limit()];
+            buf.get(read);
+            Assert.assertArrayEquals("size hint " + hint, content, read);
+        }
+    }
+
+    @Test
+    public void concurrentLoad() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        final Message msg = addMessage(mbox, "concurrent");
+        MessageCache.purge(msg.getDigest());
+
+        final MimeMessage[] results = new MimeMessage[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int slot = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[slot] = MessageCache.getMimeMessage(msg, false);
+                    } catch (Exception e) {
+                        results[slot] = null;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (MimeMessage mm : results) {
+            Assert.assertSame("message parsed once", results[0], mm);
+        }
+        Assert.assertNotNull(results[0]);
+    }
+}
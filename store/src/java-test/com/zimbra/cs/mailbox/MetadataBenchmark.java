@@ -0,0 +1,108 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.zimbra.common.mailbox.ContactConstants;
+import com.zimbra.common.util.BEncoding;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mime.ParsedContact;
+
+/**
+ * Compares the lazily decoded {@link Metadata} with decoding the whole map up front, over the metadata of real items:
+ * the folders of a new mailbox, a message, its conversation and a contact.
+ * <p>
+ * For each sample it times loading an item (decoding and reading every key the item reads), re-encoding unchanged
+ * metadata, and re-encoding it after one key changed.
+ * <p>
+ * Usage: <tt>MetadataBenchmark [iterations]</tt>.
+ */
+public class MetadataBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+
+        List<MailItem> items = new ArrayList<MailItem>();
+        items.add(mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX));
+        Message msg = mbox.addMessage(null, MailboxTestUtil.generateMessage("benchmark subject"),
+                MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        items.add(msg);
+        items.add(mbox.getConversationById(null, msg.getConversationId()));
+        Map<String, Object> fields = new HashMap<String, Object>();
+        fields.put(ContactConstants.A_firstName, "First");
+        fields.put(ContactConstants.A_lastName, "Last");
+        fields.put(ContactConstants.A_email, "first.last@zimbra.com");
+        fields.put(ContactConstants.A_company, "Zimbra");
+        items.add(mbox.createContact(null, new ParsedContact(fields), Mailbox.ID_FOLDER_CONTACTS, null));
+
+        for (MailItem item : items) {
+            String encoded = item.encodeMetadata().toString();
+            long lazyLoad = 0, eagerLoad = 0, lazyUnchanged = 0, eagerUnchanged = 0, lazyChanged = 0, eagerChanged = 0;
+            for (int round = 0; round < 2; round++) { // the first round warms up
+                lazyLoad = time(iterations, item, encoded, true, 0);
+                eagerLoad = time(iterations, item, encoded, false, 0);
+                lazyUnchanged = time(iterations, item, encoded, true, 1);
+                eagerUnchanged = time(iterations, item, encoded, false, 1);
+                lazyChanged = time(iterations, item, encoded, true, 2);
+                eagerChanged = time(iterations, item, encoded, false, 2);
+            }
+            System.out.printf("%-20s %4d chars  load %5d / %5d ns  unchanged %5d / %5d ns  one change %5d / %5d ns" +
+                    "  (lazy / eager)%n", item.getType(), encoded.length(), lazyLoad, eagerLoad,
+                    lazyUnchanged, eagerUnchanged, lazyChanged, eagerChanged);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param op 0 to decode the item from the metadata, 1 to decode and re-encode it, 2 to decode, change one key
+     *           and re-encode it
+     * @return nanoseconds per iteration
+     */
+    private static long time(int iterations, MailItem item, String encoded, boolean lazy, int op) throws Exception {
+        long start = System.nanoTime();
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            Metadata meta = lazy ? new Metadata(encoded) : eager(encoded);
+            if (op == 0) {
+                item.decodeMetadata(meta);
+            } else {
+                if (op == 2) {
+                    meta.put(Metadata.FN_MODSEQ, i);
+                }
+                sink += meta.toString().length();
+            }
+        }
+        if (sink < 0) {
+            throw new IllegalStateException();
+        }
+        return (System.nanoTime() - start) / iterations;
+    }
+
+    private static Metadata eager(String encoded) throws Exception {
+        Map<Object, Object> map = BEncoding.decode(encoded);
+        map.remove(Metadata.FN_MD_VERSION);
+        return new Metadata(map);
+    }
+}
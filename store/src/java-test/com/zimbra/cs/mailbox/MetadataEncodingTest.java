@@ -0,0 +1,118 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.BEncoding;
+
+/**
+ * Unit test for the lazily decoded form of {@link Metadata}.
+ */
+public final class MetadataEncodingTest {
+
+    private static final String FOLDER =
+            "d1:ai1e4:aclmd1:gld1:ei0e1:g36:474b7021-cef6-469d-b5fb-54c96117efd11:ri1e1:ti1eee2:gei0e2:iei0ee" +
+            "5:mdveri4e4:mseqi628e2:szi7596456e4:unxti744e1:vi10e2:vti5ee";
+    private static final String MESSAGE =
+            "d1:f16:fragment \u00e9t\u00e9 \u2603 x5:mdveri10e1:r7:subject1:sd1:a17:sender@zimbra.com1:d6:Sender" +
+            "e1:td1:a15:rcpt@zimbra.come1:vi10ee";
+
+    /** The same data, decoded in full up front the way it used to be. */
+    private static Metadata eager(String encoded) throws Exception {
+        Map<Object, Object> map = BEncoding.decode(encoded);
+        map.remove(Metadata.FN_MD_VERSION);
+        return new Metadata(map);
+    }
+
+    @Test
+    public void unchanged() throws Exception {
+        for (String encoded : new String[] {FOLDER, MESSAGE}) {
+            Metadata meta = new Metadata(encoded);
+            Assert.assertEquals(encoded, meta.toString());
+            Assert.assertEquals(eager(encoded).toString(), meta.toString());
+            Assert.assertEquals(eager(encoded).size(), meta.size());
+            Assert.assertFalse("legacy version hidden", meta.containsKey(Metadata.FN_MD_VERSION));
+        }
+        Metadata meta = new Metadata(MESSAGE);
+        Assert.assertEquals("fragment \u00e9t\u00e9 \u2603 x", meta.get(Metadata.FN_FRAGMENT));
+        Assert.assertEquals(10, meta.getInt(Metadata.FN_METADATA_VERSION, 0));
+        Assert.assertEquals("Sender", meta.getMap(Metadata.FN_SENDER).get("d"));
+        Assert.assertNull(meta.get("missing", null));
+        Assert.assertTrue(meta.containsKey(Metadata.FN_RECIPIENTS));
+    }
+
+    @Test
+    public void changed() throws Exception {
+        Metadata lazy = new Metadata(FOLDER);
+        Metadata eager = eager(FOLDER);
+        for (Metadata meta : new Metadata[] {lazy, eager}) {
+            meta.put(Metadata.FN_MODSEQ, 629);
+            meta.remove(Metadata.FN_TOTAL_SIZE);
+            meta.remove("nonexistent");
+            meta.put("zz", "appended");
+            meta.put("b", new MetadataList().add("x").add(3));
+        }
+        Assert.assertEquals(eager.toString(), lazy.toString());
+        Assert.assertEquals(eager.size(), lazy.size());
+        Assert.assertEquals(629, lazy.getLong(Metadata.FN_MODSEQ));
+        Assert.assertFalse(lazy.containsKey(Metadata.FN_TOTAL_SIZE));
+        Assert.assertEquals(2, lazy.getList("b").size());
+        Assert.assertEquals(eager.asMap().toString(), lazy.asMap().toString());
+        Assert.assertEquals(eager.toString(), lazy.toString());
+    }
+
+    @Test
+    public void nested() throws Exception {
+        Metadata meta = new Metadata(FOLDER);
+        Metadata acl = meta.getMap(Metadata.FN_RIGHTS_MAP);
+        acl.put("extra", 1);
+        Assert.assertEquals("changes to a nested copy stay there", FOLDER, meta.toString());
+
+        Metadata child = new Metadata();
+        meta.put("c", child);
+        child.put("x", "y");
+        Assert.assertEquals("y", meta.getMap("c").get("x"));
+        Assert.assertTrue(meta.toString().contains("1:cd1:x1:ye"));
+    }
+
+    @Test
+    public void nonCanonical() throws Exception {
+        // keys out of order and an old version; decoded in full
+        Metadata meta = new Metadata("d1:bi1e1:ai2e1:vi9ee");
+        Assert.assertEquals("2", meta.get("a"));
+        Assert.assertEquals(2, meta.size());
+        Assert.assertEquals("d1:ai2e1:bi1e1:vi10ee", meta.toString());
+
+        // in order but with an old version; re-encoded with the current one
+        Assert.assertEquals("d1:ai2e1:bi1e1:vi10ee", new Metadata("d1:ai2e1:bi1e1:vi9ee").toString());
+        Assert.assertEquals("d1:ai2e1:vi10ee", new Metadata("d1:ai2ee").toString());
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        // not BEncoded; still handed to the legacy decoders as before
+        String[][] cases = {{"d1:ai2e", "d1:vi10ee"}, {"d1:ai2ee1", "d1:vi10ee"}, {"d1:a5:xe", "d1:vi10ee"},
+                {"di1e1:ae", "d1:11:a1:vi10ee"}};
+        for (String[] test : cases) {
+            Assert.assertEquals(test[0], test[1], new Metadata(test[0]).toString());
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.calendar.ZCalendar.ZCalendarBuilder;
+import com.zimbra.common.calendar.ZCalendar.ZVCalendar;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.Pair;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Folder;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mailbox.calendar.IcsImportParseHandler.ImportInviteVisitor;
+import com.zimbra.cs.mailbox.calendar.Invite;
+import com.zimbra.cs.mailbox.calendar.cache.CalSummaryCache.CalendarDataResult;
+
+/**
+ * Unit test for {@link CalSummaryCache}.
+ */
+public final class CalSummaryCacheTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    private Account account;
+    private Mailbox mbox;
+    private Pair<Long, Long> range;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, MockProvisioning.DEFAULT_ACCOUNT_ID);
+        account = Provisioning.getInstance().createAccount("test@zimbra.com", "secret", attrs);
+        mbox = MailboxManager.getInstance().getMailboxByAccount(account);
+        // mailbox ids are reused, so don't pick up what an earlier test spilled to disk
+        FileStore.removeMailbox(mbox.getId());
+        range = Util.getMonthsRange(System.currentTimeMillis(), LC.calendar_cache_range_month_from.intValue(),
+                LC.calendar_cache_range_months.intValue());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private void addAppointment(String uid, long start, String rrule) throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String ics = "BEGIN:VCALENDAR\n" +
+                "PRODID:Zimbra-Calendar-Provider\n" +
+                "VERSION:2.0\n" +
+                "METHOD:PUBLISH\n" +
+                "BEGIN:VEVENT\n" +
+                "UID:" + uid + "\n" +
+                (rrule == null ? "" : "RRULE:" + rrule + "\n") +
+                "SUMMARY:" + uid + "\n" +
+                "ORGANIZER:mailto:test@zimbra.com\n" +
+                "DTSTART:" + format.format(new Date(start)) + "\n" +
+                "DTEND:" + format.format(new Date(start + 3600000)) + "\n" +
+                "DTSTAMP:20260101T000000Z\n" +
+                "SEQUENCE:0\n" +
+                "END:VEVENT\n" +
+                "END:VCALENDAR";
+        OperationContext octxt = new OperationContext(account);
+        Folder calendar = mbox.getFolderById(octxt, Mailbox.ID_FOLDER_CALENDAR);
+        List<ZVCalendar> icals = ZCalendarBuilder.buildMulti(
+                new ByteArrayInputStream(ics.getBytes(StandardCharsets.UTF_8)), "utf-8");
+        Invite.createFromCalendar(account, null, icals, true, false, new ImportInviteVisitor(octxt, calendar, false));
+    }
+
+    private static List<String> describe(CalendarData calData) {
+        List<String> result = new ArrayList<String>();
+        for (Iterator<CalendarItemData> items = calData.calendarItemIterator(); items.hasNext(); ) {
+            CalendarItemData item = items.next();
+            for (Iterator<InstanceData> instances = item.instanceIterator(); instances.hasNext(); ) {
+                result.add(item.getUid() + "@" + instances.next().getDtStart());
+            }
+        }
+        return result;
+    }
+
+    private List<String> summary(CalSummaryCache cache, long start, long end) throws Exception {
+        CalendarDataResult result = cache.getCalendarSummary(new OperationContext(account), account.getId(),
+                Mailbox.ID_FOLDER_CALENDAR, MailItem.Type.APPOINTMENT, start, end, true);
+        return describe(result.data);
+    }
+
+    @Test
+    public void subRanges() throws Exception {
+        long start = range.getFirst() + DAY + 9 * 3600000;
+        addAppointment("daily", start, "FREQ=DAILY;COUNT=40");
+        addAppointment("once", start + 3 * DAY, null);
+        addAppointment("later", range.getSecond() + 10 * DAY, null);
+
+        CalSummaryCache cache = new CalSummaryCache(10);
+        long[][] ranges = {
+                { range.getFirst(), range.getSecond() },
+                { range.getFirst() + DAY, range.getFirst() + 2 * DAY },
+                { range.getFirst() + 4 * DAY, range.getFirst() + 5 * DAY },
+                { range.getFirst() + 2 * DAY, range.getFirst() + 9 * DAY },
+                { range.getFirst() + 50 * DAY, range.getFirst() + 51 * DAY } };
+        List<List<String>> missed = new ArrayList<List<String>>();
+        for (long[] r : ranges) {
+            missed.add(summary(cache, r[0], r[1]));
+        }
+        Assert.assertEquals(41, missed.get(0).size());
+        Assert.assertEquals(1, missed.get(1).size());
+        Assert.assertEquals(2, missed.get(2).size());
+        Assert.assertEquals(8, missed.get(3).size());
+        Assert.assertEquals(0, missed.get(4).size());
+        for (int i = 0; i < ranges.length; i++) {
+            Assert.assertEquals(missed.get(i), summary(cache, ranges[i][0], ranges[i][1]));
+        }
+    }
+
+    @Test
+    public void invalidation() throws Exception {
+        long start = range.getFirst() + DAY + 9 * 3600000;
+        addAppointment("daily", start, "FREQ=DAILY;COUNT=5");
+        CalSummaryCache cache = CalendarCacheManager.getInstance().getSummaryCache();
+        Assert.assertEquals(5, summary(cache, range.getFirst(), range.getFirst() + 10 * DAY).size());
+
+        // a new item is marked stale in the cached calendar, and added to it on the next request
+        addAppointment("once", start + 2 * DAY, null);
+        Assert.assertEquals(6, summary(cache, range.getFirst(), range.getFirst() + 10 * DAY).size());
+        Assert.assertEquals(2, summary(cache, range.getFirst() + 3 * DAY, range.getFirst() + 4 * DAY).size());
+    }
+}
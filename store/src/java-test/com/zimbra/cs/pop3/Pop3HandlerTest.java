@@ -0,0 +1,68 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.pop3;
+
+import java.io.ByteArrayInputStream;
+import java.io.PushbackInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Pop3Handler}.
+ */
+public final class Pop3HandlerTest {
+
+    private static boolean isWireFormat(String content) throws Exception {
+        return Pop3Handler.isWireFormat(new ByteArrayInputStream(content.getBytes()));
+    }
+
+    @Test
+    public void wireFormat() throws Exception {
+        Assert.assertTrue(isWireFormat("Subject: test\r\n\r\nbody.\r\n .\r\n"));
+        Assert.assertTrue(isWireFormat("Subject: test\r\n\r\n\r\n"));
+        // lines sendMessage() would dot-stuff
+        Assert.assertFalse(isWireFormat("Subject: test\r\n\r\n.\r\n"));
+        Assert.assertFalse(isWireFormat(".Subject: test\r\n\r\nbody\r\n"));
+        // line endings it would fix
+        Assert.assertFalse(isWireFormat("Subject: test\n\nbody\n"));
+        Assert.assertFalse(isWireFormat("Subject: test\r\n\r\nbody\rmore\r\n"));
+        Assert.assertFalse(isWireFormat("Subject: test\r\n\r\nbody\r\r\n"));
+        Assert.assertFalse(isWireFormat("Subject: test\r\n\r\nbody"));
+    }
+
+    @Test
+    public void wireFormatCheck() throws Exception {
+        byte[] content = "Subject: test\r\n\r\nbody\r\n".getBytes();
+        Pop3Handler.WireFormatCheck check = new Pop3Handler.WireFormatCheck(new ByteArrayInputStream(content));
+        // read the way sendMessage() does, a byte at a time with pushback
+        PushbackInputStream stream = new PushbackInputStream(check);
+        Assert.assertEquals('S', stream.read());
+        stream.unread('S');
+        Assert.assertFalse(check.isComplete());
+        while (stream.read() != -1) {
+        }
+        Assert.assertTrue(check.isComplete());
+        Assert.assertTrue(check.isWireFormat());
+
+        check = new Pop3Handler.WireFormatCheck(new ByteArrayInputStream("Subject: test\n\nbody\n".getBytes()));
+        byte[] buf = new byte[64];
+        Assert.assertTrue(check.read(buf, 0, buf.length) > 0);
+        Assert.assertTrue(check.isComplete());
+        Assert.assertFalse(check.isWireFormat());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+/**
+ * Unit test for {@link ReplayScheduler}.
+ */
+public final class ReplaySchedulerTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    private final List<String> played = Collections.synchronizedList(new ArrayList<String>());
+
+    private final class TestOp extends RedoableOp {
+        private final String name;
+        private final int[] changed;
+        private final int[] referenced;
+        private final long sleep;
+
+        TestOp(String name, int mboxId, int[] changed, int[] referenced, long sleep) {
+            super(MailboxOperation.MoveItem);
+            setMailboxId(mboxId);
+            this.name = name;
+            this.changed = changed;
+            this.referenced = referenced;
+            this.sleep = sleep;
+        }
+
+        @Override
+        public int[] getChangedItemIds() {
+            return changed;
+        }
+
+        @Override
+        public int[] getReferencedItemIds() {
+            return referenced == null ? super.getReferencedItemIds() : referenced;
+        }
+
+        @Override
+        public void redo() throws Exception {
+            Thread.sleep(sleep);
+            played.add(name);
+        }
+
+        @Override
+        protected String getPrintableData() {
+            return name;
+        }
+
+        @Override
+        protected void serializeData(RedoLogOutput out) throws IOException {
+        }
+
+        @Override
+        protected void deserializeData(RedoLogInput in) throws IOException {
+        }
+    }
+
+    private static final ReplayScheduler.Player PLAYER = new ReplayScheduler.Player() {
+        @Override
+        public void play(RedoableOp op) throws Exception {
+            op.redo();
+        }
+    };
+
+    private TestOp op(String name, int[] changed, int[] referenced, long sleep) {
+        return new TestOp(name, 1, changed, referenced, sleep);
+    }
+
+    @Test
+    public void unrelatedItems() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        ReplayScheduler scheduler = new ReplayScheduler("test", 4, 100, new ReplayScheduler.Player() {
+            @Override
+            public void play(RedoableOp op) throws Exception {
+                // the first op can only finish if the second one runs alongside it
+                if (op.getChangedItemIds()[0] == 1) {
+                    Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+                    op.redo();
+                } else {
+                    op.redo();
+                    latch.countDown();
+                }
+            }
+        });
+        scheduler.submit(op("first", new int[] { 1 }, new int[] { 5 }, 0));
+        scheduler.submit(op("second", new int[] { 2 }, new int[] { 5 }, 0));
+        scheduler.finish();
+        scheduler.checkError();
+        Assert.assertEquals(Arrays.asList("second", "first"), played);
+    }
+
+    @Test
+    public void sameItem() throws Exception {
+        ReplayScheduler scheduler = new ReplayScheduler("test", 4, 100, PLAYER);
+        scheduler.submit(op("first", new int[] { 1, 2 }, null, 100));
+        scheduler.submit(op("second", new int[] { 2, 3 }, null, 0));
+        scheduler.submit(new TestOp("other mailbox", 2, new int[] { 2 }, null, 0));
+        scheduler.finish();
+        Assert.assertEquals(Arrays.asList("other mailbox", "first", "second"), played);
+    }
+
+    @Test
+    public void referencedItem() throws Exception {
+        ReplayScheduler scheduler = new ReplayScheduler("test", 4, 100, PLAYER);
+        scheduler.submit(op("create folder", new int[] { 5 }, null, 100));
+        scheduler.submit(op("move", new int[] { 1 }, new int[] { 5 }, 100));
+        scheduler.submit(op("delete folder", new int[] { 5 }, null, 0));
+        scheduler.finish();
+        Assert.assertEquals(Arrays.asList("create folder", "move", "delete folder"), played);
+    }
+
+    @Test
+    public void wholeMailbox() throws Exception {
+        ReplayScheduler scheduler = new ReplayScheduler("test", 4, 100, PLAYER);
+        scheduler.submit(op("first", new int[] { 1 }, null, 100));
+        scheduler.submit(op("empty folder", null, null, 50));
+        scheduler.submit(op("second", new int[] { 2 }, null, 0));
+        scheduler.submit(new TestOp("all mailboxes", RedoableOp.MAILBOX_ID_ALL, null, null, 0));
+        scheduler.submit(op("third", new int[] { 3 }, null, 0));
+        scheduler.finish();
+        Assert.assertEquals(Arrays.asList("first", "empty folder", "second", "all mailboxes", "third"), played);
+    }
+
+    @Test
+    public void error() throws Exception {
+        ReplayScheduler scheduler = new ReplayScheduler("test", 4, 100, new ReplayScheduler.Player() {
+            @Override
+            public void play(RedoableOp op) throws Exception {
+                throw new IOException("failed");
+            }
+        });
+        scheduler.submit(op("first", new int[] { 1 }, null, 0));
+        scheduler.finish();
+        try {
+            scheduler.submit(op("second", new int[] { 2 }, null, 0));
+            Assert.fail();
+        } catch (ServiceException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
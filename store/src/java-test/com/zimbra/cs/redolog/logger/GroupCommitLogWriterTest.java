@@ -0,0 +1,155 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.easymock.EasyMock;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.TransactionId;
+import com.zimbra.cs.redolog.op.CopyItem;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+public class GroupCommitLogWriterTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private RedoLogManager mockRedoLogManager;
+    private File logfile;
+    private GroupCommitLogWriter logWriter;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mockRedoLogManager = EasyMock.createNiceMock(RedoLogManager.class);
+        logfile = folder.newFile("logfile");
+        logWriter = new GroupCommitLogWriter(mockRedoLogManager, logfile, 16);
+    }
+
+    @Test
+    public void openLogClose() throws Exception {
+        Assert.assertTrue("file starts empty", logWriter.isEmpty());
+        logWriter.open();
+        Assert.assertTrue("file empty after open", logWriter.isEmpty());
+
+        RedoableOp op = EasyMock.createMockBuilder(RedoableOp.class)
+                            .withConstructor(MailboxOperation.Preview)
+                            .createMock();
+
+        logWriter.log(op, new ByteArrayInputStream("some bytes".getBytes()), true /* synchronous */);
+        Assert.assertEquals("file size incorrect.", FileHeader.HEADER_LEN + 10, logWriter.getSize());
+        Assert.assertEquals("synchronous entry is on disk", FileHeader.HEADER_LEN + 10, logfile.length());
+        logWriter.close();
+        final long createTime = logWriter.getCreateTime();
+        final long sequence = logWriter.getSequence();
+
+        logWriter = new GroupCommitLogWriter(mockRedoLogManager, logfile, 16);
+        Assert.assertEquals("file size incorrect.", FileHeader.HEADER_LEN + 10, logWriter.getSize());
+        logWriter.open();
+        Assert.assertEquals(createTime, logWriter.getCreateTime());
+        Assert.assertEquals(sequence, logWriter.getSequence());
+        logWriter.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void logBeforeOpen() throws Exception {
+        logWriter.log(null, null, false);
+    }
+
+    @Test
+    public void flushAsynchronous() throws Exception {
+        logWriter.open();
+        RedoableOp op = EasyMock.createMockBuilder(RedoableOp.class)
+                            .withConstructor(MailboxOperation.Preview)
+                            .createMock();
+        for (int i = 0; i < 100; i++) {
+            logWriter.log(op, new ByteArrayInputStream("0123456789".getBytes()), false /* asynchronous */);
+        }
+        Assert.assertEquals("size counts queued entries", FileHeader.HEADER_LEN + 1000, logWriter.getSize());
+        logWriter.flush();
+        Assert.assertEquals("flushed to disk", FileHeader.HEADER_LEN + 1000, logfile.length());
+        logWriter.close();
+    }
+
+    /**
+     * Many threads logging through a ring much smaller than the number of entries; every entry
+     * has to come back out of the file exactly once.
+     */
+    @Test
+    public void concurrentLog() throws Exception {
+        logWriter.open();
+        final int numThreads = 8;
+        final int opsPerThread = 50;
+        Thread[] threads = new Thread[numThreads];
+        final IOException[] errors = new IOException[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < opsPerThread; i++) {
+                            RedoableOp op = EasyMock.createMockBuilder(CopyItem.class)
+                                                .withConstructor()
+                                                .addMockedMethod("getTransactionId")
+                                                .createMock();
+                            EasyMock.expect(op.getTransactionId()).andStubReturn(new TransactionId(threadId, i));
+                            EasyMock.replay(op);
+                            logWriter.log(op, op.getInputStream(), i % 2 == 0);
+                        }
+                    } catch (IOException e) {
+                        errors[threadId] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (IOException e : errors) {
+            Assert.assertNull(e);
+        }
+        logWriter.close();
+
+        FileLogReader logReader = new FileLogReader(logfile);
+        logReader.open();
+        Set<TransactionId> seen = new HashSet<TransactionId>();
+        RedoableOp op;
+        while ((op = logReader.getNextOp()) != null) {
+            Assert.assertTrue("duplicate " + op.getTransactionId(), seen.add(op.getTransactionId()));
+        }
+        logReader.close();
+        Assert.assertEquals(numThreads * opsPerThread, seen.size());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+/**
+ * Compares commit throughput and latency of {@link FileLogWriter} and {@link GroupCommitLogWriter}.
+ * Each thread logs synchronous entries of a fixed size in a loop, the way mailbox transactions
+ * do, and the time spent in each <tt>log()</tt> call is recorded.
+ * <p>
+ * Usage: <tt>LogWriterBenchmark [threads [entries-per-thread [entry-bytes [fsync-interval-ms]]]]</tt>
+ * <p>
+ * Results depend heavily on the fsync latency of the disk holding the temp directory; run it
+ * against the volume that holds the redo log.
+ */
+public class LogWriterBenchmark {
+
+    private interface WriterFactory {
+        LogWriter create(RedoLogManager mgr, File logfile);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int entries = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int entrySize = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        final long fsyncIntervalMS = args.length > 3 ? Long.parseLong(args[3]) : 10;
+
+        MailboxTestUtil.initServer();
+        System.out.printf("%d threads x %d synchronous entries of %d bytes%n", threads, entries, entrySize);
+
+        run("FileLogWriter(" + fsyncIntervalMS + "ms)", new WriterFactory() {
+            @Override
+            public LogWriter create(RedoLogManager mgr, File logfile) {
+                return new FileLogWriter(mgr, logfile, fsyncIntervalMS);
+            }
+        }, threads, entries, entrySize);
+
+        run("GroupCommitLogWriter", new WriterFactory() {
+            @Override
+            public LogWriter create(RedoLogManager mgr, File logfile) {
+                return new GroupCommitLogWriter(mgr, logfile);
+            }
+        }, threads, entries, entrySize);
+    }
+
+    private static void run(String name, WriterFactory factory, int numThreads, final int entries, int entrySize)
+    throws Exception {
+        File logfile = File.createTempFile("LogWriterBenchmark", ".log");
+        try {
+            RedoLogManager mgr = EasyMock.createNiceMock(RedoLogManager.class);
+            final LogWriter writer = factory.create(mgr, logfile);
+            writer.open();
+
+            final RedoableOp op = EasyMock.createMockBuilder(RedoableOp.class)
+                                      .withConstructor(MailboxOperation.Preview)
+                                      .createMock();
+            final byte[] entry = new byte[entrySize];
+            Arrays.fill(entry, (byte) 'x');
+            final long[][] latencies = new long[numThreads][entries];
+            final CountDownLatch start = new CountDownLatch(1);
+
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; t++) {
+                final long[] mine = latencies[t];
+                threads[t] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int i = 0; i < entries; i++) {
+                                long begin = System.nanoTime();
+                                writer.log(op, new ByteArrayInputStream(entry), true);
+                                mine[i] = System.nanoTime() - begin;
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            writer.close();
+
+            long[] all = new long[numThreads * entries];
+            for (int t = 0; t < numThreads; t++) {
+                System.arraycopy(latencies[t], 0, all, t * entries, entries);
+            }
+            Arrays.sort(all);
+            System.out.printf("%-26s %9.0f entries/s  p50 %6.2fms  p99 %6.2fms  max %6.2fms%n", name,
+                    all.length / (elapsed / 1e9), millis(all, 0.50), millis(all, 0.99), millis(all, 1.0));
+        } finally {
+            logfile.delete();
+        }
+    }
+
+    private static double millis(long[] sorted, double quantile) {
+        int idx = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(idx, 0)] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -16,9 +16,14 @@
  */
 package com.zimbra.cs.server;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
 import junit.framework.Assert;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.FileRegion;
 import org.apache.mina.core.service.IoHandlerAdapter;
 import org.apache.mina.core.session.DummySession;
 import org.apache.mina.core.session.IoSession;
@@ -82,13 +87,42 @@ public final class NioOutputStreamTest {
         out.close();
     }
 
+    @Test
+    public void transferFrom() throws Exception {
+        File file = File.createTempFile("nio", ".msg");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write("Subject: test\r\n\r\nbody\r\n".getBytes());
+        fos.close();
+
+        DummySession session = new DummySession();
+        TestIoHandler handler = new TestIoHandler();
+        session.setHandler(handler);
+        NioOutputStream out = new NioOutputStream(session, 10, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        Assert.assertTrue(out.isTransferSupported());
+        out.write("{21}\r\n");
+        out.transferFrom(file, 2, 21);
+        out.write(")");
+        out.close();
+        Assert.assertEquals(3, handler.getWriteCount());
+        Assert.assertEquals("{21}\r\nbject: test\r\n\r\nbody\r\n)", handler.toString());
+    }
+
     private static final class TestIoHandler extends IoHandlerAdapter {
         private int writes = 0;
         private StringBuilder out = new StringBuilder();
 
         @Override
-        public void messageSent(IoSession session, Object message) {
+        public void messageSent(IoSession session, Object message) throws Exception {
             writes++;
+            if (message instanceof FileRegion) {
+                FileRegion region = (FileRegion) message;
+                // the session marks it sent by moving the position past the region
+                ByteBuffer buf = ByteBuffer.allocate((int) region.getWrittenBytes());
+                region.getFileChannel().read(buf, region.getPosition() - region.getWrittenBytes());
+                out.append(new String(buf.array()));
+                return;
+            }
             IoBuffer buf = (IoBuffer) message;
             while (buf.hasRemaining()) {
                 out.append((char) buf.get());
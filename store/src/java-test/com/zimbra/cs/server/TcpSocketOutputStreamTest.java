@@ -0,0 +1,82 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Unit test for {@link TcpSocketOutputStream}.
+ */
+public final class TcpSocketOutputStreamTest {
+
+    @Test
+    public void transferFrom() throws Exception {
+        File file = File.createTempFile("tcp", ".msg");
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write("Subject: test\r\n\r\nbody\r\n".getBytes());
+        fos.close();
+
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+        Socket accepted = server.accept().socket();
+        try {
+            TcpSocketOutputStream out = new TcpSocketOutputStream(accepted);
+            Assert.assertTrue(out.isTransferSupported());
+            out.write("{21}\r\n".getBytes());
+            out.transferFrom(file, 2, 21);
+            out.write(")".getBytes());
+            out.close();
+
+            InputStream in = client.getInputStream();
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            ByteUtil.copy(in, true, received, true);
+            Assert.assertEquals("{21}\r\nbject: test\r\n\r\nbody\r\n)", received.toString());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void plainSocket() throws Exception {
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Socket client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        Socket accepted = server.accept();
+        try {
+            Assert.assertFalse(new TcpSocketOutputStream(accepted).isTransferSupported());
+        } finally {
+            accepted.close();
+            client.close();
+            server.close();
+        }
+    }
+}
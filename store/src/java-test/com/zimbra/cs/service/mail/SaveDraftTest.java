@@ -61,10 +61,10 @@ public class SaveDraftTest {
         return sb.toString();
     }
 
-    // string lengths should be greater than both MessageCache.MESSAGE_CACHE_DISK_STREAMING_THRESHOLD
+    // string lengths should be greater than both LC.zimbra_message_cache_offheap_threshold_kb * 1024
     //   and LC.zimbra_blob_input_stream_buffer_size_kb * 1024
-    static final String ORIGINAL_CONTENT = nCopiesOf('a', 8192);
-    static final String MODIFIED_CONTENT = nCopiesOf('b', 8192);
+    static final String ORIGINAL_CONTENT = nCopiesOf('a', 80 * 1024);
+    static final String MODIFIED_CONTENT = nCopiesOf('b', 80 * 1024);
 
     @Test
     public void deleteRace() throws Exception {
@@ -0,0 +1,144 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.service.mail;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.MailConstants;
+import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.common.util.ZimbraServletOutputStream;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTest;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.service.AuthProvider;
+import com.zimbra.soap.SoapEngine;
+import com.zimbra.soap.ZimbraSoapContext;
+
+/**
+ * Measures the bytes allocated, and the heap held by the response before it is written, for a
+ * {@link Search} returning 1000 message hits in XML and in JSON.
+ * <p>
+ * Each protocol is run three ways: the whole response tree serialized with {@link Element#toUTF8()}, the
+ * way responses without chunked transfer encoding used to be written; the whole tree written through
+ * {@link ZimbraServletOutputStream}; and hits replaced by their serialized form as they are finished
+ * ({@link ZimbraSoapContext#isResponseOnlyMarshaled()}) before being written the same way.
+ * <p>
+ * Usage: <tt>SearchResponseBenchmark [iterations]</tt>.
+ */
+public class SearchResponseBenchmark {
+
+    private static final int HITS = 1000;
+    private static final int HELD = 10;
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length == 0 ? 20 : Integer.parseInt(args[0]);
+        MailboxTestUtil.initServer();
+        Account acct = Provisioning.getInstance().createAccount("test@zimbra.com", "secret",
+                new HashMap<String, Object>());
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        for (int i = 0; i < HITS; i++) {
+            mbox.addMessage(null, MailboxTestUtil.generateMessage("benchmark message " + i),
+                    MailboxTest.STANDARD_DELIVERY_OPTIONS, null);
+        }
+        mbox.index.indexDeferredItems();
+
+        for (SoapProtocol proto : new SoapProtocol[] {SoapProtocol.Soap12, SoapProtocol.SoapJS}) {
+            String name = proto == SoapProtocol.SoapJS ? "JSON" : "XML";
+            for (int i = 0; i < iterations; i++) { // warm up
+                run(acct, proto, false, false);
+                run(acct, proto, true, true);
+            }
+            System.out.printf("%-4s toUTF8             %s%n", name, run(acct, proto, false, false));
+            System.out.printf("%-4s writer             %s%n", name, run(acct, proto, false, true));
+            System.out.printf("%-4s writer, marshaled  %s%n", name, run(acct, proto, true, true));
+        }
+    }
+
+    private static String run(Account acct, SoapProtocol proto, boolean marshalHits, boolean writer)
+            throws Exception {
+        ZimbraSoapContext zsc = new ZimbraSoapContext(AuthProvider.getAuthToken(acct), acct.getId(), proto, proto);
+        zsc.setResponseOnlyMarshaled(marshalHits);
+        Map<String, Object> context = ServiceTestUtil.getRequestContext(acct);
+        context.put(SoapEngine.ZIMBRA_CONTEXT, zsc);
+        Element request = Element.create(proto, MailConstants.SEARCH_REQUEST)
+                .addAttribute(MailConstants.A_SEARCH_TYPES, "message")
+                .addAttribute(MailConstants.A_QUERY_LIMIT, HITS);
+        request.addAttribute(MailConstants.E_QUERY, "benchmark", Element.Disposition.CONTENT);
+
+        // hold several responses at once so that their size stands out from the noise of the rest of the heap
+        Element[] held = new Element[HELD];
+        long before = usedMemory();
+        long handlerBytes = allocatedBytes();
+        for (int i = 0; i < HELD; i++) {
+            held[i] = proto.soapEnvelope(new Search().handle(request, context));
+        }
+        handlerBytes = (allocatedBytes() - handlerBytes) / HELD;
+        long heldBytes = (usedMemory() - before) / HELD;
+
+        CountingOutputStream sink = new CountingOutputStream();
+        long writeBytes = allocatedBytes();
+        if (writer) {
+            ZimbraServletOutputStream out = new ZimbraServletOutputStream(sink);
+            held[0].output(out);
+            out.flush();
+        } else {
+            sink.write(held[0].toUTF8());
+        }
+        writeBytes = allocatedBytes() - writeBytes;
+        return String.format("handler allocated %6.1fMB  held until written %6.0fKB  writing allocated %6.0fKB" +
+                "  response %4.0fKB", mb(handlerBytes), heldBytes / 1024.0, writeBytes / 1024.0, sink.count / 1024.0);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long usedMemory() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
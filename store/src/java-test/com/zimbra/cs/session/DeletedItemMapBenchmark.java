@@ -0,0 +1,96 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.util.TypedIdList;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * Records the deletion of a large folder the way emptying it does, and reports the time and the heap retained by the
+ * deletions as recorded in a {@link DeletedItemMap} and, for comparison, in a HashMap of a key and a change per item.
+ * Each is recorded twice, as {@code Mailbox} keeps the live set and the snapshot it notifies listeners with.
+ * <p>
+ * Usage: <tt>DeletedItemMapBenchmark [items [rounds]]</tt>, by default 200000 items and 10 rounds.
+ */
+public class DeletedItemMapBenchmark {
+
+    private static final String ACCOUNT = "11122233-1111-1111-1111-111222333444";
+
+    public static void main(String[] args) throws Exception {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        TypedIdList idlist = new TypedIdList();
+        for (int i = 0; i < items; i++) {
+            idlist.add(MailItem.Type.MESSAGE, 1000 + i, 2, null);
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            boolean report = round == rounds - 1;
+            long before = usedHeap();
+            long start = System.nanoTime();
+            PendingLocalModifications live = new PendingLocalModifications();
+            live.recordDeleted(ACCOUNT, idlist);
+            PendingLocalModifications snapshot = new PendingLocalModifications();
+            snapshot.recordDeleted(live.deleted);
+            long elapsed = System.nanoTime() - start;
+            long retained = usedHeap() - before;
+            if (report) {
+                System.out.printf("columnar: %d deletions in %.1fms, %.1fMB retained%n",
+                        live.deleted.size() + snapshot.deleted.size(), elapsed / 1e6, retained / 1048576.0);
+            }
+            live = snapshot = null;
+
+            before = usedHeap();
+            start = System.nanoTime();
+            Map<ModificationKey, Change> liveMap = hashMap(idlist);
+            Map<ModificationKey, Change> snapshotMap = new HashMap<ModificationKey, Change>(liveMap);
+            elapsed = System.nanoTime() - start;
+            retained = usedHeap() - before;
+            if (report) {
+                System.out.printf("hash map: %d deletions in %.1fms, %.1fMB retained%n",
+                        liveMap.size() + snapshotMap.size(), elapsed / 1e6, retained / 1048576.0);
+            }
+            liveMap = snapshotMap = null;
+        }
+    }
+
+    private static Map<ModificationKey, Change> hashMap(TypedIdList idlist) {
+        Map<ModificationKey, Change> map = new HashMap<ModificationKey, Change>();
+        for (Map.Entry<MailItem.Type, List<TypedIdList.ItemInfo>> entry : idlist) {
+            for (TypedIdList.ItemInfo iinfo : entry.getValue()) {
+                Change chg = new Change(entry.getKey(), Change.NONE, null);
+                chg.setFolderId(iinfo.getFolderId());
+                map.put(new ModificationKey(ACCOUNT, iinfo.getId()), chg);
+            }
+        }
+        return map;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
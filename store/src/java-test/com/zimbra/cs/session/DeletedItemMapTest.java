@@ -0,0 +1,133 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.util.TypedIdList;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * Unit test for {@link DeletedItemMap}.
+ */
+public final class DeletedItemMapTest {
+
+    private static final String ACCOUNT = "11122233-1111-1111-1111-111222333444";
+
+    private static String describe(Change chg) {
+        return chg == null ? null : chg.what + "/" + chg.why + "/" + chg.preModifyObj + "/" + chg.getFolderId();
+    }
+
+    private static Map<String, String> describe(Map<ModificationKey, Change> map) {
+        Map<String, String> result = new HashMap<String, String>();
+        for (Map.Entry<ModificationKey, Change> entry : map.entrySet()) {
+            Assert.assertNull(result.put(entry.getKey().toString(), describe(entry.getValue())));
+        }
+        return result;
+    }
+
+    private static Change change(Random random) {
+        MailItem.Type type = random.nextBoolean() ? MailItem.Type.MESSAGE : MailItem.Type.CONTACT;
+        switch (random.nextInt(4)) {
+            case 0:
+                return new Change(type, Change.NONE, null);
+            case 1:
+                return new Change(type, Change.NONE, random.nextInt(10));
+            case 2:
+                Change chg = new Change(type, Change.NONE, null);
+                chg.setFolderId(random.nextInt(10));
+                return chg;
+            default:
+                // doesn't fit in a row
+                return new Change(type, Change.NONE, "snapshot");
+        }
+    }
+
+    @Test
+    public void sameAsHashMap() {
+        Random random = new Random(42);
+        DeletedItemMap map = new DeletedItemMap();
+        Map<ModificationKey, Change> expected = new HashMap<ModificationKey, Change>();
+        for (int i = 0; i < 20000; i++) {
+            ModificationKey key = new ModificationKey(random.nextBoolean() ? ACCOUNT : "other", random.nextInt(500));
+            int op = random.nextInt(10);
+            if (op < 5) {
+                Change chg = change(random);
+                Assert.assertEquals(describe(expected.put(key, chg)), describe(map.put(key, chg)));
+            } else if (op < 8) {
+                Assert.assertEquals(describe(expected.remove(key)), describe(map.remove(key)));
+            } else {
+                Assert.assertEquals(expected.containsKey(key), map.containsKey(key));
+                Assert.assertEquals(describe(expected.get(key)), describe(map.get(key)));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        Assert.assertEquals(describe(expected), describe(map));
+
+        for (Iterator<Map.Entry<ModificationKey, Change>> it = map.entrySet().iterator(); it.hasNext();) {
+            if (it.next().getKey().getItemId() % 2 == 0) {
+                it.remove();
+            }
+        }
+        for (Iterator<ModificationKey> it = expected.keySet().iterator(); it.hasNext();) {
+            if (it.next().getItemId() % 2 == 0) {
+                it.remove();
+            }
+        }
+        Assert.assertEquals(describe(expected), describe(map));
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertFalse(map.entrySet().iterator().hasNext());
+    }
+
+    @Test
+    public void recordDeleted() throws Exception {
+        TypedIdList idlist = new TypedIdList();
+        for (int id = 100; id < 1100; id++) {
+            idlist.add(MailItem.Type.MESSAGE, id, 2, null);
+        }
+        idlist.add(MailItem.Type.CONTACT, 2000, 7, null);
+        idlist.add(MailItem.Type.FOLDER, 5000, 1, null);
+
+        PendingLocalModifications pms = new PendingLocalModifications();
+        pms.recordDeleted(ACCOUNT, 2000, 7, MailItem.Type.CONTACT);
+        pms.recordDeleted(ACCOUNT, idlist);
+        Assert.assertTrue(pms.deleted instanceof DeletedItemMap);
+        Assert.assertEquals(1002, pms.deleted.size());
+        Assert.assertEquals("message/0/null/2", describe(pms.deleted.get(new ModificationKey(ACCOUNT, 100))));
+        Assert.assertEquals("folder/0/null/1", describe(pms.deleted.get(new ModificationKey(ACCOUNT, 5000))));
+        Assert.assertEquals("contact/0/null/-1", describe(pms.deleted.get(new ModificationKey(ACCOUNT, 2000))));
+        Assert.assertTrue(pms.getChangedParentFolders().contains(2));
+        Assert.assertTrue(pms.changedTypes.contains(MailItem.Type.FOLDER));
+
+        PendingLocalModifications merged = new PendingLocalModifications();
+        merged.add(pms);
+        Assert.assertEquals(describe(pms.deleted), describe(merged.deleted));
+
+        // changes handed out are copies
+        pms.deleted.get(new ModificationKey(ACCOUNT, 100)).setFolderId(5);
+        Assert.assertEquals("message/0/null/2", describe(pms.deleted.get(new ModificationKey(ACCOUNT, 100))));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+
+/**
+ * Unit test for {@link SomeAccountsWaitSet}.
+ */
+public final class SomeAccountsWaitSetTest {
+
+    private static final Set<MailItem.Type> MESSAGES = EnumSet.of(MailItem.Type.MESSAGE);
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", attrs);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static WaitSetCallback doWait(SomeAccountsWaitSet ws, String seqNo) throws Exception {
+        WaitSetCallback cb = new WaitSetCallback();
+        cb.completedLatch = new CountDownLatch(1);
+        ws.doWait(cb, seqNo, null, null);
+        cb.completedLatch.await(10, TimeUnit.SECONDS);
+        return cb;
+    }
+
+    @Test
+    public void coalescedChanges() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        SomeAccountsWaitSet ws = new SomeAccountsWaitSet(MockProvisioning.DEFAULT_ACCOUNT_ID, "ws-coalesce", MESSAGES);
+        MailboxManager.getInstance().addListener(ws);
+        try {
+            Assert.assertEquals(Collections.emptyList(), ws.addAccountErrors(Collections.singletonList(
+                    new WaitSetAccount(mbox.getAccountId(), null, MESSAGES, null))));
+
+            DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+            mbox.addMessage(null, MailboxTestUtil.generateMessage("first"), dopt, null);
+            mbox.addMessage(null, MailboxTestUtil.generateMessage("second"), dopt, null);
+
+            WaitSetCallback cb = doWait(ws, "1");
+            Assert.assertTrue(cb.completed);
+            Assert.assertEquals(Collections.singleton(mbox.getAccountId()), new HashSet<String>(cb.signalledAccounts));
+            // both commits are sent, not just the one that signalled the account
+            int messages = 0;
+            for (Object item : cb.pendingModifications.get(mbox.getAccountId()).created.values()) {
+                if (item instanceof Message) {
+                    messages++;
+                }
+            }
+            Assert.assertEquals(2, messages);
+        } finally {
+            ws.destroy();
+        }
+    }
+
+    @Test
+    public void concurrentSignals() throws Exception {
+        final int accounts = 500;
+        final int threads = 8;
+        SomeAccountsWaitSet ws = new SomeAccountsWaitSet(MockProvisioning.DEFAULT_ACCOUNT_ID, "ws-concurrent", MESSAGES);
+        MailboxManager.getInstance().addListener(ws);
+        try {
+            List<WaitSetAccount> wsas = new ArrayList<WaitSetAccount>();
+            final List<WaitSetSession> sessions = new ArrayList<WaitSetSession>();
+            for (int i = 0; i < accounts; i++) {
+                String id = UUID.randomUUID().toString();
+                HashMap<String, Object> attrs = new HashMap<String, Object>();
+                attrs.put(Provisioning.A_zimbraId, id);
+                Provisioning.getInstance().createAccount("user" + i + "@zimbra.com", "secret", attrs);
+                wsas.add(new WaitSetAccount(id, null, MESSAGES, null));
+                sessions.add(new WaitSetSession(ws, id, MESSAGES, null, null));
+            }
+            Assert.assertEquals(Collections.emptyList(), ws.addAccountErrors(wsas));
+
+            List<Thread> committers = new ArrayList<Thread>();
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                committers.add(new Thread() {
+                    @Override
+                    public void run() {
+                        for (int i = first; i < accounts; i += threads) {
+                            PendingLocalModifications pms = new PendingLocalModifications();
+                            pms.changedTypes.add(MailItem.Type.MESSAGE);
+                            sessions.get(i).notifyPendingChanges(pms, i + 1, null);
+                        }
+                    }
+                });
+            }
+            for (Thread t : committers) {
+                t.start();
+            }
+
+            Set<String> signalled = new HashSet<String>();
+            String seqNo = "1";
+            long deadline = System.currentTimeMillis() + 30000;
+            while (signalled.size() < accounts && System.currentTimeMillis() < deadline) {
+                WaitSetCallback cb = doWait(ws, seqNo);
+                if (cb.completed) {
+                    signalled.addAll(cb.signalledAccounts);
+                    seqNo = cb.seqNo;
+                }
+            }
+            for (Thread t : committers) {
+                t.join();
+            }
+            Assert.assertEquals(accounts, signalled.size());
+        } finally {
+            ws.destroy();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Simulates a sync client holding a {@link SomeAccountsWaitSet} over many accounts while mailbox commits on several
+ * threads notify the accounts' sessions, and reports how long commits spend signalling the WaitSet and how long a
+ * signal takes to reach the waiting client.
+ * <p>
+ * The latency of an account is measured from the first commit that signals it until a callback returns it.  The
+ * client issues its next wait as soon as a callback returns, as WaitSetRequest does.
+ * <p>
+ * Usage: <tt>WaitSetNotificationBenchmark [accounts [threads [commits per thread]]]</tt>, by default 50000 accounts,
+ * 16 threads and 100000 commits per thread.
+ */
+public class WaitSetNotificationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int accounts = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        final int commits = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+        final Set<MailItem.Type> interest = EnumSet.of(MailItem.Type.MESSAGE);
+
+        MailboxTestUtil.initServer();
+        final SomeAccountsWaitSet ws = new SomeAccountsWaitSet("owner", "bench", interest);
+        MailboxManager.getInstance().addListener(ws);
+        final List<WaitSetSession> sessions = new ArrayList<WaitSetSession>(accounts);
+        final Map<String, Integer> index = new HashMap<String, Integer>();
+        List<WaitSetAccount> wsas = new ArrayList<WaitSetAccount>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            String id = UUID.randomUUID().toString();
+            HashMap<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put(Provisioning.A_zimbraId, id);
+            Provisioning.getInstance().createAccount("user" + i + "@zimbra.com", "secret", attrs);
+            wsas.add(new WaitSetAccount(id, null, interest, null));
+            sessions.add(new WaitSetSession(ws, id, interest, null, null));
+            index.put(id, i);
+        }
+        long start = System.nanoTime();
+        ws.addAccountErrors(wsas);
+        System.out.printf("added %d accounts in %dms%n", accounts, (System.nanoTime() - start) / 1000000);
+
+        final AtomicLongArray signalledAt = new AtomicLongArray(accounts);
+        final long[] commitNanos = new long[threads];
+        List<Thread> committers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            committers.add(new Thread("committer-" + t) {
+                @Override
+                public void run() {
+                    Random random = new Random(thread);
+                    long spent = 0;
+                    for (int i = 0; i < commits; i++) {
+                        int account = random.nextInt(accounts);
+                        PendingLocalModifications pms = new PendingLocalModifications();
+                        pms.changedTypes.add(MailItem.Type.MESSAGE);
+                        long now = System.nanoTime();
+                        signalledAt.compareAndSet(account, 0, now);
+                        sessions.get(account).notifyPendingChanges(pms, i + 1, null);
+                        spent += System.nanoTime() - now;
+                    }
+                    commitNanos[thread] = spent;
+                }
+            });
+        }
+
+        final List<Long> latencies = new ArrayList<Long>();
+        final int[] callbacks = new int[1];
+        final CountDownLatch committed = new CountDownLatch(threads);
+        Thread client = new Thread("client") {
+            @Override
+            public void run() {
+                String seqNo = "1";
+                try {
+                    while (committed.getCount() > 0 || hasPending(signalledAt)) {
+                        WaitSetCallback cb = new WaitSetCallback();
+                        cb.completedLatch = new CountDownLatch(1);
+                        ws.doWait(cb, seqNo, null, null);
+                        cb.completedLatch.await(100, TimeUnit.MILLISECONDS);
+                        synchronized (cb) {
+                            if (!cb.completed) {
+                                continue;
+                            }
+                        }
+                        long now = System.nanoTime();
+                        for (String accountId : cb.signalledAccounts) {
+                            long at = signalledAt.getAndSet(index.get(accountId), 0);
+                            if (at != 0) {
+                                latencies.add(now - at);
+                            }
+                        }
+                        callbacks[0]++;
+                        seqNo = cb.seqNo;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+
+        client.start();
+        start = System.nanoTime();
+        for (Thread t : committers) {
+            t.start();
+        }
+        for (Thread t : committers) {
+            t.join();
+            committed.countDown();
+        }
+        long elapsed = System.nanoTime() - start;
+        client.join();
+        ws.destroy();
+
+        long spent = 0;
+        for (long nanos : commitNanos) {
+            spent += nanos;
+        }
+        long total = (long) threads * commits;
+        System.out.printf("%d commits on %d threads in %dms: %.0f commits/s, %.2fus signalling per commit%n",
+                total, threads, elapsed / 1000000, total * 1e9 / elapsed, spent / 1000.0 / total);
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        System.out.printf("%d notifications in %d callbacks (%.1f accounts per callback)%n", sorted.length,
+                callbacks[0], callbacks[0] == 0 ? 0.0 : (double) sorted.length / callbacks[0]);
+        if (sorted.length > 0) {
+            System.out.printf("notification latency: p50 %.2fms  p90 %.2fms  p99 %.2fms  max %.2fms%n",
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                    sorted[sorted.length - 1] / 1e6);
+        }
+    }
+
+    private static boolean hasPending(AtomicLongArray signalledAt) {
+        for (int i = 0; i < signalledAt.length(); i++) {
+            if (signalledAt.get(i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / 1e6;
+    }
+}
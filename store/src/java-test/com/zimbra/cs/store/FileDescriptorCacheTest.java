@@ -20,12 +20,15 @@ package com.zimbra.cs.store;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.ClosedByInterruptException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.GZIPOutputStream;
 
 import org.junit.After;
@@ -122,6 +125,113 @@ public class FileDescriptorCacheTest {
         assertEquals(2, fdc.getSize());
     }
 
+    @Test
+    public void inUseCountsAgainstBudget()
+    throws Exception {
+        FileCache<String> uc = FileCache.Builder.createWithStringKey(uncompressedDir, false).build();
+        FileDescriptorCache fdc = new FileDescriptorCache(uc);
+        fdc.setMaxSize(1);
+
+        File file1 = createPlain("Walking On The Moon");
+        File file2 = createPlain("Message In A Bottle");
+
+        SharedFile shared1 = fdc.getSharedFile(file1.getPath(), file1.length());
+        assertEquals(1, fdc.getInUseCount());
+        assertEquals(0, fdc.getIdleCount());
+
+        // Reading file2 ages out file1, which stays open because it is still being read.
+        byte[] buf = new byte[7];
+        assertEquals(7, fdc.read(file2.getPath(), file2.length(), 8, buf, 0, buf.length));
+        assertEquals("In A Bo", new String(buf));
+        assertFalse(fdc.contains(file1.getPath()));
+        assertFalse(shared1.isClosed());
+        assertEquals(1, fdc.getInUseCount());
+
+        shared1.doneReading();
+        fdc.read(file2.getPath(), file2.length(), 0, buf, 0, buf.length);
+        assertTrue(shared1.isClosed());
+        assertEquals(0, fdc.getInUseCount());
+        assertEquals(1, fdc.getIdleCount());
+        assertFalse(shared1.aboutToRead());
+    }
+
+    @Test
+    public void interruptedReader()
+    throws Exception {
+        FileCache<String> uc = FileCache.Builder.createWithStringKey(uncompressedDir, false).build();
+        FileDescriptorCache fdc = new FileDescriptorCache(uc);
+        File file = createPlain("Roxanne");
+        byte[] buf = new byte[3];
+        fdc.read(file.getPath(), file.length(), 0, buf, 0, buf.length);
+        SharedFile shared = fdc.getSharedFile(file.getPath(), file.length());
+        shared.doneReading();
+
+        // the interrupted reader closes the channel it shares with everybody else
+        Thread.currentThread().interrupt();
+        try {
+            fdc.read(file.getPath(), file.length(), 0, buf, 0, buf.length);
+            fail("read should have been interrupted");
+        } catch (ClosedByInterruptException e) {
+        } finally {
+            Thread.interrupted();
+        }
+        assertTrue(shared.isClosed());
+
+        // later readers get a new descriptor
+        assertEquals(3, fdc.read(file.getPath(), file.length(), 4, buf, 0, buf.length));
+        assertEquals("nne", new String(buf));
+        assertFalse(fdc.getSharedFile(file.getPath(), file.length()) == shared);
+    }
+
+    @Test
+    public void concurrentPositionalReads()
+    throws Exception {
+        FileCache<String> uc = FileCache.Builder.createWithStringKey(uncompressedDir, false).build();
+        final FileDescriptorCache fdc = new FileDescriptorCache(uc);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append(String.format("%04d", i));
+        }
+        final File file = createPlain(sb.toString());
+        final AtomicInteger failures = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int start = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    byte[] buf = new byte[4];
+                    try {
+                        for (int i = start; i < 1000; i += 3) {
+                            fdc.read(file.getPath(), file.length(), i * 4, buf, 0, buf.length);
+                            if (!String.format("%04d", i).equals(new String(buf))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(1, fdc.getSize());
+        assertEquals(0, fdc.getInUseCount());
+    }
+
+    private File createPlain(String content)
+    throws IOException {
+        File file = File.createTempFile(NAME_PREFIX, ".tmp");
+        tempFiles.add(file);
+        Files.write(content.getBytes(), file);
+        return file;
+    }
+
     private void write(File file, String content)
     throws IOException {
         OutputStream out = new GZIPOutputStream(new FileOutputStream(file));
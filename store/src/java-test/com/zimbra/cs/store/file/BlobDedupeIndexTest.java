@@ -0,0 +1,155 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.file;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.store.Blob;
+import com.zimbra.cs.store.MailboxBlob;
+import com.zimbra.cs.store.StagedBlob;
+import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.volume.Volume;
+import com.zimbra.cs.volume.VolumeManager;
+import com.zimbra.qa.unittest.TestUtil;
+
+/**
+ * Unit test for {@link BlobDedupeIndex}.
+ */
+public final class BlobDedupeIndexTest {
+
+    private StoreManager originalStoreManager;
+    private Mailbox mbox;
+    private Volume volume;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        System.setProperty("zimbra.native.required", "false");
+        MailboxTestUtil.initServer();
+        MailboxTestUtil.initProvisioning();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        originalStoreManager = StoreManager.getInstance();
+        StoreManager.setInstance(new FileBlobStore());
+        StoreManager.getInstance().startup();
+        LC.zimbra_store_dedupe_enabled.setDefault(true);
+        LC.zimbra_store_dedupe_min_size.setDefault(1024);
+        mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        volume = VolumeManager.getInstance().getCurrentMessageVolume();
+        BlobDedupeIndex.sweep(volume);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        LC.zimbra_store_dedupe_enabled.setDefault(false);
+        LC.zimbra_store_dedupe_min_size.setDefault(4096);
+        StoreManager.getInstance().shutdown();
+        StoreManager.setInstance(originalStoreManager);
+    }
+
+    private static byte[] content(int size, char c) {
+        byte[] content = new byte[size];
+        Arrays.fill(content, (byte) c);
+        return content;
+    }
+
+    private MailboxBlob deliver(byte[] content, int itemId) throws Exception {
+        StoreManager sm = StoreManager.getInstance();
+        Blob blob = sm.storeIncoming(new ByteArrayInputStream(content));
+        StagedBlob staged = sm.stage(blob, mbox);
+        return sm.renameTo(staged, mbox, itemId, 1);
+    }
+
+    @Test
+    public void separateDeliveries() throws Exception {
+        byte[] content = content(10000, 'a');
+        long saved = ZimbraPerf.COUNTER_BLOB_DEDUPE_BYTES.getTotal();
+        MailboxBlob first = deliver(content, 1000);
+        MailboxBlob second = deliver(content, 1001);
+        MailboxBlob other = deliver(content(10000, 'b'), 1002);
+
+        File file = first.getLocalBlob().getFile();
+        Assert.assertTrue(Files.isSameFile(file.toPath(), second.getLocalBlob().getFile().toPath()));
+        Assert.assertFalse(Files.isSameFile(file.toPath(), other.getLocalBlob().getFile().toPath()));
+        Assert.assertEquals(3, ((Number) Files.getAttribute(file.toPath(), "unix:nlink")).intValue());
+        Assert.assertTrue(TestUtil.bytesEqual(content, second.getLocalBlob().getInputStream()));
+        Assert.assertEquals(saved + content.length, ZimbraPerf.COUNTER_BLOB_DEDUPE_BYTES.getTotal());
+
+        // deleting one blob leaves the other and the index entry
+        StoreManager.getInstance().delete(first);
+        Assert.assertEquals(0, BlobDedupeIndex.sweep(volume));
+        Assert.assertTrue(TestUtil.bytesEqual(content, second.getLocalBlob().getInputStream()));
+
+        // the entry goes once no blob links to it, and a new delivery is written out again
+        StoreManager.getInstance().delete(second);
+        StoreManager.getInstance().delete(other);
+        Assert.assertEquals(2, BlobDedupeIndex.sweep(volume));
+        MailboxBlob third = deliver(content, 1003);
+        Assert.assertEquals(2, ((Number) Files.getAttribute(third.getLocalBlob().getFile().toPath(),
+                "unix:nlink")).intValue());
+        StoreManager.getInstance().delete(third);
+    }
+
+    @Test
+    public void volumeMove() throws Exception {
+        byte[] content = content(10000, 'c');
+        MailboxBlob first = deliver(content, 1010);
+        MailboxBlob second = deliver(content, 1011);
+
+        // moving a blob to another path of the volume (as HSM would to another volume) links it to the copy too
+        FileBlobStore store = (FileBlobStore) StoreManager.getInstance();
+        MailboxBlob moved = store.copy(second.getLocalBlob(), mbox, 1012, 1, volume.getId());
+        StoreManager.getInstance().delete(second);
+        Assert.assertTrue(Files.isSameFile(first.getLocalBlob().getFile().toPath(),
+                moved.getLocalBlob().getFile().toPath()));
+        Assert.assertTrue(TestUtil.bytesEqual(content, moved.getLocalBlob().getInputStream()));
+        StoreManager.getInstance().delete(first);
+        StoreManager.getInstance().delete(moved);
+        Assert.assertEquals(1, BlobDedupeIndex.sweep(volume));
+    }
+
+    @Test
+    public void small() throws Exception {
+        byte[] content = content(100, 'd');
+        MailboxBlob first = deliver(content, 1020);
+        MailboxBlob second = deliver(content, 1021);
+        Assert.assertFalse(Files.isSameFile(first.getLocalBlob().getFile().toPath(),
+                second.getLocalBlob().getFile().toPath()));
+        StoreManager.getInstance().delete(first);
+        StoreManager.getInstance().delete(second);
+        Assert.assertEquals(0, BlobDedupeIndex.sweep(volume));
+    }
+}
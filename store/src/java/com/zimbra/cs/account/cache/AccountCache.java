@@ -23,38 +23,54 @@
  */
 package com.zimbra.cs.account.cache;
 
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang.StringUtils;
 
-import com.zimbra.common.util.MapUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.HitRateCounter;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.stats.ZimbraPerf;
 
+/**
+ * Indexes accounts by name, id, alias, foreign principal and old address, each bounded to <tt>maxItems</tt>.  As in
+ * {@link NamedEntryCache}, lookups don't lock, and accounts used shortly before they expire are reloaded in the
+ * background if an {@link EntryCacheRefresher} is given.
+ */
 public class AccountCache implements IAccountCache {
 
-    private Map<String, CacheEntry> mNameCache;
-    private Map<String, CacheEntry> mIdCache;
-    private Map<String, CacheEntry> mAliasCache;
-    private Map<String, CacheEntry> mForeignPrincipalCache;
-    private Map<String, CacheEntry> mOldNameCache;
-    private Counter mHitRate = new HitRateCounter();
+    private final Cache<String, CacheEntry> mNameCache;
+    private final Cache<String, CacheEntry> mIdCache;
+    private final Cache<String, CacheEntry> mAliasCache;
+    private final Cache<String, CacheEntry> mForeignPrincipalCache;
+    private final Cache<String, CacheEntry> mOldNameCache;
+    private final Counter mHitRate = new HitRateCounter();
 
-    private long mRefreshTTL;
+    private final long mRefreshTTL;
+    private final EntryCacheRefresher mRefresher;
 
     static class CacheEntry {
-        long mLifetime;
-        Account mEntry;
+        final long mLifetime;
+        final long mRefreshTime;
+        final Account mEntry;
+        private final AtomicBoolean mRefreshQueued = new AtomicBoolean();
 
-        CacheEntry(Account entry, long expires) {
+        CacheEntry(Account entry, long expires, EntryCacheRefresher refresher) {
+            long now = System.currentTimeMillis();
             mEntry = entry;
-            mLifetime = System.currentTimeMillis() + expires;
+            mLifetime = now + expires;
+            mRefreshTime = refresher == null ? Long.MAX_VALUE : refresher.getRefreshTime(now, expires);
+        }
+
+        boolean isStale(long now) {
+            return mLifetime < now;
         }
 
-        boolean isStale() {
-            return mLifetime < System.currentTimeMillis();
+        boolean needsRefresh(long now) {
+            return now >= mRefreshTime && mRefreshQueued.compareAndSet(false, true);
         }
     }
 
@@ -63,48 +79,93 @@ public class AccountCache implements IAccountCache {
      * @param refreshTTL
      */
     public AccountCache(int maxItems, long refreshTTL) {
-        mNameCache = MapUtil.newLruMap(maxItems);
-        mIdCache = MapUtil.newLruMap(maxItems);
-        mAliasCache = MapUtil.newLruMap(maxItems);
-        mForeignPrincipalCache = MapUtil.newLruMap(maxItems);
-        mOldNameCache = MapUtil.newLruMap(maxItems);
+        this(maxItems, refreshTTL, null);
+    }
+
+    /**
+     * @param refresher reloads accounts about to expire, or {@code null} to let them expire
+     */
+    public AccountCache(int maxItems, long refreshTTL, EntryCacheRefresher refresher) {
+        mNameCache = newIndex(maxItems);
+        mIdCache = newIndex(maxItems);
+        mAliasCache = newIndex(maxItems);
+        mForeignPrincipalCache = newIndex(maxItems);
+        mOldNameCache = newIndex(maxItems);
         mRefreshTTL = refreshTTL;
+        mRefresher = refresher;
+    }
+
+    private static Cache<String, CacheEntry> newIndex(int maxItems) {
+        return CacheBuilder.newBuilder().maximumSize(maxItems).build();
     }
 
     @Override
-    public synchronized void clear() {
-        mNameCache.clear();
-        mIdCache.clear();
-        mAliasCache.clear();
-        mForeignPrincipalCache.clear();
-        mOldNameCache.clear();
+    public void clear() {
+        mNameCache.invalidateAll();
+        mIdCache.invalidateAll();
+        mAliasCache.invalidateAll();
+        mForeignPrincipalCache.invalidateAll();
+        mOldNameCache.invalidateAll();
     }
 
     @Override
-    public synchronized void remove(Account entry) {
+    public void remove(Account entry) {
         if (entry != null) {
-            mNameCache.remove(entry.getName());
-            mIdCache.remove(entry.getId());
+            if (entry.getName() != null) {
+                mNameCache.invalidate(entry.getName());
+            }
+            if (entry.getId() != null) {
+                mIdCache.invalidate(entry.getId());
+            }
 
             String aliases[] = entry.getMultiAttr(Provisioning.A_zimbraMailAlias);
             for (String alias : aliases) {
-                mAliasCache.remove(alias);
+                mAliasCache.invalidate(alias);
             }
 
             String fps[] = entry.getMultiAttr(Provisioning.A_zimbraForeignPrincipal);
             for (String fp : fps) {
-                mForeignPrincipalCache.remove(fp);
+                mForeignPrincipalCache.invalidate(fp);
+            }
+            if (entry.getOldMailAddress() != null) {
+                mOldNameCache.invalidate(entry.getOldMailAddress());
             }
-            mOldNameCache.remove(entry.getOldMailAddress());
+        }
+    }
+
+    /**
+     * Drops the keys of an expired entry that still map to it.
+     */
+    private void removeStale(CacheEntry ce) {
+        Account entry = ce.mEntry;
+        if (entry.getName() != null) {
+            mNameCache.asMap().remove(entry.getName(), ce);
+        }
+        if (entry.getId() != null) {
+            mIdCache.asMap().remove(entry.getId(), ce);
+        }
+        for (String alias : entry.getMultiAttr(Provisioning.A_zimbraMailAlias)) {
+            mAliasCache.asMap().remove(alias, ce);
+        }
+        for (String fp : entry.getMultiAttr(Provisioning.A_zimbraForeignPrincipal)) {
+            mForeignPrincipalCache.asMap().remove(fp, ce);
+        }
+        if (entry.getOldMailAddress() != null) {
+            mOldNameCache.asMap().remove(entry.getOldMailAddress(), ce);
         }
     }
 
     @Override
-    public synchronized void put(Account entry) {
+    public void put(Account entry) {
         if (entry != null) {
-            CacheEntry cacheEntry = new CacheEntry(entry, mRefreshTTL);
-            mNameCache.put(entry.getName(), cacheEntry);
-            mIdCache.put(entry.getId(), cacheEntry);
+            CacheEntry cacheEntry = new CacheEntry(entry, mRefreshTTL, mRefresher);
+            // the concurrent indexes don't take null keys
+            if (entry.getName() != null) {
+                mNameCache.put(entry.getName(), cacheEntry);
+            }
+            if (entry.getId() != null) {
+                mIdCache.put(entry.getId(), cacheEntry);
+            }
 
             String aliases[] = entry.getMultiAttr(Provisioning.A_zimbraMailAlias);
             for (String alias : aliases) {
@@ -121,57 +182,77 @@ public class AccountCache implements IAccountCache {
         }
     }
 
+    /**
+     * Same as {@link #put(Account)}, which overwrites the cached copy: removing it first would let lookups in between
+     * miss.
+     */
     @Override
-    public synchronized void replace(Account entry) {
-        remove(entry);
+    public void replace(Account entry) {
         put(entry);
     }
 
-    private Account get(String key, Map cache) {
-        CacheEntry ce = (CacheEntry) cache.get(key);
-        if (ce != null) {
-            if (mRefreshTTL != 0 && ce.isStale()) {
-                remove(ce.mEntry);
-                mHitRate.increment(0);
-                return null;
-            } else {
-                mHitRate.increment(100);
-                return ce.mEntry;
-            }
-        } else {
+    /**
+     * Returns the live entry for the key, without counting a hit or miss.
+     */
+    private CacheEntry lookup(String key, Cache<String, CacheEntry> cache, long now) {
+        CacheEntry ce = cache.getIfPresent(key);
+        if (ce != null && mRefreshTTL != 0 && ce.isStale(now)) {
+            removeStale(ce);
+            return null;
+        }
+        return ce;
+    }
+
+    private Account found(CacheEntry ce, long now) {
+        if (ce == null) {
             mHitRate.increment(0);
+            ZimbraPerf.COUNTER_LDAP_CACHE_MISSES.increment();
             return null;
         }
+        if (ce.needsRefresh(now)) {
+            mRefresher.refresh(ce.mEntry);
+        }
+        mHitRate.increment(100);
+        ZimbraPerf.COUNTER_LDAP_CACHE_HITS.increment();
+        return ce.mEntry;
     }
 
     @Override
-    public synchronized Account getById(String key) {
-        return get(key, mIdCache);
+    public Account getById(String key) {
+        long now = System.currentTimeMillis();
+        return found(lookup(key, mIdCache, now), now);
     }
 
     @Override
-    public synchronized Account getByName(String key) {
-        Account acct = get(key.toLowerCase(), mNameCache) != null ? get(key.toLowerCase(), mNameCache)
-                : get(key.toLowerCase(), mAliasCache) != null ? get(key.toLowerCase(), mAliasCache)
-                        : get(key.toLowerCase(), mOldNameCache);
-        return acct;
+    public Account getByName(String key) {
+        String name = key.toLowerCase();
+        long now = System.currentTimeMillis();
+        CacheEntry ce = lookup(name, mNameCache, now);
+        if (ce == null) {
+            ce = lookup(name, mAliasCache, now);
+        }
+        if (ce == null) {
+            ce = lookup(name, mOldNameCache, now);
+        }
+        return found(ce, now);
     }
 
     @Override
-    public synchronized Account getByForeignPrincipal(String key) {
-        return get(key, mForeignPrincipalCache);
+    public Account getByForeignPrincipal(String key) {
+        long now = System.currentTimeMillis();
+        return found(lookup(key, mForeignPrincipalCache, now), now);
     }
 
     @Override
-    public synchronized int getSize() {
-        return mIdCache.size();
+    public int getSize() {
+        return (int) mIdCache.size();
     }
 
     /**
      * Returns the cache hit rate as a value between 0 and 100.
      */
     @Override
-    public synchronized double getHitRate() {
+    public double getHitRate() {
         return mHitRate.getAverage();
     }
 }
@@ -0,0 +1,106 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.NamedEntry;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Reloads cached entries in the background shortly before they expire, so that a frequently used entry is refreshed
+ * while requests keep getting the cached copy, instead of some request finding it expired and loading it from LDAP
+ * itself.
+ * <p>
+ * An entry becomes due for refresh once less than {@code refreshAheadPercent} of its lifetime is left.  The
+ * {@link Loader}, supplied by the provisioning layer, reloads the entry in place and puts it back in its cache, which
+ * starts a new lifetime.  If the refresh fails, or the queue is full, the entry simply expires as it used to.
+ */
+public final class EntryCacheRefresher {
+
+    /**
+     * Reloads an entry and puts it back in its cache.
+     */
+    public interface Loader {
+        void reload(NamedEntry entry) throws ServiceException;
+    }
+
+    private static final int QUEUE_SIZE = 1000;
+
+    private final int refreshAheadPercent;
+    private final ThreadPoolExecutor executor;
+    private volatile Loader loader;
+
+    /**
+     * @param threads number of threads that reload entries; {@code 0} disables refresh-ahead
+     * @param refreshAheadPercent share of an entry's lifetime, at its end, during which it is refreshed
+     */
+    public EntryCacheRefresher(int threads, int refreshAheadPercent) {
+        this.refreshAheadPercent = Math.max(0, Math.min(100, refreshAheadPercent));
+        if (threads <= 0 || this.refreshAheadPercent == 0) {
+            executor = null;
+        } else {
+            executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                    new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                    new ThreadFactoryBuilder().setNameFormat("LdapCacheRefresh-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.DiscardPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    public void setLoader(Loader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Returns the time after which an entry created now with the given lifetime should be refreshed, or
+     * {@link Long#MAX_VALUE} if it never should.
+     */
+    long getRefreshTime(long now, long ttl) {
+        if (executor == null || ttl <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return now + ttl - ttl * refreshAheadPercent / 100;
+    }
+
+    /**
+     * Queues the entry to be reloaded.  Callers make sure each cached copy is queued only once.
+     */
+    void refresh(final NamedEntry entry) {
+        final Loader current = loader;
+        if (current == null || executor == null) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    current.reload(entry);
+                    ZimbraPerf.COUNTER_LDAP_CACHE_REFRESHES.increment();
+                } catch (Throwable t) {
+                    ZimbraPerf.COUNTER_LDAP_CACHE_REFRESH_FAILURES.increment();
+                    ZimbraLog.account.warn("unable to refresh cached entry %s", entry.getName(), t);
+                }
+            }
+        });
+    }
+}
@@ -24,85 +24,122 @@
 package com.zimbra.cs.account.cache;
 
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import com.zimbra.common.util.MapUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.HitRateCounter;
 import com.zimbra.cs.account.NamedEntry;
+import com.zimbra.cs.stats.ZimbraPerf;
 
 /**
+ * Name and id indexes of entries, each bounded to <tt>maxItems</tt>.  Lookups don't lock: the indexes are concurrent
+ * caches, and an expired entry is only dropped if it is still the one cached.  If an {@link EntryCacheRefresher} is
+ * given, an entry used shortly before it expires is reloaded in the background.
+ *
  * @author schemers
  **/
 public class NamedEntryCache<E extends NamedEntry> implements INamedEntryCache<E> {
-    
-    private Map mNameCache;
-    private Map mIdCache;
-    
-    private long mRefreshTTL;
-    private Counter mHitRate = new HitRateCounter();
-   
+
+    private final Cache<String, CacheEntry<E>> mNameCache;
+    private final Cache<String, CacheEntry<E>> mIdCache;
+
+    private final long mRefreshTTL;
+    private final EntryCacheRefresher mRefresher;
+    private final Counter mHitRate = new HitRateCounter();
 
     static class CacheEntry<E extends NamedEntry> {
-        long mLifetime;
-        E mEntry;
-        CacheEntry(E entry, long expires) {
+        final long mLifetime;
+        final long mRefreshTime;
+        final E mEntry;
+        private final AtomicBoolean mRefreshQueued = new AtomicBoolean();
+
+        CacheEntry(E entry, long expires, EntryCacheRefresher refresher) {
+            long now = System.currentTimeMillis();
             mEntry = entry;
-            mLifetime = System.currentTimeMillis() + expires;
+            mLifetime = now + expires;
+            mRefreshTime = refresher == null ? Long.MAX_VALUE : refresher.getRefreshTime(now, expires);
         }
-        
-        boolean isStale() {
-            return mLifetime < System.currentTimeMillis();
+
+        boolean isStale(long now) {
+            return mLifetime < now;
+        }
+
+        /**
+         * Returns true the first time this is called once the entry is due for a refresh.
+         */
+        boolean needsRefresh(long now) {
+            return now >= mRefreshTime && mRefreshQueued.compareAndSet(false, true);
         }
     }
-    
+
 /**
  * @param maxItems
  * @param refreshTTL
  */
     public NamedEntryCache(int maxItems, long refreshTTL) {
-        mNameCache = MapUtil.newLruMap(maxItems);
-        mIdCache = MapUtil.newLruMap(maxItems);
+        this(maxItems, refreshTTL, null);
+    }
+
+    /**
+     * @param refresher reloads entries about to expire, or {@code null} to let them expire
+     */
+    public NamedEntryCache(int maxItems, long refreshTTL, EntryCacheRefresher refresher) {
+        mNameCache = CacheBuilder.newBuilder().maximumSize(maxItems).build();
+        mIdCache = CacheBuilder.newBuilder().maximumSize(maxItems).build();
         mRefreshTTL = refreshTTL;
+        mRefresher = refresher;
     }
 
     @Override
-    public synchronized void clear() {
-        mNameCache.clear();
-        mIdCache.clear();
+    public void clear() {
+        mNameCache.invalidateAll();
+        mIdCache.invalidateAll();
     }
 
     @Override
-    public synchronized void remove(String name, String id) {
-        mNameCache.remove(name);
-        mIdCache.remove(id);
+    public void remove(String name, String id) {
+        if (name != null) {
+            mNameCache.invalidate(name);
+        }
+        if (id != null) {
+            mIdCache.invalidate(id);
+        }
     }
-    
+
     @Override
-    public synchronized void remove(E entry) {
+    public void remove(E entry) {
         if (entry != null) {
-            mNameCache.remove(entry.getName());
-            mIdCache.remove(entry.getId());
+            remove(entry.getName(), entry.getId());
         }
     }
-    
+
     @Override
-    public synchronized void put(E entry) {
+    public void put(E entry) {
         if (entry != null) {
-            CacheEntry<E> cacheEntry = new CacheEntry<E>(entry, mRefreshTTL);
-            mNameCache.put(entry.getName(), cacheEntry);
-            mIdCache.put(entry.getId(), cacheEntry);
+            CacheEntry<E> cacheEntry = new CacheEntry<E>(entry, mRefreshTTL, mRefresher);
+            // the concurrent indexes don't take null keys
+            if (entry.getName() != null) {
+                mNameCache.put(entry.getName(), cacheEntry);
+            }
+            if (entry.getId() != null) {
+                mIdCache.put(entry.getId(), cacheEntry);
+            }
         }
     }
-    
+
+    /**
+     * Same as {@link #put(NamedEntry)}, which overwrites the cached copy: removing it first would let lookups in
+     * between miss.
+     */
     @Override
-    public synchronized void replace(E entry) {
-        remove(entry);
+    public void replace(E entry) {
         put(entry);
     }
 
     @Override
-    public synchronized void put(List<E> entries, boolean clear) {
+    public void put(List<E> entries, boolean clear) {
         if (entries != null) {
             if (clear) clear();
             for (E e: entries)
@@ -110,45 +147,59 @@ public class NamedEntryCache<E extends NamedEntry> implements INamedEntryCache<E
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private E get(String key, Map cache) {
-        CacheEntry<E> ce = (CacheEntry<E>) cache.get(key);
+    private E get(String key, Cache<String, CacheEntry<E>> cache) {
+        CacheEntry<E> ce = cache.getIfPresent(key);
         if (ce != null) {
-            if (mRefreshTTL != 0 && ce.isStale()) {
-                remove(ce.mEntry);
-                mHitRate.increment(0);
+            long now = System.currentTimeMillis();
+            if (mRefreshTTL != 0 && ce.isStale(now)) {
+                if (ce.mEntry.getName() != null) {
+                    mNameCache.asMap().remove(ce.mEntry.getName(), ce);
+                }
+                if (ce.mEntry.getId() != null) {
+                    mIdCache.asMap().remove(ce.mEntry.getId(), ce);
+                }
+                miss();
                 return null;
             } else {
+                if (ce.needsRefresh(now)) {
+                    mRefresher.refresh(ce.mEntry);
+                }
                 mHitRate.increment(100);
+                ZimbraPerf.COUNTER_LDAP_CACHE_HITS.increment();
                 return ce.mEntry;
             }
         } else {
-            mHitRate.increment(0);
+            miss();
             return null;
         }
     }
-    
+
+    private void miss() {
+        mHitRate.increment(0);
+        ZimbraPerf.COUNTER_LDAP_CACHE_MISSES.increment();
+    }
+
     @Override
-    public synchronized E getById(String key) {
+    public E getById(String key) {
         return get(key, mIdCache);
     }
-    
+
     @Override
-    public synchronized E getByName(String key) {
+    public E getByName(String key) {
         return get(key.toLowerCase(), mNameCache);
     }
-    
+
     @Override
-    public synchronized int getSize() {
-        return mIdCache.size();
+    public int getSize() {
+        return (int) mIdCache.size();
     }
-    
-  
+
+
     /**
      * Returns the cache hit rate as a value between 0 and 100.
      */
     @Override
-    public synchronized double getHitRate() {
+    public double getHitRate() {
         return mHitRate.getAverage();
     }
 }
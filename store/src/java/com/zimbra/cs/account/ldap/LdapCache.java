@@ -37,6 +37,7 @@ import com.zimbra.cs.account.XMPPComponent;
 import com.zimbra.cs.account.cache.AccountCache;
 import com.zimbra.cs.account.cache.DomainCache;
 import com.zimbra.cs.account.cache.DomainCache.GetFromDomainCacheOption;
+import com.zimbra.cs.account.cache.EntryCacheRefresher;
 import com.zimbra.cs.account.cache.IAccountCache;
 import com.zimbra.cs.account.cache.IDomainCache;
 import com.zimbra.cs.account.cache.IMimeTypeCache;
@@ -62,6 +63,12 @@ abstract class LdapCache {
     abstract INamedEntryCache<XMPPComponent> xmppComponentCache();
     abstract INamedEntryCache<AlwaysOnCluster> alwaysOnClusterCache();
 
+    /**
+     * Sets how cached entries are reloaded ahead of their expiry; ignored if the cache does not refresh ahead.
+     */
+    void setRefreshLoader(EntryCacheRefresher.Loader loader) {
+    }
+
     /**
      *
      * LRUMapCache
@@ -69,15 +76,20 @@ abstract class LdapCache {
      */
     static class LRUMapCache extends LdapCache {
 
+        // groups are cached with only their basic attributes, and share locators are never reloaded, so neither is
+        // refreshed ahead
+        private final EntryCacheRefresher refresher = new EntryCacheRefresher(
+                LC.ldap_cache_refresh_threads.intValue(), LC.ldap_cache_refresh_ahead_percent.intValue());
+
         private final IAccountCache accountCache =
             new AccountCache(
                     LC.ldap_cache_account_maxsize.intValue(),
-                    LC.ldap_cache_account_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_account_maxage.intValue() * Constants.MILLIS_PER_MINUTE, refresher);
 
         private final INamedEntryCache<LdapCos> cosCache =
             new NamedEntryCache<LdapCos>(
                     LC.ldap_cache_cos_maxsize.intValue(),
-                    LC.ldap_cache_cos_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_cos_maxage.intValue() * Constants.MILLIS_PER_MINUTE, refresher);
 
         private final INamedEntryCache<ShareLocator> shareLocatorCache =
                 new NamedEntryCache<ShareLocator>(
@@ -96,17 +108,17 @@ abstract class LdapCache {
         private final INamedEntryCache<Server> serverCache =
             new NamedEntryCache<Server>(
                     LC.ldap_cache_server_maxsize.intValue(),
-                    LC.ldap_cache_server_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_server_maxage.intValue() * Constants.MILLIS_PER_MINUTE, refresher);
 
         private final INamedEntryCache<UCService> ucServiceCache =
             new NamedEntryCache<UCService>(
                     LC.ldap_cache_ucservice_maxsize.intValue(),
-                    LC.ldap_cache_ucservice_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_ucservice_maxage.intValue() * Constants.MILLIS_PER_MINUTE, refresher);
 
         private final INamedEntryCache<LdapZimlet> zimletCache =
             new NamedEntryCache<LdapZimlet>(
                     LC.ldap_cache_zimlet_maxsize.intValue(),
-                    LC.ldap_cache_zimlet_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_zimlet_maxage.intValue() * Constants.MILLIS_PER_MINUTE, refresher);
 
 
         private final INamedEntryCache<Group> groupCache =
@@ -117,12 +129,17 @@ abstract class LdapCache {
         private final INamedEntryCache<XMPPComponent> xmppComponentCache =
             new NamedEntryCache<XMPPComponent>(
                     LC.ldap_cache_xmppcomponent_maxsize.intValue(),
-                    LC.ldap_cache_xmppcomponent_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                    LC.ldap_cache_xmppcomponent_maxage.intValue() * Constants.MILLIS_PER_MINUTE, refresher);
 
         private final INamedEntryCache<AlwaysOnCluster> alwaysOnClusterCache =
                 new NamedEntryCache<AlwaysOnCluster>(
                         LC.ldap_cache_alwaysoncluster_maxsize.intValue(),
-                        LC.ldap_cache_alwaysoncluster_maxage.intValue() * Constants.MILLIS_PER_MINUTE);
+                        LC.ldap_cache_alwaysoncluster_maxage.intValue() * Constants.MILLIS_PER_MINUTE, refresher);
+
+        @Override
+        void setRefreshLoader(EntryCacheRefresher.Loader loader) {
+            refresher.setLoader(loader);
+        }
 
         @Override
         IAccountCache accountCache() {
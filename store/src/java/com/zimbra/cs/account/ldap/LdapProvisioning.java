@@ -127,6 +127,7 @@ import com.zimbra.cs.account.auth.AuthMechanism.AuthMech;
 import com.zimbra.cs.account.auth.PasswordUtil;
 import com.zimbra.cs.account.cache.DomainCache;
 import com.zimbra.cs.account.cache.DomainCache.GetFromDomainCacheOption;
+import com.zimbra.cs.account.cache.EntryCacheRefresher;
 import com.zimbra.cs.account.cache.IAccountCache;
 import com.zimbra.cs.account.cache.IDomainCache;
 import com.zimbra.cs.account.cache.IMimeTypeCache;
@@ -299,6 +300,14 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
 
         if (this.useCache) {
             cache = new LdapCache.LRUMapCache();
+            cache.setRefreshLoader(new EntryCacheRefresher.Loader() {
+                @Override
+                public void reload(NamedEntry entry) throws ServiceException {
+                    // refreshes the cached instance in place and puts it back in its cache; from the master, as a
+                    // replica that is behind would revert changes just made to the shared instance
+                    LdapProvisioning.this.reload(entry, true);
+                }
+            });
         } else {
             cache = new LdapCache.NoopCache();
         }
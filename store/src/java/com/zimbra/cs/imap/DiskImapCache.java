@@ -17,20 +17,27 @@
 package com.zimbra.cs.imap;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import com.zimbra.common.localconfig.LC;
-import com.zimbra.common.util.ByteUtil;
-import com.zimbra.cs.io.SecureObjectInputStream;
+import com.zimbra.common.util.ZimbraLog;
 
 /**
  * IMAP cache using local disk.
+ * <p>
+ * Folders are stored with {@link ImapFolderCodec}.  A folder that was read from or written to this cache is written
+ * back as a delta against that earlier file when only a small part of it changed, so the files for successive
+ * MODSEQs of a busy folder form short chains.  The startup cleanup keeps every file a retained file depends on.
  *
  * @author dkarp
  * @author ysasaki
@@ -41,6 +48,8 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
             "data" + File.separator + "mailboxd" + File.separator + "imap" + File.separator + "cache";
     private static final File CACHE_DIR = new File(LC.zimbra_home.value(), CACHE_DATA_SUBDIR);
     private static final String IMAP_CACHEFILE_SUFFIX = ".i4c";
+    /** Enough of a file to read the header of a delta, including the key of its base. */
+    private static final int HEADER_SIZE = 1024;
 
     DiskImapCache() {
         CACHE_DIR.mkdirs();
@@ -52,6 +61,8 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
                 return o1.getName().compareTo(o2.getName());
             }
         });
+        Set<File> stale = new HashSet<File>();
+        List<File> latest = new ArrayList<File>();
         File previous = null;
         String lastOwner = "", lastId = "";
         for (File cached : allCached) {
@@ -59,15 +70,41 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
             String[] parts = cached.getName().split(split);
             if (previous != null && parts.length >= 4) {
                 if (lastOwner.equals(parts[0]) && lastId.equals(parts[1])) {
-                    previous.delete();
+                    stale.add(previous);
                 } else {
-                    removeSessionFromFilename(previous);
+                    latest.add(previous);
                 }
             }
             lastOwner = parts[0];  lastId = parts[1];
             previous = cached;
         }
-        removeSessionFromFilename(previous);
+        if (previous != null) {
+            latest.add(previous);
+        }
+        // a retained delta still needs the files it was written against
+        for (File file : latest) {
+            String baseKey = getBaseKey(file);
+            for (int depth = 0; baseKey != null && depth < ImapFolderCodec.MAX_DELTA_DEPTH; depth++) {
+                File base = new File(CACHE_DIR, baseKey + IMAP_CACHEFILE_SUFFIX);
+                stale.remove(base);
+                baseKey = getBaseKey(base);
+            }
+        }
+        for (File file : stale) {
+            file.delete();
+        }
+        for (File file : latest) {
+            removeSessionFromFilename(file);
+        }
+    }
+
+    /** Returns the key of the file the given file is a delta against, or {@code null}. */
+    private static String getBaseKey(File file) {
+        try {
+            return ImapFolderCodec.getBaseKey(read(file, HEADER_SIZE));
+        } catch (IOException e) {
+            return null;
+        }
     }
 
     /**
@@ -90,43 +127,94 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
         if (pagefile.exists()) {
             return;
         }
-        FileOutputStream fos = null;
-        ObjectOutputStream oos = null;
         try {
-            oos = new ObjectOutputStream(fos = new FileOutputStream(pagefile));
+            // the base and its chain are read before taking the folder's monitor, which sessions need to serve commands
+            String baseKey = folder.getCacheBaseKey();
+            ImapFolderCodec.Snapshot base = loadBase(key, baseKey);
+            ByteBuffer data;
             synchronized (folder) {
-                oos.writeObject(folder);
+                data = encode(folder, base, baseKey);
             }
+            try (FileChannel channel = FileChannel.open(pagefile.toPath(),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            folder.setCacheBaseKey(key);
+        } catch (FileAlreadyExistsException e) {
+            // another thread stored the same state first
         } catch (IOException e) {
-            ByteUtil.closeStream(oos);
-            ByteUtil.closeStream(fos);
             pagefile.delete();
-        } finally {
-            ByteUtil.closeStream(oos);
-            ByteUtil.closeStream(fos);
         }
     }
 
+    /** Returns the file the folder was last read from or written to if it is still there, otherwise {@code null}. */
+    private static ImapFolderCodec.Snapshot loadBase(String key, String baseKey) {
+        if (baseKey == null || baseKey.equals(key)) {
+            return null;
+        }
+        try {
+            return load(baseKey, 0);
+        } catch (IOException e) {
+            ZimbraLog.imap.debug("cannot write %s as a delta against %s", key, baseKey, e);
+            return null;
+        }
+    }
+
+    /**
+     * Encodes the folder as a delta against its base if little has changed since, otherwise in full.  The caller
+     * must hold the folder's monitor.
+     */
+    private static ByteBuffer encode(ImapFolder folder, ImapFolderCodec.Snapshot base, String baseKey) {
+        if (base != null) {
+            ByteBuffer delta = ImapFolderCodec.encodeDelta(folder, base, baseKey);
+            if (delta != null) {
+                return delta;
+            }
+        }
+        return ImapFolderCodec.encode(folder);
+    }
+
     @Override
     public ImapFolder get(String key) {
         File pagefile = new File(CACHE_DIR, key + IMAP_CACHEFILE_SUFFIX);
         if (!pagefile.exists()) {
             return null;
         }
-        FileInputStream fis = null;
-        ObjectInputStream ois = null;
         try {
-            // read serialized ImapFolder from cache
-            ois = new SecureObjectInputStream(fis = new FileInputStream(pagefile), ImapFolder.class.getName());
-            return (ImapFolder) ois.readObject();
+            ImapFolder folder = load(key, 0).toFolder();
+            folder.setCacheBaseKey(key);
+            return folder;
         } catch (Exception e) {
-            ByteUtil.closeStream(ois);
-            ByteUtil.closeStream(fis);
             pagefile.delete();
             return null;
-        } finally {
-            ByteUtil.closeStream(ois);
-            ByteUtil.closeStream(fis);
+        }
+    }
+
+    /** Reads a file and, if it's a delta, the files it was written against. */
+    private static ImapFolderCodec.Snapshot load(String key, int depth) throws IOException {
+        ByteBuffer data = read(new File(CACHE_DIR, key + IMAP_CACHEFILE_SUFFIX), Integer.MAX_VALUE);
+        String baseKey = ImapFolderCodec.getBaseKey(data);
+        if (baseKey == null) {
+            return ImapFolderCodec.decode(data, null);
+        } else if (depth >= ImapFolderCodec.MAX_DELTA_DEPTH) {
+            throw new IOException("delta chain too long at " + key);
+        }
+        return ImapFolderCodec.decode(data, load(baseKey, depth + 1));
+    }
+
+    private static ByteBuffer read(File file, int limit) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("cache file too large: " + file);
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) Math.min(size, limit));
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+            }
+            data.flip();
+            return data;
         }
     }
 
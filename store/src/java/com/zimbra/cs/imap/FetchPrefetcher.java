@@ -0,0 +1,200 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.ItemIdentifier;
+import com.zimbra.common.mailbox.MailboxStore;
+import com.zimbra.common.mailbox.OpContext;
+import com.zimbra.common.mailbox.ZimbraMailItem;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Message;
+
+/**
+ * Loads the items of the messages a FETCH returns a chunk at a time with one multi-id lookup, rather than one lookup
+ * (and one mailbox lock, and often one database query) per message.
+ * <p>
+ * The messages are expected to be asked for in the order they were given.  The next chunk is loaded once the
+ * response writer is halfway through the current one, and is sized so that writing it out takes about
+ * {@code imap_fetch_prefetch_target_millis}: large for a client that keeps up, small for one that doesn't, so that
+ * few items are held for it.  When the FETCH needs the message content, the messages of a chunk are also parsed
+ * into the {@code MessageCache}, or their {@link ImapStructureCache} records computed, in the background ahead of
+ * the writer.
+ * <p>
+ * Prefetching is an optimization only: {@link #get} returns {@code null} for a message it couldn't load, and the
+ * caller looks it up by itself.  Not thread safe; a prefetcher belongs to the FETCH it was created for.
+ */
+final class FetchPrefetcher {
+
+    /** What the FETCH reads of the messages besides their items. */
+    enum Content {
+        NONE, BLOB, STRUCTURE, MIME
+    }
+
+    private static final ThreadPoolExecutor LOADER = new ThreadPoolExecutor(
+            Math.max(1, LC.imap_fetch_prefetch_threads.intValue()), Math.max(1, LC.imap_fetch_prefetch_threads.intValue()),
+            1, TimeUnit.MINUTES, new ArrayBlockingQueue<Runnable>(1000),
+            new ThreadFactoryBuilder().setNameFormat("ImapFetchPrefetch-%d").setDaemon(true).build());
+    static {
+        LOADER.allowCoreThreadTimeOut(true);
+    }
+
+    private final MailboxStore mbox;
+    private final OpContext octxt;
+    private final String accountId;
+    private final Content content;
+    private final List<ImapMessage> messages;
+    private final int minChunk;
+    private final int maxChunk;
+    private final long targetNanos;
+    private final Map<Integer, ZimbraMailItem> items = new HashMap<Integer, ZimbraMailItem>();
+    private int chunkSize;
+    /** Index in {@link #messages} of the first message not loaded yet. */
+    private int next;
+    /** Number of messages asked for; the next chunk is loaded when it reaches {@link #trigger}. */
+    private int served;
+    private int trigger;
+    private int servedAtLastLoad;
+    private long lastLoad;
+    private volatile boolean closed;
+
+    FetchPrefetcher(MailboxStore mbox, OpContext octxt, String accountId, Iterable<ImapMessage> i4set,
+            Content content) {
+        this.mbox = mbox;
+        this.octxt = octxt;
+        this.accountId = accountId;
+        this.content = content;
+        this.messages = new ArrayList<ImapMessage>();
+        for (ImapMessage i4msg : i4set) {
+            if (!i4msg.isExpunged()) {
+                messages.add(i4msg);
+            }
+        }
+        maxChunk = Math.max(0, LC.imap_fetch_prefetch_max_items.intValue());
+        minChunk = Math.max(1, Math.min(maxChunk, LC.imap_fetch_prefetch_min_items.intValue()));
+        targetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, LC.imap_fetch_prefetch_target_millis.longValue()));
+        chunkSize = minChunk;
+    }
+
+    /**
+     * Returns {@code true} if prefetching is worth it for a FETCH of the given number of messages.
+     */
+    static boolean isEnabled(int numMessages) {
+        return LC.imap_fetch_prefetch_max_items.intValue() > 0 && numMessages > 1;
+    }
+
+    /**
+     * Returns the item of the message, or {@code null} if it wasn't prefetched.
+     */
+    ZimbraMailItem get(ImapMessage i4msg) {
+        if (served++ >= trigger || (items.isEmpty() && next < messages.size())) {
+            loadChunk();
+        }
+        return items.remove(i4msg.msgId);
+    }
+
+    /**
+     * Stops loading content in the background for this FETCH.
+     */
+    void close() {
+        closed = true;
+        items.clear();
+    }
+
+    private void loadChunk() {
+        if (next >= messages.size()) {
+            trigger = Integer.MAX_VALUE;
+            return;
+        }
+        long now = System.nanoTime();
+        if (lastLoad != 0 && served > servedAtLastLoad) {
+            // the messages served since the last load went out at this rate; aim the next chunk at the target time
+            long elapsed = Math.max(1, now - lastLoad);
+            long fit = (served - servedAtLastLoad) * targetNanos / elapsed;
+            chunkSize = (int) Math.max(minChunk, Math.min(maxChunk, Math.min(fit, chunkSize * 2L)));
+        }
+        lastLoad = now;
+        servedAtLastLoad = served;
+
+        int end = Math.min(messages.size(), next + chunkSize);
+        List<ItemIdentifier> ids = new ArrayList<ItemIdentifier>(end - next);
+        for (int i = next; i < end; i++) {
+            ids.add(ItemIdentifier.fromAccountIdAndItemId(accountId, messages.get(i).msgId));
+        }
+        trigger = served + (end - next) / 2;
+        next = end;
+        try {
+            List<ZimbraMailItem> loaded = mbox.getItemsById(octxt, ids);
+            for (ZimbraMailItem item : loaded) {
+                if (item != null) {
+                    items.put(item.getIdInMailbox(), item);
+                }
+            }
+            ZimbraLog.imap.debug("prefetched %d items for FETCH", loaded.size());
+            if (content != Content.NONE && !loaded.isEmpty()) {
+                loadContent(loaded);
+            }
+        } catch (ServiceException e) {
+            // typically an item deleted since the folder was last synced; the caller looks these up one by one
+            ZimbraLog.imap.debug("could not prefetch %d items for FETCH", ids.size(), e);
+        }
+    }
+
+    private void loadContent(final List<ZimbraMailItem> loaded) {
+        try {
+            LOADER.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (ZimbraMailItem item : loaded) {
+                        if (closed) {
+                            return;
+                        }
+                        if (!(item instanceof Message)) {
+                            continue;
+                        }
+                        Message msg = (Message) item;
+                        try {
+                            if (content == Content.STRUCTURE) {
+                                ImapStructureCache.getInstance().get(msg);
+                            } else if (content == Content.MIME) {
+                                msg.getMimeMessage(false);
+                            } else if (msg.getBlob() != null) {
+                                msg.getBlob().getLocalBlob();
+                            }
+                        } catch (Exception e) {
+                            // the response writer will run into it again and report it
+                            ZimbraLog.imap.debug("could not prefetch content of item %d", msg.getId(), e);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // all loaders are busy; the writer will read the content by itself
+        }
+    }
+}
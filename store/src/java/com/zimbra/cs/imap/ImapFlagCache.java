@@ -96,6 +96,15 @@ public class ImapFlagCache implements Iterable<ImapFlagCache.ImapFlag>, java.io.
             mListed = VISIBLE;
         }
 
+        /** Recreates a flag read back from an IMAP cache by {@link ImapFolderCodec}. */
+        ImapFlag(String name, String imapName, int id, long bitmask, boolean positive, boolean permanent,
+                boolean listed) {
+            mId   = id;          mBitmask   = bitmask;
+            mName = name;        mImapName  = imapName;
+            mPositive = positive;  mPermanent = permanent;
+            mListed = listed;
+        }
+
         private String normalize(String name, int id) {
             StringBuilder sb = new StringBuilder(name.length());
             for (int i = 0; i < name.length(); i++) {
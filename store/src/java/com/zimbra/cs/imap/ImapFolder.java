@@ -16,6 +16,11 @@
  */
 package com.zimbra.cs.imap;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -68,13 +73,19 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     private transient ImapListener session;
     private transient ImapPath path;
     private transient SessionData sessionData;
-    private transient Map<Integer, ImapMessage> messageIds;
+    // item ids of the messages whose IMAP UID differs from their item id, sorted, and the UIDs they map to
+    private transient int[] renumberedIds;
+    private transient int[] renumberedUids;
+    private transient int renumberedCount;
+    private transient Map<List<String>, String[]> internedTags;
+    // key of the disk cache record this folder was last read from or written to; deltas are written against it
+    private transient volatile String cacheBaseKey;
 
     private final ItemIdentifier folderIdentifier;
     private final int uidValidity;
     private String query;
     private Set<MailItem.Type> typeConstraint = ImapHandler.ITEM_TYPES;
-    private final List<ImapMessage> sequence = new ArrayList<ImapMessage>();
+    private final List<ImapMessage> sequence;
     private final ImapFlagCache tags;   // operationally could be "transient", but that makes deserialization replay depend on magic
 
     // below this point are session-specific attributes of the folder SELECT state
@@ -121,6 +132,31 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         this.mailboxStore = ImapMailboxStore.get(folder.getMailboxStore());
         this.folderIdentifier = this.mailboxStore.getTargetItemIdentifier(folder);
         this.tags = new ImapFlagCache();
+        this.sequence = new ArrayList<ImapMessage>();
+    }
+
+    /** Recreates a folder read back from an IMAP cache.  It is attached to
+     *  a session by {@link #restore(ImapListener, SessionData)}.
+     * @see ImapFolderCodec */
+    ImapFolder(ItemIdentifier folderIdentifier, int uidValidity, String query, Set<MailItem.Type> typeConstraint,
+            ImapFlagCache tags, List<ImapMessage> sequence) {
+        this.folderIdentifier = folderIdentifier;
+        this.uidValidity = uidValidity;
+        this.query = query;
+        this.typeConstraint = typeConstraint;
+        this.tags = tags;
+        this.sequence = sequence;
+        for (ImapMessage i4msg : sequence) {
+            i4msg.tags = internTags(i4msg.tags);
+        }
+    }
+
+    String getCacheBaseKey() {
+        return cacheBaseKey;
+    }
+
+    void setCacheBaseKey(String key) {
+        cacheBaseKey = key;
     }
 
     protected void setInitialSize() {
@@ -370,17 +406,91 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             }
         }
 
-        // if item id and IMAP uid differ, the message goes in the "mMessageIds" map
-        if (messageIds == null) {
-            // lookup miss means we need to generate the item-id-to-imap-message mapping
-            messageIds = new HashMap<Integer, ImapMessage>();
-            for (ImapMessage i4msg : sequence) {
-                if (i4msg != null && i4msg.msgId != i4msg.imapUid) {
-                    messageIds.put(i4msg.msgId, i4msg);
+        // if item id and IMAP uid differ, the message's UID is in the renumbered index
+        if (renumberedIds == null) {
+            // lookup miss means we need to generate the item-id-to-imap-uid mapping
+            indexRenumbered();
+        }
+        int idx = Arrays.binarySearch(renumberedIds, 0, renumberedCount, id);
+        if (idx < 0) {
+            return null;
+        }
+        ImapMessage i4msg = getBySequence(uidSearch(renumberedUids[idx]) + 1, true);
+        return i4msg != null && i4msg.msgId == id ? checkRemoved(i4msg) : null;
+    }
+
+    /** Builds the index of messages whose IMAP UID differs from their item
+     *  id.  Where several messages share an item id, the one with the highest
+     *  UID wins. */
+    private void indexRenumbered() {
+        long[] pairs = new long[16];
+        int count = 0;
+        for (ImapMessage i4msg : sequence) {
+            if (i4msg != null && i4msg.msgId != i4msg.imapUid) {
+                if (count == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, count * 2);
                 }
+                pairs[count++] = ((long) i4msg.msgId << 32) | (i4msg.imapUid & 0xFFFFFFFFL);
             }
         }
-        return checkRemoved(messageIds.get(Integer.valueOf(id)));
+        Arrays.sort(pairs, 0, count);
+        renumberedIds = new int[Math.max(count, 16)];
+        renumberedUids = new int[renumberedIds.length];
+        renumberedCount = 0;
+        for (int i = 0; i < count; i++) {
+            int id = (int) (pairs[i] >>> 32);
+            if (renumberedCount > 0 && renumberedIds[renumberedCount - 1] == id) {
+                renumberedCount--;
+            }
+            renumberedIds[renumberedCount] = id;
+            renumberedUids[renumberedCount++] = (int) pairs[i];
+        }
+    }
+
+    private void putRenumbered(int id, int uid) {
+        int idx = Arrays.binarySearch(renumberedIds, 0, renumberedCount, id);
+        if (idx >= 0) {
+            renumberedUids[idx] = uid;
+            return;
+        }
+        idx = -idx - 1;
+        if (renumberedCount == renumberedIds.length) {
+            renumberedIds = Arrays.copyOf(renumberedIds, renumberedCount * 2);
+            renumberedUids = Arrays.copyOf(renumberedUids, renumberedCount * 2);
+        }
+        System.arraycopy(renumberedIds, idx, renumberedIds, idx + 1, renumberedCount - idx);
+        System.arraycopy(renumberedUids, idx, renumberedUids, idx + 1, renumberedCount - idx);
+        renumberedIds[idx] = id;
+        renumberedUids[idx] = uid;
+        renumberedCount++;
+    }
+
+    private void removeRenumbered(int id) {
+        int idx = Arrays.binarySearch(renumberedIds, 0, renumberedCount, id);
+        if (idx >= 0) {
+            System.arraycopy(renumberedIds, idx + 1, renumberedIds, idx, renumberedCount - idx - 1);
+            System.arraycopy(renumberedUids, idx + 1, renumberedUids, idx, renumberedCount - idx - 1);
+            renumberedCount--;
+        }
+    }
+
+    /** Returns an array equal to the given tag names that is shared by all
+     *  the messages in this folder with the same tags.  Large folders tend to
+     *  use few distinct combinations of tags, so this saves an array and its
+     *  strings per tagged message. */
+    synchronized String[] internTags(String[] names) {
+        if (names == null || names.length == 0) {
+            return names;
+        }
+        if (internedTags == null) {
+            internedTags = new HashMap<List<String>, String[]>();
+        }
+        List<String> key = Arrays.asList(names);
+        String[] shared = internedTags.get(key);
+        if (shared == null) {
+            internedTags.put(key, shared = names);
+        }
+        return shared;
     }
 
     /** Returns the ImapMessage with the given IMAP UID from the folder's
@@ -417,7 +527,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     /** Adds the message to the folder.  Messages <b>must</b> be added in
      *  increasing IMAP UID order.  Added messages are appended to the end of
      *  the folder's {@link #sequence} message list and inserted into the
-     *  {@link #mMessageIds} hash (if the latter hash has been instantiated).
+     *  renumbered message index (if the latter has been instantiated).
      * @return true if message cached successfully without modification false if a renumber was required. */
     protected synchronized boolean cache(ImapMessage i4msg, boolean recent) {
         // provide the information missing from the DB search
@@ -449,6 +559,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             setIndex(i4msg, sequence.size());
         }
         // update the tag cache to include only the tags in the folder
+        i4msg.tags = internTags(i4msg.tags);
         updateTagCache(i4msg);
         return true;
     }
@@ -463,7 +574,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             } else if (prev.isAdded()) {
                 shifted.addFirst(prev);
                 //add to beginning so iteration below starts with lowest UID
-                //this is necessary to ensure that messageIds map holds the highest UID for a given msgId
+                //this is necessary to ensure that the renumbered index holds the highest UID for a given msgId
                 idx--;
             } else {
                 ZimbraLog.imap.warn("message added out of order occurs before message which is already visible to client. Must renumber %s", i4msg);
@@ -506,11 +617,11 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
 
     private void setIndex(ImapMessage i4msg, int position) {
         i4msg.sequence = position;
-        if (messageIds != null) {
+        if (renumberedIds != null) {
             if (i4msg.msgId != i4msg.imapUid) {
-                messageIds.put(Integer.valueOf(i4msg.msgId), i4msg);
+                putRenumbered(i4msg.msgId, i4msg.imapUid);
             } else {
-                messageIds.remove(Integer.valueOf(i4msg.msgId));
+                removeRenumbered(i4msg.msgId);
             }
         }
     }
@@ -519,8 +630,8 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
      *  structures other than {@link #sequence}.  The {@link #sequence}
      *  cleanup must be done separately. */
     private void uncache(ImapMessage i4msg) {
-        if (messageIds != null) {
-            messageIds.remove(i4msg.msgId);
+        if (renumberedIds != null) {
+            removeRenumbered(i4msg.msgId);
         }
         SessionData sdata = sessionData;
         if (sdata != null) {
@@ -570,7 +681,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
                 if (newName != null) {
                     tags.add(newName);
                 }
-                i4msg.tags = tags.isEmpty() ? null : tags.toArray(new String[tags.size()]);
+                i4msg.tags = tags.isEmpty() ? null : internTags(tags.toArray(new String[tags.size()]));
             }
         }
     }
@@ -1086,9 +1197,9 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             ImapMessage i4msg = lit.next();
             if (i4msg.isExpunged()) {
                 ZimbraLog.imap.debug("  ** removing: %s", i4msg);
-                // uncache() removes pointers to the message from mMessageIds;
+                // uncache() removes the message from the renumbered index;
                 //   if the message appears again in sequence, it *must* be later and the
-                //   subsequent call to setIndex() will correctly update the mMessageIds mapping
+                //   subsequent call to setIndex() will correctly update the renumbered index
                 uncache(i4msg);
                 lit.remove();
                 // note that we can't send expunge notifications for messages the client doesn't know about yet...
@@ -1119,7 +1230,6 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             throw new ImapSessionClosedException();
         }
         path = session.getPath();
-        // FIXME: NOT RESTORING sequence.msg.sflags PROPERLY -- need to serialize it!!!
         sessionData = sdata;
         if (folderIdentifier == null) {
             ZimbraLog.imap.warn("Restored ImapFolder has null folderIdentifier mailbox=%s sessionPath=%s",
@@ -1129,6 +1239,40 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         }
     }
 
+    /** Java serialization, as used by Ehcache, stores the folder in the
+     *  {@link ImapFolderCodec} format too. */
+    private Object writeReplace() {
+        return new SerializedForm(this);
+    }
+
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("ImapFolder is serialized as ImapFolder.SerializedForm");
+    }
+
+    private static final class SerializedForm implements java.io.Serializable {
+        private static final long serialVersionUID = 6104527932158396207L;
+
+        private final byte[] data;
+
+        SerializedForm(ImapFolder folder) {
+            ByteBuffer buf;
+            synchronized (folder) {
+                buf = ImapFolderCodec.encode(folder);
+            }
+            data = Arrays.copyOf(buf.array(), buf.limit());
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try {
+                return ImapFolderCodec.decode(ByteBuffer.wrap(data), null).toFolder();
+            } catch (IOException e) {
+                InvalidObjectException ioe = new InvalidObjectException(e.getMessage());
+                ioe.initCause(e);
+                throw ioe;
+            }
+        }
+    }
+
     @Override
     public void handleTagDelete(int changeId, int tagId, Change chg) {
         dirtyTag(tags.uncache(tagId), changeId, null);
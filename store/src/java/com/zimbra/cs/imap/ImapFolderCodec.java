@@ -0,0 +1,534 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.zimbra.common.mailbox.ItemIdentifier;
+import com.zimbra.common.util.ArrayUtil;
+import com.zimbra.cs.imap.ImapFlagCache.ImapFlag;
+import com.zimbra.cs.mailbox.MailItem;
+
+/**
+ * Binary format in which the IMAP session caches store an {@link ImapFolder}.
+ * <p>
+ * A record starts with a magic number, a format version and a kind.  A {@link #FULL} record holds
+ * the folder's attributes, its tag cache and all its messages.  A {@link #DELTA} record holds the
+ * same attributes and tag cache, but only the messages added, changed or removed since another
+ * record, named by its cache key; it is read by applying it on top of that record.  Messages are
+ * written column by column as variable-length integers: UIDs as deltas from the previous UID,
+ * item ids relative to their UID, flags, session flags, and references into a table of the
+ * distinct tag combinations.
+ * <p>
+ * Records of an unknown version are rejected, and the caches treat them as misses.
+ */
+final class ImapFolderCodec {
+
+    private static final int MAGIC = 0x49344643; // "I4FC"
+    static final byte VERSION = 1;
+    static final byte FULL = 1;
+    static final byte DELTA = 2;
+
+    /** Longest chain of deltas a record may sit on top of. */
+    static final int MAX_DELTA_DEPTH = 8;
+
+    /** A delta is only written when it touches at most this fraction of the messages. */
+    private static final int MAX_DELTA_FRACTION = 8;
+
+    private ImapFolderCodec() {
+    }
+
+    /**
+     * A decoded record: everything needed to recreate the folder, with the messages still in columns.
+     */
+    static final class Snapshot {
+        ItemIdentifier folderIdentifier;
+        int uidValidity;
+        String query;
+        Set<MailItem.Type> typeConstraint;
+        ImapFlagCache tags;
+        Messages messages;
+        /** Number of deltas applied on top of the last full record. */
+        int depth;
+
+        ImapFolder toFolder() {
+            List<ImapMessage> sequence = new ArrayList<ImapMessage>(messages.size);
+            for (int i = 0; i < messages.size; i++) {
+                ImapMessage i4msg = new ImapMessage(messages.ids[i], MailItem.Type.MESSAGE, messages.uids[i],
+                        messages.flags[i], messages.tags[i]);
+                i4msg.sflags = messages.sflags[i];
+                i4msg.sequence = i + 1;
+                sequence.add(i4msg);
+            }
+            return new ImapFolder(folderIdentifier, uidValidity, query, typeConstraint, tags, sequence);
+        }
+    }
+
+    /** Messages as parallel arrays, in UID order. */
+    static final class Messages {
+        final int size;
+        final int[] uids;
+        final int[] ids;
+        final int[] flags;
+        final short[] sflags;
+        final String[][] tags;
+
+        Messages(int size) {
+            this.size = size;
+            uids = new int[size];
+            ids = new int[size];
+            flags = new int[size];
+            sflags = new short[size];
+            tags = new String[size][];
+        }
+
+        static Messages of(ImapFolder folder) {
+            Messages msgs = new Messages(folder.getSize());
+            for (int i = 0; i < msgs.size; i++) {
+                msgs.set(i, folder.getBySequence(i + 1, true));
+            }
+            return msgs;
+        }
+
+        void set(int i, ImapMessage i4msg) {
+            uids[i] = i4msg.imapUid;
+            ids[i] = i4msg.msgId;
+            flags[i] = i4msg.flags;
+            sflags[i] = i4msg.sflags;
+            tags[i] = i4msg.tags;
+        }
+
+        void copy(int from, Messages dest, int to) {
+            dest.uids[to] = uids[from];
+            dest.ids[to] = ids[from];
+            dest.flags[to] = flags[from];
+            dest.sflags[to] = sflags[from];
+            dest.tags[to] = tags[from];
+        }
+
+        boolean sameAs(int i, Messages other, int j) {
+            return uids[i] == other.uids[j] && ids[i] == other.ids[j] && flags[i] == other.flags[j] &&
+                    sflags[i] == other.sflags[j] && Arrays.equals(tags[i], other.tags[j]);
+        }
+
+        boolean isSortedByUid() {
+            for (int i = 1; i < size; i++) {
+                if (uids[i] <= uids[i - 1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Messages truncate(int count) {
+            Messages msgs = new Messages(count);
+            for (int i = 0; i < count; i++) {
+                copy(i, msgs, i);
+            }
+            return msgs;
+        }
+    }
+
+    /** Encodes the whole folder.  The caller must hold the folder's monitor. */
+    static ByteBuffer encode(ImapFolder folder) {
+        Output out = new Output(64 + folder.getSize() * 6);
+        writeHeader(out, FULL);
+        writeFolder(out, folder);
+        writeMessages(out, Messages.of(folder));
+        return out.finish();
+    }
+
+    /**
+     * Encodes the differences between the folder and a previously cached record of it.  The caller must hold the
+     * folder's monitor.
+     *
+     * @param base the decoded record stored under {@code baseKey}
+     * @return the delta, or {@code null} if a full record should be written instead
+     */
+    static ByteBuffer encodeDelta(ImapFolder folder, Snapshot base, String baseKey) {
+        if (base.depth >= MAX_DELTA_DEPTH || base.uidValidity != folder.getUIDValidity()) {
+            return null;
+        }
+        Messages current = Messages.of(folder);
+        Messages before = base.messages;
+        if (!current.isSortedByUid() || !before.isSortedByUid()) {
+            return null;
+        }
+        int limit = Math.max(current.size, before.size) / MAX_DELTA_FRACTION;
+        Messages upserts = new Messages(Math.min(limit, current.size));
+        int[] removed = new int[Math.min(limit, before.size)];
+        int changed = 0;
+        int gone = 0;
+        int i = 0;
+        int j = 0;
+        while (i < current.size || j < before.size) {
+            if (j == before.size || (i < current.size && current.uids[i] < before.uids[j])) {
+                if (changed == upserts.size) {
+                    return null;
+                }
+                current.copy(i++, upserts, changed++);
+            } else if (i == current.size || current.uids[i] > before.uids[j]) {
+                if (gone == removed.length) {
+                    return null;
+                }
+                removed[gone++] = before.uids[j++];
+            } else {
+                if (!current.sameAs(i, before, j)) {
+                    if (changed == upserts.size) {
+                        return null;
+                    }
+                    current.copy(i, upserts, changed++);
+                }
+                i++;
+                j++;
+            }
+        }
+
+        Output out = new Output(256 + (changed + gone) * 6);
+        writeHeader(out, DELTA);
+        out.writeString(baseKey);
+        out.writeVarint(base.depth + 1);
+        writeFolder(out, folder);
+        out.writeVarint(gone);
+        int prev = 0;
+        for (int k = 0; k < gone; k++) {
+            out.writeVarint(removed[k] - prev);
+            prev = removed[k];
+        }
+        writeMessages(out, upserts.truncate(changed));
+        return out.finish();
+    }
+
+    /** Returns the cache key of the record the given delta applies to, or {@code null} for a full record. */
+    static String getBaseKey(ByteBuffer data) throws IOException {
+        ByteBuffer in = data.duplicate();
+        try {
+            return readHeader(in) == DELTA ? readString(in) : null;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated IMAP cache record", e);
+        }
+    }
+
+    /**
+     * Decodes a record.
+     *
+     * @param base the decoded record a delta applies to, or {@code null} for a full record
+     */
+    static Snapshot decode(ByteBuffer data, Snapshot base) throws IOException {
+        ByteBuffer in = data.duplicate();
+        try {
+            byte kind = readHeader(in);
+            Snapshot snapshot = new Snapshot();
+            if (kind == DELTA) {
+                if (base == null) {
+                    throw new IOException("missing base record for IMAP cache delta");
+                }
+                readString(in);
+                snapshot.depth = readVarint(in);
+            }
+            readFolder(in, snapshot);
+            if (kind == FULL) {
+                snapshot.messages = readMessages(in);
+            } else {
+                int[] removed = new int[readVarint(in)];
+                int uid = 0;
+                for (int k = 0; k < removed.length; k++) {
+                    removed[k] = uid += readVarint(in);
+                }
+                snapshot.messages = apply(base.messages, removed, readMessages(in));
+            }
+            if (in.hasRemaining()) {
+                throw new IOException("trailing bytes in IMAP cache record");
+            }
+            return snapshot;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("malformed IMAP cache record", e);
+        }
+    }
+
+    private static Messages apply(Messages base, int[] removed, Messages upserts) {
+        Messages result = new Messages(base.size + upserts.size);
+        int count = 0;
+        int r = 0;
+        int u = 0;
+        for (int b = 0; b < base.size; b++) {
+            int uid = base.uids[b];
+            while (u < upserts.size && upserts.uids[u] < uid) {
+                upserts.copy(u++, result, count++);
+            }
+            while (r < removed.length && removed[r] < uid) {
+                r++;
+            }
+            if (r < removed.length && removed[r] == uid) {
+                continue;
+            }
+            if (u < upserts.size && upserts.uids[u] == uid) {
+                upserts.copy(u++, result, count++);
+            } else {
+                base.copy(b, result, count++);
+            }
+        }
+        while (u < upserts.size) {
+            upserts.copy(u++, result, count++);
+        }
+        return count == result.size ? result : result.truncate(count);
+    }
+
+    private static void writeHeader(Output out, byte kind) {
+        out.ensure(6);
+        out.buf.putInt(MAGIC);
+        out.buf.put(VERSION);
+        out.buf.put(kind);
+    }
+
+    private static byte readHeader(ByteBuffer in) throws IOException {
+        if (in.remaining() < 6 || in.getInt() != MAGIC) {
+            throw new IOException("not an IMAP cache record");
+        }
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IOException("unsupported IMAP cache record version " + version);
+        }
+        byte kind = in.get();
+        if (kind != FULL && kind != DELTA) {
+            throw new IOException("unknown IMAP cache record kind " + kind);
+        }
+        return kind;
+    }
+
+    private static void writeFolder(Output out, ImapFolder folder) {
+        ItemIdentifier ident = folder.getItemIdentifier();
+        out.writeString(ident.accountId);
+        out.writeVarint(zigzag(ident.id));
+        out.writeVarint(zigzag(ident.subPartId));
+        out.ensure(4);
+        out.buf.putInt(folder.getUIDValidity());
+        out.writeString(folder.isVirtual() ? folder.getQuery() : null);
+        Set<MailItem.Type> types = folder.getTypeConstraint();
+        out.writeVarint(types.size());
+        for (MailItem.Type type : types) {
+            out.ensure(1);
+            out.buf.put(type.toByte());
+        }
+        List<ImapFlag> flags = new ArrayList<ImapFlag>();
+        for (ImapFlag i4flag : folder.getTagset()) {
+            flags.add(i4flag);
+        }
+        out.writeVarint(flags.size());
+        for (ImapFlag i4flag : flags) {
+            out.writeString(i4flag.mName);
+            out.writeString(i4flag.mImapName);
+            out.writeVarint(zigzag(i4flag.mId));
+            out.ensure(9);
+            out.buf.putLong(i4flag.mBitmask);
+            out.buf.put((byte) ((i4flag.mPositive ? 1 : 0) | (i4flag.mPermanent ? 2 : 0) | (i4flag.mListed ? 4 : 0)));
+        }
+    }
+
+    private static void readFolder(ByteBuffer in, Snapshot snapshot) throws IOException {
+        String accountId = readString(in);
+        int id = unzigzag(readVarint(in));
+        int subPartId = unzigzag(readVarint(in));
+        snapshot.folderIdentifier = new ItemIdentifier(accountId, id, subPartId);
+        snapshot.uidValidity = in.getInt();
+        snapshot.query = readString(in);
+        int count = readVarint(in);
+        Set<MailItem.Type> types = EnumSet.noneOf(MailItem.Type.class);
+        for (int i = 0; i < count; i++) {
+            types.add(MailItem.Type.of(in.get()));
+        }
+        snapshot.typeConstraint = types;
+        snapshot.tags = new ImapFlagCache();
+        count = readVarint(in);
+        for (int i = 0; i < count; i++) {
+            String name = readString(in);
+            String imapName = readString(in);
+            int flagId = unzigzag(readVarint(in));
+            long bitmask = in.getLong();
+            byte bits = in.get();
+            snapshot.tags.cache(new ImapFlag(name, imapName, flagId, bitmask,
+                    (bits & 1) != 0, (bits & 2) != 0, (bits & 4) != 0));
+        }
+    }
+
+    private static void writeMessages(Output out, Messages msgs) {
+        out.writeVarint(msgs.size);
+        int prevUid = 0;
+        for (int i = 0; i < msgs.size; i++) {
+            out.writeVarint(zigzag(msgs.uids[i] - prevUid));
+            prevUid = msgs.uids[i];
+        }
+        for (int i = 0; i < msgs.size; i++) {
+            out.writeVarint(zigzag(msgs.ids[i] - msgs.uids[i]));
+        }
+        for (int i = 0; i < msgs.size; i++) {
+            out.writeVarint(msgs.flags[i]);
+        }
+        for (int i = 0; i < msgs.size; i++) {
+            out.writeVarint(msgs.sflags[i] & 0xFFFF);
+        }
+        // tag combination 0 is "no tags"; the others are numbered in order of first appearance
+        Map<List<String>, Integer> tagsets = new HashMap<List<String>, Integer>();
+        List<String[]> table = new ArrayList<String[]>();
+        int[] refs = new int[msgs.size];
+        for (int i = 0; i < msgs.size; i++) {
+            if (!ArrayUtil.isEmpty(msgs.tags[i])) {
+                List<String> key = Arrays.asList(msgs.tags[i]);
+                Integer ref = tagsets.get(key);
+                if (ref == null) {
+                    table.add(msgs.tags[i]);
+                    tagsets.put(key, ref = table.size());
+                }
+                refs[i] = ref;
+            }
+        }
+        out.writeVarint(table.size());
+        for (String[] names : table) {
+            out.writeVarint(names.length);
+            for (String name : names) {
+                out.writeString(name);
+            }
+        }
+        for (int ref : refs) {
+            out.writeVarint(ref);
+        }
+    }
+
+    private static Messages readMessages(ByteBuffer in) throws IOException {
+        int size = readVarint(in);
+        if (size < 0 || size > in.remaining()) {
+            throw new IOException("invalid message count " + size);
+        }
+        Messages msgs = new Messages(size);
+        int uid = 0;
+        for (int i = 0; i < size; i++) {
+            msgs.uids[i] = uid += unzigzag(readVarint(in));
+        }
+        for (int i = 0; i < size; i++) {
+            msgs.ids[i] = msgs.uids[i] + unzigzag(readVarint(in));
+        }
+        for (int i = 0; i < size; i++) {
+            msgs.flags[i] = readVarint(in);
+        }
+        for (int i = 0; i < size; i++) {
+            msgs.sflags[i] = (short) readVarint(in);
+        }
+        String[][] table = new String[readVarint(in) + 1][];
+        for (int t = 1; t < table.length; t++) {
+            String[] names = new String[readVarint(in)];
+            for (int n = 0; n < names.length; n++) {
+                names[n] = readString(in);
+            }
+            table[t] = names;
+        }
+        for (int i = 0; i < size; i++) {
+            msgs.tags[i] = table[readVarint(in)];
+        }
+        return msgs;
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int n = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            n |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return n;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    /** Strings are written as their UTF-8 length plus one, then the bytes; 0 means {@code null}. */
+    private static String readString(ByteBuffer in) throws IOException {
+        int len = readVarint(in) - 1;
+        if (len < 0) {
+            return null;
+        } else if (len > in.remaining()) {
+            throw new IOException("invalid string length " + len);
+        }
+        if (!in.hasArray()) {
+            byte[] bytes = new byte[len];
+            in.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String str = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return str;
+    }
+
+    /** A heap {@link ByteBuffer} that grows as it is written. */
+    private static final class Output {
+        ByteBuffer buf;
+
+        Output(int capacity) {
+            buf = ByteBuffer.allocate(capacity);
+        }
+
+        void ensure(int bytes) {
+            if (buf.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + bytes));
+                buf.flip();
+                bigger.put(buf);
+                buf = bigger;
+            }
+        }
+
+        void writeVarint(int n) {
+            ensure(5);
+            while ((n & ~0x7F) != 0) {
+                buf.put((byte) ((n & 0x7F) | 0x80));
+                n >>>= 7;
+            }
+            buf.put((byte) n);
+        }
+
+        void writeString(String str) {
+            if (str == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1);
+            ensure(bytes.length);
+            buf.put(bytes);
+        }
+
+        ByteBuffer finish() {
+            buf.flip();
+            return buf;
+        }
+    }
+}
@@ -3931,7 +3931,28 @@ public abstract class ImapHandler {
             mbox.unlock();
         }
         ReentrantLock lock = null;
+        FetchPrefetcher prefetcher = null;
         try {
+            boolean needsItems = !fullMessage.isEmpty() || (parts != null && !parts.isEmpty()) ||
+                    (attributes & ~FETCH_FROM_CACHE) != 0;
+            if (needsItems && FetchPrefetcher.isEnabled(i4set.size())) {
+                FetchPrefetcher.Content content = FetchPrefetcher.Content.NONE;
+                if (parts != null && !parts.isEmpty()) {
+                    content = FetchPrefetcher.Content.MIME;
+                } else if ((attributes & FETCH_FROM_MIME) != 0) {
+                    content = FetchPrefetcher.Content.STRUCTURE;
+                } else if (!fullMessage.isEmpty()) {
+                    content = FetchPrefetcher.Content.BLOB;
+                }
+                try {
+                    String folderOwner = i4folder.getFolder().getFolderItemIdentifier().accountId;
+                    prefetcher = new FetchPrefetcher(mbox, getContext(),
+                            (folderOwner != null) ? folderOwner : mbox.getAccountId(), i4set, content);
+                } catch (ServiceException e) {
+                    // look the items up one by one
+                    ZimbraLog.imap.debug("not prefetching items for %s", command, e);
+                }
+            }
             for (ImapMessage i4msg : i4set) {
                 PrintStream result = new PrintStream(output, false, Charsets.UTF_8.name());
                 try {
@@ -3946,20 +3967,23 @@ public abstract class ImapHandler {
                     boolean empty = true;
                     ZimbraMailItem item = null;
                     MimeMessage mm;
-                    if (!fullMessage.isEmpty() || (parts != null && !parts.isEmpty()) || (attributes & ~FETCH_FROM_CACHE) != 0) {
+                    if (needsItems) {
                         if (lock == null && LC.imap_throttle_fetch.booleanValue()) {
                             lock = commandThrottle.lock(credentials.getAccountId());
                         }
-                        try {
-                            String folderOwner = i4folder.getFolder().getFolderItemIdentifier().accountId;
-                            ItemIdentifier iid = ItemIdentifier.fromAccountIdAndItemId(
-                                    (folderOwner != null) ? folderOwner : mbox.getAccountId(), i4msg.msgId);
-                            item = mbox.getItemById(getContext(), iid, i4msg.getType().toCommon());
-                        } catch (NoSuchItemException nsie) {
-                            // just in case we're out of sync, force this message back into sync
-                            i4folder.markMessageExpunged(i4msg);
-                            fetchStub(i4msg, i4folder, attributes, parts, fullMessage, result);
-                            continue;
+                        item = prefetcher == null ? null : prefetcher.get(i4msg);
+                        if (item == null) {
+                            try {
+                                String folderOwner = i4folder.getFolder().getFolderItemIdentifier().accountId;
+                                ItemIdentifier iid = ItemIdentifier.fromAccountIdAndItemId(
+                                        (folderOwner != null) ? folderOwner : mbox.getAccountId(), i4msg.msgId);
+                                item = mbox.getItemById(getContext(), iid, i4msg.getType().toCommon());
+                            } catch (NoSuchItemException nsie) {
+                                // just in case we're out of sync, force this message back into sync
+                                i4folder.markMessageExpunged(i4msg);
+                                fetchStub(i4msg, i4folder, attributes, parts, fullMessage, result);
+                                continue;
+                            }
                         }
                     }
 
@@ -3990,23 +4014,39 @@ public abstract class ImapHandler {
                     }
 
                     if ((parts != null && !parts.isEmpty()) || (attributes & FETCH_FROM_MIME) != 0) {
-                        mm = ImapMessage.getMimeMessage(item);
+                        // the structure and envelope of a message are served without parsing it once computed
+                        byte[] structure = (attributes & FETCH_FROM_MIME) != 0 ?
+                                ImapStructureCache.getInstance().get(item) : null;
+                        mm = structure == null || (parts != null && !parts.isEmpty()) ?
+                                ImapMessage.getMimeMessage(item) : null;
                         if ((attributes & FETCH_BODY) != 0) {
                             result.print(empty ? "" : " ");
                             result.print("BODY ");
-                            ImapMessage.serializeStructure(result, mm, false);
+                            if (structure != null) {
+                                ImapStructureCache.write(result, structure, ImapStructureCache.BODY);
+                            } else {
+                                ImapMessage.serializeStructure(result, mm, false);
+                            }
                             empty = false;
                         }
                         if ((attributes & FETCH_BODYSTRUCTURE) != 0) {
                             result.print(empty ? "" : " ");
                             result.print("BODYSTRUCTURE ");
-                            ImapMessage.serializeStructure(result, mm, true);
+                            if (structure != null) {
+                                ImapStructureCache.write(result, structure, ImapStructureCache.BODYSTRUCTURE);
+                            } else {
+                                ImapMessage.serializeStructure(result, mm, true);
+                            }
                             empty = false;
                         }
                         if ((attributes & FETCH_ENVELOPE) != 0) {
                             result.print(empty ? "" : " ");
                             result.print("ENVELOPE ");
-                            ImapMessage.serializeEnvelope(result, mm);
+                            if (structure != null) {
+                                ImapStructureCache.write(result, structure, ImapStructureCache.ENVELOPE);
+                            } else {
+                                ImapMessage.serializeEnvelope(result, mm);
+                            }
                             empty = false;
                         }
                         if (parts != null) {
@@ -4070,6 +4110,9 @@ public abstract class ImapHandler {
                 }
             }
         } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
             if (lock != null) {
                 lock.unlock();
             }
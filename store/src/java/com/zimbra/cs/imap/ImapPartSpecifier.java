@@ -18,6 +18,7 @@ package com.zimbra.cs.imap;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -37,7 +38,10 @@ import com.zimbra.common.util.InputStreamWithSize;
 import com.zimbra.common.util.StartOutOfBoundsException;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Message;
 import com.zimbra.cs.mime.Mime;
+import com.zimbra.cs.server.ZeroCopy;
+import com.zimbra.cs.stats.ZimbraPerf;
 
 class ImapPartSpecifier {
     static class BinaryDecodingException extends Exception {
@@ -182,6 +186,21 @@ class ImapPartSpecifier {
 
     void write(PrintStream ps, OutputStream os, ZimbraMailItem zmi)
     throws IOException, BinaryDecodingException, ServiceException {
+        // the whole message as stored goes straight from the blob file to the connection if it can
+        if (os != null && zmi instanceof Message && isEntireMessage() && octetStart < 0 &&
+                !command.startsWith("BINARY")) {
+            File file = ZeroCopy.getFile((Message) zmi, os);
+            if (file != null) {
+                long length = file.length();
+                ps.print(this);
+                ps.print(" {");
+                ps.print(length);
+                ps.write('}');   /* } added to fix vim buggy brace matching code */
+                os.write(ImapHandler.LINE_SEPARATOR_BYTES);
+                ZeroCopy.transfer(os, file, 0, length, ZimbraPerf.COUNTER_IMAP_ZERO_COPY_BYTES);
+                return;
+            }
+        }
         write(ps, os, new ZimbraMailItemGettableInputStreamWithSize(zmi));
     }
 
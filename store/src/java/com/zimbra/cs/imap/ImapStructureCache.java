@@ -0,0 +1,178 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.ehcache.Cache;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.ZimbraMailItem;
+import com.zimbra.common.mime.MimeConstants;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.util.EhcacheManager;
+
+/**
+ * Precomputed BODY, BODYSTRUCTURE and ENVELOPE responses of messages, so that a FETCH of them needn't open and parse
+ * the message blob.  Clients resyncing a folder ask for these for every message, every time.
+ * <p>
+ * A record is computed the first time a message is fetched and kept under the digest of the message content: a new
+ * revision of a message has new content and so a new record, and messages with the same content (e.g. delivered to
+ * several mailboxes) share one.  Records are kept in the persistent {@link EhcacheManager#IMAP_STRUCTURE_CACHE} when
+ * {@code imap_use_ehcache} is set, or in memory otherwise.
+ * <p>
+ * A record is the three responses in the order of {@link #BODY}, {@link #BODYSTRUCTURE} and {@link #ENVELOPE},
+ * each as it is written to the client and preceded by its length, after a version byte.
+ */
+final class ImapStructureCache {
+
+    static final int BODY = 0;
+    static final int BODYSTRUCTURE = 1;
+    static final int ENVELOPE = 2;
+
+    private static final byte VERSION = 1;
+
+    private static ImapStructureCache instance;
+
+    private final Cache<String, byte[]> ehcache;
+    private final ConcurrentLinkedHashMap<String, byte[]> memory;
+
+    private ImapStructureCache(Cache<String, byte[]> ehcache, long maxBytes) {
+        this.ehcache = ehcache;
+        if (ehcache == null && maxBytes > 0) {
+            memory = new ConcurrentLinkedHashMap.Builder<String, byte[]>()
+                    .maximumWeightedCapacity(maxBytes)
+                    .weigher(new Weigher<byte[]>() {
+                        @Override
+                        public int weightOf(byte[] value) {
+                            return value.length + 64;
+                        }
+                    }).build();
+        } else {
+            memory = null;
+        }
+    }
+
+    static synchronized ImapStructureCache getInstance() {
+        if (instance == null) {
+            long maxBytes = LC.imap_structure_cache_memory_size.longValue();
+            Cache<String, byte[]> ehcache = null;
+            if (maxBytes > 0 && LC.imap_use_ehcache.booleanValue()) {
+                try {
+                    ehcache = EhcacheManager.getInstance().getImapStructureEhcache();
+                } catch (RuntimeException e) {
+                    ZimbraLog.imap.warn("IMAP structure cache falling back to memory", e);
+                }
+            }
+            instance = new ImapStructureCache(ehcache, maxBytes);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the record of the message, computing it if it isn't cached yet, or {@code null} if the item isn't a
+     * message or the cache is disabled.
+     */
+    byte[] get(ZimbraMailItem item) throws ServiceException, IOException, MessagingException {
+        if (!(item instanceof Message) || (ehcache == null && memory == null)) {
+            return null;
+        }
+        String digest = ((Message) item).getDigest();
+        if (digest == null) {
+            return null;
+        }
+        byte[] record = lookup(digest);
+        if (record == null) {
+            record = encode(ImapMessage.getMimeMessage(item));
+            store(digest, record);
+        }
+        return record;
+    }
+
+    private byte[] lookup(String digest) {
+        if (memory != null) {
+            return memory.get(digest);
+        }
+        try {
+            byte[] record = ehcache.get(digest);
+            return record == null || record.length == 0 || record[0] != VERSION ? null : record;
+        } catch (RuntimeException e) {
+            ZimbraLog.imap.warn("IMAP structure cache exception - failed to get key: %s", digest, e);
+            return null;
+        }
+    }
+
+    private void store(String digest, byte[] record) {
+        if (memory != null) {
+            memory.put(digest, record);
+            return;
+        }
+        try {
+            ehcache.put(digest, record);
+        } catch (RuntimeException e) {
+            ZimbraLog.imap.warn("IMAP structure cache exception - failed to insert key: %s", digest, e);
+        }
+    }
+
+    static byte[] encode(MimeMessage mm) throws IOException, MessagingException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(body, false, MimeConstants.P_CHARSET_UTF8);
+        ImapMessage.serializeStructure(ps, mm, false);
+        ps.flush();
+        ByteArrayOutputStream structure = new ByteArrayOutputStream();
+        ps = new PrintStream(structure, false, MimeConstants.P_CHARSET_UTF8);
+        ImapMessage.serializeStructure(ps, mm, true);
+        ps.flush();
+        ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+        ps = new PrintStream(envelope, false, MimeConstants.P_CHARSET_UTF8);
+        ImapMessage.serializeEnvelope(ps, mm);
+        ps.flush();
+
+        ByteBuffer record = ByteBuffer.allocate(1 + 12 + body.size() + structure.size() + envelope.size());
+        record.put(VERSION);
+        for (ByteArrayOutputStream part : new ByteArrayOutputStream[] { body, structure, envelope }) {
+            record.putInt(part.size());
+            record.put(part.toByteArray());
+        }
+        return record.array();
+    }
+
+    /**
+     * Writes one of the responses of a record, as {@link ImapMessage#serializeStructure} or
+     * {@link ImapMessage#serializeEnvelope} would have.
+     */
+    static void write(PrintStream ps, byte[] record, int which) {
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        buf.position(1);
+        for (int i = 0; i < which; i++) {
+            int length = buf.getInt();
+            buf.position(buf.position() + length);
+        }
+        int length = buf.getInt();
+        ps.write(record, buf.position(), length);
+    }
+}
@@ -16,28 +16,21 @@
  */
 package com.zimbra.cs.imap;
 
-import java.io.ByteArrayInputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
-
-import com.google.common.io.Closeables;
-import com.zimbra.common.mailbox.ItemIdentifier;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.common.util.memcached.MemcachedKey;
 import com.zimbra.common.util.memcached.MemcachedMap;
 import com.zimbra.common.util.memcached.MemcachedSerializer;
-import com.zimbra.cs.io.SecureObjectInputStream;
-import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.memcached.MemcachedConnector;
 import com.zimbra.cs.memcached.MemcachedKeyPrefix;
 
 /**
- * IMAP cache using memcached.
+ * IMAP cache using memcached.  Folders are always stored as full {@link ImapFolderCodec} records, never as deltas,
+ * since memcached evicts entries independently of each other.
  *
  * @author ysasaki
  */
@@ -99,39 +92,20 @@ final class MemcachedImapCache implements ImapSessionManager.Cache<String, ImapF
     }
 
     private static final class ImapMemcachedSerializer implements MemcachedSerializer<ImapFolder> {
-        private Set<String> validClassNames;
-
-        public ImapMemcachedSerializer() {
-            this.validClassNames = new HashSet<String>();
-            this.validClassNames.add(ImapFolder.class.getName());
-            this.validClassNames.add(ItemIdentifier.class.getName());
-            this.validClassNames.add(ImapMessage.class.getName());
-            this.validClassNames.add(ImapFlagCache.class.getName());
-            this.validClassNames.add(MailItem.Type.class.getName());
-        }
 
         @Override
         public Object serialize(ImapFolder folder) throws ServiceException {
-            ByteArrayOutputStream bout = new ByteArrayOutputStream();
-            try (ObjectOutputStream oout = new ObjectOutputStream(bout)) {
-                oout.writeObject(folder);
-            } catch (Exception e) {
-                throw ServiceException.FAILURE("Failed to serialize ImapFolder", e);
-            }
-            return bout.toByteArray();
+            ByteBuffer data = ImapFolderCodec.encode(folder);
+            return Arrays.copyOfRange(data.array(), data.arrayOffset() + data.position(),
+                    data.arrayOffset() + data.limit());
         }
 
         @Override
         public ImapFolder deserialize(Object obj) throws ServiceException {
-            ObjectInputStream in = null;
-
             try {
-                in = new SecureObjectInputStream(new ByteArrayInputStream((byte[]) obj), this.validClassNames);
-                return (ImapFolder) in.readObject();
-            } catch (Exception e) {
+                return ImapFolderCodec.decode(ByteBuffer.wrap((byte[]) obj), null).toFolder();
+            } catch (IOException | ClassCastException e) {
                 throw ServiceException.FAILURE("Failed to deserialize ImapFolder", e);
-            } finally {
-                Closeables.closeQuietly(in);
             }
         }
 
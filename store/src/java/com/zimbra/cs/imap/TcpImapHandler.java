@@ -32,6 +32,7 @@ import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.NetUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.server.ProtocolHandler;
+import com.zimbra.cs.server.TcpSocketOutputStream;
 import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.IOUtil;
 
@@ -56,7 +57,7 @@ final class TcpImapHandler extends ProtocolHandler {
         INFO("connected");
 
         input = new TcpServerInputStream(connection.getInputStream());
-        delegate.output = new BufferedOutputStream(connection.getOutputStream());
+        delegate.output = new TcpSocketOutputStream(connection);
 
         if (!config.isServiceEnabled()) {
             ZimbraLog.imap.debug("dropping TCP connection because user services are disabled");
@@ -19,14 +19,21 @@ package com.zimbra.cs.index;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -51,12 +58,14 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.NoSuchDirectoryException;
 import org.apache.lucene.util.Version;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
 import com.google.common.cache.RemovalNotification;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
 import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 import com.zimbra.common.localconfig.LC;
@@ -114,10 +123,44 @@ public final class LuceneIndex extends IndexStore {
         })
         .build();
 
+    /**
+     * Indexes whose cached searcher predates their last commit. Rather than reopening the searcher in the indexing
+     * thread on every commit, {@link #REFRESHER} reopens and warms them in the background once per refresh interval.
+     * A search that gets there first reopens the searcher itself, so searches always see committed changes.
+     */
+    private static final Set<LuceneIndex> STALE_SEARCHERS =
+        Collections.newSetFromMap(new ConcurrentHashMap<LuceneIndex, Boolean>());
+    private static final ScheduledExecutorService REFRESHER;
+    /** Counts commits to all indexes, so that a cached searcher can tell whether it predates a commit. */
+    private static final AtomicLong COMMITS = new AtomicLong();
+    private static volatile boolean backgroundRefresh = true;
+    static {
+        long interval = LC.zimbra_index_searcher_refresh_interval_ms.longValue();
+        if (interval > 0) {
+            REFRESHER = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("IndexRefresh").setDaemon(true).build());
+            REFRESHER.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    if (backgroundRefresh) {
+                        refreshStaleSearchers();
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            REFRESHER = null;
+        }
+    }
+
     private final Mailbox mailbox;
     private final LuceneDirectory luceneDirectory;
     private final AtomicBoolean pendingDelete = new AtomicBoolean(false);
     private final WriterInfo writerInfo = new WriterInfo();
+    /**
+     * {@link #COMMITS} as of the last commit to this index. Starts out newer than any searcher opened so far, as a
+     * searcher cached by a previous instance for the same mailbox may miss its latest commits.
+     */
+    private volatile long lastCommit = COMMITS.incrementAndGet();
 
     /**
      * Holds information related to writers to the index.
@@ -267,18 +310,168 @@ public final class LuceneIndex extends IndexStore {
                 GAL_SEARCHER_CACHE.containsKey(mailbox.getId())) {
             return; // already warmed up
         }
-        long start = System.currentTimeMillis();
         try {
-            try (IndexSearcher searcher = (IndexSearcher) openSearcher()) {
-                searcher.search(new TermQuery(new Term(LuceneFields.L_CONTENT, "zimbra")), 1,
-                    new Sort(new SortField(LuceneFields.L_SORT_DATE, SortField.STRING, true)));
+            try (IndexSearcherImpl searcher = (IndexSearcherImpl) openSearcher()) {
+                warm(searcher);
             }
         } catch (IOException e) {
             ZimbraLog.search.warn("Failed to warm up", e);
         }
+    }
+
+    private static void warm(IndexSearcherImpl searcher) throws IOException {
+        long start = System.currentTimeMillis();
+        searcher.luceneSearcher.search(new TermQuery(new Term(LuceneFields.L_CONTENT, "zimbra")), 1,
+                new Sort(new SortField(LuceneFields.L_SORT_DATE, SortField.STRING, true)));
         ZimbraLog.search.debug("WarmUpLuceneSearcher elapsed=%d", System.currentTimeMillis() - start);
     }
 
+    private IndexSearcherImpl getCachedSearcher() {
+        if (mailbox.isGalSyncMailbox()) {
+            return GAL_SEARCHER_CACHE.get(mailbox.getId());
+        } else {
+            return SEARCHER_CACHE.getIfPresent(mailbox.getId());
+        }
+    }
+
+    private void cacheSearcher(IndexSearcherImpl searcher) {
+        if (mailbox.isGalSyncMailbox()) {
+            //make sure that we close the previous value associated with the key
+            IOUtil.closeQuietly(GAL_SEARCHER_CACHE.put(mailbox.getId(), searcher));
+        } else {
+            // Bug: 69870
+            // No need to close the previous value associated with the key here.
+            // CacheBuilder sends a callback using removalListener onRemoval(..)
+            // which eventually closes IndexSearcher
+            SEARCHER_CACHE.asMap().put(mailbox.getId(), searcher);
+        }
+    }
+
+    /**
+     * Called once changes are committed. The cached searcher, if any, is reopened by the next search or the next
+     * background refresh, whichever comes first; with no refresh interval configured it is reopened right away.
+     */
+    private void searcherChanged() throws IOException {
+        lastCommit = COMMITS.incrementAndGet();
+        if (REFRESHER != null) {
+            STALE_SEARCHERS.add(this);
+        } else {
+            synchronized (this) {
+                IndexSearcherImpl searcher = getCachedSearcher();
+                if (searcher != null) {
+                    reopenSearcher(searcher);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reopens the given searcher if the index has changed since it was opened. Only segments written since then are
+     * read from disk, the others are shared with the given searcher.
+     *
+     * @param wait whether to wait for a reader permit, or give up if none is available
+     * @return a new searcher, or null if the given searcher is current or no reader permit was available
+     */
+    private IndexSearcherImpl openIfChanged(IndexSearcherImpl searcher, long gen, boolean wait) throws IOException {
+        if (wait) {
+            READER_THROTTLE.acquireUninterruptibly();
+        } else if (!READER_THROTTLE.tryAcquire()) {
+            return null;
+        }
+        IndexReader reader = null;
+        try {
+            reader = IndexReader.openIfChanged(searcher.luceneSearcher.getIndexReader(), true);
+        } finally {
+            if (reader == null) {
+                READER_THROTTLE.release();
+            }
+        }
+        if (reader == null) {
+            searcher.generation = Math.max(searcher.generation, gen);
+            return null;
+        }
+        return new IndexSearcherImpl(reader, gen);
+    }
+
+    /**
+     * Replaces the cached searcher with one reflecting all committed changes.
+     *
+     * @return the searcher now in the cache
+     */
+    private IndexSearcherImpl reopenSearcher(IndexSearcherImpl searcher) throws IOException {
+        assert(Thread.holdsLock(this));
+        long start = System.currentTimeMillis();
+        IndexSearcherImpl newSearcher = openIfChanged(searcher, COMMITS.get(), true);
+        if (newSearcher == null) {
+            return searcher;
+        }
+        ZimbraLog.search.debug("ReopenLuceneSearcher %s,elapsed=%d", newSearcher, System.currentTimeMillis() - start);
+        cacheSearcher(newSearcher);
+        return newSearcher;
+    }
+
+    /**
+     * Reopens and warms up the cached searcher outside the index lock, so that searches keep using the current
+     * searcher meanwhile, then swaps it in unless a search has already done so.
+     */
+    private void refreshSearcher() {
+        IndexSearcherImpl searcher;
+        long gen;
+        synchronized (this) {
+            searcher = getCachedSearcher();
+            gen = COMMITS.get();
+            if (searcher == null || searcher.generation >= lastCommit) {
+                return;
+            }
+            searcher.inc();
+        }
+        try {
+            long start = System.currentTimeMillis();
+            IndexSearcherImpl newSearcher = openIfChanged(searcher, gen, false);
+            if (newSearcher == null) {
+                return;
+            }
+            warm(newSearcher);
+            synchronized (this) {
+                if (getCachedSearcher() == searcher) {
+                    ZimbraLog.search.debug("RefreshLuceneSearcher %s,elapsed=%d", newSearcher,
+                            System.currentTimeMillis() - start);
+                    cacheSearcher(newSearcher);
+                } else { // reopened by a search, or evicted
+                    IOUtil.closeQuietly(newSearcher);
+                }
+            }
+        } catch (IOException e) {
+            ZimbraLog.search.warn("Failed to refresh IndexSearcher %s", this, e);
+        } finally {
+            IOUtil.closeQuietly(searcher);
+        }
+    }
+
+    /**
+     * Turns the periodic background refresh on or off, so that tests can run {@link #refreshStaleSearchers()} at
+     * a time of their choosing.
+     */
+    @VisibleForTesting
+    static void setBackgroundRefresh(boolean enabled) {
+        backgroundRefresh = enabled;
+    }
+
+    @VisibleForTesting
+    synchronized boolean hasStaleSearcher() {
+        IndexSearcherImpl searcher = getCachedSearcher();
+        return searcher != null && searcher.generation < lastCommit;
+    }
+
+    @VisibleForTesting
+    static void refreshStaleSearchers() {
+        for (Iterator<LuceneIndex> i = STALE_SEARCHERS.iterator(); i.hasNext();) {
+            LuceneIndex index = i.next();
+            i.remove();
+            index.refreshSearcher();
+        }
+    }
+
     /**
      * Removes IndexSearcher used for this index from cache.
      */
@@ -374,13 +567,11 @@ public final class LuceneIndex extends IndexStore {
      */
     @Override
     public synchronized ZimbraIndexSearcher openSearcher() throws IOException {
-        IndexSearcherImpl searcher = null;
-        if (mailbox.isGalSyncMailbox()) {
-            searcher = GAL_SEARCHER_CACHE.get(mailbox.getId());
-        } else {
-            searcher = SEARCHER_CACHE.getIfPresent(mailbox.getId());
-        }
+        IndexSearcherImpl searcher = getCachedSearcher();
         if (searcher != null) {
+            if (searcher.generation < lastCommit) {
+                searcher = reopenSearcher(searcher);
+            }
             ZimbraLog.search.debug("CacheHitLuceneSearcher %s", searcher);
             searcher.inc();
             return searcher;
@@ -388,8 +579,9 @@ public final class LuceneIndex extends IndexStore {
 
         READER_THROTTLE.acquireUninterruptibly();
         long start = System.currentTimeMillis();
+        long gen = COMMITS.get();
         try {
-            searcher = new IndexSearcherImpl(openIndexReader(true));
+            searcher = new IndexSearcherImpl(openIndexReader(true), gen);
         } catch (IOException e) {
             // Handle the special case of trying to open a not-yet-created index, by opening for write and immediately
             // closing. Index directory should get initialized as a result.
@@ -398,7 +590,7 @@ public final class LuceneIndex extends IndexStore {
                 IndexWriter writer = new IndexWriter(luceneDirectory,
                         getWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.CREATE));
                 IOUtil.closeQuietly(writer);
-                searcher = new IndexSearcherImpl(openIndexReader(false));
+                searcher = new IndexSearcherImpl(openIndexReader(false), gen);
             } else {
                 throw e;
             }
@@ -410,11 +602,7 @@ public final class LuceneIndex extends IndexStore {
 
         ZimbraLog.search.debug("OpenLuceneSearcher %s,elapsed=%d", searcher, System.currentTimeMillis() - start);
         searcher.inc();
-        if (mailbox.isGalSyncMailbox()) {
-            IOUtil.closeQuietly(GAL_SEARCHER_CACHE.put(mailbox.getId(), searcher));
-        } else {
-            SEARCHER_CACHE.asMap().put(mailbox.getId(), searcher);
-        }
+        cacheSearcher(searcher);
         return searcher;
     }
 
@@ -797,30 +985,7 @@ public final class LuceneIndex extends IndexStore {
         @Override
         public void close() throws IOException {
             writer.index.commitWriter();
-            ZimbraIndexSearcher searcher = null;
-            if (writer.getIndex().mailbox.isGalSyncMailbox()) {
-                searcher = GAL_SEARCHER_CACHE.get(writer.getIndex().mailbox.getId());
-            } else {
-                searcher = SEARCHER_CACHE.getIfPresent(writer.getIndex().mailbox.getId());
-            }
-            if (searcher != null) {
-                ZimbraLuceneIndexReader ndxReader = (ZimbraLuceneIndexReader)searcher.getIndexReader();
-                IndexReader newReader = IndexReader.openIfChanged(ndxReader.getLuceneReader(), true);
-                if (newReader != null) {
-                    if (writer.getIndex().mailbox.isGalSyncMailbox()) {
-                        //make sure that we close the previous value associated with the key
-                        IOUtil.closeQuietly(GAL_SEARCHER_CACHE.put(writer.getIndex().mailbox.getId(),
-                                new IndexSearcherImpl(newReader)));
-                    } else {
-                        // Bug: 69870
-                        // No need to close the previous value associated with the key here.
-                        // CacheBuilder sends a callback using removalListener onRemoval(..)
-                        // which eventually closes IndexSearcher
-                        SEARCHER_CACHE.asMap().put(writer.getIndex().mailbox.getId(),
-                            new IndexSearcherImpl(newReader));
-                    }
-                }
-            }
+            writer.index.searcherChanged();
         }
 
         @Override
@@ -943,10 +1108,13 @@ public final class LuceneIndex extends IndexStore {
         private final AtomicInteger count = new AtomicInteger(1);
         private final IndexSearcher luceneSearcher;
         private final ZimbraIndexReader luceneReader;
+        /** {@link LuceneIndex#COMMITS} as of when this searcher was opened */
+        private volatile long generation;
 
-        IndexSearcherImpl(IndexReader reader) {
+        IndexSearcherImpl(IndexReader reader, long generation) {
             luceneSearcher = new IndexSearcher(reader);
             luceneReader = new ZimbraLuceneIndexReader(luceneSearcher.getIndexReader());
+            this.generation = generation;
         }
 
         void inc() {
@@ -0,0 +1,260 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Constants;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.ephemeral.EphemeralInput;
+import com.zimbra.cs.ephemeral.EphemeralKey;
+import com.zimbra.cs.ephemeral.EphemeralLocation;
+import com.zimbra.cs.ephemeral.EphemeralResult;
+import com.zimbra.cs.ephemeral.EphemeralStore;
+import com.zimbra.cs.ephemeral.LdapEntryLocation;
+import com.zimbra.cs.mailbox.Mailbox;
+
+/**
+ * Remembers which mailboxes a Message-ID has been delivered to, for {@code zimbraPrefMessageIdDedupingEnabled}.
+ * <p>
+ * Message-IDs are hashed to one of several segments, each an LRU map guarded by its own lock, so that deliveries of
+ * different messages don't contend.  The size limit and the entry timeout both apply: an entry is dropped when it is
+ * the least recently used one of a full segment, or when it is found to be older than the timeout.  The mailbox ids of
+ * a Message-ID are kept as a sorted {@code int[]}, which is nearly always a single element.
+ * <p>
+ * If enabled, delivered Message-IDs are also recorded by account id in the {@link EphemeralStore}, and a Message-ID
+ * missing from memory is looked up there.  That lets dedupe survive a restart, and share it between the mailstores
+ * that use the same store.  Ephemeral store failures are logged and treated as a miss, so they never hold up delivery.
+ */
+final class MessageIdDedupeCache {
+
+    static final String EPHEMERAL_KEY = "zimbraMessageIdDedupe";
+
+    private final Segment[] segments;
+    private volatile int segmentSize;
+    private volatile long timeout;
+    private volatile boolean ephemeral;
+
+    MessageIdDedupeCache(int segmentCount) {
+        segments = new Segment[Math.max(1, segmentCount)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Applies the current settings.  Cheap when nothing changed, so it can be called for every message.
+     *
+     * @param maxSize maximum number of Message-IDs kept in memory
+     * @param timeoutMillis how long a Message-ID is remembered, or {@code 0} for as long as it fits
+     * @param useEphemeralStore whether to also record Message-IDs in the ephemeral store
+     */
+    void configure(int maxSize, long timeoutMillis, boolean useEphemeralStore) {
+        int newSegmentSize = maxSize <= 0 ? 0 : (maxSize + segments.length - 1) / segments.length;
+        timeout = Math.max(0, timeoutMillis);
+        ephemeral = useEphemeralStore;
+        if (newSegmentSize != segmentSize) {
+            boolean shrunk = newSegmentSize < segmentSize;
+            segmentSize = newSegmentSize;
+            if (shrunk) {
+                for (Segment segment : segments) {
+                    synchronized (segment) {
+                        segment.trim();
+                    }
+                }
+            }
+        }
+    }
+
+    boolean contains(String msgid, Mailbox mbox) {
+        if (contains(msgid, mbox.getId())) {
+            return true;
+        }
+        if (!ephemeral) {
+            return false;
+        }
+        try {
+            EphemeralResult result = getEphemeralStore().get(new EphemeralKey(EPHEMERAL_KEY, msgid), getLocation());
+            String[] accountIds = result == null ? null : result.getValues();
+            if (accountIds != null && Arrays.asList(accountIds).contains(mbox.getAccountId())) {
+                add(msgid, mbox.getId());
+                return true;
+            }
+        } catch (ServiceException e) {
+            ZimbraLog.lmtp.warn("unable to look up Message-ID %s in the ephemeral store", msgid, e);
+        }
+        return false;
+    }
+
+    void add(String msgid, Mailbox mbox) {
+        add(msgid, mbox.getId());
+        if (!ephemeral) {
+            return;
+        }
+        long expiresIn = timeout > 0 ? timeout : Constants.MILLIS_PER_DAY;
+        try {
+            getEphemeralStore().update(new EphemeralInput(new EphemeralKey(EPHEMERAL_KEY, msgid), mbox.getAccountId(),
+                    new EphemeralInput.RelativeExpiration(expiresIn, TimeUnit.MILLISECONDS)), getLocation());
+        } catch (ServiceException e) {
+            ZimbraLog.lmtp.warn("unable to record Message-ID %s in the ephemeral store", msgid, e);
+        }
+    }
+
+    void remove(String msgid, Mailbox mbox) {
+        remove(msgid, mbox.getId());
+        if (!ephemeral) {
+            return;
+        }
+        try {
+            getEphemeralStore().delete(new EphemeralKey(EPHEMERAL_KEY, msgid), mbox.getAccountId(), getLocation());
+        } catch (ServiceException e) {
+            ZimbraLog.lmtp.warn("unable to remove Message-ID %s from the ephemeral store", msgid, e);
+        }
+    }
+
+    boolean contains(String msgid, int mboxId) {
+        Segment segment = segmentFor(msgid);
+        synchronized (segment) {
+            Entry entry = segment.getLive(msgid);
+            return entry != null && Arrays.binarySearch(entry.mboxIds, mboxId) >= 0;
+        }
+    }
+
+    void add(String msgid, int mboxId) {
+        Segment segment = segmentFor(msgid);
+        synchronized (segment) {
+            Entry entry = segment.getLive(msgid);
+            if (entry == null) {
+                segment.put(msgid, new Entry(new int[] { mboxId }));
+                return;
+            }
+            int pos = Arrays.binarySearch(entry.mboxIds, mboxId);
+            if (pos < 0) {
+                pos = -pos - 1;
+                int[] ids = new int[entry.mboxIds.length + 1];
+                System.arraycopy(entry.mboxIds, 0, ids, 0, pos);
+                ids[pos] = mboxId;
+                System.arraycopy(entry.mboxIds, pos, ids, pos + 1, entry.mboxIds.length - pos);
+                entry.mboxIds = ids;
+            }
+        }
+    }
+
+    void remove(String msgid, int mboxId) {
+        Segment segment = segmentFor(msgid);
+        synchronized (segment) {
+            Entry entry = segment.get(msgid);
+            if (entry == null) {
+                return;
+            }
+            int pos = Arrays.binarySearch(entry.mboxIds, mboxId);
+            if (pos < 0) {
+                return;
+            }
+            if (entry.mboxIds.length == 1) {
+                segment.remove(msgid);
+                return;
+            }
+            int[] ids = new int[entry.mboxIds.length - 1];
+            System.arraycopy(entry.mboxIds, 0, ids, 0, pos);
+            System.arraycopy(entry.mboxIds, pos + 1, ids, pos, ids.length - pos);
+            entry.mboxIds = ids;
+        }
+    }
+
+    /**
+     * Returns the number of Message-IDs in memory, including expired ones that have not been dropped yet.
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String msgid) {
+        int h = msgid.hashCode();
+        h ^= (h >>> 16);
+        return segments[(h & Integer.MAX_VALUE) % segments.length];
+    }
+
+    private static EphemeralStore getEphemeralStore() throws ServiceException {
+        return EphemeralStore.getFactory().getStore();
+    }
+
+    private static EphemeralLocation getLocation() throws ServiceException {
+        return new LdapEntryLocation(Provisioning.getInstance().getConfig());
+    }
+
+    private static final class Entry {
+        final long created = System.currentTimeMillis();
+        int[] mboxIds;
+
+        Entry(int[] mboxIds) {
+            this.mboxIds = mboxIds;
+        }
+    }
+
+    /**
+     * Access-ordered map holding at most {@link MessageIdDedupeCache#segmentSize} entries.  Callers lock the segment.
+     */
+    @SuppressWarnings("serial")
+    private final class Segment extends LinkedHashMap<String, Entry> {
+
+        Segment() {
+            super(16, 0.75f, true);
+        }
+
+        /**
+         * Returns the entry for the Message-ID, dropping it if it has expired.
+         */
+        Entry getLive(String msgid) {
+            Entry entry = get(msgid);
+            if (entry != null && timeout > 0 && System.currentTimeMillis() - entry.created > timeout) {
+                remove(msgid);
+                return null;
+            }
+            return entry;
+        }
+
+        void trim() {
+            Iterator<Entry> i = values().iterator();
+            for (int excess = size() - segmentSize; excess > 0 && i.hasNext(); excess--) {
+                i.next();
+                i.remove();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > segmentSize) {
+                return true;
+            }
+            // the eldest entry is the least recently used one, which is usually also among the oldest
+            return timeout > 0 && System.currentTimeMillis() - eldest.getValue().created > timeout;
+        }
+    }
+}
@@ -23,11 +23,15 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -36,11 +40,14 @@ import javax.mail.internet.MimeMessage;
 
 import com.google.common.base.Function;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.lmtp.LmtpClient;
 import com.zimbra.common.lmtp.LmtpProtocolException;
@@ -52,9 +59,6 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.BufferStream;
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.CopyInputStream;
-import com.zimbra.common.util.LruMap;
-import com.zimbra.common.util.MapUtil;
-import com.zimbra.common.util.TimeoutMap;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Config;
@@ -85,14 +89,17 @@ import com.zimbra.cs.util.Zimbra;
 public class ZimbraLmtpBackend implements LmtpBackend {
 
     private static List<LmtpCallback> callbacks = new CopyOnWriteArrayList<LmtpCallback>();
-    private static Map<String, Set<Integer>> receivedMessageIDs;
+    private static final MessageIdDedupeCache receivedMessageIDs =
+            new MessageIdDedupeCache(LC.zimbra_lmtp_dedupe_cache_segments.intValue());
     private static final LoadingCache<Integer, ReentrantLock> mailboxDeliveryLocks = createMailboxDeliveryLocks();
+    // Shared by all LMTP connections, so that it bounds the parallel deliveries on this server.  Null if disabled.
+    private static final ThreadPoolExecutor deliveryExecutor = createDeliveryExecutor();
 
     private final LmtpConfig config;
 
     public ZimbraLmtpBackend(LmtpConfig lmtpConfig) {
         config = lmtpConfig;
-        checkDedupeCacheSize(); // This initializes receivedMessageIDs
+        checkDedupeCacheSize();
     }
 
     /**
@@ -125,6 +132,18 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         return cache;
     }
 
+    private static ThreadPoolExecutor createDeliveryExecutor() {
+        int threads = LC.zimbra_lmtp_delivery_threads.intValue();
+        if (threads <= 0) {
+            return null;
+        }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("LmtpDelivery-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     @Override public LmtpReply getAddressStatus(LmtpAddress address) {
         String addr = address.getEmailAddress();
 
@@ -198,13 +217,7 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         if (msgid == null || msgid.equals(""))
             return false;
 
-        synchronized (ZimbraLmtpBackend.class) {
-            Set<Integer> mboxIds = receivedMessageIDs.get(msgid);
-            if (mboxIds != null && mboxIds.contains(mbox.getId())) {
-                return true;
-            }
-        }
-        return false;
+        return receivedMessageIDs.contains(msgid, mbox);
     }
 
     /**
@@ -227,53 +240,15 @@ public class ZimbraLmtpBackend implements LmtpBackend {
     }
 
     /**
-     * If the configured Message-ID cache size has changed, create a new cache and copy
-     * values from the old one.
+     * Applies the configured Message-ID cache size and timeout.
      */
     private void checkDedupeCacheSize() {
         try {
             Config config = Provisioning.getInstance().getConfig();
-            int cacheSize = config.getMessageIdDedupeCacheSize();
-            long entryTimeout = config.getMessageIdDedupeCacheTimeout();
-            synchronized (ZimbraLmtpBackend.class) {
-                Map<String, Set<Integer>> newMap = null;
-                if (receivedMessageIDs == null) {
-                    // if non-zero entry timeout is specified then use a timeout map, else use an lru map
-                    receivedMessageIDs = entryTimeout == 0 ?
-                            new LruMap<String, Set<Integer>>(cacheSize) :
-                            new TimeoutMap<String, Set<Integer>>(entryTimeout);
-                } else if (receivedMessageIDs instanceof LruMap) {
-                    if (entryTimeout != 0) {
-                        // change to a timeout map
-                        newMap = MapUtil.newTimeoutMap(entryTimeout);
-                    } else if (((LruMap) receivedMessageIDs).getMaxSize() != cacheSize) {
-                        // adjust lru map size
-                        newMap = MapUtil.newLruMap(cacheSize);
-                    }
-                } else if (receivedMessageIDs instanceof TimeoutMap) {
-                    if (entryTimeout == 0) {
-                        // change to a lru map
-                        newMap = MapUtil.newLruMap(cacheSize);
-                    } else {
-                        ((TimeoutMap) receivedMessageIDs).setTimeout(entryTimeout);
-                    }
-                }
-                if (newMap != null) {
-                    // Copy entries from the old map to the new one.  The old map
-                    // is iterated in order from least-recently accessed to last accessed.
-                    // If the new map size is smaller, we'll get the latest entries.
-                    newMap.putAll(receivedMessageIDs);
-                    receivedMessageIDs = newMap;
-                }
-            }
+            receivedMessageIDs.configure(config.getMessageIdDedupeCacheSize(), config.getMessageIdDedupeCacheTimeout(),
+                    LC.zimbra_lmtp_dedupe_ephemeral.booleanValue());
         } catch (ServiceException e) {
             ZimbraLog.lmtp.warn("Unable to update dedupe cache size.", e);
-            // create an empty lru map if it doesn't exist already.
-            synchronized (ZimbraLmtpBackend.class) {
-                if (receivedMessageIDs == null) {
-                    receivedMessageIDs = new LruMap<String, Set<Integer>>(0);
-                }
-            }
         }
     }
 
@@ -284,26 +259,14 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         if (msgid == null || msgid.equals(""))
             return;
 
-        synchronized (ZimbraLmtpBackend.class) {
-            Set<Integer> mboxIds = receivedMessageIDs.get(msgid);
-            if (mboxIds == null) {
-                mboxIds = new HashSet<Integer>();
-                receivedMessageIDs.put(msgid, mboxIds);
-            }
-            mboxIds.add(mbox.getId());
-        }
+        receivedMessageIDs.add(msgid, mbox);
     }
 
     private void removeFromDedupeCache(String msgid, Mailbox mbox) {
         if (mbox == null || Strings.isNullOrEmpty(msgid))
             return;
 
-        synchronized (ZimbraLmtpBackend.class) {
-            Set<Integer> mboxIds = receivedMessageIDs.get(msgid);
-            if (mboxIds != null) {
-                mboxIds.remove(mbox.getId());
-            }
-        }
+        receivedMessageIDs.remove(msgid, mbox);
     }
 
     private enum DeliveryAction {
@@ -424,6 +387,9 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         String envSender = env.getSender().getEmailAddress();
 
         boolean shared = recipients.size() > 1;
+        // With several recipients, mailboxes are delivered to in parallel.  Delivery sets the account's default
+        // charset on the ParsedMessage, so each charset gets its own, analyzed before any delivery starts.
+        boolean parallel = shared && deliveryExecutor != null;
         List<Integer> targetMailboxIds = new ArrayList<Integer>(recipients.size());
 
         Map<LmtpAddress, RecipientDetail> rcptMap = new HashMap<LmtpAddress, RecipientDetail>(recipients.size());
@@ -437,6 +403,8 @@ public class ZimbraLmtpBackend implements LmtpBackend {
             ParsedMessage pmAttachIndex = null;
             // ParsedMessage for users without attachments indexing
             ParsedMessage pmNoAttachIndex = null;
+            // ParsedMessage for each attachments indexing option, and default charset if delivering in parallel
+            Map<String, ParsedMessage> parsedMessages = new HashMap<String, ParsedMessage>();
 
             // message id for logging
             String msgId = null;
@@ -477,21 +445,29 @@ public class ZimbraLmtpBackend implements LmtpBackend {
                         pmo = new ParsedMessageOptions(blob, data);
                     }
 
-                    ParsedMessage pm;
-                    if (attachmentsIndexingEnabled) {
-                        if (pmAttachIndex == null) {
+                    String charset = parallel ? account.getPrefMailDefaultCharset() : null;
+                    String pmKey = attachmentsIndexingEnabled + (parallel ? ":" + charset : "");
+                    ParsedMessage pm = parsedMessages.get(pmKey);
+                    if (pm == null) {
+                        if (attachmentsIndexingEnabled) {
                             pmo.setAttachmentIndexing(true);
                             ZimbraLog.lmtp.debug("Creating ParsedMessage from %s with attachment indexing enabled", data == null ? "file" : "memory");
-                            pmAttachIndex = new ParsedMessage(pmo);
-                        }
-                        pm = pmAttachIndex;
-                    } else {
-                        if (pmNoAttachIndex == null) {
+                            pm = new ParsedMessage(pmo);
+                            if (pmAttachIndex == null) {
+                                pmAttachIndex = pm;
+                            }
+                        } else {
                             pmo.setAttachmentIndexing(false);
                             ZimbraLog.lmtp.debug("Creating ParsedMessage from %s with attachment indexing disabled", data == null ? "file" : "memory");
-                            pmNoAttachIndex = new ParsedMessage(pmo);
+                            pm = new ParsedMessage(pmo);
+                            if (pmNoAttachIndex == null) {
+                                pmNoAttachIndex = pm;
+                            }
+                        }
+                        if (parallel) {
+                            pm.setDefaultCharset(charset).analyzeForDelivery();
                         }
-                        pm = pmNoAttachIndex;
+                        parsedMessages.put(pmKey, pm);
                     }
 
                     msgId = pm.getMessageID();
@@ -535,175 +511,11 @@ public class ZimbraLmtpBackend implements LmtpBackend {
 
             // We now know which addresses are valid and which ParsedMessage
             // version each recipient needs.  Deliver!
-            for (LmtpAddress recipient : recipients) {
-                String rcptEmail = recipient.getEmailAddress();
-                LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
-                RecipientDetail rd = rcptMap.get(recipient);
-                if (rd == null) {
-                    // Account or mailbox not found.
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
-                            envSender, rcptEmail);
-                    recipient.setDeliveryStatus(LmtpReply.PERMANENT_FAILURE);
-                    continue;
-                }
-                if (rd.account != null) {
-                    ZimbraLog.addAccountNameToContext(rd.account.getName());
-                }
-                if (rd.mbox != null) {
-                    ZimbraLog.addMboxToContext(rd.mbox.getId());
-                }
-
-                boolean success = false;
-                try {
-                    switch (rd.action) {
-                    case discard:
-                        ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
-                                envSender, rcptEmail);
-                        if (rd.account.getPrefMailForwardingAddress() != null) {
-                            // mail forwarding is set up
-                            for (LmtpCallback callback : callbacks) {
-                                ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, rd.pm);
-                            }
-                        }
-                        reply = LmtpReply.DELIVERY_OK;
-                        break;
-                    case deliver:
-                        Account account = rd.account;
-                        Mailbox mbox = rd.mbox;
-                        ParsedMessage pm = rd.pm;
-                        List<ItemId> addedMessageIds = null;
-                        ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
-                        boolean acquiredLock;
-                        try {
-                            // Wait for the lock, up to the timeout
-                            acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
-                        } catch (InterruptedException e) {
-                            acquiredLock = false;
-                        }
-                        if (!acquiredLock) {
-                            ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
-                                    envSender, rcptEmail);
-                            reply = LmtpReply.TEMPORARY_FAILURE;
-                            break;
-                        }
-                        try {
-                            if (dedupe(pm, mbox)) {
-                                // message was already delivered to this mailbox
-                                ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
-                            } else if (mbox.dedupeForSelfMsg(pm)) {
-                                ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
-                                        pm.getMessageID());
-
-                            } else if (recipient.getSkipFilters()) {
-                                msgId = pm.getMessageID();
-                                int folderId = Mailbox.ID_FOLDER_INBOX;
-                                if (recipient.getFolder() != null) {
-                                    try {
-                                        Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
-                                        folderId = folder.getId();
-                                    } catch (ServiceException se) {
-                                        if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
-                                            Folder folder = mbox.createFolder(null, recipient.getFolder(),
-                                                    new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
-                                            folderId = folder.getId();
-                                        } else {
-                                            throw se;
-                                        }
-                                    }
-                                }
-                                int flags = Flag.BITMASK_UNREAD;
-                                if (recipient.getFlags() != null) {
-                                    flags = Flag.toBitmask(recipient.getFlags());
-                                }
-                                DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
-                                dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
-                                Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                            } else if (!DebugConfig.disableIncomingFilter) {
-                                // Get msgid first, to avoid having to reopen and reparse the blob
-                                // file if Mailbox.addMessageInternal() closes it.
-                                pm.getMessageID();
-                                addedMessageIds = RuleManager.applyRulesToIncomingMessage(
-                                        null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
-                                        Mailbox.ID_FOLDER_INBOX, false, true);
-                            } else {
-                                pm.getMessageID();
-                                DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
-                                dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
-                                Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                            }
-                            success = true;
-                            if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                                addToDedupeCache(pm, mbox);
-                            }
-                        } finally {
-                            lock.unlock();
-                        }
-
-                        if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                            // Execute callbacks
-                            for (LmtpCallback callback : callbacks) {
-                                for (ItemId id : addedMessageIds) {
-                                    if (id.belongsTo(mbox)) {
-                                        // Message was added to the local mailbox, as opposed to a mountpoint.
-                                        ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                        try {
-                                            Message msg = mbox.getMessageById(null, id.getId());
-                                            callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
-                                        } catch (OutOfMemoryError oome) {
-                                            Zimbra.halt("LMTP callback failed", oome);
-                                        } catch (Throwable t) {
-                                            ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        reply = LmtpReply.DELIVERY_OK;
-                        break;
-                    case defer:
-                        // Delivery to mailbox skipped.  Let MTA retry again later.
-                        // This case happens for shared delivery to a mailbox in
-                        // backup mode.
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
-                                envSender, rcptEmail);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
-                        break;
-                    }
-                } catch (DeliveryServiceException e) {
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
-                    reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
-                } catch (ServiceException e) {
-                    if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
-                        if (config.isPermanentFailureWhenOverQuota()) {
-                            reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
-                        } else {
-                            reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
-                        }
-                    } else if (e.isReceiversFault()) {
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
-                    } else {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.PERMANENT_FAILURE;
-                    }
-                } catch (Exception e) {
-                    reply = LmtpReply.TEMPORARY_FAILURE;
-                    ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                } finally {
-                    if (rd.action == DeliveryAction.deliver && !success) {
-                        // Message was not delivered.  Remove it from the dedupe
-                        // cache so we don't dedupe it on LMTP retry.
-                        removeFromDedupeCache(msgId, rd.mbox);
-                    }
-                    recipient.setDeliveryStatus(reply);
-                    if (shared && rd != null && rd.esd) {
-                        rd.mbox.endSharedDelivery();
-                        rd.esd = false;
-                    }
+            if (parallel) {
+                deliverInParallel(recipients, rcptMap, blob, env, msgId, sharedDeliveryCtxt);
+            } else {
+                for (LmtpAddress recipient : recipients) {
+                    deliverToRecipient(recipient, rcptMap.get(recipient), blob, env, msgId, shared, sharedDeliveryCtxt);
                 }
             }
 
@@ -739,6 +551,253 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         }
     }
 
+    /**
+     * Delivers to the mailbox of one recipient and sets its delivery status.
+     */
+    private void deliverToRecipient(LmtpAddress recipient, RecipientDetail rd, Blob blob, LmtpEnvelope env,
+            String msgId, boolean shared, DeliveryContext sharedDeliveryCtxt) {
+        String envSender = env.getSender().getEmailAddress();
+        String rcptEmail = recipient.getEmailAddress();
+        LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
+        if (rd == null) {
+            // Account or mailbox not found.
+            ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
+                    envSender, rcptEmail);
+            recipient.setDeliveryStatus(LmtpReply.PERMANENT_FAILURE);
+            return;
+        }
+        if (rd.account != null) {
+            ZimbraLog.addAccountNameToContext(rd.account.getName());
+        }
+        if (rd.mbox != null) {
+            ZimbraLog.addMboxToContext(rd.mbox.getId());
+        }
+
+        boolean success = false;
+        try {
+            switch (rd.action) {
+            case discard:
+                ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
+                        envSender, rcptEmail);
+                if (rd.account.getPrefMailForwardingAddress() != null) {
+                    // mail forwarding is set up
+                    for (LmtpCallback callback : callbacks) {
+                        ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                        callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, rd.pm);
+                    }
+                }
+                reply = LmtpReply.DELIVERY_OK;
+                break;
+            case deliver:
+                Account account = rd.account;
+                Mailbox mbox = rd.mbox;
+                ParsedMessage pm = rd.pm;
+                List<ItemId> addedMessageIds = null;
+                ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
+                boolean acquiredLock;
+                try {
+                    // Wait for the lock, up to the timeout
+                    acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    acquiredLock = false;
+                }
+                if (!acquiredLock) {
+                    ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
+                            envSender, rcptEmail);
+                    reply = LmtpReply.TEMPORARY_FAILURE;
+                    break;
+                }
+                try {
+                    if (dedupe(pm, mbox)) {
+                        // message was already delivered to this mailbox
+                        ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
+                    } else if (mbox.dedupeForSelfMsg(pm)) {
+                        ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
+                                pm.getMessageID());
+
+                    } else if (recipient.getSkipFilters()) {
+                        msgId = pm.getMessageID();
+                        int folderId = Mailbox.ID_FOLDER_INBOX;
+                        if (recipient.getFolder() != null) {
+                            try {
+                                Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
+                                folderId = folder.getId();
+                            } catch (ServiceException se) {
+                                if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
+                                    Folder folder = mbox.createFolder(null, recipient.getFolder(),
+                                            new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
+                                    folderId = folder.getId();
+                                } else {
+                                    throw se;
+                                }
+                            }
+                        }
+                        int flags = Flag.BITMASK_UNREAD;
+                        if (recipient.getFlags() != null) {
+                            flags = Flag.toBitmask(recipient.getFlags());
+                        }
+                        DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
+                        dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
+                        Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
+                        addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                    } else if (!DebugConfig.disableIncomingFilter) {
+                        // Get msgid first, to avoid having to reopen and reparse the blob
+                        // file if Mailbox.addMessageInternal() closes it.
+                        pm.getMessageID();
+                        addedMessageIds = RuleManager.applyRulesToIncomingMessage(
+                                null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
+                                Mailbox.ID_FOLDER_INBOX, false, true);
+                    } else {
+                        pm.getMessageID();
+                        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+                        dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
+                        Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
+                        addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                    }
+                    success = true;
+                    if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                        addToDedupeCache(pm, mbox);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                    // Execute callbacks
+                    for (LmtpCallback callback : callbacks) {
+                        for (ItemId id : addedMessageIds) {
+                            if (id.belongsTo(mbox)) {
+                                // Message was added to the local mailbox, as opposed to a mountpoint.
+                                ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                                try {
+                                    Message msg = mbox.getMessageById(null, id.getId());
+                                    callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
+                                } catch (OutOfMemoryError oome) {
+                                    Zimbra.halt("LMTP callback failed", oome);
+                                } catch (Throwable t) {
+                                    ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
+                                }
+                            }
+                        }
+                    }
+                }
+                reply = LmtpReply.DELIVERY_OK;
+                break;
+            case defer:
+                // Delivery to mailbox skipped.  Let MTA retry again later.
+                // This case happens for shared delivery to a mailbox in
+                // backup mode.
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
+                        envSender, rcptEmail);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+                break;
+            }
+        } catch (DeliveryServiceException e) {
+            ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
+            reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
+        } catch (ServiceException e) {
+            if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
+                if (config.isPermanentFailureWhenOverQuota()) {
+                    reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
+                } else {
+                    reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
+                }
+            } else if (e.isReceiversFault()) {
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+            } else {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.PERMANENT_FAILURE;
+            }
+        } catch (Exception e) {
+            reply = LmtpReply.TEMPORARY_FAILURE;
+            ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+        } finally {
+            if (rd.action == DeliveryAction.deliver && !success) {
+                // Message was not delivered.  Remove it from the dedupe
+                // cache so we don't dedupe it on LMTP retry.
+                removeFromDedupeCache(msgId, rd.mbox);
+            }
+            recipient.setDeliveryStatus(reply);
+            if (shared && rd != null && rd.esd) {
+                rd.mbox.endSharedDelivery();
+                rd.esd = false;
+            }
+        }
+    }
+
+    /**
+     * Delivers to each mailbox on {@link #deliveryExecutor}, and to the recipients that share a mailbox one after
+     * another, so that the deliveries of one message never wait for each other's mailbox delivery lock.  The calling
+     * thread delivers too, taking whichever mailboxes no pool thread has started, so a busy pool slows a message down
+     * to serial delivery at worst.  Returns once every recipient has its delivery status.
+     */
+    private void deliverInParallel(List<LmtpAddress> recipients, final Map<LmtpAddress, RecipientDetail> rcptMap,
+            final Blob blob, final LmtpEnvelope env, final String msgId, final DeliveryContext sharedDeliveryCtxt) {
+        Map<Object, List<LmtpAddress>> mailboxRecipients = new LinkedHashMap<Object, List<LmtpAddress>>();
+        for (LmtpAddress recipient : recipients) {
+            RecipientDetail rd = rcptMap.get(recipient);
+            Object key = rd != null && rd.mbox != null ? rd.mbox.getId() : recipient;
+            List<LmtpAddress> list = mailboxRecipients.get(key);
+            if (list == null) {
+                list = new ArrayList<LmtpAddress>(1);
+                mailboxRecipients.put(key, list);
+            }
+            list.add(recipient);
+        }
+
+        final Thread caller = Thread.currentThread();
+        final Map<String, String> logContext = ZimbraLog.getContext();
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>(mailboxRecipients.size());
+        for (final List<LmtpAddress> list : mailboxRecipients.values()) {
+            FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+                @Override
+                public void run() {
+                    if (Thread.currentThread() != caller) {
+                        ZimbraLog.setContext(logContext);
+                    }
+                    try {
+                        for (LmtpAddress recipient : list) {
+                            deliverToRecipient(recipient, rcptMap.get(recipient), blob, env, msgId, true,
+                                    sharedDeliveryCtxt);
+                        }
+                    } finally {
+                        if (Thread.currentThread() != caller) {
+                            ZimbraLog.clearContext();
+                        }
+                    }
+                }
+            }, null);
+            if (!tasks.isEmpty()) { // the calling thread starts with the first mailbox
+                try {
+                    deliveryExecutor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // the calling thread delivers it below
+                }
+            }
+            tasks.add(task);
+        }
+
+        // FutureTask.run() does nothing if a pool thread has already started the task
+        for (FutureTask<Void> task : tasks) {
+            task.run();
+        }
+        Throwable failure = null;
+        for (FutureTask<Void> task : tasks) {
+            try {
+                Uninterruptibles.getUninterruptibly(task);
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+        if (failure != null) {
+            throw Throwables.propagate(failure);
+        }
+    }
+
     private void deliverMessageToRemoteMailboxes(Blob blob, byte[] data, LmtpEnvelope env) {
         Multimap<String, LmtpAddress> serverToRecipientsMap = env.getRemoteServerToRecipientsMap();
         for (String server : serverToRecipientsMap.keySet()) {
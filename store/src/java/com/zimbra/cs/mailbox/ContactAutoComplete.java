@@ -22,6 +22,8 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -421,16 +423,27 @@ public class ContactAutoComplete {
         List<Folder> listFolders = pFolders.getFirst();
         Map<ItemId, Mountpoint> mountpoints = pFolders.getSecond();
         final String searchContactFolderQuery = generateFolderQuery(listFolders);
+        ContactPrefixIndex prefixIndex = getPrefixIndex(str, listFolders);
+        Set<Integer> folderIds = prefixIndex == null ? null : getFolderIds(listFolders);
 
         long t0 = System.currentTimeMillis();
         //Search in ranking table first.
-        addExistingContactsFromRankingTable(str, searchContactFolderQuery, mountpoints, limit, result);
+        if (prefixIndex != null) {
+            addExistingContactsFromRankingTable(str, prefixIndex, folderIds, limit, result);
+        } else {
+            addExistingContactsFromRankingTable(str, searchContactFolderQuery, mountpoints, limit, result);
+        }
         long t1 = System.currentTimeMillis();
 
         // search other folders
         if (result.entries.size() < limit) {
-            String query = searchContactFolderQuery + generateQuery(str);
-            queryFolders(str, query, mountpoints, limit, result);
+            if (prefixIndex != null) {
+                String prefix = TOKEN_SPLITTER.split(str).iterator().next();
+                addMatchedContacts(str, prefixIndex.search(prefix, folderIds), result);
+            } else {
+                String query = searchContactFolderQuery + generateQuery(str);
+                queryFolders(str, query, mountpoints, limit, result);
+            }
         }
         long t2 = System.currentTimeMillis();
 
@@ -757,6 +770,66 @@ public class ContactAutoComplete {
         }
     }
 
+    /**
+     * Returns the in-memory index of the requested mailbox's contacts if it can answer the query, which is when the
+     * mailbox owner looks up local folders only.
+     */
+    private ContactPrefixIndex getPrefixIndex(String str, List<Folder> folders) throws ServiceException {
+        if (!TOKEN_SPLITTER.split(str).iterator().hasNext()) {
+            return null;
+        }
+        for (Folder folder : folders) {
+            if (folder instanceof Mountpoint) {
+                return null;
+            }
+        }
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(getRequestedAcctId());
+        if (octxt != null && octxt.isDelegatedRequest(mbox)) {
+            return null;
+        }
+        return ContactPrefixIndex.get(mbox, mEmailKeys);
+    }
+
+    private static Set<Integer> getFolderIds(List<Folder> folders) {
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Folder folder : folders) {
+            ids.add(folder.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Matches contacts found in the in-memory index, as {@link #queryFolders} does search hits.
+     */
+    private void addMatchedContacts(String str, Collection<ContactPrefixIndex.Entry> found, AutoCompleteResult result)
+            throws ServiceException {
+        Mailbox mbox = null;
+        for (ContactPrefixIndex.Entry entry : found) {
+            Map<String, String> fields = entry.fields;
+            if (returnFullContactData) {
+                // only the fields autocomplete looks at are in memory
+                if (mbox == null) {
+                    mbox = MailboxManager.getInstance().getMailboxByAccountId(getRequestedAcctId());
+                }
+                Contact c;
+                try {
+                    c = mbox.getContactById(octxt, entry.id);
+                } catch (MailServiceException.NoSuchItemException e) {
+                    continue;
+                }
+                fields = c.getFields();
+                List<Attachment> contactAttachments = c.getAttachments();
+                if (contactAttachments != null && contactAttachments.size() != 0) {
+                    fields.put("image", c.getId() + "_" + contactAttachments.get(0).getName());
+                }
+            }
+            addMatchedContacts(str, fields, entry.folderId, new ItemId(getRequestedAcctId(), entry.id), result);
+            if (!result.canBeCached) {
+                return;
+            }
+        }
+    }
+
     private Pair<List<Folder>, Map<ItemId, Mountpoint>> getLocalRemoteContactFolders(Collection<Integer> folderIDs) throws ServiceException {
         List<Folder> folders = new ArrayList<Folder>();
         Map<ItemId, Mountpoint> mountpoints = new HashMap<ItemId, Mountpoint>();
@@ -905,6 +978,27 @@ public class ContactAutoComplete {
         return buf.toString();
     }
 
+    /**
+     * Same as {@link #addExistingContactsFromRankingTable(String, String, Map, int, AutoCompleteResult)}, looking up
+     * the ranked addresses in the in-memory index.
+     */
+    private void addExistingContactsFromRankingTable(String str, ContactPrefixIndex prefixIndex, Set<Integer> folderIds,
+            int limit, AutoCompleteResult result) throws ServiceException {
+        // a contact with several ranked addresses is matched once, as it is a single search hit
+        Set<ContactPrefixIndex.Entry> found = new LinkedHashSet<ContactPrefixIndex.Entry>();
+        int batchSize = limit;
+        for (ContactEntry contactEntry : result.rankings.search(str)) {
+            if (batchSize-- == 0) {
+                break;
+            }
+            String email = contactEntry.getEmail();
+            if (!StringUtil.isNullOrEmpty(email)) {
+                found.addAll(prefixIndex.searchEmail(email, folderIds));
+            }
+        }
+        addMatchedContacts(str, found, result);
+    }
+
     /**
      * Get matching entries from ranking table and validates each matching email address in contact ranking table has corresponding contact.
      * @param str
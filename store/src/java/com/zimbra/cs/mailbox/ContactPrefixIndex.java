@@ -0,0 +1,447 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.BaseItemInfo;
+import com.zimbra.common.mailbox.ContactConstants;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.db.DbMailItem;
+import com.zimbra.cs.db.DbMailItem.QueryParams;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * In-memory index of a mailbox's contacts for {@link ContactAutoComplete}.
+ * <p>
+ * Every word of a contact's names and nickname, and every email address in the account's contact email fields, is a
+ * key of a sorted map whose values are the ids of the contacts that have it, so the candidates for a query are found
+ * with a range scan over the keys that start with its first word.  Only the fields autocomplete looks at are kept.
+ * The candidates are then matched exactly as search hits are, so the results are those of the search index, without
+ * running a search.
+ * <p>
+ * The index of a mailbox is loaded in the background the first time it is asked for, and kept up to date by
+ * {@link Listener} from the mailbox change notifications.  Until it is loaded, and for mailboxes with more than
+ * {@code contact_autocomplete_index_max_contacts} contacts, {@link #get(Mailbox, Collection)} returns {@code null} and the caller
+ * uses the search index instead.  Lookups don't lock; updates are serialized per mailbox.
+ */
+final class ContactPrefixIndex {
+
+    private static final Splitter WORD_SPLITTER = Splitter.on(CharMatcher.whitespace()).omitEmptyStrings();
+
+    /** Fields whose words are looked up by prefix. */
+    private static final List<String> NAME_FIELDS = ImmutableList.of(
+            ContactConstants.A_firstName, ContactConstants.A_middleName, ContactConstants.A_lastName,
+            ContactConstants.A_fullName, ContactConstants.A_nickname,
+            ContactConstants.A_phoneticFirstName, ContactConstants.A_phoneticLastName);
+
+    /** Other fields autocomplete results are made of. */
+    private static final List<String> OTHER_FIELDS = ImmutableList.of(
+            ContactConstants.A_company, ContactConstants.A_fileAs, ContactConstants.A_type);
+
+    private static final Cache<String, ContactPrefixIndex> INDEXES = CacheBuilder.newBuilder()
+            .maximumSize(Math.max(0, LC.contact_autocomplete_index_mailboxes.intValue())).build();
+
+    /** Number of contacts read per mailbox transaction while loading. */
+    private static final int LOAD_BATCH_SIZE = 500;
+
+    private static final ThreadPoolExecutor BUILDER = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("ContactPrefixIndex-%d").setDaemon(true).build());
+    static {
+        BUILDER.allowCoreThreadTimeOut(true);
+    }
+
+    private final String accountId;
+    private final int mailboxId;
+    private final List<String> emailKeys;
+    private final ConcurrentMap<Integer, Entry> contacts = new ConcurrentHashMap<Integer, Entry>();
+    private final ConcurrentSkipListMap<String, int[]> terms = new ConcurrentSkipListMap<String, int[]>();
+    private volatile boolean ready;
+    private volatile boolean tooLarge;
+
+    /**
+     * The fields of a contact autocomplete looks at.
+     */
+    static final class Entry {
+        final int id;
+        final int folderId;
+        final Map<String, String> fields;
+        final Set<String> terms;
+
+        Entry(int id, int folderId, Map<String, String> fields, Set<String> terms) {
+            this.id = id;
+            this.folderId = folderId;
+            this.fields = fields;
+            this.terms = terms;
+        }
+    }
+
+    private ContactPrefixIndex(Mailbox mbox, Collection<String> emailKeys) {
+        this.accountId = mbox.getAccountId();
+        this.mailboxId = mbox.getId();
+        this.emailKeys = ImmutableList.copyOf(emailKeys);
+    }
+
+    /**
+     * Returns the loaded index of the mailbox for the given contact email fields, or {@code null} if the caller has to
+     * search instead.  If the index isn't there yet, starts loading it.
+     */
+    static ContactPrefixIndex get(Mailbox mbox, Collection<String> emailKeys) {
+        if (LC.contact_autocomplete_index_mailboxes.intValue() <= 0) {
+            return null;
+        }
+        ContactPrefixIndex idx = INDEXES.getIfPresent(mbox.getAccountId());
+        if (idx != null && (idx.mailboxId != mbox.getId() || !idx.emailKeys.equals(ImmutableList.copyOf(emailKeys)))) {
+            INDEXES.asMap().remove(mbox.getAccountId(), idx);
+            idx = null;
+        }
+        if (idx == null) {
+            final ContactPrefixIndex created = new ContactPrefixIndex(mbox, emailKeys);
+            if (INDEXES.asMap().putIfAbsent(mbox.getAccountId(), created) == null) {
+                final Mailbox target = mbox;
+                BUILDER.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            created.load(target);
+                        } catch (Throwable t) {
+                            INDEXES.asMap().remove(created.accountId, created);
+                            ZimbraLog.mailbox.warn("unable to load contacts of mailbox %d for autocomplete",
+                                    created.mailboxId, t);
+                        }
+                    }
+                });
+            }
+            return null;
+        }
+        return idx.ready ? idx : null;
+    }
+
+    /**
+     * Loads the index of the mailbox in the calling thread and returns it, or {@code null} if it has too many contacts.
+     */
+    static ContactPrefixIndex build(Mailbox mbox, Collection<String> emailKeys) throws ServiceException {
+        ContactPrefixIndex idx = new ContactPrefixIndex(mbox, emailKeys);
+        INDEXES.put(mbox.getAccountId(), idx);
+        try {
+            idx.load(mbox);
+        } catch (ServiceException | RuntimeException e) {
+            INDEXES.asMap().remove(idx.accountId, idx);
+            throw e;
+        }
+        return idx.ready ? idx : null;
+    }
+
+    /**
+     * Forgets the index of a deleted mailbox, as its id may be given to another one.
+     */
+    static void purge(String accountId) {
+        INDEXES.invalidate(accountId);
+    }
+
+    static void clear() {
+        INDEXES.invalidateAll();
+    }
+
+    /**
+     * Loads all contacts of the mailbox, {@link #LOAD_BATCH_SIZE} at a time so that the mailbox isn't locked for the
+     * whole load.  The index is registered before the contacts are listed, and each batch is added while the mailbox
+     * is locked, so changes made after a contact is loaded are applied by the listener, changes notified before it are
+     * overwritten by the load, and contacts created after the listing are added by the listener.
+     */
+    private void load(Mailbox mbox) throws ServiceException {
+        int max = LC.contact_autocomplete_index_max_contacts.intValue();
+        List<Integer> ids;
+        boolean success = false;
+        try {
+            mbox.beginReadTransaction("ContactPrefixIndex-List", null);
+            QueryParams params = new QueryParams();
+            params.setIncludedTypes(EnumSet.of(MailItem.Type.CONTACT));
+            ids = new ArrayList<Integer>(DbMailItem.getIds(mbox, mbox.getOperationConnection(), params, false));
+            success = true;
+        } finally {
+            mbox.endTransaction(success);
+        }
+        if (ids.size() > max) {
+            ZimbraLog.mailbox.debug("mailbox %d has %d contacts, autocomplete uses the search index",
+                    mailboxId, ids.size());
+            synchronized (this) {
+                tooLarge = true;
+                contacts.clear();
+                terms.clear();
+            }
+            return;
+        }
+        Collections.sort(ids);
+        for (int start = 0; start < ids.size() && !tooLarge; start += LOAD_BATCH_SIZE) {
+            loadBatch(mbox, ids.subList(start, Math.min(start + LOAD_BATCH_SIZE, ids.size())));
+        }
+        ready = !tooLarge;
+        ZimbraLog.mailbox.debug("loaded %d contacts of mailbox %d for autocomplete", contacts.size(), mailboxId);
+    }
+
+    private void loadBatch(Mailbox mbox, List<Integer> ids) throws ServiceException {
+        boolean success = false;
+        try {
+            mbox.beginReadTransaction("ContactPrefixIndex-Load", null);
+            MailItem[] items;
+            try {
+                items = mbox.getItemById(ids, MailItem.Type.CONTACT);
+            } catch (MailServiceException.NoSuchItemException e) {
+                // some were deleted since they were listed
+                items = new MailItem[ids.size()];
+                for (int i = 0; i < items.length; i++) {
+                    try {
+                        items[i] = mbox.getItemById(ids.get(i), MailItem.Type.CONTACT);
+                    } catch (MailServiceException.NoSuchItemException gone) {
+                    }
+                }
+            }
+            for (MailItem item : items) {
+                if (item != null) {
+                    put((Contact) item);
+                }
+            }
+            success = true;
+        } finally {
+            mbox.endTransaction(success);
+        }
+    }
+
+    synchronized void put(Contact contact) {
+        if (tooLarge) {
+            return;
+        }
+        Map<String, String> all = contact.getFields();
+        Map<String, String> fields = new HashMap<String, String>();
+        Set<String> words = new LinkedHashSet<String>();
+        for (String key : NAME_FIELDS) {
+            String value = all.get(key);
+            if (value != null) {
+                fields.put(key, value);
+                for (String word : WORD_SPLITTER.split(value)) {
+                    words.add(word.toLowerCase());
+                }
+            }
+        }
+        for (String key : emailKeys) {
+            String value = all.get(key);
+            if (value != null) {
+                fields.put(key, value);
+                words.add(value.toLowerCase());
+            }
+        }
+        for (String key : OTHER_FIELDS) {
+            String value = all.get(key);
+            if (value != null) {
+                fields.put(key, value);
+            }
+        }
+        Entry entry = new Entry(contact.getId(), contact.getFolderId(), Collections.unmodifiableMap(fields),
+                Collections.unmodifiableSet(words));
+        Entry old = contacts.put(entry.id, entry);
+        if (old != null) {
+            for (String term : old.terms) {
+                if (!words.contains(term)) {
+                    removeTerm(term, entry.id);
+                }
+            }
+        }
+        for (String term : words) {
+            if (old == null || !old.terms.contains(term)) {
+                addTerm(term, entry.id);
+            }
+        }
+        if (contacts.size() > LC.contact_autocomplete_index_max_contacts.intValue()) {
+            ZimbraLog.mailbox.debug("mailbox %d has too many contacts, autocomplete uses the search index", mailboxId);
+            tooLarge = true;
+            ready = false;
+            contacts.clear();
+            terms.clear();
+        }
+    }
+
+    synchronized void remove(int id) {
+        Entry old = contacts.remove(id);
+        if (old != null) {
+            for (String term : old.terms) {
+                removeTerm(term, id);
+            }
+        }
+    }
+
+    private void addTerm(String term, int id) {
+        int[] ids = terms.get(term);
+        if (ids == null) {
+            terms.put(term, new int[] { id });
+            return;
+        }
+        int pos = Arrays.binarySearch(ids, id);
+        if (pos < 0) {
+            pos = -pos - 1;
+            int[] updated = new int[ids.length + 1];
+            System.arraycopy(ids, 0, updated, 0, pos);
+            updated[pos] = id;
+            System.arraycopy(ids, pos, updated, pos + 1, ids.length - pos);
+            terms.put(term, updated);
+        }
+    }
+
+    private void removeTerm(String term, int id) {
+        int[] ids = terms.get(term);
+        if (ids == null) {
+            return;
+        }
+        int pos = Arrays.binarySearch(ids, id);
+        if (pos < 0) {
+            return;
+        } else if (ids.length == 1) {
+            terms.remove(term);
+            return;
+        }
+        int[] updated = new int[ids.length - 1];
+        System.arraycopy(ids, 0, updated, 0, pos);
+        System.arraycopy(ids, pos + 1, updated, pos, updated.length - pos);
+        terms.put(term, updated);
+    }
+
+    /**
+     * Returns the contacts in the given folders that have a word starting with the lowercased prefix.
+     */
+    List<Entry> search(String prefix, Set<Integer> folderIds) {
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (int[] matched : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+            for (int id : matched) {
+                ids.add(id);
+            }
+        }
+        return lookup(ids, folderIds);
+    }
+
+    /**
+     * Returns the contacts in the given folders that have the email address in one of their email fields.
+     */
+    List<Entry> searchEmail(String email, Set<Integer> folderIds) {
+        int[] matched = terms.get(email.toLowerCase());
+        if (matched == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> result = new ArrayList<Entry>(matched.length);
+        for (Entry entry : lookup(matched, folderIds)) {
+            for (String key : emailKeys) {
+                if (email.equalsIgnoreCase(entry.fields.get(key))) {
+                    result.add(entry);
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<Entry> lookup(Collection<Integer> ids, Set<Integer> folderIds) {
+        List<Entry> result = new ArrayList<Entry>(ids.size());
+        for (Integer id : ids) {
+            Entry entry = contacts.get(id);
+            if (entry != null && folderIds.contains(entry.folderId)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private List<Entry> lookup(int[] ids, Set<Integer> folderIds) {
+        List<Integer> boxed = new ArrayList<Integer>(ids.length);
+        for (int id : ids) {
+            boxed.add(id);
+        }
+        return lookup(boxed, folderIds);
+    }
+
+    int size() {
+        return contacts.size();
+    }
+
+    /**
+     * Applies contact changes to the loaded indexes.
+     */
+    static final class Listener extends MailboxListener {
+
+        private static final Set<MailItem.Type> TYPES = EnumSet.of(MailItem.Type.CONTACT);
+
+        @Override
+        public void notify(ChangeNotification notification) {
+            if (notification.mailboxAccount == null) {
+                return;
+            }
+            ContactPrefixIndex idx = INDEXES.getIfPresent(notification.mailboxAccount.getId());
+            if (idx == null) {
+                return;
+            }
+            if (notification.mods.created != null) {
+                for (BaseItemInfo item : notification.mods.created.values()) {
+                    if (item instanceof Contact) {
+                        idx.put((Contact) item);
+                    }
+                }
+            }
+            if (notification.mods.modified != null) {
+                for (Change change : notification.mods.modified.values()) {
+                    if (change.what instanceof Contact) {
+                        idx.put((Contact) change.what);
+                    }
+                }
+            }
+            if (notification.mods.deleted != null) {
+                for (Map.Entry<ModificationKey, Change> entry : notification.mods.deleted.entrySet()) {
+                    if (entry.getValue().what == MailItem.Type.CONTACT) {
+                        idx.remove(entry.getKey().getItemId());
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Set<MailItem.Type> registerForItemTypes() {
+            return TYPES;
+        }
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * The {@link MailItem} cache of a single mailbox.
+ * <p>
+ * Every mailbox's items are held in one server-wide pool whose estimated heap footprint is bounded by
+ * {@code zimbra_mailbox_item_cache_max_bytes}.  When the pool is over budget the least recently used items
+ * are evicted, taking first from mailboxes that hold more than an equal share of the budget.  Items of a
+ * mailbox with a transaction in progress are never evicted by other threads; they are released when the
+ * transaction ends, as they were when each mailbox kept its own cache behind a soft reference.
+ * <p>
+ * Items loaded by read-only transactions while the pool is full are admitted only if they have been asked
+ * for more often than the item they would displace (TinyLFU).  Items touched by write transactions are
+ * always cached, since the transaction may modify the instance it was handed.
+ * <p>
+ * Each mailbox holds at most {@code zimbra_mailbox_item_cache_max_items} items once its transactions end.
+ * Cached items refer to their mailbox, so a mailbox's items are dropped from the pool when
+ * {@link MailboxManager} stops holding the mailbox for sure, lest the pool keep idle mailboxes in memory.
+ * <p>
+ * In always-on mode the pool is an L1 in front of {@link MemcachedItemCache}.  Its contents are dropped
+ * whenever another server has changed the mailbox since they were cached.
+ */
+public final class ItemCache {
+
+    private static final class Node {
+        final ItemCache owner;
+        final MailItem item;
+        final int weight;
+
+        Node(ItemCache owner, MailItem item, int weight) {
+            this.owner = owner;
+            this.item = item;
+            this.weight = weight;
+        }
+    }
+
+    /** Rough average weight of a cached item, used to size the frequency sketch. */
+    private static final int AVERAGE_WEIGHT = 1024;
+    /** Number of least recently used entries examined at a time when evicting. */
+    private static final int EVICTION_BATCH = 64;
+    private static final int MAX_EVICTION_SCAN = 4096;
+
+    /** All cached items on the server, in access order.  Evictions are driven by {@link #sBytes}, not by
+     *  the map's own capacity. */
+    private static final ConcurrentLinkedHashMap<Long, Node> sEntries =
+        new ConcurrentLinkedHashMap.Builder<Long, Node>().maximumWeightedCapacity(Integer.MAX_VALUE).build();
+    private static final AtomicLong sBytes = new AtomicLong();
+    /** Number of mailboxes with at least one item in the pool. */
+    private static final AtomicInteger sActiveCaches = new AtomicInteger();
+    private static final AtomicInteger sNextSerial = new AtomicInteger();
+    private static final ReentrantLock sEvictionLock = new ReentrantLock();
+    private static volatile long sMaxBytes;
+    private static volatile int sMaxItems = LC.zimbra_mailbox_item_cache_max_items.intValue();
+    private static volatile FrequencySketch sSketch;
+
+    static {
+        setMaxBytes(LC.zimbra_mailbox_item_cache_max_bytes.longValue());
+    }
+
+    private final Mailbox mbox;
+    private final boolean isAlwaysOn;
+    /** High 32 bits of this cache's keys in {@link #sEntries}; replaced on {@link #clear()}. */
+    private volatile long serial = nextSerial();
+    private final Map<Integer /* id */, MailItem> mapById = new ConcurrentHashMap<Integer, MailItem>();
+    private final Map<String /* uuid */, Integer /* id */> uuid2id = new ConcurrentHashMap<String, Integer>();
+    private final AtomicLong bytes = new AtomicLong();
+    /** Number of transactions in progress on the mailbox. */
+    private final AtomicInteger pins = new AtomicInteger();
+    /** Set when the mailbox was unloaded during a transaction; its items are dropped when the transaction ends. */
+    private volatile boolean unloadPending;
+    /** Always-on only: the item cache checkpoint and change ID that the local copies are current as of. */
+    private long stamp = -1;
+
+    ItemCache(Mailbox mbox) {
+        this.mbox = mbox;
+        this.isAlwaysOn = Zimbra.isAlwaysOn();
+    }
+
+    @VisibleForTesting
+    static void setMaxBytes(long maxBytes) {
+        sMaxBytes = maxBytes;
+        sSketch = new FrequencySketch((int) Math.min(1 << 22, Math.max(maxBytes / AVERAGE_WEIGHT, 1)));
+        ZimbraLog.cache.info("setting item cache size to %d bytes", maxBytes);
+        evictIfNecessary();
+    }
+
+    @VisibleForTesting
+    static void setMaxItems(int maxItems) {
+        sMaxItems = maxItems;
+    }
+
+    /** Returns the number of items cached for all mailboxes. */
+    public static int getTotalSize() {
+        return sEntries.size();
+    }
+
+    /** Returns the estimated number of bytes held by items cached for all mailboxes. */
+    public static long getTotalBytes() {
+        return sBytes.get();
+    }
+
+    private static long nextSerial() {
+        return ((long) sNextSerial.incrementAndGet()) << 32;
+    }
+
+    private long key(int id) {
+        return serial | (id & 0xFFFFFFFFL);
+    }
+
+    /** Marks the start of a transaction; the mailbox's items can't be evicted by other threads until the
+     *  matching {@link #unpin()}. */
+    void pin() {
+        pins.incrementAndGet();
+    }
+
+    void unpin() {
+        if (pins.decrementAndGet() == 0) {
+            if (unloadPending) {
+                unloadPending = false;
+                clear();
+            } else {
+                trim();
+            }
+            evictIfNecessary();
+        }
+    }
+
+    /**
+     * Called when the mailbox is unloaded, i.e. only softly referenced by {@link MailboxManager}.  Drops the
+     * mailbox's items from the pool, which would otherwise keep the mailbox reachable, right away or once the
+     * transaction in progress ends.
+     */
+    void unload() {
+        if (pins.get() > 0) {
+            unloadPending = true;
+        } else {
+            clear();
+        }
+    }
+
+    /** Drops items beyond {@code zimbra_mailbox_item_cache_max_items}, in no particular order. */
+    private void trim() {
+        int excess = mapById.size() - sMaxItems;
+        for (Integer id : mapById.keySet()) {
+            if (excess-- <= 0 || pins.get() > 0) {
+                break;
+            }
+            if (removeLocal(id) != null) {
+                ZimbraPerf.COUNTER_MBOX_ITEM_CACHE_EVICTIONS.increment();
+            }
+        }
+    }
+
+    /**
+     * Always-on only: called at the start of a transaction with the mailbox stats just read from the
+     * database.  Drops the local copies if another server has changed the mailbox since they were cached.
+     */
+    void validate(int checkpoint, int lastChangeId) {
+        if (isAlwaysOn) {
+            long current = ((long) checkpoint << 32) | (lastChangeId & 0xFFFFFFFFL);
+            if (current != stamp) {
+                clear();
+                stamp = current;
+            }
+        }
+    }
+
+    /** Always-on only: called once this server's changes are committed, so that they don't invalidate the
+     *  local copies at the start of the next transaction. */
+    void validated(int checkpoint, int lastChangeId) {
+        if (isAlwaysOn) {
+            stamp = ((long) checkpoint << 32) | (lastChangeId & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * @param admit cache the item even if the pool is full and the item is less popular than the least
+     *              recently used one
+     */
+    void put(MailItem item, boolean admit) {
+        if (isAlwaysOn) {
+            try {
+                MemcachedItemCache.getInstance().put(mbox, item);
+            } catch (ServiceException e) {
+                ZimbraLog.mailbox.error("error while writing item to cache", e);
+            }
+        }
+        putLocal(item, admit);
+    }
+
+    private void putLocal(MailItem item, boolean admit) {
+        int id = item.getId();
+        long key = key(id);
+        int weight = weigh(item);
+        if (!admit && !mapById.containsKey(id) && (mapById.size() >= sMaxItems || !admit(key, weight))) {
+            ZimbraPerf.COUNTER_MBOX_ITEM_CACHE_REJECTS.increment();
+            return;
+        }
+        charge(weight);
+        // index first, so that a concurrent eviction never leaves an indexed item outside the pool
+        mapById.put(id, item);
+        String uuid = item.getUuid();
+        if (uuid != null) {
+            uuid2id.put(uuid, id);
+        }
+        Node old = sEntries.put(key, new Node(this, item, weight));
+        if (old != null) {
+            release(old.weight);
+        }
+        evictIfNecessary();
+    }
+
+    MailItem get(int id) {
+        long key = key(id);
+        sSketch.increment(key);
+        Node node = sEntries.get(key);
+        if (node != null) {
+            return node.item;
+        }
+        if (isAlwaysOn) {
+            MailItem item = null;
+            try {
+                item = MemcachedItemCache.getInstance().get(mbox, id);
+            } catch (ServiceException e) {
+                ZimbraLog.mailbox.error("error while fetching item from cache", e);
+            }
+            if (item != null) {
+                putLocal(item, false);
+            }
+            return item;
+        }
+        return null;
+    }
+
+    MailItem get(String uuid) {
+        Integer id = uuid2id.get(uuid);
+        if (id != null) {
+            // always go through the pool to preserve its access ordering
+            MailItem item = get(id);
+            if (item != null) {
+                return item;
+            }
+        }
+        if (isAlwaysOn) {
+            MailItem item = null;
+            try {
+                item = MemcachedItemCache.getInstance().get(mbox, uuid);
+            } catch (ServiceException e) {
+                ZimbraLog.mailbox.error("error while fetching item from cache", e);
+            }
+            if (item != null) {
+                putLocal(item, false);
+            }
+            return item;
+        }
+        return null;
+    }
+
+    MailItem remove(MailItem item) {
+        return remove(item.getId());
+    }
+
+    MailItem remove(int id) {
+        MailItem removed = removeLocal(id);
+        if (isAlwaysOn) {
+            try {
+                MailItem remote = MemcachedItemCache.getInstance().remove(mbox, id);
+                if (removed == null) {
+                    removed = remote;
+                }
+            } catch (ServiceException e) {
+                ZimbraLog.mailbox.error("error while removing item from cache", e);
+            }
+        }
+        return removed;
+    }
+
+    private MailItem removeLocal(int id) {
+        Node node = sEntries.remove(key(id));
+        MailItem removed = mapById.remove(id);
+        if (node != null) {
+            release(node.weight);
+            if (removed == null) {
+                removed = node.item;
+            }
+        }
+        if (removed != null) {
+            String uuid = removed.getUuid();
+            if (uuid != null) {
+                uuid2id.remove(uuid);
+            }
+        }
+        return removed;
+    }
+
+    boolean contains(MailItem item) {
+        if (sEntries.getQuietly(key(item.getId())) != null) {
+            return true;
+        }
+        if (isAlwaysOn) {
+            try {
+                return MemcachedItemCache.getInstance().get(mbox, item.getId()) != null;
+            } catch (ServiceException e) {
+                ZimbraLog.mailbox.error("error while checking item cache", e);
+            }
+        }
+        return false;
+    }
+
+    /** Returns the items cached locally for this mailbox, in no particular order. */
+    Collection<MailItem> values() {
+        return mapById.values();
+    }
+
+    int size() {
+        return mapById.size();
+    }
+
+    /** Returns the estimated number of bytes held by this mailbox's cached items. */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /** Drops the local copies of this mailbox's items.  Entries that raced with the clear are left under
+     *  the old serial, where nothing can look them up, until they are evicted. */
+    void clear() {
+        for (Integer id : mapById.keySet()) {
+            removeLocal(id);
+        }
+        serial = nextSerial();
+        mapById.clear();
+        uuid2id.clear();
+    }
+
+    private void charge(int weight) {
+        if (bytes.addAndGet(weight) == weight) {
+            sActiveCaches.incrementAndGet();
+        }
+        sBytes.addAndGet(weight);
+    }
+
+    private void release(int weight) {
+        sBytes.addAndGet(-weight);
+        if (bytes.addAndGet(-weight) == 0) {
+            sActiveCaches.decrementAndGet();
+        }
+    }
+
+    /** Called with {@link #sEvictionLock} held; evicts the node if it is still current. */
+    private boolean evictNode(long key, Node node) {
+        if (!sEntries.remove(key, node)) {
+            return false;
+        }
+        int id = node.item.getId();
+        if (mapById.remove(id, node.item)) {
+            String uuid = node.item.getUuid();
+            if (uuid != null) {
+                uuid2id.remove(uuid, id);
+            }
+        }
+        release(node.weight);
+        ZimbraPerf.COUNTER_MBOX_ITEM_CACHE_EVICTIONS.increment();
+        return true;
+    }
+
+    /**
+     * TinyLFU admission: when adding an item would push the pool over budget, only admit it if it has been
+     * asked for more often than the least recently used item.
+     */
+    private static boolean admit(long key, int weight) {
+        if (sBytes.get() + weight <= sMaxBytes) {
+            return true;
+        }
+        Map<Long, Node> coldest = sEntries.ascendingMapWithLimit(1);
+        if (coldest.isEmpty()) {
+            return true;
+        }
+        FrequencySketch sketch = sSketch;
+        return sketch.frequency(key) > sketch.frequency(coldest.keySet().iterator().next());
+    }
+
+    /**
+     * Evicts least recently used items until the pool is within budget.  Items of mailboxes over their
+     * share of the budget go first; items of mailboxes with a transaction in progress are skipped.  Only
+     * one thread evicts at a time; others carry on and leave it to that thread.
+     */
+    static void evictIfNecessary() {
+        if (sBytes.get() <= sMaxBytes || !sEvictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int limit = EVICTION_BATCH;
+            while (sBytes.get() > sMaxBytes) {
+                Map<Long, Node> coldest = sEntries.ascendingMapWithLimit(limit);
+                long fairShare = sMaxBytes / Math.max(1, sActiveCaches.get());
+                if (!evict(coldest, fairShare) && !evict(coldest, 0)) {
+                    if (coldest.size() < limit || limit >= MAX_EVICTION_SCAN) {
+                        // everything left is in use; it will be released when the transactions end
+                        break;
+                    }
+                    limit *= 2;
+                }
+            }
+        } finally {
+            sEvictionLock.unlock();
+        }
+    }
+
+    private static boolean evict(Map<Long, Node> candidates, long minOwnerBytes) {
+        boolean evicted = false;
+        for (Map.Entry<Long, Node> entry : candidates.entrySet()) {
+            if (sBytes.get() <= sMaxBytes) {
+                break;
+            }
+            Node node = entry.getValue();
+            ItemCache owner = node.owner;
+            if (owner.pins.get() > 0 || owner.bytes.get() <= minOwnerBytes) {
+                continue;
+            }
+            evicted |= owner.evictNode(entry.getKey(), node);
+        }
+        return evicted;
+    }
+
+    /**
+     * Estimates the heap footprint of a cached item.  Items are weighed when they are cached, before their
+     * subclass state is set up, so this goes by the type and the strings in the underlying data.
+     */
+    @VisibleForTesting
+    static int weigh(MailItem item) {
+        MailItem.UnderlyingData data = item.mData;
+        int chars = length(data.getSubject()) + length(data.name) + length(data.locator) +
+                length(data.getBlobDigest()) + length(data.uuid) + length(data.getPrevFolders());
+        for (String tag : data.getTags()) {
+            chars += tag.length();
+        }
+        int base;
+        switch (MailItem.Type.of(data.type)) {
+            case CONVERSATION:
+            case VIRTUAL_CONVERSATION:
+                base = 512;
+                break;
+            case CONTACT:
+                base = 2048;
+                break;
+            case APPOINTMENT:
+            case TASK:
+                base = 4096;
+                break;
+            default:
+                base = 1024;
+                break;
+        }
+        return base + 2 * chars;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * Count-min sketch of how often each key has been asked for, with four 4-bit counters per key.  All
+     * counters are halved once the number of increments reaches ten times the table size, so the sketch
+     * follows changes in popularity.  Updates are lock-free; a race can at worst lose an increment.
+     */
+    @VisibleForTesting
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final AtomicLongArray table;
+        private final int tableMask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(int expectedEntries) {
+            int size = Integer.highestOneBit(Math.max(expectedEntries, 64) - 1) << 1;
+            table = new AtomicLongArray(size);
+            tableMask = size - 1;
+            sampleSize = 10 * size;
+        }
+
+        int frequency(long key) {
+            int hash = spread(key);
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table.get(index) >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(long key) {
+            int hash = spread(key);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && additions.incrementAndGet() >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int slot) {
+            int offset = slot << 2;
+            long mask = 0xfL << offset;
+            while (true) {
+                long value = table.get(index);
+                if ((value & mask) == mask) {
+                    return false;
+                }
+                if (table.compareAndSet(index, value, value + (1L << offset))) {
+                    return true;
+                }
+            }
+        }
+
+        private void reset() {
+            if (additions.getAndSet(0) < sampleSize) {
+                return; // another thread is already halving the counters
+            }
+            for (int i = 0; i < table.length(); i++) {
+                long value;
+                do {
+                    value = table.get(i);
+                } while (!table.compareAndSet(i, value, (value >>> 1) & RESET_MASK));
+            }
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+
+        private static int spread(long key) {
+            int x = (int) (key ^ (key >>> 32));
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
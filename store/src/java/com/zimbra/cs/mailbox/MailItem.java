@@ -3486,14 +3486,11 @@ public abstract class MailItem implements Comparable<MailItem>, ScheduledTaskRes
         mVersion = (int) meta.getLong(Metadata.FN_VERSION, 1);
 
         mExtendedData = null;
-        for (Map.Entry<String, ?> entry : meta.asMap().entrySet()) {
-            String key = entry.getKey();
-            if (key.startsWith(CUSTOM_META_PREFIX)) {
-                if (mExtendedData == null) {
-                    mExtendedData = new CustomMetadataList();
-                }
-                mExtendedData.addSection(key.substring(CUSTOM_META_PREFIX.length()), entry.getValue().toString());
+        for (Map.Entry<String, ?> entry : meta.asMap(CUSTOM_META_PREFIX).entrySet()) {
+            if (mExtendedData == null) {
+                mExtendedData = new CustomMetadataList();
             }
+            mExtendedData.addSection(entry.getKey().substring(CUSTOM_META_PREFIX.length()), entry.getValue().toString());
         }
 
         ACL acl = null;
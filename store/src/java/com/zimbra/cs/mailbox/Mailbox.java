@@ -21,7 +21,6 @@ import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -501,7 +500,10 @@ public class Mailbox implements MailboxStore {
             this.sync = null;
             this.config = null;
             this.deletes = null;
-            this.itemCache = null;
+            if (itemCache != null) {
+                itemCache.unpin();
+                itemCache = null;
+            }
             this.indexItems.clear();
             this.dirty.clear();
             this.otherDirtyStuff.clear();
@@ -597,128 +599,6 @@ public class Mailbox implements MailboxStore {
         }
     }
 
-    private static class ItemCache {
-        private final Map<Integer /* id */, MailItem> mapById;
-        private final Map<String /* uuid */, Integer /* id */> uuid2id;
-        private final Mailbox mbox;
-        private boolean isAlwaysOn = false;
-
-        public ItemCache(Mailbox mbox) {
-            mapById = new ConcurrentLinkedHashMap.Builder<Integer, MailItem>().maximumWeightedCapacity(
-                            MAX_ITEM_CACHE_WITH_LISTENERS).build();
-            uuid2id = new ConcurrentHashMap<String, Integer>(MAX_ITEM_CACHE_WITH_LISTENERS);
-            this.mbox = mbox;
-            this.isAlwaysOn = Zimbra.isAlwaysOn();
-        }
-
-        public void put(MailItem item) {
-            if (isAlwaysOn) {
-                try {
-                    MemcachedItemCache.getInstance().put(mbox, item);
-                } catch (ServiceException e) {
-                    ZimbraLog.mailbox.error("error while writing item to cache", e);
-                }
-            } else {
-                int id = item.getId();
-                mapById.put(id, item);
-                String uuid = item.getUuid();
-                if (uuid != null) {
-                    uuid2id.put(uuid, id);
-                }
-            }
-        }
-
-        public MailItem get(int id) {
-            if (isAlwaysOn) {
-                MailItem item = null;
-                try {
-                    item = MemcachedItemCache.getInstance().get(mbox, id);
-                } catch (ServiceException e) {
-                    ZimbraLog.mailbox.error("error while fetching item from cache", e);
-                }
-                return item;
-            } else {
-                return mapById.get(id);
-            }
-        }
-
-        public MailItem get(String uuid) {
-            if (isAlwaysOn) {
-                MailItem item = null;
-                try {
-                    item = MemcachedItemCache.getInstance().get(mbox, uuid);
-                } catch (ServiceException e) {
-                    ZimbraLog.mailbox.error("error while fetching item from cache", e);
-                }
-                return item;
-            } else {
-                // Always fetch item from mapById map to preserve LRU's access time ordering.
-                Integer id = uuid2id.get(uuid);
-                return id != null ? mapById.get(id) : null;
-            }
-        }
-
-        public MailItem remove(MailItem item) {
-            return remove(item.getId());
-        }
-
-        public MailItem remove(int id) {
-            if (isAlwaysOn) {
-                MailItem removed = null;
-                try {
-                    removed = MemcachedItemCache.getInstance().remove(mbox, id);
-                } catch (ServiceException e) {
-                    ZimbraLog.mailbox.error("error while removing item from cache", e);
-                }
-                return removed;
-            } else {
-                MailItem removed = mapById.remove(id);
-                if (removed != null) {
-                    String uuid = removed.getUuid();
-                    if (uuid != null) {
-                        uuid2id.remove(uuid);
-                    }
-                }
-                return removed;
-            }
-        }
-
-        public boolean contains(MailItem item) {
-            if (isAlwaysOn) {
-                try {
-                    return MemcachedItemCache.getInstance().get(mbox, item.getId()) != null;
-                } catch (ServiceException e) {
-                    ZimbraLog.mailbox.error("error while checking item cache", e);
-                    return false;
-                }
-            } else {
-                return mapById.containsKey(item.getId());
-            }
-        }
-
-        public Collection<MailItem> values() {
-            if (isAlwaysOn) {
-                // return empty list
-                return Collections.emptyList();
-            } else {
-                return mapById.values();
-            }
-        }
-
-        public int size() {
-            if (isAlwaysOn) {
-                return 0;
-            } else {
-                return mapById.size();
-            }
-        }
-
-        public void clear() {
-            mapById.clear();
-            uuid2id.clear();
-        }
-    }
-
     // This class handles all the indexing internals for the Mailbox
     public final MailboxIndex index;
     public final MailboxLock lock;
@@ -743,7 +623,7 @@ public class Mailbox implements MailboxStore {
 
     private FolderCache mFolderCache;
     private Map<Object, Tag> mTagCache;
-    private SoftReference<ItemCache> mItemCache = new SoftReference<ItemCache>(null);
+    private final ItemCache mItemCache = new ItemCache(this);
     private final Map<String, Integer> mConvHashes = new ConcurrentLinkedHashMap.Builder<String, Integer>()
                     .maximumWeightedCapacity(MAX_MSGID_CACHE).build();
     private final Map<String, Integer> mSentMessageIDs = new ConcurrentLinkedHashMap.Builder<String, Integer>()
@@ -1219,6 +1099,15 @@ public class Mailbox implements MailboxStore {
                         currentChange().changeId);
     }
 
+    /**
+     * Returns {@code true} if nothing has been committed since {@code lastSync}, checked with an optimistic read
+     * instead of the mailbox lock.  A {@code false} return only means the caller has to take the lock and look.
+     */
+    private boolean unchangedSince(int lastSync) {
+        long stamp = lock.tryOptimisticRead();
+        return stamp != 0 && lastSync >= getLastChangeID() && lock.validate(stamp);
+    }
+
     private void setOperationChangeID(int changeFromRedo) throws ServiceException {
         if (currentChange().changeId != MailboxChange.NO_CHANGE) {
             if (currentChange().changeId == changeFromRedo) {
@@ -1829,14 +1718,14 @@ public class Mailbox implements MailboxStore {
             recorder.setChangeId(getOperationChangeID());
         }
 
-        // keep a hard reference to the item cache to avoid having it GCed during the op
-        ItemCache cache = mItemCache.get();
-        if (cache == null) {
-            cache = new ItemCache(this);
-            mItemCache = new SoftReference<ItemCache>(cache);
-            ZimbraLog.cache.debug("created a new MailItem cache for mailbox " + getId());
+        // keep the mailbox's items from being evicted by other threads during the op
+        if (currentChange().itemCache == null) {
+            mItemCache.pin();
+            currentChange().itemCache = mItemCache;
+            if (Zimbra.isAlwaysOn()) {
+                mItemCache.validate(mData.itemcacheCheckpoint, mData.lastChangeId);
+            }
         }
-        currentChange().itemCache = cache;
 
         // don't permit mailbox access during maintenance
         if (maintenance != null && !maintenance.canAccess()) {
@@ -1995,12 +1884,16 @@ public class Mailbox implements MailboxStore {
         return currentChange().itemCache;
     }
 
+    /**
+     * Called by {@link MailboxManager} when it no longer holds the mailbox for sure, so that cached items don't
+     * keep the mailbox in memory.
+     */
+    void unloadItemCache() {
+        mItemCache.unload();
+    }
+
     private void clearItemCache() {
-        if (currentChange().isActive()) {
-            currentChange().itemCache.clear();
-        } else {
-            mItemCache.clear();
-        }
+        mItemCache.clear();
         try {
             if (Zimbra.isAlwaysOn()) {
                 DbMailbox.incrementItemcacheCheckpoint(this);
@@ -2025,7 +1918,8 @@ public class Mailbox implements MailboxStore {
                 mFolderCache.put((Folder) item);
             }
         } else {
-            getItemCache().put(item);
+            // items handed to a write transaction may be modified, so they must be the cached instance
+            getItemCache().put(item, currentChange().writeChange);
         }
 
         ZimbraLog.cache.debug("cached %s %d in mailbox %d", item.getType(), item.getId(), getId());
@@ -2490,6 +2384,7 @@ public class Mailbox implements MailboxStore {
                     // remove all traces of the mailbox from the Mailbox cache
                     //   (so anyone asking for the Mailbox gets NO_SUCH_MBOX or creates a fresh new empty one with a different id)
                     MailboxManager.getInstance().markMailboxDeleted(this);
+                    ContactPrefixIndex.purge(getAccountId());
 
                     // attempt to nuke the store and index
                     try {
@@ -2801,7 +2696,7 @@ public class Mailbox implements MailboxStore {
         }
         assert (currentChange().depth == 0);
 
-        ItemCache cache = mItemCache.get();
+        ItemCache cache = mItemCache;
         FolderCache folders = mFolderCache == null || Collections.disjoint(pms.changedTypes, FOLDER_TYPES) ? mFolderCache
                         : snapshotFolders();
 
@@ -3849,6 +3744,9 @@ public class Mailbox implements MailboxStore {
     }
 
     public List<Folder> getModifiedFolders(final int lastSync, final MailItem.Type type) throws ServiceException {
+        if (unchangedSince(lastSync)) {
+            return Collections.emptyList();
+        }
         lock.lock(false);
         try {
             if (lastSync >= getLastChangeID()) {
@@ -3877,6 +3775,9 @@ public class Mailbox implements MailboxStore {
     }
 
     public List<Tag> getModifiedTags(OperationContext octxt, int lastSync) throws ServiceException {
+        if (unchangedSince(lastSync)) {
+            return Collections.emptyList();
+        }
         lock.lock(false);
         try {
             if (lastSync >= getLastChangeID()) {
@@ -3996,6 +3897,9 @@ public class Mailbox implements MailboxStore {
      */
     public Pair<List<Integer>, TypedIdList> getModifiedItems(OperationContext octxt, int lastSync, int sinceDate,
             MailItem.Type type, Set<Integer> folderIds, int lastDeleteSync, int limit) throws ServiceException {
+        if (unchangedSince(lastSync)) {
+            return new Pair<List<Integer>, TypedIdList>(Collections.<Integer> emptyList(), new TypedIdList());
+        }
         lock.lock(false);
         try {
             if (lastSync >= getLastChangeID()) {
@@ -4038,6 +3942,9 @@ public class Mailbox implements MailboxStore {
      */
     public int getModifiedItemsCount(OperationContext octxt, int lastSync, int sinceDate,
             MailItem.Type type, Set<Integer> folderIds) throws ServiceException {
+        if (unchangedSince(lastSync)) {
+            return 0;
+        }
         lock.lock(false);
         try {
             if (lastSync >= getLastChangeID()) {
@@ -9930,6 +9837,9 @@ public class Mailbox implements MailboxStore {
             if (change.recent != MailboxChange.NO_CHANGE) {
                 mData.recentMessages = change.recent;
             }
+            if (change.itemCache != null) {
+                change.itemCache.validated(mData.itemcacheCheckpoint, mData.lastChangeId);
+            }
             if (change.config != null) {
                 if (change.config.getSecond() == null) {
                     if (mData.configKeys != null) {
@@ -23,15 +23,23 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -95,6 +103,17 @@ public final class MailboxIndex {
     private static final ExecutorService REINDEX_EXECUTOR = new ThreadPoolExecutor(
             0, LC.zimbra_reindex_threads.intValue(), 0L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
             new ThreadFactoryBuilder().setNameFormat("ReIndex-%d").setDaemon(true).build());
+    // Fetch items and generate their index documents for batch indexing, shared by all mailboxes. Each batch has at
+    // most PIPELINE_DEPTH items queued or in progress here.
+    private static final int PARSE_THREADS = LC.zimbra_index_parse_threads.intValue() > 0 ?
+            LC.zimbra_index_parse_threads.intValue() : Runtime.getRuntime().availableProcessors();
+    private static final int PIPELINE_DEPTH = Math.max(LC.zimbra_index_pipeline_depth.intValue(), 1);
+    private static final ThreadPoolExecutor PARSE_EXECUTOR = new ThreadPoolExecutor(
+            PARSE_THREADS, PARSE_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("IndexParse-%d").setDaemon(true).build());
+    static {
+        PARSE_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
 
     private volatile long lastFailedTime = -1;
     // Only one thread may run index at a time.
@@ -714,9 +733,11 @@ public final class MailboxIndex {
     }
 
     /**
-     * Index a potentially very large list of {@link MailItem}s. Iterate through the list of items, fetch each one and
-     * call generateIndexData(). Buffer the items, IndexData into a chunk and when the chunk gets sufficiently large,
-     * run a Mailbox transaction to actually do the indexing
+     * Index a potentially very large list of {@link MailItem}s. The items are fetched and their index data generated
+     * on {@link #PARSE_EXECUTOR}, so that blob reads, MIME parsing and text extraction for different items run in
+     * parallel. This thread collects the results as they complete, buffers them into a chunk and when the chunk gets
+     * sufficiently large, runs a Mailbox transaction to actually do the indexing, while the parse threads work ahead
+     * on the next items. At most {@link #PIPELINE_DEPTH} items are in flight at a time.
      *
      * @param ids item IDs to index
      * @param status progress will be written to the status
@@ -730,18 +751,130 @@ public final class MailboxIndex {
             return;
         }
 
+        CompletionService<ParsedItem> parsed = new ExecutorCompletionService<ParsedItem>(PARSE_EXECUTOR);
+        final AtomicBoolean aborted = new AtomicBoolean();
+        Iterator<Integer> pending = ids.iterator();
+        int inFlight = 0;
+        PipelineStats stats = new PipelineStats();
+
         // we re-index 'chunks' of items -- up to a certain size or count
         List<Mailbox.IndexItemEntry> chunk = new ArrayList<Mailbox.IndexItemEntry>();
         long chunkByteSize = 0;
-        int i = 0;
-        for (int id : ids) {
-            i++;
-            status.addProcessed(1);
-
-            // Fetch the item and generate the list of Lucene documents to index. Do this without holding the Mailbox
-            // lock. Once we've accumulated a "chunk" of items, do a mailbox transaction to actually add them to the
-            // index.
+        try {
+            while (inFlight > 0 || pending.hasNext()) {
+                while (inFlight < PIPELINE_DEPTH && pending.hasNext()) {
+                    final int id = pending.next();
+                    parsed.submit(new Callable<ParsedItem>() {
+                        @Override
+                        public ParsedItem call() throws ServiceException {
+                            return aborted.get() ? new ParsedItem() : fetchAndParse(id);
+                        }
+                    });
+                    inFlight++;
+                }
+
+                Future<ParsedItem> future = take(parsed);
+                inFlight--;
+                ParsedItem result = getResult(future);
+                status.addProcessed(1);
+                stats.add(result);
+                if (result.failed) {
+                    status.addFailed(1);
+                } else if (result.entry != null) {
+                    chunk.add(result.entry);
+                    chunkByteSize += result.entry.item.getSize();
+                }
+
+                boolean last = inFlight == 0 && !pending.hasNext();
+                if (!chunk.isEmpty() && (last || chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS)) {
+                    // we have a chunk of items and their corresponding index data -- add them to the index
+                    long start = System.nanoTime();
+                    try {
+                        ZimbraLog.index.debug("Batch progress %d/%d", status.getProcessed(), ids.size());
+
+                        if (status.isCancelled()) {
+                            throw ServiceException.INTERRUPTED("cancelled");
+                        }
+
+                        try {
+                            boolean success = false;
+                            try {
+                                mailbox.beginTransaction("IndexItemList-Commit", null);
+                                for (Mailbox.IndexItemEntry entry : chunk) {
+                                    mailbox.addIndexItemToCurrentChange(entry);
+                                }
+                                success = true;
+                            } finally {
+                                mailbox.endTransaction(success);
+                            }
+                        } catch (ServiceException e) {
+                            ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
+                            status.addFailed(chunk.size());
+                        }
+                    } finally {
+                        stats.written += chunk.size();
+                        stats.writeNanos += System.nanoTime() - start;
+                        chunk.clear();
+                        chunkByteSize = 0;
+                    }
+                }
+            }
+        } finally {
+            // don't return while parse threads are still working on this mailbox, even if interrupted; the items not
+            // started yet return right away, so this waits for at most the ones being parsed
+            aborted.set(true);
+            boolean interrupted = false;
+            while (inFlight > 0) {
+                try {
+                    parsed.take();
+                    inFlight--;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        ZimbraLog.index.info("Batch pipeline %s", stats);
+    }
+
+    private static Future<ParsedItem> take(CompletionService<ParsedItem> parsed) throws ServiceException {
+        try {
+            return parsed.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ServiceException.INTERRUPTED("interrupted while waiting for index data");
+        }
+    }
+
+    private static ParsedItem getResult(Future<ParsedItem> future) throws ServiceException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw ServiceException.INTERRUPTED("interrupted while waiting for index data");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ServiceException) {
+                throw (ServiceException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw ServiceException.FAILURE("Failed to generate index data", cause);
+        }
+    }
+
+    /**
+     * Fetches the item and generates the list of Lucene documents to index, without holding the Mailbox lock.
+     * Runs on {@link #PARSE_EXECUTOR}.
+     */
+    private ParsedItem fetchAndParse(int id) throws ServiceException {
+        ParsedItem result = new ParsedItem();
+        ZimbraLog.addMboxToContext(mailbox.getId());
+        try {
             ZimbraLog.index.debug("Tokenizing id=%d", id);
+            long start = System.nanoTime();
             MailItem item = null;
             try {
                 mailbox.beginReadTransaction("IndexItemList-Fetch", null);
@@ -752,7 +885,7 @@ public final class MailboxIndex {
                 } catch (MailServiceException.NoSuchItemException again) { // The item has just been deleted.
                     ZimbraLog.index.debug("deferred item no longer exist id=%d", id);
                     removeDeferredId(id);
-                    continue;
+                    return result;
                 }
             } catch (MailServiceException e) {
                 // fetch without metadata because reindex will regenerate metadata
@@ -765,51 +898,68 @@ public final class MailboxIndex {
                 }
             } catch (Exception e) {
                 ZimbraLog.index.warn("Failed to fetch deferred item id=%d", id, e);
-                status.addFailed(1);
-                continue;
+                result.failed = true;
+                return result;
             } finally {
                 mailbox.endTransaction(item != null);
+                result.fetchNanos = System.nanoTime() - start;
             }
+
+            start = System.nanoTime();
             try {
-                chunk.add(new Mailbox.IndexItemEntry(item, item.generateIndexData()));
+                result.entry = new Mailbox.IndexItemEntry(item, item.generateIndexData());
             } catch (MailItem.TemporaryIndexingException e) {
                 ZimbraLog.index.warn("Temporary index failure id=%d", id, e);
                 lastFailedTime = System.currentTimeMillis();
-                status.addFailed(1);
-                continue;
+                result.failed = true;
+            } finally {
+                result.parseNanos = System.nanoTime() - start;
             }
-            chunkByteSize += item.getSize();
-
-            if (i == ids.size() || chunkByteSize > MAX_TX_BYTES || chunk.size() >= MAX_TX_ITEMS) {
-                // we have a chunk of items and their corresponding index data -- add them to the index
-                try {
-                    ZimbraLog.index.debug("Batch progress %d/%d", i, ids.size());
+            return result;
+        } finally {
+            ZimbraLog.clearContext();
+        }
+    }
 
-                    if (status.isCancelled()) {
-                        throw ServiceException.INTERRUPTED("cancelled");
-                    }
+    /** An item fetched and parsed by {@link #fetchAndParse(int)}. */
+    private static final class ParsedItem {
+        Mailbox.IndexItemEntry entry; // null if the item is gone or failed
+        boolean failed;
+        long fetchNanos;
+        long parseNanos;
+    }
 
-                    try {
-                        boolean success = false;
-                        try {
-                            mailbox.beginTransaction("IndexItemList-Commit", null);
-                            for (Mailbox.IndexItemEntry entry : chunk) {
-                                mailbox.addIndexItemToCurrentChange(entry);
-                            }
-                            success = true;
-                        } finally {
-                            mailbox.endTransaction(success);
-                        }
-                    } catch (ServiceException e) {
-                        ZimbraLog.index.warn("Failed to index chunk=%s", chunk, e);
-                        status.addFailed(chunk.size());
-                    }
-                } finally {
-                    chunk.clear();
-                    chunkByteSize = 0;
-                }
+    /**
+     * Time spent in each stage of a batch index. Fetch and parse run on {@link #PARSE_THREADS} threads, so their
+     * rates are per thread; the writer is this thread alone.
+     */
+    private static final class PipelineStats {
+        int fetched;
+        int parsed;
+        int written;
+        long fetchNanos;
+        long parseNanos;
+        long writeNanos;
+
+        void add(ParsedItem result) {
+            fetched++;
+            fetchNanos += result.fetchNanos;
+            if (result.entry != null) {
+                parsed++;
+                parseNanos += result.parseNanos;
             }
         }
+
+        private static double rate(int items, long nanos) {
+            return nanos > 0 ? items * 1000000000.0 / nanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("items=%d,threads=%d fetch=%.2f parse=%.2f write=%.2f items/sec",
+                    written, PARSE_THREADS, rate(fetched, fetchNanos), rate(parsed, parseNanos),
+                    rate(written, writeNanos));
+        }
     }
 
     /**
@@ -19,6 +19,7 @@ package com.zimbra.cs.mailbox;
 import java.util.EmptyStackException;
 import java.util.Stack;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
 
 import org.apache.curator.framework.recipes.locks.InterProcessSemaphoreMutex;
 
@@ -26,9 +27,12 @@ import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.localconfig.DebugConfig;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Constants;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.mailbox.lock.DebugZLock;
+import com.zimbra.cs.mailbox.lock.LockStats;
 import com.zimbra.cs.mailbox.lock.ZLock;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.Zimbra;
 import com.zimbra.cs.zookeeper.CuratorManager;
 
@@ -39,13 +43,26 @@ import com.zimbra.cs.zookeeper.CuratorManager;
  * thrown. {@code Mailbox.beginTransaction()}) internally acquires the mailbox lock and it's released by
  * {@code Mailbox.endTransaction()}, so that you don't have to explicitly call {@link #lock()} and {@link #release()}
  * wrapping a mailbox transaction.
- *
+ * <p>
+ * Wait and hold times, queue depth and a sample of the owner and waiter stacks from the last slow wait are
+ * collected in {@link #getStats()}.  Read-only operations that only look at a few fields can skip the lock with
+ * {@link #tryOptimisticRead()} and {@link #validate(long)}.
  */
 public final class MailboxLock {
     private final ZLock zLock = DebugConfig.debugMailboxLock ? new DebugZLock() : new ZLock();
     private InterProcessSemaphoreMutex dLock = null;
     private final Stack<Boolean> lockStack = new Stack<Boolean>();
     private Mailbox mbox;
+    private final LockStats stats = new LockStats(LockStats.SERVER);
+    // Write locked by the write lock owner for as long as it holds the write lock, only to issue and validate
+    // optimistic read stamps; it brings the fences those need.  Nobody else ever locks it, so it never blocks.
+    private final StampedLock writeStamp = new StampedLock();
+    // Stamp of the current write lock on writeStamp; only touched by the write lock owner.
+    private long writeStampHeld;
+    // When the outermost write lock was acquired; only touched by the write lock owner.
+    private long writeAcquiredAt;
+    // Take at most one owner/waiter stack sample per mailbox in this interval.
+    private static final long SAMPLE_INTERVAL_MILLIS = Constants.MILLIS_PER_MINUTE;
 
     public MailboxLock(String id, Mailbox mbox) {
         if (Zimbra.isAlwaysOn()) {
@@ -101,30 +118,105 @@ public final class MailboxLock {
         lock(true);
     }
 
-    private boolean tryLock(boolean write) throws InterruptedException {
+    private boolean tryLock(boolean write, long timeout, TimeUnit unit) throws InterruptedException {
         if (write) {
-            return zLock.writeLock().tryLock(0, TimeUnit.SECONDS);
+            return zLock.writeLock().tryLock(timeout, unit);
         } else {
-            return zLock.readLock().tryLock(0, TimeUnit.SECONDS);
+            return zLock.readLock().tryLock(timeout, unit);
         }
     }
 
-    private boolean tryLockWithTimeout(boolean write) throws InterruptedException {
-        if (write) {
-            return zLock.writeLock().tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
+    /**
+     * Waits up to the lock timeout.  A thread that is still waiting after {@code zimbra_mailbox_lock_slow_wait_ms}
+     * samples the owner and waiter stacks before it carries on waiting.
+     */
+    private boolean tryLockWithTimeout(boolean write, int queueLength) throws InterruptedException {
+        long start = System.nanoTime();
+        long timeout = TimeUnit.SECONDS.toNanos(LC.zimbra_mailbox_lock_timeout.intValue());
+        long slow = TimeUnit.MILLISECONDS.toNanos(LC.zimbra_mailbox_lock_slow_wait_ms.longValue());
+        boolean locked;
+        if (slow > 0 && slow < timeout) {
+            locked = tryLock(write, slow, TimeUnit.NANOSECONDS);
+            if (!locked) {
+                sampleWaiters();
+                locked = tryLock(write, timeout - slow, TimeUnit.NANOSECONDS);
+            }
         } else {
-            return zLock.readLock().tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
+            locked = tryLock(write, timeout, TimeUnit.NANOSECONDS);
+        }
+        if (locked) {
+            long waited = System.nanoTime() - start;
+            stats.recordWait(waited, queueLength + 1);
+            ZimbraPerf.STOPWATCH_MBOX_LOCK_WAIT.increment(TimeUnit.NANOSECONDS.toMillis(waited));
+        }
+        return locked;
+    }
+
+    private void sampleWaiters() {
+        if (!stats.startSample(SAMPLE_INTERVAL_MILLIS)) {
+            return;
+        }
+        StringBuilder out = new StringBuilder();
+        out.append("Waiting Threads - ").append(zLock.getQueueLength()).append('\n');
+        zLock.printStackTrace(out);
+        stats.setSample(out.toString());
+        ZimbraLog.mailbox.info("waited more than %dms for mailbox lock; %d threads waiting",
+                LC.zimbra_mailbox_lock_slow_wait_ms.longValue(), zLock.getQueueLength());
+        ZimbraLog.mailbox.debug("mailbox lock state\n%s", out);
+    }
+
+    /** Called right after the write lock has been acquired. */
+    private void writeLocked() {
+        if (zLock.getWriteHoldCount() == 1) {
+            writeStampHeld = writeStamp.writeLock();
+            writeAcquiredAt = System.nanoTime();
+        }
+    }
+
+    /** Called right before the write lock is released. */
+    private void writeUnlocking() {
+        if (zLock.getWriteHoldCount() == 1) {
+            long held = System.nanoTime() - writeAcquiredAt;
+            writeStamp.unlockWrite(writeStampHeld);
+            stats.recordHold(held);
+            ZimbraPerf.STOPWATCH_MBOX_LOCK_HOLD.increment(TimeUnit.NANOSECONDS.toMillis(held));
         }
     }
 
-    private ThreadLocal<Boolean> assertReadLocks = null;
+    /**
+     * Returns a stamp for an optimistic read, as {@link StampedLock#tryOptimisticRead()} does, or zero if a thread
+     * holds the write lock.  The caller reads without locking and then calls {@link #validate};
+     * if that fails, or the stamp is zero, it has to fall back to {@link #lock(boolean)}.  Only use this for reads
+     * that can't fail or corrupt anything when they race with a writer, such as reading a single field.
+     */
+    public long tryOptimisticRead() {
+        return writeStamp.tryOptimisticRead();
+    }
+
+    /**
+     * Returns {@code true} if no thread has acquired the write lock since {@code stamp} was issued by
+     * {@link #tryOptimisticRead()}.
+     */
+    public boolean validate(long stamp) {
+        if (writeStamp.validate(stamp)) {
+            stats.recordOptimisticRead();
+            return true;
+        }
+        return false;
+    }
 
-    private synchronized boolean neverReadBeforeWrite(boolean write) {
+    /**
+     * Returns the contention statistics for this lock.
+     */
+    public LockStats getStats() {
+        return stats;
+    }
+
+    private final ThreadLocal<Boolean> assertReadLocks = new ThreadLocal<Boolean>();
+
+    private boolean neverReadBeforeWrite(boolean write) {
         //for sanity checking, we keep list of read locks. the first time caller obtains write lock they must not already own read lock
         //states - no lock, read lock only, write lock only
-        if (assertReadLocks == null) {
-            assertReadLocks = new ThreadLocal<Boolean>();
-        }
         if (zLock.getWriteHoldCount() == 0) {
             if (write) {
                 Boolean readLock = assertReadLocks.get();
@@ -139,7 +231,7 @@ public final class MailboxLock {
         return true;
     }
 
-    private synchronized boolean debugReleaseReadLock() {
+    private boolean debugReleaseReadLock() {
         //remove read lock
         if (zLock.getReadHoldCount() == 0) {
             assertReadLocks.remove();
@@ -162,7 +254,11 @@ public final class MailboxLock {
         ZimbraLog.mailbox.trace("LOCK %s", (write ? "WRITE" : "READ"));
         assert(neverReadBeforeWrite(write));
         try {
-            if (tryLock(write)) {
+            if (tryLock(write, 0, TimeUnit.SECONDS)) {
+                stats.recordUncontended();
+                if (write) {
+                    writeLocked();
+                }
                 if (mbox.requiresWriteLock() && !isWriteLockedByCurrentThread()) {
                     //writer finished a purge while we waited
                     promote();
@@ -184,6 +280,7 @@ public final class MailboxLock {
                 // Too many threads are already waiting for the lock, can't let you queued. We don't want to log stack trace
                 // here because once requests back up, each new incoming request falls into here, which creates too much
                 // noise in the logs. Unless debug switch is enabled
+                stats.recordFailure();
                 LockFailedException e = new LockFailedException("too many waiters: " + queueLength);
                 if (DebugConfig.debugMailboxLock) {
                     e.logStackTrace();
@@ -191,7 +288,10 @@ public final class MailboxLock {
                 throw e;
             }
             // Wait for the lock up to the timeout.
-            if (tryLockWithTimeout(write)) {
+            if (tryLockWithTimeout(write, queueLength)) {
+                if (write) {
+                    writeLocked();
+                }
                 if (mbox.requiresWriteLock() && !isWriteLockedByCurrentThread()) {
                     //writer finished a purge while we waited
                     promote();
@@ -208,10 +308,12 @@ public final class MailboxLock {
                 }
                 return;
             }
+            stats.recordFailure();
             LockFailedException e = new LockFailedException("timeout");
             e.logStackTrace();
             throw e;
         } catch (InterruptedException e) {
+            stats.recordFailure();
             throw new LockFailedException("interrupted", e);
         } finally {
             assert(!isUnlocked() || debugReleaseReadLock());
@@ -236,6 +338,7 @@ public final class MailboxLock {
         releaseDistributedLock(write);
         if (write) {
             assert(zLock.getWriteHoldCount() > 0);
+            writeUnlocking();
             zLock.writeLock().unlock();
         } else {
             zLock.readLock().unlock();
@@ -1035,8 +1035,10 @@ public class MailboxManager {
                         return false;
 
                     Object obj = eldest.getValue();
-                    if (obj instanceof Mailbox)
+                    if (obj instanceof Mailbox) {
+                        ((Mailbox) obj).unloadItemCache();
                         obj = new SoftReference<Mailbox>((Mailbox) obj);
+                    }
                     mSoftMap.put(eldest.getKey(), obj);
                     return true;
                 }
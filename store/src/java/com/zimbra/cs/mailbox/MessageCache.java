@@ -18,20 +18,27 @@ package com.zimbra.cs.mailbox;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mime.MimeConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.LogFactory;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.common.zmime.ZSharedByteBufferInputStream;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.db.DbMailItem;
 import com.zimbra.cs.mime.ExpandMimeMessage;
@@ -42,6 +49,18 @@ import com.zimbra.cs.store.MailboxBlob;
 import com.zimbra.cs.store.StoreManager;
 import com.zimbra.cs.util.JMSession;
 
+/**
+ * Server-wide cache of parsed message structures, keyed by blob digest.
+ * <p>
+ * The cache is bounded both by entry count ({@code zimbraMessageCacheSize}) and by the number of bytes
+ * its entries hold ({@code zimbra_message_cache_max_bytes}).  Messages smaller than
+ * {@code zimbra_message_cache_offheap_threshold_kb} are read into direct buffers and parsed in place, so
+ * only the MIME structure lives on the Java heap; larger messages are parsed from their blob files.
+ * <p>
+ * Lookups do not take a global lock.  Each entry is loaded and expanded under its own monitor, so
+ * concurrent requests for the same message parse it once and requests for different messages do not
+ * contend with each other.
+ */
 public class MessageCache {
 
     private static final Log sLog = LogFactory.getLog(MessageCache.class);
@@ -50,17 +69,38 @@ public class MessageCache {
         CacheNode()  { }
         MimeMessage message;
         MimeMessage expanded;
+        /** Raw message content in a direct buffer, or {@code null} when the message is backed by its blob file. */
+        ByteBuffer raw;
         Map<Integer, String> smimeAccessInfo = new HashMap<Integer, String>();
-        long size = 0;
+        volatile long size = 0;
     }
 
+    /** Estimated heap cost of a parsed message structure, charged against the byte budget in addition to
+     *  the message data held in memory. */
+    private static final int NODE_OVERHEAD = 2048;
+
     /** Cache mapping message digest to the corresponding message structure. */
-    private static Map<String, CacheNode> sCache = new LinkedHashMap<String, CacheNode>(150, (float) 0.75, true);
+    private static final ConcurrentLinkedHashMap<String, CacheNode> sCache =
+        new ConcurrentLinkedHashMap.Builder<String, CacheNode>()
+        .maximumWeightedCapacity(LC.zimbra_message_cache_max_bytes.longValue())
+        .weigher(new Weigher<CacheNode>() {
+            @Override
+            public int weightOf(CacheNode cnode) {
+                return (int) Math.min(Integer.MAX_VALUE, cnode.size + NODE_OVERHEAD);
+            }
+        })
+        .listener(new EvictionListener<String, CacheNode>() {
+            @Override
+            public void onEviction(String digest, CacheNode cnode) {
+                sLog.debug("Pruning digest %s from the cache.", digest);
+                ZimbraPerf.COUNTER_MBOX_MSG_CACHE_EVICTIONS.increment();
+            }
+        })
+        .build();
     /** Maximum number of items in {@link #sCache}. */
-    private static int sMaxCacheSize;
-    /** Number of bytes of message data stored in the cache.  This value includes only
-     * messages that are read into memory, not streamed from disk. */
-    private volatile static long sDataSize = 0;
+    private static volatile int sMaxCacheSize;
+    /** Messages smaller than this many bytes are held off-heap rather than streamed from disk. */
+    private static volatile int sOffHeapThreshold;
 
     static {
         try {
@@ -72,24 +112,28 @@ public class MessageCache {
 
     public static void loadSettings() throws ServiceException {
         sMaxCacheSize = Provisioning.getInstance().getLocalServer().getMessageCacheSize();
-        ZimbraLog.cache.info("setting message cache size to " + sMaxCacheSize);
+        sOffHeapThreshold = LC.zimbra_message_cache_offheap_threshold_kb.intValue() * 1024;
+        sCache.setCapacity(LC.zimbra_message_cache_max_bytes.longValue());
+        ZimbraLog.cache.info("setting message cache size to %d entries, %d bytes", sMaxCacheSize, sCache.capacity());
     }
 
     /** Returns the number of messages in the cache. */
     public static int getSize() {
-        synchronized (sCache) {
-            return sCache.size();
-        }
+        return sCache.size();
     }
 
     public static boolean contains(String digest) {
-        synchronized (sCache) {
-            return sCache.containsKey(digest);
-        }
+        return digest != null && sCache.containsKey(digest);
     }
 
+    /** Returns the number of bytes of message data stored in the cache.  This value includes only
+     *  messages that are read into memory, not streamed from disk. */
     public static long getDataSize() {
-        return sDataSize;
+        long total = 0;
+        for (CacheNode cnode : sCache.values()) {
+            total += cnode.size;
+        }
+        return total;
     }
 
     /** Uncaches any data associated with the given item.  This must be done
@@ -123,14 +167,8 @@ public class MessageCache {
      *  before you change the item's content; otherwise, the cache will return
      *  stale data. */
     public static void purge(String digest) {
-        if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.remove(digest);
-                if (node != null) {
-                    sLog.debug("Purged digest %s from the message cache.", digest);
-                    sDataSize -= node.size;
-                }
-            }
+        if (digest != null && sCache.remove(digest) != null) {
+            sLog.debug("Purged digest %s from the message cache.", digest);
         }
     }
 
@@ -150,102 +188,112 @@ public class MessageCache {
      * @see com.zimbra.cs.mime.UUEncodeConverter */
     static MimeMessage getMimeMessage(MailItem item, boolean expand) throws ServiceException {
         String digest = item.getDigest();
-        CacheNode cnode = null;
+        CacheNode cnode = getOrCreateNode(digest);
         boolean cacheHit = true;
-        boolean newNode = false;
-        InputStream in = null;
         int mboxId = item.getMailboxId();
         boolean isEncrypted = false;
+        long sizeBefore;
+        MimeMessage result;
 
-        synchronized (sCache) {
-            cnode = sCache.get(digest);
-            if (cnode == null) {
-                newNode = true;
-                cnode = new CacheNode();
-            }
-        }
-
-        try {
-            if (cnode.message == null) {
-                sLog.debug("Loading MimeMessage for item %d.", item.getId());
-                cacheHit = false;
-                try {
-                    in = fetchFromStore(item);
-                    cnode.message = new Mime.FixedMimeMessage(JMSession.getSession(), in);
-                    if (item.getSize() < MESSAGE_CACHE_DISK_STREAMING_THRESHOLD) {
-                        cnode.size = item.getSize();
-                        // Not the best place to increment the data size, but cacheItem()
-                        // won't get called if we're expanding a message for an existing
-                        // node.
-                        sDataSize += cnode.size;
-                    }
-                } finally {
-                    ByteUtil.closeStream(in);
+        // only requests for the same message serialize here; the first one in does the parsing
+        synchronized (cnode) {
+            sizeBefore = cnode.size;
+            try {
+                if (cnode.message == null) {
+                    sLog.debug("Loading MimeMessage for item %d.", item.getId());
+                    cacheHit = false;
+                    loadMessage(item, cnode);
                 }
-            }
 
-            if (expand) {
-                sLog.debug("Expanding MimeMessage for item %d.", item.getId());
-                try {
-                    MimeMessage decryptedMimeMessage = null;
-                    if (item instanceof Message) {
-                        // if the mime is encrypted; decrypt it first
-                        if (cnode.message != null) {
-                            isEncrypted = Mime.isEncrypted(cnode.message.getContentType());
-                        }
-                        if (isEncrypted) {
-                            if (isSmimeFeatureToggled(item.getMailbox(), cnode)) {
-                                sLog.debug(
-                                    "Smime feature is toggled. So remove old entry from smimeAccessInfo for mailboxId=%d and itemDigest=%s",
-                                    mboxId, item.getDigest());
-                                cnode.smimeAccessInfo.remove(mboxId);
+                if (expand) {
+                    sLog.debug("Expanding MimeMessage for item %d.", item.getId());
+                    try {
+                        MimeMessage decryptedMimeMessage = null;
+                        if (item instanceof Message) {
+                            // if the mime is encrypted; decrypt it first
+                            if (cnode.message != null) {
+                                isEncrypted = Mime.isEncrypted(cnode.message.getContentType());
                             }
-                            if (cnode.expanded == null || !cnode.smimeAccessInfo.containsKey(mboxId)) {
-                                cacheHit = false;
-                                decryptedMimeMessage = doDecryption(item, cnode, mboxId);
+                            if (isEncrypted) {
+                                if (isSmimeFeatureToggled(item.getMailbox(), cnode)) {
+                                    sLog.debug(
+                                        "Smime feature is toggled. So remove old entry from smimeAccessInfo for mailboxId=%d and itemDigest=%s",
+                                        mboxId, item.getDigest());
+                                    cnode.smimeAccessInfo.remove(mboxId);
+                                }
+                                if (cnode.expanded == null || !cnode.smimeAccessInfo.containsKey(mboxId)) {
+                                    cacheHit = false;
+                                    decryptedMimeMessage = doDecryption(item, cnode, mboxId);
+                                }
                             }
                         }
+                        //expand if the message has not yet been expanded or if the message is decrypted successfully
+                        if (cnode.expanded == null || (decryptedMimeMessage != null && cnode.expanded != decryptedMimeMessage)) {
+                            cacheHit = false;
+                            expandMessage(item, cnode, decryptedMimeMessage);
+                        }
+                    } catch (Exception e) {
+                        // if the conversion bombs for any reason, revert to the original
+                        sLog.warn("MIME converter failed for message %d.  Reverting to original.", item.getId(), e);
+                        cnode.expanded = cnode.message;
                     }
-                    //expand if the message has not yet been expanded or if the message is decrypted successfully
-                    if (cnode.expanded == null || (decryptedMimeMessage != null && cnode.expanded != decryptedMimeMessage)) {
-                        cacheHit = false;
-                        expandMessage(item, cnode, decryptedMimeMessage);
-                    }
-                } catch (Exception e) {
-                    // if the conversion bombs for any reason, revert to the original
-                    sLog.warn("MIME converter failed for message %d.  Reverting to original.", item.getId(), e);
-                    cnode.expanded = cnode.message;
+                }
+            } catch (IOException e) {
+                throw ServiceException.FAILURE("IOException while retrieving content for item " + item.getId(), e);
+            } catch (MessagingException e) {
+                throw ServiceException.FAILURE("MessagingException while creating MimeMessage for item " + item.getId(), e);
+            } finally {
+                if (cnode.message == null && digest != null) {
+                    // don't leave an empty placeholder behind if the load failed
+                    sCache.remove(digest, cnode);
                 }
             }
 
-            if (newNode) {
-                cacheItem(digest, cnode);
+            if (expand) {
+                if (isEncrypted && (!cnode.smimeAccessInfo.containsKey(mboxId)
+                    || cnode.smimeAccessInfo.get(mboxId) != null)) {
+                    result = cnode.message;
+                } else {
+                    result = cnode.expanded;
+                }
+            } else {
+                result = cnode.message;
             }
-        } catch (IOException e) {
-            throw ServiceException.FAILURE("IOException while retrieving content for item " + item.getId(), e);
-        } catch (MessagingException e) {
-            throw ServiceException.FAILURE("MessagingException while creating MimeMessage for item " + item.getId(), e);
-        } finally {
-            ByteUtil.closeStream(in);
         }
 
+        if (digest != null && cnode.size != sizeBefore) {
+            // re-put so the entry is charged for the bytes it now holds
+            sCache.replace(digest, cnode, cnode);
+        }
+        trimToMaxEntries();
+
         if (cacheHit) {
             sLog.debug("Cache hit for item %d: digest=%s, expand=%b.", item.getId(), item.getDigest(), expand);
             ZimbraPerf.COUNTER_MBOX_MSG_CACHE.increment(100);
+            ZimbraPerf.COUNTER_MBOX_MSG_CACHE_HITS.increment();
         } else {
             sLog.debug("Cache miss for item %d: digest=%s, expand=%b.", item.getId(), item.getDigest(), expand);
             ZimbraPerf.COUNTER_MBOX_MSG_CACHE.increment(0);
+            ZimbraPerf.COUNTER_MBOX_MSG_CACHE_MISSES.increment();
         }
+        return result;
+    }
 
-        if (expand) {
-            if (isEncrypted && (!cnode.smimeAccessInfo.containsKey(mboxId)
-                || cnode.smimeAccessInfo.get(mboxId) != null)) {
-                return cnode.message;
+    /** Returns the cache node for the given digest, adding an empty one if the message is not cached.
+     *  Messages without a digest get a node that is never cached. */
+    private static CacheNode getOrCreateNode(String digest) {
+        if (digest == null) {
+            return new CacheNode();
+        }
+        CacheNode cnode = sCache.get(digest);
+        if (cnode == null) {
+            CacheNode created = new CacheNode();
+            cnode = sCache.putIfAbsent(digest, created);
+            if (cnode == null) {
+                cnode = created;
             }
-            return cnode.expanded;
-        } else {
-            return cnode.message;
         }
+        return cnode;
     }
 
     private static boolean isSmimeFeatureToggled(Mailbox mailbox, CacheNode cnode) {
@@ -286,7 +334,6 @@ public class MessageCache {
         expander.expand();
         cnode.expanded = expander.getExpanded();
         if (cnode.expanded != cnode.message) {
-            sDataSize += cnode.size;
             cnode.size *= 2;
         }
     }
@@ -329,23 +376,70 @@ public class MessageCache {
         return decryptedMimeMessage;
     }
 
-    /** For remote stores, we allow JavaMail to stream message content to
-     *  a memory buffer when the messages are sufficiently small.  (For
-     *  local stores, all cached messages are backed by disk.) */
-    private static final int MESSAGE_CACHE_DISK_STREAMING_THRESHOLD = 4096;
-
-    static InputStream fetchFromStore(MailItem item) throws ServiceException, IOException {
+    /** Parses the item's content into the cache node.  Small messages are copied into a direct buffer
+     *  and parsed in place, so their content stays off-heap and their blob need not be kept open.
+     *  Larger messages are backed by the local copy of their blob. */
+    private static void loadMessage(MailItem item, CacheNode cnode)
+    throws ServiceException, IOException, MessagingException {
         MailboxBlob mblob = item.getBlob();
         if (mblob == null)
             throw ServiceException.FAILURE("missing blob for id: " + item.getId() + ", change: " + item.getModifiedSequence(), null);
 
-        if (item.getSize() < MESSAGE_CACHE_DISK_STREAMING_THRESHOLD) {
-            return StoreManager.getInstance().getContent(mblob);
-        } else {
-            return StoreManager.getInstance().getContent(mblob.getLocalBlob());
+        InputStream in = null;
+        try {
+            if (item.getSize() < sOffHeapThreshold) {
+                in = StoreManager.getInstance().getContent(mblob);
+                ByteBuffer raw = readOffHeap(in, (int) item.getSize());
+                cnode.message = new Mime.FixedMimeMessage(JMSession.getSession(), new ZSharedByteBufferInputStream(raw));
+                cnode.raw = raw;
+                cnode.size = raw.limit();
+            } else {
+                in = StoreManager.getInstance().getContent(mblob.getLocalBlob());
+                cnode.message = new Mime.FixedMimeMessage(JMSession.getSession(), in);
+            }
+        } finally {
+            ByteUtil.closeStream(in);
         }
     }
 
+    /** Reads the stream into a direct buffer.  The size hint is the expected content length; the
+     *  buffer is allocated at exactly that size, grows if the content turns out to be longer and is
+     *  trimmed if it is shorter, so that its capacity is what the cache charges for it. */
+    @VisibleForTesting
+    static ByteBuffer readOffHeap(InputStream in, int sizeHint) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(sizeHint > 0 ? sizeHint : 1024);
+        ReadableByteChannel channel = Channels.newChannel(in);
+        ByteBuffer probe = ByteBuffer.allocate(1);
+        while (true) {
+            if (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    break;
+                }
+                continue;
+            }
+            // full: only grow if there is more to come
+            probe.clear();
+            if (channel.read(probe) < 0) {
+                break;
+            } else if (probe.position() > 0) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(buf.capacity() * 2);
+                buf.flip();
+                larger.put(buf);
+                probe.flip();
+                larger.put(probe);
+                buf = larger;
+            }
+        }
+        buf.flip();
+        if (buf.limit() < buf.capacity()) {
+            ByteBuffer trimmed = ByteBuffer.allocateDirect(buf.limit());
+            trimmed.put(buf);
+            trimmed.flip();
+            buf = trimmed;
+        }
+        return buf;
+    }
+
     /**
      * Public API that adds an existing <tt>MimeMessage</tt> to the cache.
      * @param digest the message digest
@@ -362,18 +456,19 @@ public class MessageCache {
 
     private static void cacheItem(String digest, CacheNode cnode) {
         sLog.debug("Caching MimeMessage for digest %s.", digest);
-        synchronized (sCache) {
-            sCache.put(digest, cnode);
-            // Cache data size was incremented in getMimeMessage().
-
-            // trim the cache if needed
-            if (sCache.size() > sMaxCacheSize) {
-                Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-                while (sCache.size() > sMaxCacheSize && it.hasNext()) {
-                    Map.Entry<String, CacheNode> entry = it.next();
-                    sLog.debug("Pruning digest %s from the cache.", entry.getKey());
-                    it.remove();
-                    sDataSize -= entry.getValue().size;
+        sCache.put(digest, cnode);
+        trimToMaxEntries();
+    }
+
+    /** Evicts the least recently used entries while the cache holds more than {@link #sMaxCacheSize}
+     *  of them.  The byte budget is enforced by the map itself. */
+    private static void trimToMaxEntries() {
+        int excess = sCache.size() - sMaxCacheSize;
+        if (excess > 0) {
+            for (String digest : sCache.ascendingKeySetWithLimit(excess)) {
+                if (sCache.remove(digest) != null) {
+                    sLog.debug("Pruning digest %s from the cache.", digest);
+                    ZimbraPerf.COUNTER_MBOX_MSG_CACHE_EVICTIONS.increment();
                 }
             }
         }
@@ -381,13 +476,11 @@ public class MessageCache {
 
     public static void removeDecryptedMessages(int mboxId) {
         sLog.debug("Start removing decrypted messages for mboxId=%d", mboxId);
-        synchronized (sCache) {
-            Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, CacheNode> entry = it.next();
-                CacheNode cacheNode = entry.getValue();
+        for (Map.Entry<String, CacheNode> entry : sCache.entrySet()) {
+            CacheNode cacheNode = entry.getValue();
+            synchronized (cacheNode) {
                 try {
-                    if (Mime.isEncrypted(cacheNode.message.getContentType())
+                    if (cacheNode.message != null && Mime.isEncrypted(cacheNode.message.getContentType())
                         && cacheNode.smimeAccessInfo.containsKey(mboxId)) {
                         cacheNode.smimeAccessInfo.remove(mboxId);
                     }
@@ -402,9 +495,9 @@ public class MessageCache {
 
     public static String getDecryptionError(int id, String digest) {
         if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.get(digest);
-                if (node != null) {
+            CacheNode node = sCache.getQuietly(digest);
+            if (node != null) {
+                synchronized (node) {
                     return node.smimeAccessInfo.get(id);
                 }
             }
@@ -17,6 +17,7 @@
 
 package com.zimbra.cs.mailbox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,15 @@ import com.zimbra.common.util.BEncoding.BEncodingException;
 import com.zimbra.common.util.BlobMetaData;
 import com.zimbra.common.util.BlobMetaDataEncodingException;
 
+/**
+ * A dictionary of item metadata, stored in the database as a BEncoded string.
+ * <p>
+ * A {@code Metadata} decoded from a string doesn't build a map up front.  A single validating pass records where each
+ * top-level entry starts and ends, and values are decoded from the original string only when they are read, so that
+ * loading an item costs little more than reading the handful of keys it actually uses.  Changes are kept aside, and
+ * {@link #toString()} copies untouched entries from the original string verbatim; if nothing changed, the original
+ * string itself is returned.  Anything that needs the whole map decodes it once and from then on works on the map.
+ */
 public final class Metadata {
 
     /** never change this - implement structural changes in new attrs instead */
@@ -123,9 +133,16 @@ public final class Metadata {
     public static final String FN_ELIDED           = "X";
     public static final String FN_EXTRA_DATA       = "xd";
 
+    /** Marks a key removed since decoding in {@link #changes}. */
+    private static final Object REMOVED = new Object();
+
     private final Integer associatedItemId;
 
-    Map<Object, Object> map;
+    /** All entries, or {@code null} while they are still read from {@link #encoded}. */
+    private Map<Object, Object> map;
+    private Encoded encoded;
+    /** Entries put or removed since decoding, or {@code null} if there are none. */
+    private Map<String, Object> changes;
 
     public Metadata() {
         associatedItemId = null;
@@ -147,6 +164,12 @@ public final class Metadata {
             map = new HashMap<Object, Object>();
             return;
         }
+        try {
+            this.encoded = new Encoded(encoded, 0, encoded.length(), true);
+            return;
+        } catch (BEncodingException e) {
+            // not in the form BEncoding writes; decode it in full, repairing it if we can
+        }
         try {
             try {
                 map = (Map) BEncoding.decode(encoded);
@@ -183,86 +206,183 @@ public final class Metadata {
         }
     }
 
+    private Metadata(Encoded encoded) {
+        associatedItemId = null;
+        this.encoded = encoded;
+    }
+
+    /** Returns all entries as a map, decoding the ones that are still encoded. */
+    Map<Object, Object> map() {
+        if (map == null) {
+            Map<Object, Object> decoded = new HashMap<Object, Object>(encoded.count * 2);
+            for (int i = 0; i < encoded.count; i++) {
+                decoded.put(encoded.key(i), encoded.value(i));
+            }
+            if (changes != null) {
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    if (change.getValue() == REMOVED) {
+                        decoded.remove(change.getKey());
+                    } else {
+                        decoded.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+            map = decoded;
+            encoded = null;
+            changes = null;
+        }
+        return map;
+    }
+
+    private Object lookup(String key) {
+        if (map != null) {
+            return map.get(key);
+        } else if (key == null) {
+            return null;
+        }
+        Object change = changes == null ? null : changes.get(key);
+        if (change != null) {
+            return change == REMOVED ? null : change;
+        }
+        int i = encoded.find(key);
+        return i < 0 ? null : encoded.value(i);
+    }
+
+    private void change(String key, Object value) {
+        if (map != null) {
+            map.put(key, value);
+        } else {
+            if (changes == null) {
+                changes = new TreeMap<String, Object>();
+            }
+            changes.put(key, value);
+        }
+    }
+
     public boolean containsKey(String key) {
-        return map.containsKey(key);
+        if (map != null) {
+            return map.containsKey(key);
+        } else if (key == null) {
+            return false;
+        }
+        Object change = changes == null ? null : changes.get(key);
+        if (change != null) {
+            return change != REMOVED;
+        }
+        return encoded.find(key) >= 0;
     }
 
     public int size() {
-        return map.size();
+        if (map != null) {
+            return map.size();
+        }
+        int size = encoded.count;
+        if (changes != null) {
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                boolean existed = encoded.find(change.getKey()) >= 0;
+                if (change.getValue() == REMOVED) {
+                    size -= existed ? 1 : 0;
+                } else {
+                    size += existed ? 0 : 1;
+                }
+            }
+        }
+        return size;
     }
 
     public boolean isEmpty() {
-        return map.isEmpty();
+        return size() == 0;
     }
 
     public Metadata copy(Metadata source) {
         if (source != null) {
-            map.putAll(source.map);
+            map().putAll(source.map());
         }
         return this;
     }
 
     public Map<String, ?> asMap()  {
+        return asMap("");
+    }
+
+    /**
+     * Like {@link #asMap()}, but only with the entries whose keys start with the given prefix.  Entries that are still
+     * encoded are found without decoding the rest.
+     */
+    public Map<String, ?> asMap(String prefix)  {
         Map<String, Object> result = new HashMap<String, Object>();
-        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+        if (map == null && changes == null) {
+            for (int i = encoded.ceiling(prefix); i < encoded.count && encoded.keyStartsWith(i, prefix); i++) {
+                put(result, encoded.key(i), encoded.value(i));
+            }
+            return result;
+        }
+        for (Map.Entry<Object, Object> entry : map().entrySet()) {
             Object key = entry.getKey();
-            Object value = entry.getValue();
-            if (key == null || value == null) {
-                continue;
-            } else if (value instanceof Map) {
-                result.put(key.toString(), new Metadata((Map<?, ?>) value));
-            } else if (value instanceof List) {
-                result.put(key.toString(), new MetadataList((List<?>) value));
-            } else {
-                result.put(key.toString(), value);
+            if (key != null && key.toString().startsWith(prefix)) {
+                put(result, key.toString(), entry.getValue());
             }
         }
         return result;
     }
 
+    private static void put(Map<String, Object> result, String key, Object value) {
+        if (value instanceof Map) {
+            result.put(key, new Metadata((Map<?, ?>) value));
+        } else if (value instanceof List) {
+            result.put(key, new MetadataList((List<?>) value));
+        } else if (value != null) {
+            result.put(key, value);
+        }
+    }
+
     public Metadata remove(String key) {
-        map.remove(key);
+        if (map != null) {
+            map.remove(key);
+        } else if (key != null) {
+            change(key, REMOVED);
+        }
         return this;
     }
 
     public Metadata put(String key, Object value) {
         if (key != null && value != null) {
-            map.put(key, value);
+            change(key, value);
         }
         return this;
     }
 
     public Metadata put(String key, long value) {
         if (key != null) {
-            map.put(key, Long.valueOf(value));
+            change(key, Long.valueOf(value));
         }
         return this;
     }
 
     public Metadata put(String key, double value) {
         if (key != null) {
-            map.put(key, new Double(value));
+            change(key, new Double(value));
         }
         return this;
     }
 
     public Metadata put(String key, boolean value) {
         if (key != null) {
-            map.put(key, new Boolean(value));
+            change(key, new Boolean(value));
         }
         return this;
     }
 
     public Metadata put(String key, Metadata value) {
         if (key != null && value != null) {
-            map.put(key, value.map);
+            change(key, value.map());
         }
         return this;
     }
 
     public Metadata put(String key, MetadataList value) {
         if (key != null && value != null) {
-            map.put(key, value.list);
+            change(key, value.list);
         }
         return this;
     }
@@ -284,7 +404,7 @@ public final class Metadata {
     }
 
     public String get(String key, String defaultValue) {
-        Object value = map.get(key);
+        Object value = lookup(key);
         return value == null ? defaultValue : value.toString();
     }
 
@@ -318,7 +438,7 @@ public final class Metadata {
     }
 
     public MetadataList getList(String key, boolean nullOK) throws ServiceException {
-        Object value = map.get(key);
+        Object value = lookup(key);
         if (nullOK && value == null) {
             return null;
         }
@@ -335,7 +455,17 @@ public final class Metadata {
     }
 
     public Metadata getMap(String key, boolean nullable) throws ServiceException {
-        Object value = map.get(key);
+        if (map == null && key != null && (changes == null || !changes.containsKey(key))) {
+            int i = encoded.find(key);
+            if (i >= 0 && encoded.isDictionary(i)) {
+                try {
+                    return new Metadata(new Encoded(encoded.data, encoded.valueStart(i), encoded.valueEnd(i), false));
+                } catch (BEncodingException e) {
+                    // keys not in order; decode it below
+                }
+            }
+        }
+        Object value = lookup(key);
         if (nullable && value == null) {
             return null;
         }
@@ -349,6 +479,9 @@ public final class Metadata {
 
     @Override
     public String toString() {
+        if (map == null) {
+            return encoded.encode(changes);
+        }
         put(FN_MD_VERSION, LEGACY_METADATA_VERSION);
         String result = BEncoding.encode(map);
         map.remove(FN_MD_VERSION);
@@ -357,7 +490,7 @@ public final class Metadata {
 
     public String prettyPrint() {
         StringBuilder sb = new StringBuilder(2048);
-        prettyEncode(sb, map, 0);
+        prettyEncode(sb, map(), 0);
         sb.setLength(sb.length() - 1);  // Remove the last newline.
         return sb.toString();
     }
@@ -401,6 +534,175 @@ public final class Metadata {
         }
     }
 
+    /**
+     * The top-level entries of an encoded dictionary, located but not decoded.  Only dictionaries in the form
+     * {@link BEncoding} writes, with string keys in strictly ascending order, are accepted, so that entries can be
+     * found by binary search and copied into a re-encoded dictionary as they are.
+     */
+    private static final class Encoded {
+        final String data;
+        final int start;
+        final int end;
+        /** For each entry: where it starts, where its key starts, where its value starts and where it ends. */
+        private int[] spans = new int[32];
+        int count;
+        /** True if this is the top level of an item's metadata and it carries the current legacy version. */
+        private boolean versioned;
+
+        /**
+         * @param topLevel true to leave out the {@link Metadata#FN_MD_VERSION} entry, as for an item's metadata
+         */
+        Encoded(String data, int start, int end, boolean topLevel) throws BEncodingException {
+            if (start >= end || data.charAt(start) != 'd') {
+                throw new BEncodingException("not a dictionary");
+            }
+            this.data = data;
+            this.start = start;
+            this.end = end;
+            int offset = start + 1;
+            int lastKeyStart = -1, lastKeyEnd = -1;
+            while (offset < end && data.charAt(offset) != 'e') {
+                char c = data.charAt(offset);
+                if (c < '0' || c > '9') {
+                    throw new BEncodingException("dictionary key is not a string");
+                }
+                int keyEnd = BEncoding.skip(data, offset, end);
+                int valueEnd = BEncoding.skip(data, keyEnd, end);
+                int keyStart = data.indexOf(':', offset) + 1;
+                if (lastKeyStart >= 0 && compare(lastKeyStart, lastKeyEnd, keyStart, keyEnd) >= 0) {
+                    throw new BEncodingException("dictionary keys out of order");
+                }
+                lastKeyStart = keyStart;
+                lastKeyEnd = keyEnd;
+                if (topLevel && keyEnd - keyStart == 1 && data.charAt(keyStart) == FN_MD_VERSION.charAt(0)) {
+                    versioned = valueEnd - keyEnd == 4 && data.startsWith("i" + LEGACY_METADATA_VERSION + "e", keyEnd);
+                } else {
+                    if (count * 4 == spans.length) {
+                        spans = Arrays.copyOf(spans, spans.length * 2);
+                    }
+                    int base = count++ * 4;
+                    spans[base] = offset;
+                    spans[base + 1] = keyStart;
+                    spans[base + 2] = keyEnd;
+                    spans[base + 3] = valueEnd;
+                }
+                offset = valueEnd;
+            }
+            if (offset + 1 != end) {
+                throw new BEncodingException("extra characters at end of encoded string");
+            }
+        }
+
+        private int compare(int start1, int end1, int start2, int end2) {
+            int len = Math.min(end1 - start1, end2 - start2);
+            for (int k = 0; k < len; k++) {
+                int diff = data.charAt(start1 + k) - data.charAt(start2 + k);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return (end1 - start1) - (end2 - start2);
+        }
+
+        private int compare(int i, String key) {
+            int keyStart = spans[i * 4 + 1], keyLength = spans[i * 4 + 2] - keyStart;
+            int len = Math.min(keyLength, key.length());
+            for (int k = 0; k < len; k++) {
+                int diff = data.charAt(keyStart + k) - key.charAt(k);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return keyLength - key.length();
+        }
+
+        /** Returns the index of the entry with the given key, or -1. */
+        int find(String key) {
+            int i = ceiling(key);
+            return i < count && compare(i, key) == 0 ? i : -1;
+        }
+
+        /** Returns the index of the first entry whose key is not less than the given one. */
+        int ceiling(String key) {
+            int low = 0, high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(mid, key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        boolean keyStartsWith(int i, String prefix) {
+            int keyStart = spans[i * 4 + 1];
+            return spans[i * 4 + 2] - keyStart >= prefix.length() && data.startsWith(prefix, keyStart);
+        }
+
+        String key(int i) {
+            return data.substring(spans[i * 4 + 1], spans[i * 4 + 2]);
+        }
+
+        int valueStart(int i) {
+            return spans[i * 4 + 2];
+        }
+
+        int valueEnd(int i) {
+            return spans[i * 4 + 3];
+        }
+
+        boolean isDictionary(int i) {
+            return data.charAt(valueStart(i)) == 'd';
+        }
+
+        Object value(int i) {
+            int start = valueStart(i);
+            char c = data.charAt(start);
+            if (c >= '0' && c <= '9') {
+                return data.substring(data.indexOf(':', start) + 1, valueEnd(i));
+            }
+            try {
+                return BEncoding.decode(data, start, valueEnd(i));
+            } catch (BEncodingException e) {
+                throw new IllegalStateException("metadata changed after validation", e);
+            }
+        }
+
+        /** Encodes the dictionary with the given changes applied, copying unchanged entries as they are. */
+        String encode(Map<String, Object> changes) {
+            if (changes == null && versioned) {
+                return data.substring(start, end);
+            }
+            Map<String, Object> pending = changes == null ?
+                    new TreeMap<String, Object>() : new TreeMap<String, Object>(changes);
+            pending.put(FN_MD_VERSION, Long.valueOf(LEGACY_METADATA_VERSION));
+            StringBuilder sb = new StringBuilder(end - start + 16 * pending.size());
+            sb.append('d');
+            int i = 0;
+            for (Map.Entry<String, Object> change : pending.entrySet()) {
+                String key = change.getKey();
+                int cmp = -1;
+                while (i < count && (cmp = compare(i, key)) < 0) {
+                    sb.append(data, spans[i * 4], spans[i * 4 + 3]);
+                    i++;
+                }
+                if (i < count && cmp == 0) {
+                    i++;
+                }
+                if (change.getValue() != REMOVED) {
+                    BEncoding.encode(sb, key);
+                    BEncoding.encode(sb, change.getValue());
+                }
+            }
+            for (; i < count; i++) {
+                sb.append(data, spans[i * 4], spans[i * 4 + 3]);
+            }
+            return sb.append('e').toString();
+        }
+    }
+
     public static void main(String[] args) throws MailServiceException {
         String encoded = "d1:ai1e4:aclmd1:gld1:ei0e1:g36:474b7021-cef6-469d-b5fb-54c96117efd11:ri1e1:ti1eee2:gei0e2:iei0ee5:mdveri4e4:mseqi628e2:szi7596456e4:unxti744e1:vi10e2:vti5ee";
         Metadata meta = new Metadata(encoded);
@@ -0,0 +1,197 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Metadata;
+
+/**
+ * A {@link CalendarData} as kept in the {@link CalSummaryCache} LRU: each calendar item is encoded as its metadata
+ * into one direct buffer, so the appointments of cached calendars don't live on the heap.  Only the folder's range,
+ * the item ids and the span of each item's instances are kept on the heap, which lets a request for part of the
+ * range decode just the items it overlaps.
+ * <p>
+ * The data is immutable but for the ids of the items marked stale since it was cached.
+ */
+final class CachedCalendarData {
+
+    /** Heap used per calendar item for the id, span and offset arrays. */
+    private static final int ITEM_OVERHEAD = 4 + 4 + 8 + 8 + 4;
+    private static final int OVERHEAD = 256;
+
+    private final int folderId;
+    private final int modSeq;
+    private final long rangeStart;
+    private final long rangeEnd;
+    /** Item ids in the order of the calendar. */
+    private final int[] itemIds;
+    private final int[] sortedItemIds;
+    /** Span of the instances and alarms of each item, as {@link CalendarItemData#getSubRange} selects them. */
+    private final long[] spanStart;
+    private final long[] spanEnd;
+    /** Offset of each item in {@link #data}, and the end of the last one. */
+    private final int[] offsets;
+    private final ByteBuffer data;
+    private final Set<Integer> staleItemIds = new HashSet<Integer>();
+
+    private CachedCalendarData(CalendarData calData, int numItems) {
+        folderId = calData.getFolderId();
+        modSeq = calData.getModSeq();
+        rangeStart = calData.getRangeStart();
+        rangeEnd = calData.getRangeEnd();
+        itemIds = new int[numItems];
+        spanStart = new long[numItems];
+        spanEnd = new long[numItems];
+        offsets = new int[numItems + 1];
+
+        byte[][] encoded = new byte[numItems][];
+        int i = 0;
+        for (Iterator<CalendarItemData> iter = calData.calendarItemIterator(); iter.hasNext(); i++) {
+            CalendarItemData item = iter.next();
+            itemIds[i] = item.getCalItemId();
+            setSpan(i, item);
+            encoded[i] = item.encodeMetadata().toString().getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(Math.max(offsets[numItems], 1));
+        for (byte[] bytes : encoded) {
+            buf.put(bytes);
+        }
+        buf.flip();
+        data = buf.asReadOnlyBuffer();
+        sortedItemIds = itemIds.clone();
+        Arrays.sort(sortedItemIds);
+        calData.copyStaleItemIdsTo(staleItemIds);
+    }
+
+    static CachedCalendarData encode(CalendarData calData) {
+        return new CachedCalendarData(calData, calData.getNumItems());
+    }
+
+    private void setSpan(int i, CalendarItemData item) {
+        // getSubRange() keeps an item whose actual range is within the requested one, whatever its instances
+        long start = item.getActualRangeStart() - 1;
+        long end = item.getActualRangeEnd() + 1;
+        FullInstanceData defaultData = item.getDefaultData();
+        long defaultDuration = defaultData != null && defaultData.getDuration() != null ?
+                defaultData.getDuration().longValue() : 0;
+        for (Iterator<InstanceData> iter = item.instanceIterator(); iter.hasNext(); ) {
+            InstanceData inst = iter.next();
+            if (inst.getAlarmAt() != null) {
+                start = Math.min(start, inst.getAlarmAt().longValue());
+                end = Math.max(end, inst.getAlarmAt().longValue() + 1);
+            }
+            if (inst.getDtStart() == null) {
+                // timeless task instances are in every range
+                start = Long.MIN_VALUE;
+                end = Long.MAX_VALUE;
+                break;
+            }
+            long instStart = inst.getDtStart().longValue();
+            long instEnd = instStart + (inst.getDuration() != null ? inst.getDuration().longValue() : defaultDuration);
+            if (instStart == 0 && instEnd == 0) {
+                start = Long.MIN_VALUE;
+                end = Long.MAX_VALUE;
+                break;
+            }
+            start = Math.min(start, instStart);
+            end = Math.max(end, instEnd);
+        }
+        spanStart[i] = start;
+        spanEnd[i] = end;
+    }
+
+    int getFolderId()    { return folderId; }
+    int getModSeq()      { return modSeq; }
+    long getRangeStart() { return rangeStart; }
+    long getRangeEnd()   { return rangeEnd; }
+    int getNumItems()    { return itemIds.length; }
+
+    /** Returns the heap and direct memory held, as charged against the cache's byte budget. */
+    int getWeight() {
+        return OVERHEAD + itemIds.length * ITEM_OVERHEAD + data.capacity();
+    }
+
+    boolean containsItem(int calItemId) {
+        return Arrays.binarySearch(sortedItemIds, calItemId) >= 0;
+    }
+
+    synchronized int getNumStaleItems() {
+        return staleItemIds.size();
+    }
+
+    synchronized int markItemStale(int calItemId) {
+        staleItemIds.add(calItemId);
+        return staleItemIds.size();
+    }
+
+    private CalendarItemData decodeItem(int i) throws ServiceException {
+        byte[] bytes = new byte[offsets[i + 1] - offsets[i]];
+        ByteBuffer buf = data.duplicate();
+        buf.position(offsets[i]);
+        buf.get(bytes);
+        return new CalendarItemData(new Metadata(new String(bytes, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Decodes the whole calendar, with the ids of the items marked stale, or returns {@code null} if it can't be decoded.
+     */
+    CalendarData decode() {
+        return decode(rangeStart, rangeEnd);
+    }
+
+    /**
+     * Decodes the items with instances or alarms in the given range, trimmed to it as by
+     * {@link CalendarData#getSubRange}.  Returns {@code null} if the data can't be decoded.
+     */
+    CalendarData decode(long start, long end) {
+        boolean whole = start <= rangeStart && end >= rangeEnd;
+        CalendarData calData = whole ? new CalendarData(folderId, modSeq, rangeStart, rangeEnd) :
+                new CalendarData(folderId, modSeq, start, end);
+        try {
+            for (int i = 0; i < itemIds.length; i++) {
+                if (whole) {
+                    calData.addCalendarItem(decodeItem(i));
+                } else if (spanStart[i] < end && spanEnd[i] > start) {
+                    CalendarItemData item = decodeItem(i).getSubRange(start, end);
+                    if (item == null) {
+                        continue;
+                    }
+                    calData.addCalendarItem(item);
+                }
+            }
+        } catch (ServiceException e) {
+            ZimbraLog.calendar.warn("Error decoding cached calendar summary of folder %d", folderId, e);
+            return null;
+        }
+        // new items are marked stale too, so copy them all rather than those decoded
+        synchronized (this) {
+            for (int calItemId : staleItemIds) {
+                calData.markItemStale(calItemId);
+            }
+        }
+        return calData;
+    }
+}
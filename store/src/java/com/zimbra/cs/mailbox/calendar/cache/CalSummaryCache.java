@@ -21,15 +21,18 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.calendar.ParsedDateTime;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mailbox.BaseItemInfo;
 import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.stats.Counter;
 import com.zimbra.common.util.Pair;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Account;
@@ -362,133 +365,118 @@ public class CalSummaryCache {
         sMaxSearchDays = LC.calendar_search_max_days.intValueWithinRange(0, 3660);
     }
 
-    @SuppressWarnings("serial")
-    private static class SummaryLRU extends LinkedHashMap<CalSummaryKey, CalendarData> {
-        private final int mMaxAllowed;
+    private static final int FOLDER_NOT_FOUND = -1;
 
-        // map that keeps track of which calendar folders are cached for each account
-        // This map is updated every time a calendar folder is added, removed, or aged out
-        // of the LRU.
-        private final Map<String /* account id */, Set<Integer> /* folder ids */> mAccountFolders;
+    // LRU cache containing range-limited calendar summary by calendar folder, bounded by the bytes held by the
+    // cached data and by mLRUCapacity calendars
+    private final ConcurrentLinkedHashMap<CalSummaryKey, CachedCalendarData> mSummaryCache;
+    private final int mLRUCapacity;
+    private final CalSummaryMemcachedCache mMemcachedCache;
 
-        private SummaryLRU(int capacity) {
-            super(capacity + 1, 1.0f, true);
-            mMaxAllowed = Math.max(capacity, 1);
-            mAccountFolders = new HashMap<String, Set<Integer>>();
-        }
+    // map that keeps track of which calendar folders are cached for each account
+    // This map is updated every time a calendar folder is added, removed, or aged out
+    // of the LRU.  Guarded by itself; lookups in the LRU don't take the lock.
+    private final Map<String /* account id */, Set<Integer> /* folder ids */> mAccountFolders =
+            new HashMap<String, Set<Integer>>();
 
-        @Override
-        public void clear() {
-            super.clear();
-            mAccountFolders.clear();
-        }
+    CalSummaryCache(final int capacity) {
+        mLRUCapacity = capacity;
+        mSummaryCache = new ConcurrentLinkedHashMap.Builder<CalSummaryKey, CachedCalendarData>()
+            .maximumWeightedCapacity(LC.calendar_cache_max_bytes.longValue())
+            .weigher(new Weigher<CachedCalendarData>() {
+                @Override
+                public int weightOf(CachedCalendarData calData) {
+                    return calData.getWeight();
+                }
+            })
+            .listener(new EvictionListener<CalSummaryKey, CachedCalendarData>() {
+                @Override
+                public void onEviction(CalSummaryKey key, CachedCalendarData calData) {
+                    deregisterFromAccount(key);
+                }
+            })
+            .build();
+        mMemcachedCache = new CalSummaryMemcachedCache();
+    }
 
-        @Override
-        public CalendarData put(CalSummaryKey key, CalendarData value) {
-            CalendarData prevVal = super.put(key, value);
-            if (prevVal == null)
-                registerWithAccount(key);
-            return prevVal;
+    private void cachePut(CalSummaryKey key, CalendarData calData) {
+        if (mLRUCapacity <= 0) {
+            return;
         }
-
-        @Override
-        public void putAll(Map<? extends CalSummaryKey, ? extends CalendarData> t) {
-            super.putAll(t);
-            for (CalSummaryKey key : t.keySet()) {
-                registerWithAccount(key);
-            }
+        CachedCalendarData cached = CachedCalendarData.encode(calData);
+        synchronized (mAccountFolders) {
+            registerWithAccount(key);
+            mSummaryCache.put(key, cached);
         }
-
-        @Override
-        public CalendarData remove(Object key) {
-            CalendarData prevVal = super.remove(key);
-            if (prevVal != null && key instanceof CalSummaryKey) {
-                CalSummaryKey k = (CalSummaryKey) key;
-                deregisterFromAccount(k);
+        int excess = mSummaryCache.size() - mLRUCapacity;
+        if (excess > 0) {
+            for (CalSummaryKey eldest : mSummaryCache.ascendingKeySetWithLimit(excess)) {
+                cacheRemove(eldest);
             }
-            return prevVal;
         }
+    }
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<CalSummaryKey, CalendarData> eldest) {
-            boolean remove = size() > mMaxAllowed;
-            if (remove)
-                deregisterFromAccount(eldest.getKey());
-            return remove;
+    private void cacheRemove(CalSummaryKey key) {
+        synchronized (mAccountFolders) {
+            if (mSummaryCache.remove(key) != null) {
+                deregisterFromAccount(key);
+            }
         }
+    }
 
-        private void registerWithAccount(CalSummaryKey key) {
-            String accountId = key.getAccountId();
-            int folderId = key.getFolderId();
-            Set<Integer> folders = mAccountFolders.get(accountId);
-            if (folders == null) {
-                folders = new HashSet<Integer>();
-                mAccountFolders.put(accountId, folders);
-            }
-            folders.add(folderId);
+    private void registerWithAccount(CalSummaryKey key) {
+        Set<Integer> folders = mAccountFolders.get(key.getAccountId());
+        if (folders == null) {
+            folders = new HashSet<Integer>();
+            mAccountFolders.put(key.getAccountId(), folders);
         }
+        folders.add(key.getFolderId());
+    }
 
-        private void deregisterFromAccount(CalSummaryKey key) {
-            String accountId = key.getAccountId();
-            int folderId = key.getFolderId();
-            Set<Integer> folders = mAccountFolders.get(accountId);
-            if (folders != null) {
-                folders.remove(folderId);
+    private void deregisterFromAccount(CalSummaryKey key) {
+        synchronized (mAccountFolders) {
+            Set<Integer> folders = mAccountFolders.get(key.getAccountId());
+            // an evicted folder may have been cached again since
+            if (folders != null && !mSummaryCache.containsKey(key)) {
+                folders.remove(key.getFolderId());
                 // If no folders are cached for the account, drop the account entry from the map to save memory.
-                if (folders.isEmpty())
-                    mAccountFolders.remove(accountId);
+                if (folders.isEmpty()) {
+                    mAccountFolders.remove(key.getAccountId());
+                }
             }
         }
+    }
 
-        public static final int FOLDER_NOT_FOUND = -1;
-
-        public int getFolderForItem(String accountId, int itemId) {
-            int retval = FOLDER_NOT_FOUND;
+    private int getFolderForItem(String accountId, int itemId) {
+        synchronized (mAccountFolders) {
             Set<Integer> folders = mAccountFolders.get(accountId);
             if (folders != null) {
                 for (int folderId : folders) {
-                    CalSummaryKey key = new CalSummaryKey(accountId, folderId);
-                    CalendarData calData = get(key);
-                    if (calData != null) {
-                        CalendarItemData ci = calData.getCalendarItemData(itemId);
-                        if (ci != null) {
-                            retval = folderId;
-                            break;
-                        }
+                    CachedCalendarData calData = mSummaryCache.getQuietly(new CalSummaryKey(accountId, folderId));
+                    if (calData != null && calData.containsItem(itemId)) {
+                        return folderId;
                     }
                 }
             }
-            return retval;
         }
+        return FOLDER_NOT_FOUND;
+    }
 
-        /**
-         * Toss all folders of the account from the LRU.
-         * @param mboxId
-         */
-        public void removeAccount(String accountId) {
+    /**
+     * Toss all folders of the account from the LRU.
+     */
+    private void removeAccount(String accountId) {
+        synchronized (mAccountFolders) {
             Set<Integer> folders = mAccountFolders.get(accountId);
             if (folders != null) {
-                // Get a copy of the folder list to avoid ConcurrentModificationException on mMboxFolders.
-                Integer[] fids = folders.toArray(new Integer[0]);
-                for (int folderId : fids) {
-                    CalSummaryKey key = new CalSummaryKey(accountId, folderId);
-                    remove(key);
+                // Get a copy of the folder list to avoid ConcurrentModificationException on mAccountFolders.
+                for (int folderId : folders.toArray(new Integer[0])) {
+                    cacheRemove(new CalSummaryKey(accountId, folderId));
                 }
             }
         }
     }
 
-    // LRU cache containing range-limited calendar summary by calendar folder
-    private final SummaryLRU mSummaryCache;
-    private final int mLRUCapacity;
-    private final CalSummaryMemcachedCache mMemcachedCache;
-
-    CalSummaryCache(final int capacity) {
-        mLRUCapacity = capacity;
-        mSummaryCache = new SummaryLRU(capacity);
-        mMemcachedCache = new CalSummaryMemcachedCache();
-    }
-
     private static enum CacheLevel { Memory, Memcached, File, Miss }
 
     public class CalendarDataResult {
@@ -575,23 +563,39 @@ public class CalSummaryCache {
         OperationContext ownerOctxt = new OperationContext(targetAcct);
         int currentModSeq = folder.getImapMODSEQ();
 
-        // Lookup from heap LRU.
-            synchronized (mSummaryCache) {
-                if (mLRUCapacity > 0) {
-                    calData = mSummaryCache.get(key);
-                    lruSize = mSummaryCache.size();
+        // Lookup from LRU.
+        CachedCalendarData cached = null;
+        if (mLRUCapacity > 0) {
+            cached = mSummaryCache.get(key);
+            lruSize = mSummaryCache.size();
+        }
+        // Sanity check: Cached data can't be newer than the backend data.
+        if (cached != null && cached.getModSeq() <= currentModSeq) {
+            if (cached.getModSeq() == currentModSeq && cached.getNumStaleItems() == 0 &&
+                    rangeStart >= cached.getRangeStart() && rangeEnd <= cached.getRangeEnd()) {
+                // Up to date and covers the requested range: decode only the items in it.  Memcached got the
+                // whole calendar when it was cached here, so don't decode it all again to put it there.
+                result.data = computeSubRange ? cached.decode(rangeStart, rangeEnd) : cached.decode();
+                if (result.data != null) {
+                    ZimbraPerf.COUNTER_CALENDAR_CACHE_HIT.increment(1);
+                    ZimbraPerf.COUNTER_CALENDAR_CACHE_MEM_HIT.increment(1);
+                    ZimbraPerf.COUNTER_CALENDAR_CACHE_LRU_SIZE.increment(lruSize);
+                    countRangeHit(rangeStart, rangeEnd, true);
+                    if (ZimbraLog.calendar.isDebugEnabled()) {
+                        ZimbraLog.calendar.debug("Calendar Summary for %s:%s reloaded (dataFrom=%s) - %s items private=%s",
+                                targetAcctId, folderId, CacheLevel.Memory, result.data.getNumItems(),
+                                result.allowPrivateAccess);
+                    }
+                    return result;
                 }
             }
+            calData = cached.decode();
             if (calData != null) {
-                // Sanity check: Cached data can't be newer than the backend data.
-                if (calData.getModSeq() > currentModSeq) {
-                    calData = null;
-                } else {
-                    dataFrom = CacheLevel.Memory;
-                    // Data loaded from heap LRU supports incremental update for stale items.
-                    incrementalUpdate = sMaxStaleItems > 0;
-                }
+                dataFrom = CacheLevel.Memory;
+                // Data loaded from LRU supports incremental update for stale items.
+                incrementalUpdate = sMaxStaleItems > 0;
             }
+        }
 
         if (calData == null) {
             // Load from file.
@@ -600,12 +604,8 @@ public class CalSummaryCache {
                 if (calData != null) {
                     // If data is up to date, add to LRU.
                     if (calData.getModSeq() == currentModSeq) {
-                        if (mLRUCapacity > 0) {
-                            synchronized (mSummaryCache) {
-                                mSummaryCache.put(key, calData);
-                                lruSize = mSummaryCache.size();
-                            }
-                        }
+                        cachePut(key, calData);
+                        lruSize = mSummaryCache.size();
                     } else {
                         // Data loaded from file doesn't have stale items list.  It can't be refreshed incrementally.
                         incrementalUpdate = false;
@@ -648,12 +648,8 @@ public class CalSummaryCache {
                                                    sRangeMonthFrom, sRangeNumMonths);
             calData = reloadCalendarOverRange(ownerOctxt, mbox, folderId, type,
                     defaultRange.getFirst(), defaultRange.getSecond(), reusableCalData, incrementalUpdate);
-            synchronized (mSummaryCache) {
-                if (mLRUCapacity > 0) {
-                    mSummaryCache.put(key, calData);
-                    lruSize = mSummaryCache.size();
-                }
-            }
+            cachePut(key, calData);
+            lruSize = mSummaryCache.size();
             dataFrom = CacheLevel.Miss;
 
             try {
@@ -703,6 +699,7 @@ public class CalSummaryCache {
             break;
         }
         ZimbraPerf.COUNTER_CALENDAR_CACHE_LRU_SIZE.increment(lruSize);
+        countRangeHit(rangeStart, rangeEnd, dataFrom == CacheLevel.Memory || dataFrom == CacheLevel.Memcached);
 
         if (ZimbraLog.calendar.isDebugEnabled()) {
             ZimbraLog.calendar.debug("Calendar Summary for %s:%s reloaded (dataFrom=%s) - %s items private=%s",
@@ -712,14 +709,30 @@ public class CalSummaryCache {
         return result;
     }
 
+    /**
+     * Counts a lookup in the hit rate of the length of its range: up to a day, a week, a month, or longer, as the
+     * day, week, month and list views request.
+     */
+    private static void countRangeHit(long rangeStart, long rangeEnd, boolean hit) {
+        long days = (rangeEnd - rangeStart + MSEC_PER_DAY - 1) / MSEC_PER_DAY;
+        Counter counter;
+        if (days <= 1) {
+            counter = ZimbraPerf.COUNTER_CALENDAR_CACHE_DAY_HIT;
+        } else if (days <= 7) {
+            counter = ZimbraPerf.COUNTER_CALENDAR_CACHE_WEEK_HIT;
+        } else if (days <= 31) {
+            counter = ZimbraPerf.COUNTER_CALENDAR_CACHE_MONTH_HIT;
+        } else {
+            counter = ZimbraPerf.COUNTER_CALENDAR_CACHE_LONG_RANGE_HIT;
+        }
+        counter.increment(hit ? 1 : 0);
+    }
+
     private void invalidateSummary(Mailbox mbox, int folderId) {
         if (!LC.calendar_cache_enabled.booleanValue())
             return;
         int mboxId = mbox.getId();
-        CalSummaryKey key = new CalSummaryKey(mbox.getAccountId(), folderId);
-        synchronized (mSummaryCache) {
-            mSummaryCache.remove(key);
-        }
+        cacheRemove(new CalSummaryKey(mbox.getAccountId(), folderId));
         try {
             FileStore.deleteCalendarData(mboxId, folderId);
         } catch (ServiceException e) {
@@ -731,12 +744,7 @@ public class CalSummaryCache {
         if (!LC.calendar_cache_enabled.booleanValue())
             return;
         CalSummaryKey key = new CalSummaryKey(mbox.getAccountId(), folderId);
-        CalendarData calData = null;
-        synchronized (mSummaryCache) {
-            if (mLRUCapacity > 0) {
-                calData = mSummaryCache.get(key);
-            }
-        }
+        CachedCalendarData calData = mLRUCapacity > 0 ? mSummaryCache.getQuietly(key) : null;
         // Invalidate the item from the calendar.
         if (calData != null) {
             int numStaleItems = calData.markItemStale(calItemId);
@@ -772,11 +780,8 @@ public class CalSummaryCache {
                     // If this is a folder move, invalidate the item from the old folder too.
                     if ((change.why & Change.FOLDER) != 0) {
                         String accountId = mbox.getAccountId();
-                        int prevFolderId;
-                        synchronized (mSummaryCache) {
-                            prevFolderId = mSummaryCache.getFolderForItem(accountId, itemId);
-                        }
-                        if (prevFolderId != folderId && prevFolderId != SummaryLRU.FOLDER_NOT_FOUND) {
+                        int prevFolderId = getFolderForItem(accountId, itemId);
+                        if (prevFolderId != folderId && prevFolderId != FOLDER_NOT_FOUND) {
                             invalidateItem(mbox, prevFolderId, itemId);
                         }
                     }
@@ -810,11 +815,8 @@ public class CalSummaryCache {
                         lastMbox = mbox;
                         int itemId = entry.getKey().getItemId();
                         String accountId = mbox.getAccountId();
-                        int folderId;
-                        synchronized (mSummaryCache) {
-                            folderId = mSummaryCache.getFolderForItem(accountId, itemId);
-                        }
-                        if (folderId != SummaryLRU.FOLDER_NOT_FOUND) {
+                        int folderId = getFolderForItem(accountId, itemId);
+                        if (folderId != FOLDER_NOT_FOUND) {
                             invalidateItem(mbox, folderId, itemId);
                         }
                     }
@@ -828,9 +830,7 @@ public class CalSummaryCache {
     }
 
     void purgeMailbox(Mailbox mbox) throws ServiceException {
-        synchronized (mSummaryCache) {
-            mSummaryCache.removeAccount(mbox.getAccountId());
-        }
+        removeAccount(mbox.getAccountId());
         if (MemcachedConnector.isConnected()) {
             mMemcachedCache.purgeMailbox(mbox);
         }
@@ -0,0 +1,231 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.zimbra.common.stats.Histogram;
+
+/**
+ * Contention statistics for a mailbox lock: how long threads waited to acquire it, how long
+ * writers held it, how many threads were queued, and a sample of the lock's owner and waiters
+ * taken the last time a thread waited longer than the slow-wait threshold.
+ * <p>
+ * Every method is lock-free so that recording doesn't add contention of its own.  Each mailbox
+ * lock has an instance, and {@link #SERVER} aggregates all of them.  Uncontended acquisitions,
+ * which are most of them, are only counted by the lock's own instance; {@link #SERVER} sees one
+ * in {@value #UNCONTENDED_SAMPLE}, so that the fast path doesn't write to memory shared by every
+ * mailbox.  Only {@link #SERVER} keeps histograms.
+ */
+public final class LockStats {
+
+    private static final int UNCONTENDED_SAMPLE = 64;
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(10);
+
+    /** Statistics for all mailbox locks on this server. */
+    public static final LockStats SERVER = new LockStats(null);
+
+    private final Durations waitTime;
+    private final Durations holdTime;
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder contended = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder optimisticReads = new LongAdder();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong lastSampleTime = new AtomicLong();
+    private volatile String lastSample;
+    private final LockStats parent;
+
+    /**
+     * @param parent also receives everything recorded here, or {@code null}
+     */
+    public LockStats(LockStats parent) {
+        this.parent = parent;
+        waitTime = new Durations(parent == null);
+        holdTime = new Durations(parent == null);
+    }
+
+    /** Time spent waiting by contended acquisitions. */
+    public Durations getWaitTime() {
+        return waitTime;
+    }
+
+    /** Time the write lock was held, from the outermost acquisition to the final release. */
+    public Durations getHoldTime() {
+        return holdTime;
+    }
+
+    /** Number of acquisitions; an estimate for {@link #SERVER}. */
+    public long getAcquires() {
+        return acquires.sum();
+    }
+
+    /** Number of acquisitions that could not get the lock immediately. */
+    public long getContendedAcquires() {
+        return contended.sum();
+    }
+
+    /** Number of acquisitions that timed out, were interrupted or were turned away by the waiter limit. */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /** Number of read-only operations that were answered without taking the lock. */
+    public long getOptimisticReads() {
+        return optimisticReads.sum();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /** Owner and waiter stacks captured during the most recent slow wait, or {@code null}. */
+    public String getLastSample() {
+        return lastSample;
+    }
+
+    public void recordUncontended() {
+        acquires.increment();
+        if (parent != null && ThreadLocalRandom.current().nextInt(UNCONTENDED_SAMPLE) == 0) {
+            parent.acquires.add(UNCONTENDED_SAMPLE);
+        }
+    }
+
+    public void recordWait(long nanos, int queueDepth) {
+        acquires.increment();
+        contended.increment();
+        waitTime.record(nanos);
+        int max;
+        while (queueDepth > (max = maxQueueDepth.get())) {
+            if (maxQueueDepth.compareAndSet(max, queueDepth)) {
+                break;
+            }
+        }
+        if (parent != null) {
+            parent.recordWait(nanos, queueDepth);
+        }
+    }
+
+    public void recordHold(long nanos) {
+        holdTime.record(nanos);
+        if (parent != null) {
+            parent.recordHold(nanos);
+        }
+    }
+
+    public void recordFailure() {
+        failures.increment();
+        if (parent != null) {
+            parent.recordFailure();
+        }
+    }
+
+    public void recordOptimisticRead() {
+        optimisticReads.increment();
+        if (parent != null) {
+            parent.recordOptimisticRead();
+        }
+    }
+
+    /**
+     * Claims the right to take a stack sample; returns {@code false} if one was taken less than
+     * {@code intervalMillis} ago, so that a pile-up of slow waiters produces one sample, not one each.
+     */
+    public boolean startSample(long intervalMillis) {
+        long now = System.currentTimeMillis();
+        long last = lastSampleTime.get();
+        return now - last >= intervalMillis && lastSampleTime.compareAndSet(last, now);
+    }
+
+    public void setSample(String sample) {
+        lastSample = sample;
+        if (parent != null) {
+            parent.setSample(sample);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("acquires=%d contended=%d failures=%d optimistic=%d maxQueue=%d wait[%s] hold[%s]",
+                getAcquires(), getContendedAcquires(), getFailures(), getOptimisticReads(), getMaxQueueDepth(),
+                waitTime, holdTime);
+    }
+
+    /**
+     * Count, total and maximum of a series of durations, and for {@link #SERVER} a {@link Histogram}
+     * of them in microseconds for percentiles.  A histogram per mailbox would cost several KB for
+     * every loaded mailbox.
+     */
+    public static final class Durations {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final Histogram histogram;
+
+        Durations(boolean histogram) {
+            this.histogram = histogram ? new Histogram(HIGHEST_TRACKABLE_MICROS) : null;
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get())) {
+                if (maxNanos.compareAndSet(max, nanos)) {
+                    break;
+                }
+            }
+            if (histogram != null) {
+                histogram.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(totalNanos.sum());
+        }
+
+        public long getMaxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+        }
+
+        /**
+         * Returns the given quantile (0 to 1) in microseconds, or 0 if nothing has been recorded or
+         * there is no histogram.
+         */
+        public long getPercentileMicros(double quantile) {
+            return histogram == null ? 0 : histogram.getSnapshot().getValueAtPercentile(quantile * 100);
+        }
+
+        @Override
+        public String toString() {
+            if (histogram == null) {
+                return String.format("count=%d total=%dus max=%dus", getCount(), getTotalMicros(), getMaxMicros());
+            }
+            Histogram.Snapshot snapshot = histogram.getSnapshot();
+            return String.format("count=%d p50=%dus p99=%dus max=%dus", getCount(),
+                    snapshot.getValueAtPercentile(50), snapshot.getValueAtPercentile(99), getMaxMicros());
+        }
+    }
+}
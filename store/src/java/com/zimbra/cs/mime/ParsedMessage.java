@@ -27,12 +27,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 
 import javax.mail.Address;
@@ -50,6 +50,7 @@ import javax.mail.util.SharedByteArrayInputStream;
 import org.apache.lucene.document.Document;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
@@ -146,7 +147,7 @@ public final class ParsedMessage {
     private CalendarPartInfo calendarPartInfo;
     private boolean wasMutated;
     private InputStream sharedStream;
-    private final Map<Mailbox, Threader> threaders = new HashMap<Mailbox, Threader>();
+    private final Map<Mailbox, Threader> threaders = new ConcurrentHashMap<Mailbox, Threader>();
     private String dataSourceId = null;
 
     public ParsedMessage(MimeMessage msg, boolean indexAttachments) throws ServiceException {
@@ -309,6 +310,9 @@ public final class ParsedMessage {
     }
 
     public ParsedMessage setDefaultCharset(String charset) {
+        if (Objects.equal(charset, defaultCharset)) {
+            return this;
+        }
         defaultCharset = charset;
         if (mimeMessage instanceof ZMimeMessage) {
             ((ZMimeMessage) mimeMessage).setProperty("mail.mime.charset", charset);
@@ -473,6 +477,28 @@ public final class ParsedMessage {
         analyzeNonBodyParts();
     }
 
+    /**
+     * Runs the parsing and analysis that delivering the message to a mailbox would otherwise do
+     * lazily, except for attachment text.  Afterwards, as long as {@link #setDefaultCharset} is
+     * only called with the same charset, the message can be delivered to several mailboxes from
+     * different threads at once.
+     */
+    public ParsedMessage analyzeForDelivery() {
+        parse();
+        try {
+            analyzeBodyParts();
+        } catch (ServiceException e) {
+            LOG.warn("Message analysis failed when preparing for delivery", e);
+        }
+        normalizeSubject();
+        isInReplyTo();
+        getParsedSender();
+        getParsedRecipients();
+        getReceivedDate();
+        getCalendarPartInfo();
+        return this;
+    }
+
     /**
      * Returns the {@link MimeMessage}.  Affected by both conversion and mutation.
      */
@@ -17,6 +17,8 @@
 
 package com.zimbra.cs.pop3;
 
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,6 +28,8 @@ import java.net.InetSocketAddress;
 
 import org.apache.commons.codec.binary.Base64;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
@@ -44,6 +48,7 @@ import com.zimbra.cs.security.sasl.Authenticator;
 import com.zimbra.cs.security.sasl.AuthenticatorUser;
 import com.zimbra.cs.security.sasl.PlainAuthenticator;
 import com.zimbra.cs.server.ServerThrottle;
+import com.zimbra.cs.server.ZeroCopy;
 import com.zimbra.cs.stats.ZimbraPerf;
 
 /**
@@ -59,6 +64,9 @@ abstract class Pop3Handler {
     private static final int TERMINATOR_C = '.';
     private static final byte[] TERMINATOR_BYTE = {'.'};
 
+    // blob digest -> whether the blob can be sent as is, learned while streaming it
+    private static final Cache<String, Boolean> WIRE_FORMAT = CacheBuilder.newBuilder().maximumSize(10000).build();
+
     // Connection specific data
     final Pop3Config config;
     OutputStream output;
@@ -421,6 +429,78 @@ abstract class Pop3Handler {
         output.flush();
     }
 
+    /**
+     * Returns {@code true} if the content is already as {@link #sendMessage} would send it: every line ends with CRLF,
+     * including the last one, and none starts with the terminator.
+     */
+    static boolean isWireFormat(InputStream is) throws IOException {
+        WireFormatCheck check = new WireFormatCheck(is);
+        while (!check.isComplete()) {
+            check.read();
+        }
+        return check.isWireFormat();
+    }
+
+    /**
+     * Tracks whether the bytes read through it are in wire format, so that {@link #doRETR} learns it for free while
+     * streaming a message and can go zero-copy the next time the same blob is retrieved.
+     */
+    static final class WireFormatCheck extends FilterInputStream {
+        private int prev = '\n';
+        private boolean valid = true;
+        private boolean eof = false;
+
+        WireFormatCheck(InputStream in) {
+            super(in);
+        }
+
+        private void update(int c) {
+            if ((c == '\n') != (prev == '\r') || (c == TERMINATOR_C && prev == '\n')) {
+                valid = false;
+            }
+            prev = c;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = in.read();
+            if (c == -1) {
+                eof = true;
+            } else if (valid) {
+                update(c);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n == -1) {
+                eof = true;
+            } else if (valid) {
+                for (int i = off; i < off + n && valid; i++) {
+                    update(b[i] & 0xff);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            valid = false;
+            return in.skip(n);
+        }
+
+        /** {@code false} once a violation was read; {@code true} only at EOF otherwise. */
+        boolean isWireFormat() {
+            return valid && (!eof || prev == '\n');
+        }
+
+        boolean isComplete() {
+            return eof || !valid;
+        }
+    }
+
     private void doQUIT() throws IOException, ServiceException, Pop3CmdException {
         dropConnection = true;
         if (mailbox != null) {
@@ -685,9 +765,29 @@ abstract class Pop3Handler {
         Message m = mailbox.getMessage(msg);
         InputStream is = null;
         try {
-            is = m.getContentStream();
-            sendOK("message follows", false);
-            sendMessage(is, Integer.MAX_VALUE);
+            // content that needs no dot-stuffing nor line ending fixes goes straight from the blob file, once a
+            // previous RETR of the same blob has found it so
+            File file = ZeroCopy.getFile(m, output);
+            String digest = file != null ? m.getDigest() : null;
+            Boolean wireFormat = digest != null ? WIRE_FORMAT.getIfPresent(digest) : null;
+            if (Boolean.TRUE.equals(wireFormat)) {
+                sendOK("message follows", false);
+                ZeroCopy.transfer(output, file, 0, file.length(), ZimbraPerf.COUNTER_POP_ZERO_COPY_BYTES);
+                output.write(TERMINATOR_BYTE);
+                output.write(LINE_SEPARATOR);
+                output.flush();
+            } else {
+                is = m.getContentStream();
+                WireFormatCheck check = null;
+                if (digest != null && wireFormat == null) {
+                    is = check = new WireFormatCheck(is);
+                }
+                sendOK("message follows", false);
+                sendMessage(is, Integer.MAX_VALUE);
+                if (check != null && check.isComplete()) {
+                    WIRE_FORMAT.put(digest, check.isWireFormat());
+                }
+            }
         } finally {
             ByteUtil.closeStream(is);
         }
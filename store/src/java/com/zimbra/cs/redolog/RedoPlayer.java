@@ -30,6 +30,7 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.redolog.logger.FileLogReader;
@@ -421,45 +422,71 @@ public class RedoPlayer {
         synchronized (mOpsMapGuard) {
             Set entrySet = mOpsMap.entrySet();
             ZimbraLog.redolog.info("Redoing " + numOps + " uncommitted transactions");
-            for (Iterator it = entrySet.iterator(); it.hasNext(); ) {
-                Map.Entry entry = (Entry) it.next();
-                RedoableOp op = (RedoableOp) entry.getValue();
-                if (op == null)
-                    continue;
-
-                if (op.deferCrashRecovery()) {
-                    ZimbraLog.redolog.info("Deferring crash recovery to after startup: " + op);
-                    postStartupRecoveryOps.add(op);
-                    continue;
-                }
-
-                if (ZimbraLog.redolog.isInfoEnabled())
-                    ZimbraLog.redolog.info("REDOING: " + op);
-
-                boolean success = false;
-                try {
-                    op.redo();
-                    success = true;
-                } catch (Exception e) {
-                    ZimbraLog.redolog.error("Redo failed for [" + op + "]." +
-                            "  Backend state of affected item is indeterminate." +
-                            "  Marking operation as aborted and moving on.", e);
-                } finally {
-                    if (success) {
-                        CommitTxn commit = new CommitTxn(op);
-                        redoLogMgr.logOnly(commit, true);
-                    } else {
-                        AbortTxn abort = new AbortTxn(op);
-                        redoLogMgr.logOnly(abort, true);
+            ReplayScheduler scheduler = new ReplayScheduler("RedoRecovery",
+                    LC.zimbra_redolog_recovery_threads.intValue(), LC.zimbra_redolog_recovery_max_pending.intValue(),
+                    new RecoveryPlayer(redoLogMgr));
+            try {
+                for (Iterator it = entrySet.iterator(); it.hasNext(); ) {
+                    Map.Entry entry = (Entry) it.next();
+                    RedoableOp op = (RedoableOp) entry.getValue();
+                    if (op == null)
+                        continue;
+
+                    if (op.deferCrashRecovery()) {
+                        ZimbraLog.redolog.info("Deferring crash recovery to after startup: " + op);
+                        postStartupRecoveryOps.add(op);
+                        continue;
                     }
+
+                    if (ZimbraLog.redolog.isInfoEnabled())
+                        ZimbraLog.redolog.info("REDOING: " + op);
+
+                    scheduler.submit(op);
                 }
+            } finally {
+                scheduler.finish();
             }
+            // the commit/abort records were written without waiting for each one to reach the disk
+            redoLogMgr.getLogWriter().flush();
+            scheduler.checkError();
             mOpsMap.clear();
         }
 
         return numOps;
     }
 
+    /**
+     * Redoes an op found by crash recovery, and logs whether it succeeded.
+     */
+    private static final class RecoveryPlayer implements ReplayScheduler.Player {
+        private final RedoLogManager redoLogMgr;
+
+        RecoveryPlayer(RedoLogManager redoLogMgr) {
+            this.redoLogMgr = redoLogMgr;
+        }
+
+        @Override
+        public void play(RedoableOp op) {
+            boolean success = false;
+            try {
+                op.redo();
+                success = true;
+            } catch (Exception e) {
+                ZimbraLog.redolog.error("Redo failed for [" + op + "]." +
+                        "  Backend state of affected item is indeterminate." +
+                        "  Marking operation as aborted and moving on.", e);
+            } finally {
+                if (success) {
+                    CommitTxn commit = new CommitTxn(op);
+                    redoLogMgr.logOnly(commit, false);
+                } else {
+                    AbortTxn abort = new AbortTxn(op);
+                    redoLogMgr.logOnly(abort, false);
+                }
+            }
+        }
+    }
+
     /**
      * Returns a copy of the pending ops map.
      * @return
@@ -0,0 +1,296 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+/**
+ * Replays redo ops on several threads, in an order consistent with the order they were logged in.
+ * <p>
+ * Ops of different mailboxes are independent.  Within a mailbox, an op waits for the ops logged before it that
+ * change any of the items it changes or references, and for those that reference any of the items it changes
+ * (see {@link RedoableOp#getChangedItemIds()}); an op that may change any item of the mailbox waits for all of them,
+ * and all the later ops of the mailbox wait for it.  Ops that aren't bound to one mailbox are replayed by the
+ * submitting thread once all the ops submitted before them are done.
+ * <p>
+ * With a single thread, ops are replayed by the submitting thread as they're submitted.
+ */
+public final class ReplayScheduler {
+
+    public interface Player {
+        /**
+         * Replays the op.  Throwing stops the replay: ops not replayed yet are skipped, and the error is reported by
+         * {@link ReplayScheduler#submit} and {@link ReplayScheduler#checkError}.
+         */
+        void play(RedoableOp op) throws Exception;
+    }
+
+    private static final class Node {
+        final RedoableOp op;
+        final MailboxState mbox;
+        final int[] changed;
+        final int[] referenced;
+        final List<Node> dependents = new ArrayList<Node>(2);
+        int waitingFor;
+        boolean done;
+
+        Node(RedoableOp op, MailboxState mbox) {
+            this.op = op;
+            this.mbox = mbox;
+            this.changed = op.getChangedItemIds();
+            this.referenced = changed == null ? null : op.getReferencedItemIds();
+        }
+    }
+
+    private static final class MailboxState {
+        final int id;
+        /** Unfinished ops of the mailbox. */
+        final Set<Node> active = new HashSet<Node>();
+        /** Last unfinished op changing each item. */
+        final Map<Integer, Node> writers = new HashMap<Integer, Node>();
+        /** Unfinished ops referencing each item since it was last changed. */
+        final Map<Integer, Set<Node>> readers = new HashMap<Integer, Set<Node>>();
+        /** Last unfinished op that may change any item. */
+        Node barrier;
+
+        MailboxState(int id) {
+            this.id = id;
+        }
+    }
+
+    private final Player player;
+    private final int maxPending;
+    private final ThreadPoolExecutor executor;
+    private final Map<Integer, MailboxState> mailboxes = new HashMap<Integer, MailboxState>();
+    private int pending;
+    private Throwable error;
+
+    /**
+     * @param name prefix of the names of the replay threads
+     * @param numThreads number of replay threads
+     * @param maxPending number of submitted ops not replayed yet past which {@link #submit} blocks
+     */
+    public ReplayScheduler(String name, int numThreads, int maxPending, Player player) {
+        this.player = player;
+        this.maxPending = Math.max(maxPending, 1);
+        if (numThreads > 1) {
+            executor = new ThreadPoolExecutor(numThreads, numThreads, 1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Schedules the op for replay once the ops it depends on are done.  Blocks while too many ops are pending.
+     *
+     * @throws ServiceException if an op submitted earlier failed
+     * @throws Exception if the op is replayed by this thread and fails
+     */
+    public void submit(RedoableOp op) throws Exception {
+        int mboxId = op.getMailboxId();
+        if (executor == null || mboxId == RedoableOp.MAILBOX_ID_ALL || mboxId == RedoableOp.UNKNOWN_ID) {
+            synchronized (this) {
+                while (pending > 0 && error == null) {
+                    wait();
+                }
+                checkError();
+            }
+            play(op);
+            return;
+        }
+
+        synchronized (this) {
+            while (pending >= maxPending && error == null) {
+                wait();
+            }
+            checkError();
+            MailboxState mbox = mailboxes.get(mboxId);
+            if (mbox == null) {
+                mbox = new MailboxState(mboxId);
+                mailboxes.put(mboxId, mbox);
+            }
+            Node node = new Node(op, mbox);
+            if (node.changed == null) {
+                for (Node active : mbox.active) {
+                    dependOn(node, active);
+                }
+                mbox.writers.clear();
+                mbox.readers.clear();
+                mbox.barrier = node;
+            } else {
+                dependOn(node, mbox.barrier);
+                for (int id : node.changed) {
+                    dependOn(node, mbox.writers.get(id));
+                    Set<Node> readers = mbox.readers.get(id);
+                    if (readers != null) {
+                        for (Node reader : readers) {
+                            dependOn(node, reader);
+                        }
+                    }
+                }
+                for (int id : node.referenced) {
+                    dependOn(node, mbox.writers.get(id));
+                }
+                for (int id : node.changed) {
+                    mbox.writers.put(id, node);
+                    mbox.readers.remove(id);
+                }
+                for (int id : node.referenced) {
+                    if (mbox.writers.get(id) != node) {
+                        Set<Node> readers = mbox.readers.get(id);
+                        if (readers == null) {
+                            readers = new HashSet<Node>();
+                            mbox.readers.put(id, readers);
+                        }
+                        readers.add(node);
+                    }
+                }
+            }
+            mbox.active.add(node);
+            pending++;
+            if (node.waitingFor == 0) {
+                execute(node);
+            }
+        }
+    }
+
+    /**
+     * Throws the error of the first op that failed, if any.
+     */
+    public synchronized void checkError() throws ServiceException {
+        if (error != null) {
+            throw ServiceException.FAILURE("Redo playback stopped due to an earlier error: " + error.getMessage(),
+                    error);
+        }
+    }
+
+    /**
+     * Waits for all submitted ops to be done, and stops the replay threads.
+     */
+    public void finish() {
+        synchronized (this) {
+            while (pending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    private void play(RedoableOp op) throws Exception {
+        try {
+            player.play(op);
+        } catch (Exception e) {
+            synchronized (this) {
+                if (error == null) {
+                    error = e;
+                }
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private static void dependOn(Node node, Node dep) {
+        if (dep == null || dep == node || dep.done) {
+            return;
+        }
+        // all the dependencies of a node are added in a row, so a duplicate would be the last one
+        if (!dep.dependents.isEmpty() && dep.dependents.get(dep.dependents.size() - 1) == node) {
+            return;
+        }
+        dep.dependents.add(node);
+        node.waitingFor++;
+    }
+
+    private void execute(final Node node) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    boolean skip;
+                    synchronized (ReplayScheduler.this) {
+                        skip = error != null;
+                    }
+                    if (!skip) {
+                        player.play(node.op);
+                    }
+                } catch (Throwable t) {
+                    synchronized (ReplayScheduler.this) {
+                        if (error == null) {
+                            error = t;
+                        }
+                    }
+                } finally {
+                    done(node);
+                }
+            }
+        });
+    }
+
+    private synchronized void done(Node node) {
+        node.done = true;
+        pending--;
+        MailboxState mbox = node.mbox;
+        mbox.active.remove(node);
+        if (node.changed == null) {
+            if (mbox.barrier == node) {
+                mbox.barrier = null;
+            }
+        } else {
+            for (int id : node.changed) {
+                if (mbox.writers.get(id) == node) {
+                    mbox.writers.remove(id);
+                }
+            }
+            for (int id : node.referenced) {
+                Set<Node> readers = mbox.readers.get(id);
+                if (readers != null && readers.remove(node) && readers.isEmpty()) {
+                    mbox.readers.remove(id);
+                }
+            }
+        }
+        if (mbox.active.isEmpty()) {
+            mailboxes.remove(mbox.id);
+        }
+        for (Node dependent : node.dependents) {
+            if (--dependent.waitingFor == 0) {
+                execute(dependent);
+            }
+        }
+        notifyAll();
+    }
+}
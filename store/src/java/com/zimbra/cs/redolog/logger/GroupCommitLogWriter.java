@@ -0,0 +1,578 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.zimbra.common.localconfig.DebugConfig;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.Constants;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.redolog.CommitId;
+import com.zimbra.cs.redolog.RedoCommitCallback;
+import com.zimbra.cs.redolog.RedoConfig;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.RolloverManager;
+import com.zimbra.cs.redolog.op.CommitTxn;
+import com.zimbra.cs.redolog.op.RedoableOp;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * File-based {@link LogWriter} that commits in groups.
+ * <p>
+ * Threads calling {@link #log} copy their entry into a slot of a pre-allocated ring buffer, in
+ * the order in which they claimed the slot, without taking a lock.  A single flusher thread
+ * writes each run of consecutive slots with one gathering write and one fsync, then wakes the
+ * synchronous callers whose entries were in the batch.  While one fsync is in progress the next
+ * batch builds up behind it, so the cost of an fsync is shared by however many threads are
+ * committing at the time, without the fixed sleep that {@link FileLogWriter} uses.
+ * <p>
+ * Commit callbacks are made from the flusher thread, in log order, after the fsync that covers
+ * the commit record.  The file format is the same as {@link FileLogWriter}'s.
+ */
+public class GroupCommitLogWriter implements LogWriter {
+
+    private static String sServerId;
+    static {
+        try {
+            sServerId = Provisioning.getInstance().getLocalServer().getId();
+        } catch (ServiceException e) {
+            ZimbraLog.redolog.error("Unable to get local server ID", e);
+            sServerId = "unknown";
+        }
+    }
+
+    // most entries written by a single gathering write
+    private static final int MAX_BATCH = 256;
+    // safety net for lost wakeups; waiters are normally unparked explicitly
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // how long a producer backs off when the ring is full
+    private static final long RING_FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    protected RedoLogManager mRedoLogMgr;
+
+    private final FileHeader mHeader;
+    private long mFirstOpTstamp;    // flusher thread only while open
+    private long mLastOpTstamp;     // flusher thread only while open
+    private volatile long mCreateTime;
+
+    private File mFile;
+    private RandomAccessFile mRAF;
+    private FileChannel mChannel;
+    private final AtomicLong mFileSize = new AtomicLong();
+    private volatile long mLastLogTime;
+
+    private final boolean mFsyncDisabled;
+
+    private final Slot[] mRing;
+    private final int mMask;
+
+    private final AtomicLong mClaimSeq = new AtomicLong();  // last slot sequence handed out
+    private volatile long mWrittenSeq;                      // last sequence written to the file
+    private volatile long mDurableSeq;                      // last sequence fsynced and released
+
+    // Threads inside the claim/publish window of log().  close() waits for these to drain.
+    private final AtomicInteger mActiveProducers = new AtomicInteger();
+    // Threads in flush() waiting for everything logged so far to be on disk.
+    private final Queue<Thread> mFlushWaiters = new ConcurrentLinkedQueue<Thread>();
+
+    private volatile boolean mOpen;
+    private volatile IOException mError;
+    private volatile Flusher mFlusher;
+
+    // for gathering some stats; nonessential for functionality
+    private long mLogCount;         // how many entries were written
+    private long mFsyncCount;       // how many times fsync was called
+
+    private boolean mNoStat;
+
+    public GroupCommitLogWriter(RedoLogManager redoLogMgr, File logfile) {
+        this(redoLogMgr, logfile, LC.zimbra_redolog_group_commit_ring_size.intValue());
+    }
+
+    public GroupCommitLogWriter(RedoLogManager redoLogMgr, File logfile, int ringSize) {
+        mRedoLogMgr = redoLogMgr;
+
+        mHeader = new FileHeader(sServerId);
+        mFile = logfile;
+        mFileSize.set(mFile.length());
+        mLastLogTime = mFile.lastModified();
+
+        mFsyncDisabled = DebugConfig.disableRedoLogFsync;
+
+        int size = Integer.highestOneBit(Math.max(ringSize, 2) - 1) << 1;
+        mRing = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            mRing[i] = new Slot();
+        }
+        mMask = size - 1;
+    }
+
+    /**
+     * One entry in the ring.  The plain fields are written by the producer before it publishes
+     * the slot by setting {@link #seq}, and cleared by the flusher before it releases the slot by
+     * advancing {@link GroupCommitLogWriter#mDurableSeq}.
+     */
+    private static final class Slot {
+        volatile long seq;
+        byte[] data;
+        long tstamp;
+        Notif notif;
+        Thread waiter;
+    }
+
+    @Override public synchronized long getSequence() {
+        return mHeader.getSequence();
+    }
+
+    @Override public long getSize() {
+        return mFileSize.get();
+    }
+
+    @Override public long getCreateTime() {
+        return mCreateTime;
+    }
+
+    @Override public long getLastLogTime() {
+        return mLastLogTime;
+    }
+
+    @Override public boolean isEmpty() throws IOException {
+        return getSize() <= FileHeader.HEADER_LEN;
+    }
+
+    @Override public boolean exists() {
+        return mFile.exists();
+    }
+
+    @Override public String getAbsolutePath() {
+        return mFile.getAbsolutePath();
+    }
+
+    @Override public boolean renameTo(File dest) {
+        return mFile.renameTo(dest);
+    }
+
+    @Override public boolean delete() {
+        return mFile.delete();
+    }
+
+    @Override public synchronized void open() throws IOException {
+        if (mRAF != null) return;  // already open
+
+        mRAF = new RandomAccessFile(mFile, "rw");
+
+        if (mRAF.length() >= FileHeader.HEADER_LEN) {
+            mHeader.read(mRAF);
+            mCreateTime = mHeader.getCreateTime();
+            if (mCreateTime == 0) {
+                mCreateTime = System.currentTimeMillis();
+                mHeader.setCreateTime(mCreateTime);
+            }
+            mFirstOpTstamp = mHeader.getFirstOpTstamp();
+            mLastOpTstamp = mHeader.getLastOpTstamp();
+        } else {
+            mCreateTime = System.currentTimeMillis();
+            mHeader.setCreateTime(mCreateTime);
+            mHeader.setSequence(mRedoLogMgr.getCurrentLogSequence());
+        }
+        mHeader.setOpen(true);
+        mHeader.write(mRAF);
+
+        // go to the end of file, so we can append
+        long len = mRAF.length();
+        mRAF.seek(len);
+        mChannel = mRAF.getChannel();
+        mFileSize.set(len);
+
+        // Sequence numbers start over with each open, so forget the previous ones.
+        for (Slot slot : mRing) {
+            slot.seq = 0;
+        }
+        mClaimSeq.set(0);
+        mWrittenSeq = mDurableSeq = 0;
+        mLogCount = mFsyncCount = 0;
+        mError = null;
+
+        mFlusher = new Flusher();
+        mFlusher.start();
+        mOpen = true;
+    }
+
+    @Override public synchronized void close() throws IOException {
+        if (mRAF == null) return;
+
+        // Stop taking new entries, let the ones in flight get published, then let the
+        // flusher drain the ring before it exits.
+        mOpen = false;
+        while (mActiveProducers.get() > 0) {
+            Thread.yield();
+        }
+        mFlusher.stopThread();
+        mFlusher = null;
+
+        if (mLastOpTstamp != 0)
+            mHeader.setLastOpTstamp(mLastOpTstamp);
+        mHeader.setOpen(false);
+        mHeader.setFileSize(mRAF.length());
+        mHeader.write(mRAF);
+
+        mChannel.force(true);
+        mRAF.close();
+        mRAF = null;
+        mChannel = null;
+
+        // Write some stats, so we can see how many entries each fsync covered.
+        if (!mNoStat && mLogCount > 0 && ZimbraLog.redolog.isDebugEnabled())
+            ZimbraLog.redolog.debug("Logged: " + mLogCount + " items, " + mFsyncCount + " fsyncs");
+
+        IOException error = mError;
+        if (error != null)
+            throw new IOException("Error while writing " + mFile.getAbsolutePath(), error);
+    }
+
+    /**
+     * Queues the entry for the flusher thread.  If <tt>synchronous</tt> is true, waits until the
+     * entry has been fsynced; otherwise returns as soon as it has been queued.
+     */
+    @Override public void log(RedoableOp op, InputStream data, boolean synchronous) throws IOException {
+        if (!mOpen)
+            throw new IOException("Redolog file closed");
+
+        byte[] bytes = ByteUtil.getContent(data, -1);
+
+        Notif notif = null;
+        if (op instanceof CommitTxn) {
+            CommitTxn cmt = (CommitTxn) op;
+            RedoCommitCallback cb = cmt.getCallback();
+            if (cb != null) {
+                long redoSeq = mRedoLogMgr.getRolloverManager().getCurrentSequence();
+                // The callback is made only after the commit record has been fsynced.
+                notif = new Notif(cb, new CommitId(redoSeq, cmt));
+            }
+        }
+
+        long seq;
+        Flusher flusher;
+        mActiveProducers.incrementAndGet();
+        try {
+            flusher = mFlusher;
+            if (!mOpen || flusher == null)
+                throw new IOException("Redolog file closed");
+            checkError();
+
+            seq = mClaimSeq.incrementAndGet();
+            Slot slot = mRing[(int) seq & mMask];
+            // Wait for the flusher to release this slot from its previous lap around the ring.
+            while (seq - mRing.length > mDurableSeq) {
+                checkError();
+                LockSupport.parkNanos(this, RING_FULL_PARK_NANOS);
+            }
+            slot.data = bytes;
+            slot.tstamp = op.getTimestamp();
+            slot.notif = notif;
+            slot.waiter = synchronous ? Thread.currentThread() : null;
+            mFileSize.addAndGet(bytes.length);
+            mLastLogTime = System.currentTimeMillis();
+            slot.seq = seq;  // publish
+        } finally {
+            mActiveProducers.decrementAndGet();
+        }
+        flusher.wakeUp();
+
+        if (synchronous) {
+            while (mDurableSeq < seq) {
+                checkError();
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Waits until everything logged so far has been written and fsynced.
+     */
+    @Override public void flush() throws IOException {
+        long seq = mClaimSeq.get();
+        if (mDurableSeq >= seq)
+            return;
+
+        Thread self = Thread.currentThread();
+        mFlushWaiters.add(self);
+        try {
+            Flusher flusher = mFlusher;
+            if (flusher != null)
+                flusher.wakeUp();
+            while (mDurableSeq < seq) {
+                checkError();
+                if (mFlusher == null)
+                    throw new IOException("Redolog file closed");
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        } finally {
+            mFlushWaiters.remove(self);
+        }
+    }
+
+    private void checkError() throws IOException {
+        IOException error = mError;
+        if (error != null)
+            throw new IOException("Error while writing " + mFile.getAbsolutePath(), error);
+    }
+
+    public void noStat(boolean b) {
+        mNoStat = b;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public synchronized File rollover(LinkedHashMap /*<TxnId, RedoableOp>*/ activeOps)
+    throws IOException {
+        RolloverManager romgr = mRedoLogMgr.getRolloverManager();
+
+        long lastSeq = getSequence();
+
+        // Close current log, so it's impossible for its content to change.
+        noStat(true);
+        close();
+
+        romgr.incrementSequence();
+
+        String currentPath = mFile.getAbsolutePath();
+
+        // Open a temporary logger.
+        File tempLogfile = new File(mFile.getParentFile(), romgr.getTempFilename(lastSeq + 1));
+        GroupCommitLogWriter tempLogger = new GroupCommitLogWriter(mRedoLogMgr, tempLogfile, mRing.length);
+        tempLogger.open();
+        tempLogger.noStat(true);
+
+        // Rewrite change entries for all active operations, maintaining
+        // their order of occurrence.  (LinkedHashMap ensures ordering.)
+        for (Iterator<Map.Entry> it = activeOps.entrySet().iterator(); it.hasNext(); ) {
+            RedoableOp op = (RedoableOp) it.next().getValue();
+            tempLogger.log(op, op.getInputStream(), false);
+        }
+        tempLogger.close();
+
+        // Rename the current log to rolled-over name.
+        File rolloverFile = romgr.getRolloverFile(lastSeq);
+        if (RedoConfig.redoLogDeleteOnRollover()) {
+            // Delete the current log.  We don't need to hold on to the
+            // indexing-only log files after rollover.
+            if (!mFile.delete())
+                throw new IOException("Unable to delete current redo log " + mFile.getAbsolutePath());
+        } else {
+            File destDir = rolloverFile.getParentFile();
+            if (destDir != null && !destDir.exists())
+                destDir.mkdirs();
+            if (!mFile.renameTo(rolloverFile))
+                throw new IOException("Unable to rename current redo log to " + rolloverFile.getAbsolutePath());
+        }
+
+        // Rename the temporary logger to current logfile name.
+        String tempPath = tempLogfile.getAbsolutePath();
+        mFile = new File(currentPath);
+        if (!tempLogfile.renameTo(mFile))
+            throw new IOException("Unable to rename " + tempPath + " to " + currentPath);
+
+        // Reopen current log.
+        open();
+        noStat(false);
+
+        return rolloverFile;
+    }
+
+    /**
+     * Writes and fsyncs one batch of published slots, then makes commit callbacks and releases
+     * the slots and their waiters.  Called only from the flusher thread.
+     */
+    private void writeBatch(Slot[] batch, ByteBuffer[] bufs, Thread[] waiters, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Slot slot = batch[i];
+            bufs[i] = ByteBuffer.wrap(slot.data);
+            // Record first transaction in header.
+            mLastOpTstamp = Math.max(slot.tstamp, mLastOpTstamp);
+            if (mFirstOpTstamp == 0) {
+                mFirstOpTstamp = slot.tstamp;
+                mHeader.setFirstOpTstamp(mFirstOpTstamp);
+                mHeader.setLastOpTstamp(mLastOpTstamp);
+                long pos = mRAF.getFilePointer();
+                mHeader.write(mRAF);
+                mRAF.seek(pos);
+            }
+        }
+
+        // The channel skips buffers that are already drained, so keep going until the last one is.
+        ByteBuffer last = bufs[count - 1];
+        do {
+            mChannel.write(bufs, 0, count);
+        } while (last.hasRemaining());
+        mWrittenSeq = batch[count - 1].seq;
+
+        if (!mFsyncDisabled) {
+            mChannel.force(false);
+            mFsyncCount++;
+        }
+        mLogCount += count;
+
+        for (int i = 0; i < count; i++) {
+            Slot slot = batch[i];
+            Notif notif = slot.notif;
+            if (notif != null) {
+                notif.callback();
+            }
+            waiters[i] = slot.waiter;
+            slot.data = null;
+            slot.notif = null;
+            slot.waiter = null;
+            batch[i] = null;
+            bufs[i] = null;
+        }
+        mDurableSeq = mWrittenSeq;
+
+        for (int i = 0; i < count; i++) {
+            if (waiters[i] != null) {
+                LockSupport.unpark(waiters[i]);
+                waiters[i] = null;
+            }
+        }
+        for (Thread waiter : mFlushWaiters) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    // Wakes everyone who might be waiting on the flusher, after it has given up.
+    private void releaseAllWaiters() {
+        for (Slot slot : mRing) {
+            Thread waiter = slot.waiter;
+            if (waiter != null)
+                LockSupport.unpark(waiter);
+        }
+        for (Thread waiter : mFlushWaiters) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+
+    // Single thread that writes and fsyncs everything producers publish to the ring.
+    private class Flusher extends Thread {
+        private volatile boolean mRunning = true;
+        private volatile boolean mParked;
+
+        Flusher() {
+            super("GroupCommitLogWriter.Flusher-" + System.currentTimeMillis());
+        }
+
+        void wakeUp() {
+            if (mParked)
+                LockSupport.unpark(this);
+        }
+
+        @Override public void run() {
+            ZimbraLog.redolog.info("Starting group commit flusher for %s", mFile.getAbsolutePath());
+            Slot[] batch = new Slot[MAX_BATCH];
+            ByteBuffer[] bufs = new ByteBuffer[MAX_BATCH];
+            Thread[] waiters = new Thread[MAX_BATCH];
+            while (true) {
+                long next = mWrittenSeq + 1;
+                int count = 0;
+                while (count < MAX_BATCH) {
+                    Slot slot = mRing[(int) (next + count) & mMask];
+                    if (slot.seq != next + count)
+                        break;
+                    batch[count++] = slot;
+                }
+
+                if (count == 0) {
+                    if (!mRunning)
+                        break;
+                    // Announce that we're about to park, then look once more so that a producer
+                    // publishing right now either sees the flag or is seen by us.
+                    mParked = true;
+                    if (mRing[(int) next & mMask].seq != next && mRunning)
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    mParked = false;
+                    continue;
+                }
+
+                try {
+                    writeBatch(batch, bufs, waiters, count);
+                } catch (IOException e) {
+                    mError = e;
+                    releaseAllWaiters();
+                    String message = "Error while writing " + mFile.getAbsolutePath() + "; Aborting.";
+                    Zimbra.halt(message, e);
+                    break;
+                }
+            }
+            ZimbraLog.redolog.info("group commit flusher exiting");
+        }
+
+        // Stop the flusher once everything published has been written.  Wait until the thread really stops.
+        void stopThread() {
+            mRunning = false;
+            LockSupport.unpark(this);
+            try {
+                while (isAlive()) {
+                    ZimbraLog.redolog.info("waiting for %s to finish.", getName());
+                    join(Constants.MILLIS_PER_MINUTE);
+                }
+                ZimbraLog.redolog.info("%s finished", getName());
+            } catch (InterruptedException e) {
+                ZimbraLog.redolog.warn("InterruptedException while stopping flusher", e);
+            }
+        }
+    }
+
+
+    // Commit callback handling
+
+    private static class Notif {
+        private final RedoCommitCallback mCallback;
+        private final CommitId mCommitId;
+
+        public Notif(RedoCommitCallback callback, CommitId cid) {
+            mCallback = callback;
+            mCommitId = cid;
+        }
+
+        void callback() {
+            try {
+                mCallback.callback(mCommitId);
+            } catch (OutOfMemoryError e) {
+                Zimbra.halt("out of memory", e);
+            } catch (Throwable t) {
+                ZimbraLog.misc.error("Error while making commit callback", t);
+            }
+        }
+    }
+}
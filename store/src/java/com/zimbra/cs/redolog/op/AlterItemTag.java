@@ -118,6 +118,13 @@ public class AlterItemTag extends RedoableOp {
         }
     }
 
+    @Override
+    public int[] getChangedItemIds() {
+        // a tag rather than a flag may be created on the way
+        boolean flag = mTagName != null ? mTagName.startsWith("\\") : mTagId < 0;
+        return flag && type == MailItem.Type.MESSAGE ? mIds : null;
+    }
+
     @Override
     public void redo() throws Exception {
         Mailbox mbox = MailboxManager.getInstance().getMailboxById(getMailboxId());
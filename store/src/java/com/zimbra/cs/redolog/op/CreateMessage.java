@@ -282,6 +282,34 @@ implements CreateCalendarItemPlayer, CreateCalendarItemRecorder {
         return mData;
     }
 
+    @Override
+    public int[] getChangedItemIds() {
+        // drafts, documents and chats may change existing items; invites and new tags create other items
+        if (getOperation() != MailboxOperation.CreateMessage || mCalendarItemId != UNKNOWN_ID ||
+                (mTags != null && mTags.length > 0) || !StringUtil.isNullOrEmpty(mTagIds)) {
+            return null;
+        }
+        List<Integer> ids = new ArrayList<Integer>(3 + mMergedConvIds.size());
+        ids.add(mMsgId);
+        if (mConvId > 0) {
+            ids.add(mConvId);
+        }
+        if (mConvFirstMsgId > 0) {
+            ids.add(mConvFirstMsgId);
+        }
+        ids.addAll(mMergedConvIds);
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public int[] getReferencedItemIds() {
+        return new int[] { mFolderId };
+    }
+
     @Override protected String getPrintableData() {
         StringBuilder sb = new StringBuilder("id=").append(mMsgId);
         sb.append(", rcpt=").append(mRcptEmail);
@@ -103,6 +103,12 @@ public class DeleteItem extends RedoableOp {
         }
     }
 
+    @Override
+    public int[] getChangedItemIds() {
+        // deleting a conversation or a folder deletes items it doesn't list
+        return type == MailItem.Type.MESSAGE ? mIds : null;
+    }
+
     @Override
     public void redo() throws Exception {
         int mboxId = getMailboxId();
@@ -120,6 +120,17 @@ public class MoveItem extends RedoableOp {
         }
     }
 
+    @Override
+    public int[] getChangedItemIds() {
+        // moving a conversation or a folder moves items it doesn't list
+        return type == MailItem.Type.MESSAGE ? mIds : null;
+    }
+
+    @Override
+    public int[] getReferencedItemIds() {
+        return new int[] { mDestId };
+    }
+
     @Override
     public void redo() throws Exception {
         Mailbox mbox = MailboxManager.getInstance().getMailboxById(getMailboxId());
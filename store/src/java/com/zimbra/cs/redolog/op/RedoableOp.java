@@ -217,6 +217,29 @@ public abstract class RedoableOp {
         return false;
     }
 
+    protected static final int[] NO_ITEM_IDS = new int[0];
+
+    /**
+     * Returns the ids of the items the op creates, changes or deletes, or <tt>null</tt> if it may change any item of
+     * its mailbox.  Replay runs ops of the same mailbox that change none of the same items in parallel; an op that
+     * returns <tt>null</tt> is replayed after all the ops of its mailbox logged before it, and before all those
+     * logged after it.
+     * @return
+     * @see com.zimbra.cs.redolog.ReplayScheduler
+     */
+    public int[] getChangedItemIds() {
+        return null;
+    }
+
+    /**
+     * Returns the ids of the items the op needs as they are but doesn't change, e.g. the folder it moves items to.
+     * Only consulted when {@link #getChangedItemIds()} isn't <tt>null</tt>.
+     * @return
+     */
+    public int[] getReferencedItemIds() {
+        return NO_ITEM_IDS;
+    }
+
     public long getTimestamp() {
         return mTimestamp;
     }
@@ -117,6 +117,13 @@ public class SetItemTags extends RedoableOp {
         }
     }
 
+    @Override
+    public int[] getChangedItemIds() {
+        // tags rather than just flags may be created on the way
+        boolean flagsOnly = (mTags == null || mTags.length == 0) && mTagBitmask == 0;
+        return flagsOnly && type == MailItem.Type.MESSAGE ? mIds : null;
+    }
+
     @Override
     public void redo() throws Exception {
         Mailbox mbox = MailboxManager.getInstance().getMailboxById(getMailboxId());
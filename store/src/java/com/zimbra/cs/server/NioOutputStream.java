@@ -17,17 +17,26 @@
 
 package com.zimbra.cs.server;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.DefaultFileRegion;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.ssl.SslFilter;
 
 import com.google.common.base.Charsets;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.security.sasl.SaslFilter;
+import com.zimbra.cs.util.IOUtil;
 
-public final class NioOutputStream extends OutputStream {
+public final class NioOutputStream extends OutputStream implements ZeroCopyOutput {
     private final IoSession session;
     private IoBuffer buf;
     private int maxScheduledBytes;
@@ -88,6 +97,45 @@ public final class NioOutputStream extends OutputStream {
         }
     }
 
+    @Override
+    public boolean isTransferSupported() {
+        IoFilterChain chain = session.getFilterChain();
+        return !chain.contains(SslFilter.class) && !chain.contains(SaslFilter.class);
+    }
+
+    /**
+     * Writes the file region to the session, and waits for it to be sent so that no more than one file per session
+     * is held open.
+     */
+    @Override
+    public synchronized void transferFrom(File file, long position, long count) throws IOException {
+        flush();
+        final FileChannel channel = new FileInputStream(file).getChannel();
+        WriteFuture future;
+        try {
+            future = session.write(new DefaultFileRegion(channel, position, count));
+        } catch (RuntimeException e) {
+            IOUtil.closeQuietly(channel);
+            throw e;
+        }
+        future.addListener(new IoFutureListener<WriteFuture>() {
+            @Override
+            public void operationComplete(WriteFuture written) {
+                IOUtil.closeQuietly(channel);
+            }
+        });
+        if (maxWritePause > 0) {
+            if (!future.awaitUninterruptibly(maxWritePause)) {
+                throw new IOException("Write stalled, client may have gone away");
+            }
+        } else {
+            future.awaitUninterruptibly();
+        }
+        if (!future.isWritten()) {
+            throw new IOException("failed to send " + file, future.getException());
+        }
+    }
+
     private synchronized void writeToSession(Object output) throws IOException {
         long writeBytes = session.getScheduledWriteBytes();
         WriteFuture future = session.write(output);
@@ -0,0 +1,67 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.server;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Buffered output stream of a {@link TcpServer} connection, which sends file regions with
+ * {@link FileChannel#transferTo} when the socket has a channel.
+ * <p>
+ * Sockets accepted by a plain {@link java.net.ServerSocket}, as the TCP servers bind by default, have none; their
+ * streams don't support transfers, and content is copied through the buffer as with any other stream.
+ */
+public final class TcpSocketOutputStream extends BufferedOutputStream implements ZeroCopyOutput {
+    private final SocketChannel channel;
+
+    public TcpSocketOutputStream(Socket socket) throws IOException {
+        super(socket.getOutputStream());
+        this.channel = socket.getChannel();
+    }
+
+    @Override
+    public boolean isTransferSupported() {
+        // transferTo() may write nothing at all to a non-blocking channel
+        return channel != null && channel.isBlocking();
+    }
+
+    @Override
+    public synchronized void transferFrom(File file, long position, long count) throws IOException {
+        flush();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel fc = in.getChannel();
+            long end = position + count;
+            while (position < end) {
+                long sent = fc.transferTo(position, end - position, channel);
+                if (sent <= 0 && position >= fc.size()) {
+                    throw new EOFException("file " + file + " ended at " + position + " of " + end + " bytes");
+                }
+                position += sent;
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
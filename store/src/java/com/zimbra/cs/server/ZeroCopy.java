@@ -0,0 +1,82 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.stats.Counter;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.store.Blob;
+import com.zimbra.cs.store.MailboxBlob;
+import com.zimbra.cs.store.file.VolumeMailboxBlob;
+
+/**
+ * Sends message content straight from blob files to connections with {@link ZeroCopyOutput} streams.
+ * <p>
+ * Only messages qualify, as the blobs of other items (e.g. the attachment of a contact, whose IMAP content is a
+ * vCard) aren't their content; and only uncompressed blobs of the file store, as their files hold the message content
+ * as is.  Compressed blobs, blobs of other stores, small messages (below {@code zero_copy_transfer_min_size}, for which
+ * opening the file costs more than copying it) and encrypted connections are streamed as before.
+ */
+public final class ZeroCopy {
+
+    private ZeroCopy() {
+    }
+
+    /**
+     * Returns the blob file holding the content of the message, or {@code null} if it can't be sent to the given
+     * stream without a copy.
+     */
+    public static File getFile(Message item, OutputStream os) {
+        if (!LC.zero_copy_transfer_enabled.booleanValue() || !(os instanceof ZeroCopyOutput) ||
+                item.getDigest() == null || item.getSize() < LC.zero_copy_transfer_min_size.longValue() ||
+                !((ZeroCopyOutput) os).isTransferSupported()) {
+            return null;
+        }
+        try {
+            MailboxBlob mblob = item.getBlob();
+            if (!(mblob instanceof VolumeMailboxBlob)) {
+                return null;
+            }
+            Blob blob = mblob.getLocalBlob();
+            File file = blob == null ? null : blob.getFile();
+            if (file == null || file.length() != item.getSize() || blob.isCompressed()) {
+                return null;
+            }
+            return file;
+        } catch (ServiceException | IOException e) {
+            // the caller streams the content instead, and reports the error if it runs into it again
+            ZimbraLog.misc.debug("can't send blob of item %d without a copy", item.getId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Sends {@code count} bytes of the file starting at {@code position} to a stream {@link #getFile} returned a file
+     * for, and adds them to the counter.
+     */
+    public static void transfer(OutputStream os, File file, long position, long count, Counter counter)
+            throws IOException {
+        ((ZeroCopyOutput) os).transferFrom(file, position, count);
+        counter.increment(count);
+    }
+}
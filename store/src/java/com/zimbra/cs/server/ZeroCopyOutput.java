@@ -0,0 +1,41 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.server;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An output stream of a connection that can send a region of a file straight from the file to the connection, without
+ * copying it through the heap.
+ *
+ * @see ZeroCopy
+ */
+public interface ZeroCopyOutput {
+
+    /**
+     * Returns {@code true} if {@link #transferFrom} can be used on the connection as it is now, i.e. if nothing needs
+     * to process the bytes on their way out, such as TLS or a SASL security layer.
+     */
+    boolean isTransferSupported();
+
+    /**
+     * Sends {@code count} bytes of the file starting at {@code position}, after whatever was written to the stream
+     * before.
+     */
+    void transferFrom(File file, long position, long count) throws IOException;
+}
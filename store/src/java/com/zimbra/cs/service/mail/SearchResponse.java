@@ -197,6 +197,10 @@ final class SearchResponse {
             if (includeMailbox) {
                 el.addAttribute(MailConstants.A_ID, new ItemId(hit.getAcctIdStr(), hit.getItemId()).toString());
             }
+            if (zsc.isResponseOnlyMarshaled()) {
+                // the hit is complete; keep only its serialized form rather than the whole subtree
+                element.marshalChild(el);
+            }
         }
     }
 
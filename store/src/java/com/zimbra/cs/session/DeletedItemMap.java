@@ -0,0 +1,282 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.session;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.session.PendingModifications.Change;
+import com.zimbra.cs.session.PendingModifications.ModificationKey;
+
+/**
+ * The deleted items of a {@link PendingModifications}, stored in columns of primitive arrays rather than as a
+ * {@link ModificationKey} and a {@link Change} per item, so that emptying a large folder doesn't leave millions of
+ * objects behind on the commit path.
+ * <p>
+ * A deletion recorded by type and folder id takes a row.  The keys and changes handed out by {@link #get} and the
+ * iterators are built on demand and are copies: changing them doesn't change the map, so callers {@link #put} them
+ * back.  Changes that carry an item snapshot are kept as they are.  Not thread safe, like the maps it replaces.
+ */
+final class DeletedItemMap extends AbstractMap<ModificationKey, Change> {
+
+    private static final MailItem.Type[] TYPES = MailItem.Type.values();
+    private static final byte REMOVED = -1;
+
+    private String[] accounts = new String[16];
+    private int[] ids = new int[16];
+    private int[] folders = new int[16];
+    private byte[] types = new byte[16];
+    /** Rows in use, including removed ones. */
+    private int rows;
+    private int liveRows;
+    /** Open addressed on the item id; each slot holds a row + 1, or 0 if empty.  Removed rows keep their slot. */
+    private int[] slots = new int[32];
+    /** Changes that don't fit in a row. */
+    private Map<ModificationKey, Change> others;
+
+    /**
+     * Records the deletion of an item without an item snapshot, unless it is already recorded; this is what
+     * {@link PendingModifications#delete} does when nothing cancels the deletion out.
+     *
+     * @param folderId the folder the item was deleted from, or -1 if not known/appropriate
+     */
+    void record(String accountId, int id, MailItem.Type type, int folderId) {
+        if (find(accountId, id) >= 0) {
+            return;
+        }
+        if (others != null && !others.isEmpty() && others.containsKey(new ModificationKey(accountId, id))) {
+            return;
+        }
+        append(accountId, id, type, folderId);
+    }
+
+    private static boolean fitsInRow(Change chg) {
+        return chg.what instanceof MailItem.Type && chg.why == Change.NONE && chg.preModifyObj == null;
+    }
+
+    private static int hash(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int find(String accountId, int id) {
+        int mask = slots.length - 1;
+        for (int i = hash(id, mask); slots[i] != 0; i = (i + 1) & mask) {
+            int row = slots[i] - 1;
+            if (ids[row] == id && types[row] != REMOVED && accounts[row].equals(accountId)) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private int find(Object key) {
+        if (!(key instanceof ModificationKey)) {
+            return -1;
+        }
+        ModificationKey mkey = (ModificationKey) key;
+        if (mkey.getAccountId() == null || mkey.getItemId() == null) {
+            return -1;
+        }
+        return find(mkey.getAccountId(), mkey.getItemId());
+    }
+
+    private void append(String accountId, int id, MailItem.Type type, int folderId) {
+        if (rows == ids.length) {
+            resize(liveRows < rows / 2 ? ids.length : ids.length * 2);
+        }
+        accounts[rows] = accountId;
+        ids[rows] = id;
+        types[rows] = (byte) type.ordinal();
+        folders[rows] = folderId;
+        rows++;
+        liveRows++;
+        int mask = slots.length - 1;
+        int i = hash(id, mask);
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = rows;
+    }
+
+    /**
+     * Drops the removed rows and rebuilds the slots for the given number of rows.
+     */
+    private void resize(int capacity) {
+        int live = 0;
+        for (int row = 0; row < rows; row++) {
+            if (types[row] != REMOVED) {
+                accounts[live] = accounts[row];
+                ids[live] = ids[row];
+                types[live] = types[row];
+                folders[live] = folders[row];
+                live++;
+            }
+        }
+        Arrays.fill(accounts, live, rows, null);
+        rows = live;
+        if (capacity != ids.length) {
+            accounts = Arrays.copyOf(accounts, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            types = Arrays.copyOf(types, capacity);
+            folders = Arrays.copyOf(folders, capacity);
+            slots = new int[capacity * 2];
+        } else {
+            Arrays.fill(slots, 0);
+        }
+        int mask = slots.length - 1;
+        for (int row = 0; row < rows; row++) {
+            int i = hash(ids[row], mask);
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = row + 1;
+        }
+    }
+
+    private void removeRow(int row) {
+        types[row] = REMOVED;
+        accounts[row] = null;
+        liveRows--;
+    }
+
+    private Change change(int row) {
+        Change chg = new Change(TYPES[types[row]], Change.NONE, null);
+        chg.setFolderId(folders[row]);
+        return chg;
+    }
+
+    @Override
+    public int size() {
+        return liveRows + (others == null ? 0 : others.size());
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) >= 0 || (others != null && others.containsKey(key));
+    }
+
+    @Override
+    public Change get(Object key) {
+        int row = find(key);
+        if (row >= 0) {
+            return change(row);
+        }
+        return others == null ? null : others.get(key);
+    }
+
+    @Override
+    public Change put(ModificationKey key, Change chg) {
+        Change previous = remove(key);
+        if (fitsInRow(chg) && key.getAccountId() != null && key.getItemId() != null) {
+            append(key.getAccountId(), key.getItemId(), (MailItem.Type) chg.what, chg.getFolderId());
+        } else {
+            if (others == null) {
+                others = new HashMap<ModificationKey, Change>();
+            }
+            others.put(key, chg);
+        }
+        return previous;
+    }
+
+    @Override
+    public Change remove(Object key) {
+        int row = find(key);
+        if (row >= 0) {
+            Change previous = change(row);
+            removeRow(row);
+            return previous;
+        }
+        return others == null ? null : others.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(accounts, 0, rows, null);
+        Arrays.fill(slots, 0);
+        rows = 0;
+        liveRows = 0;
+        others = null;
+    }
+
+    @Override
+    public Set<Map.Entry<ModificationKey, Change>> entrySet() {
+        return new AbstractSet<Map.Entry<ModificationKey, Change>>() {
+            @Override
+            public Iterator<Map.Entry<ModificationKey, Change>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return DeletedItemMap.this.size();
+            }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Map.Entry<ModificationKey, Change>> {
+        private int next = 0;
+        private int last = -1;
+        private Iterator<Map.Entry<ModificationKey, Change>> othersIterator;
+
+        @Override
+        public boolean hasNext() {
+            while (next < rows && types[next] == REMOVED) {
+                next++;
+            }
+            if (next < rows) {
+                return true;
+            }
+            if (othersIterator == null && others != null) {
+                othersIterator = others.entrySet().iterator();
+            }
+            return othersIterator != null && othersIterator.hasNext();
+        }
+
+        @Override
+        public Map.Entry<ModificationKey, Change> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < rows) {
+                last = next++;
+                return new SimpleImmutableEntry<ModificationKey, Change>(
+                        new ModificationKey(accounts[last], ids[last]), change(last));
+            }
+            last = -1;
+            return othersIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (othersIterator != null && last < 0) {
+                othersIterator.remove();
+            } else if (last >= 0 && types[last] != REMOVED) {
+                removeRow(last);
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+}
@@ -285,13 +285,22 @@ public abstract class PendingModifications<T extends ZimbraMailItem> {
         changedTypes.addAll(idlist.types());
         for (Map.Entry<MailItem.Type, List<TypedIdList.ItemInfo>> entry : idlist) {
             MailItem.Type type = entry.getKey();
+            boolean withFolder = type == MailItem.Type.MESSAGE || type == MailItem.Type.FOLDER;
             for (TypedIdList.ItemInfo iinfo : entry.getValue()) {
                 addChangedParentFolderId(iinfo.getFolderId());
-                if (type == MailItem.Type.MESSAGE || type == MailItem.Type.FOLDER) {
-                    delete(new ModificationKey(acctId, iinfo.getId()), type, iinfo.getFolderId());
-                }
-                else {
-                    delete(new ModificationKey(acctId, iinfo.getId()), type, null);
+                if ((created != null && !created.isEmpty()) || (modified != null && !modified.isEmpty())) {
+                    if (withFolder) {
+                        delete(new ModificationKey(acctId, iinfo.getId()), type, iinfo.getFolderId());
+                    } else {
+                        delete(new ModificationKey(acctId, iinfo.getId()), type, null);
+                    }
+                } else {
+                    // nothing to cancel out, so skip building a key and a change per item
+                    if (!(deleted instanceof DeletedItemMap)) {
+                        deleted = newDeletedMap(deleted);
+                    }
+                    ((DeletedItemMap) deleted).record(acctId, iinfo.getId(), type,
+                            withFolder ? iinfo.getFolderId() : -1);
                 }
             }
         }
@@ -325,14 +334,28 @@ public abstract class PendingModifications<T extends ZimbraMailItem> {
             modified.remove(key);
         }
         if (deleted == null) {
-            deleted = new HashMap<ModificationKey, Change>();
+            deleted = newDeletedMap(null);
         }
         Change existingChg = deleted.get(key);
         if (existingChg == null) {
             deleted.put(key, chg);
-        } else if (existingChg.preModifyObj == null) {
+        } else if (existingChg.preModifyObj == null && chg.preModifyObj != null) {
             existingChg.preModifyObj = chg.preModifyObj;
+            // a DeletedItemMap hands out copies
+            deleted.put(key, existingChg);
+        }
+    }
+
+    /**
+     * Deletions are kept in a {@link DeletedItemMap}, which stores them in primitive columns rather than as a key and
+     * a change per item.
+     */
+    private static Map<ModificationKey, Change> newDeletedMap(Map<ModificationKey, Change> deletes) {
+        DeletedItemMap map = new DeletedItemMap();
+        if (deletes != null) {
+            map.putAll(deletes);
         }
+        return map;
     }
 
     public abstract void recordModified(ModificationKey mkey, Change chg);
@@ -22,6 +22,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
 
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
@@ -50,6 +53,34 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
     /** these are the accounts we are listening to.  Stores EITHER a WaitSetSession or an AccountID  */
     private HashMap<String, WaitSetAccount> mSessions = new HashMap<String, WaitSetAccount>();
 
+    /**
+     * Signals from committing threads that have yet to be moved into the current signalled set, by account.  Queuing
+     * doesn't take the WaitSet lock, so with many accounts in the WaitSet, mailbox commits don't wait for each other:
+     * whichever thread finds no drain in progress moves everything queued so far, under the lock, and sends it to the
+     * waiting callback at once.
+     */
+    private final ConcurrentHashMap<String, QueuedSignal> queuedSignals = new ConcurrentHashMap<String, QueuedSignal>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * The signals queued for an account since the last drain.
+     */
+    private static final class QueuedSignal {
+        final WaitSetSession session;
+        final List<PendingModifications> mods = new ArrayList<PendingModifications>(1);
+
+        QueuedSignal(WaitSetSession session) {
+            this.session = session;
+        }
+
+        QueuedSignal add(PendingModifications pms) {
+            if (pms != null) {
+                mods.add(pms);
+            }
+            return this;
+        }
+    }
+
     /** Constructor */
     SomeAccountsWaitSet(String ownerAccountId, String id, Set<MailItem.Type> defaultInterest) {
         super(ownerAccountId, id, defaultInterest);
@@ -253,6 +284,7 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
             ZimbraLog.session.warn("Caught unexpected ServiceException while destroying WaitSet: "+e, e);
         }
         cancelExistingCB();
+        queuedSignals.clear();
         HashMap<String, WaitSetAccount> toRet = mSessions;
         mSessions = new HashMap<String, WaitSetAccount>();
         mCurrentSignalledSessions.clear();
@@ -277,8 +309,10 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
      */
     synchronized protected void unsignalDataReady(WaitSetSession session) {
         if (mSessions.containsKey(session.getTargetAccountId())) { // ...false if waitset is shutting down...
+            queuedSignals.remove(session.getTargetAccountId());
             mCurrentSignalledAccounts.remove(session.getTargetAccountId());
-            mCurrentSignalledSessions.remove(session.getTargetAccountId());
+            mCurrentSignalledSessions.remove(session);
+            currentPendingModifications.remove(session.getTargetAccountId());
         }
     }
 
@@ -286,28 +320,88 @@ public final class SomeAccountsWaitSet extends WaitSetBase implements MailboxMan
      * Called by the WaitSetSession when there is data to be signalled by this session
      * @param session
      */
-    synchronized protected void signalDataReady(WaitSetSession session) {
+    protected void signalDataReady(WaitSetSession session) {
         signalDataReady(session, null);
     }
 
     /**
-     * Called by the WaitSetSession when there is data to be signalled by this session
+     * Called by the WaitSetSession when there is data to be signalled by this session.  The signal is queued, and
+     * moved into the signalled set by this thread or by the one already doing it.
      * @param session
      */
-    synchronized protected void signalDataReady(WaitSetSession session, PendingModifications pms) {
+    protected void signalDataReady(final WaitSetSession session, final PendingModifications pms) {
+        queuedSignals.compute(session.getTargetAccountId(), new BiFunction<String, QueuedSignal, QueuedSignal>() {
+            @Override
+            public QueuedSignal apply(String accountId, QueuedSignal queued) {
+                return (queued == null ? new QueuedSignal(session) : queued).add(pms);
+            }
+        });
+        drainSignals();
+    }
+
+    /**
+     * Moves the queued signals into the current signalled set and sends them, unless another thread is at it.  The
+     * queue is checked again after the drain, so that a signal queued while it ran isn't left behind.
+     */
+    private void drainSignals() {
         boolean trace = ZimbraLog.session.isTraceEnabled();
-        if (trace) ZimbraLog.session.trace("SomeAccountsWaitSet.signalDataReady 1");
-        String targetAccId = session.getTargetAccountId();
-        if (mSessions.containsKey(targetAccId)) { // ...false if waitset is shutting down...
-            if (trace) ZimbraLog.session.trace("SomeAccountsWaitSet.signalDataReady 2");
-            if (mCurrentSignalledAccounts.add(targetAccId)) {
-                mCurrentSignalledSessions.add(session);
-                if (trace) ZimbraLog.session.trace("SomeAccountsWaitSet.signalDataReady 3");
-                addMods(currentPendingModifications, targetAccId, pms);
-                trySendData();
+        while (!queuedSignals.isEmpty() && draining.compareAndSet(false, true)) {
+            try {
+                synchronized (this) {
+                    int count = 0;
+                    for (String accountId : queuedSignals.keySet()) {
+                        QueuedSignal signal = queuedSignals.remove(accountId);
+                        if (signal != null) {
+                            addSignal(accountId, signal);
+                            count++;
+                        }
+                    }
+                    if (trace) ZimbraLog.session.trace("SomeAccountsWaitSet.drainSignals %d accounts", count);
+                    trySendData();
+                }
+            } finally {
+                draining.set(false);
+            }
+        }
+    }
+
+    private void addSignal(String accountId, QueuedSignal signal) {
+        assert(Thread.holdsLock(this));
+        if (!mSessions.containsKey(accountId)) { // ...false if waitset is shutting down...
+            return;
+        }
+        if (mCurrentSignalledAccounts.add(accountId)) {
+            mCurrentSignalledSessions.add(signal.session);
+            addMods(currentPendingModifications, accountId, coalesce(null, signal.mods));
+        } else {
+            // not sent yet, so the changes since are sent along with the earlier ones
+            addMods(currentPendingModifications, accountId,
+                    coalesce(currentPendingModifications.get(accountId), signal.mods));
+        }
+    }
+
+    /**
+     * Returns all the given changes of an account as a single {@link PendingModifications}, where the change reasons
+     * of an item modified several times are or'ed together.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static PendingModifications coalesce(PendingModifications current, List<PendingModifications> mods) {
+        PendingModifications result = current;
+        PendingLocalModifications merged = null;
+        for (PendingModifications pms : mods) {
+            if (result == null) {
+                result = pms;
+            } else if (result instanceof PendingLocalModifications && pms instanceof PendingLocalModifications) {
+                // the notified changes are shared with the mailbox's other sessions, so they are copied, not added to
+                if (merged == null) {
+                    merged = new PendingLocalModifications();
+                    merged.add(result);
+                    result = merged;
+                }
+                merged.add(pms);
             }
         }
-        if (trace) ZimbraLog.session.trace("SomeAccountsWaitSet.signalDataReady done");
+        return result;
     }
 
     @Override
@@ -61,8 +61,9 @@ public class WaitSetCallback {
                 }
             }
 
+            // a copy-on-write set would take quadratic time to fill, under the WaitSet lock
             this.signalledAccounts = (signalledAccounts == null) ? Sets.newHashSetWithExpectedSize(0)
-                    : Sets.newCopyOnWriteArraySet(signalledAccounts);
+                    : Sets.newHashSet(signalledAccounts);
             if(pms != null) {
                 this.pendingModifications = Maps.newHashMapWithExpectedSize(pms.size());
                 this.pendingModifications.putAll(pms);
@@ -22,53 +22,69 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.zimbra.common.stats.Counter;
+import com.zimbra.common.stats.Histogram;
+import com.zimbra.common.stats.PercentileCalculator;
 import com.zimbra.common.stats.StatsDumperDataSource;
+import com.zimbra.common.util.Constants;
+import com.zimbra.common.util.StringUtil;
 
 
 /**
  * ActivityTrackers get their own output file (e.g. soap.csv) and track a set of "commands" and their "total elapsed time" 
- * for each counter stat period, one on a line.
+ * for each counter stat period, one on a line.  The p50, p90, p99, p99.9 and maximum elapsed time of each command are
+ * reported along with the average.
  */
 public class ActivityTracker
 implements StatsDumperDataSource {
 
+    private static final String HEADER = "command,exec_count,exec_ms_avg," +
+        StringUtil.join(",", PercentileCalculator.getNames("exec_ms"));
+
     private String mFilename;
-    private ConcurrentHashMap<String, Counter> mCounterMap =
-        new ConcurrentHashMap<String, Counter>();
+    private ConcurrentHashMap<String, Stat> mStatMap =
+        new ConcurrentHashMap<String, Stat>();
     
     public ActivityTracker(String filename) {
         mFilename = filename;
     }
     
     public void addStat(String commandName, long startTime) {
-        Counter counter = getCounter(commandName);
-        counter.increment(System.currentTimeMillis() - startTime);
+        Stat stat = getStat(commandName);
+        long elapsed = System.currentTimeMillis() - startTime;
+        stat.counter.increment(elapsed);
+        stat.histogram.record(elapsed);
     }
     
-    private Counter getCounter(String commandName) {
-        Counter counter = mCounterMap.get(commandName);
-        if (counter == null) {
-            counter = new Counter();
+    private Stat getStat(String commandName) {
+        Stat stat = mStatMap.get(commandName);
+        if (stat == null) {
+            stat = new Stat();
             
-            Counter previousCounter = mCounterMap.putIfAbsent(commandName, counter);
-            if (previousCounter != null) {
-                // Another thread added the counter after the get() check.  Use it instead
+            Stat previousStat = mStatMap.putIfAbsent(commandName, stat);
+            if (previousStat != null) {
+                // Another thread added the stat after the get() check.  Use it instead
                 // of the one we just instantiated.
-                counter = previousCounter;
+                stat = previousStat;
             }
         }
-        return counter;
+        return stat;
+    }
+
+    private static final class Stat {
+        final Counter counter = new Counter();
+        final Histogram histogram = new Histogram(Constants.MILLIS_PER_HOUR);
     }
     
     ////////////// StatsDumperDataSource implementation //////////////
     
     public Collection<String> getDataLines() {
-        if (mCounterMap == null || mCounterMap.size() == 0) {
+        if (mStatMap == null || mStatMap.size() == 0) {
             return null;
         }
-        List<String> dataLines = new ArrayList<String>(mCounterMap.size());
-        for (String command : mCounterMap.keySet()) {
-            Counter counter = mCounterMap.get(command);
+        List<String> dataLines = new ArrayList<String>(mStatMap.size());
+        for (String command : mStatMap.keySet()) {
+            Stat stat = mStatMap.get(command);
+            Counter counter = stat.counter;
             if (counter.getCount() > 0) {
                 // This code is not thread-safe, but should be good enough 99.9% of the time.
                 // We avoid synchronization at the risk of the numbers being slightly off
@@ -76,7 +92,8 @@ implements StatsDumperDataSource {
                 long count = counter.getCount();
                 long avg = (long) counter.getAverage();
                 counter.reset();
-                dataLines.add(String.format("%s,%d,%d", command, count, avg)); 
+                List<Object> percentiles = PercentileCalculator.getData(stat.histogram.getSnapshotAndReset());
+                dataLines.add(String.format("%s,%d,%d,%s", command, count, avg, StringUtil.join(",", percentiles)));
             }
         }
         return dataLines;
@@ -87,7 +104,7 @@ implements StatsDumperDataSource {
     }
 
     public String getHeader() {
-        return "command,exec_count,exec_ms_avg";
+        return HEADER;
     }
 
     public boolean hasTimestampColumn() {
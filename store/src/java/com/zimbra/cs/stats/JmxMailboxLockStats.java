@@ -0,0 +1,129 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.Pair;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.lock.LockStats;
+
+public class JmxMailboxLockStats implements JmxMailboxLockStatsMBean {
+
+    private final LockStats stats = LockStats.SERVER;
+
+    @Override
+    public long getLockAcquires() {
+        return stats.getAcquires();
+    }
+
+    @Override
+    public long getContendedLockAcquires() {
+        return stats.getContendedAcquires();
+    }
+
+    @Override
+    public long getLockFailures() {
+        return stats.getFailures();
+    }
+
+    @Override
+    public long getOptimisticReads() {
+        return stats.getOptimisticReads();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return stats.getMaxQueueDepth();
+    }
+
+    @Override
+    public long getWaitP50Micros() {
+        return stats.getWaitTime().getPercentileMicros(0.5);
+    }
+
+    @Override
+    public long getWaitP99Micros() {
+        return stats.getWaitTime().getPercentileMicros(0.99);
+    }
+
+    @Override
+    public long getWaitP999Micros() {
+        return stats.getWaitTime().getPercentileMicros(0.999);
+    }
+
+    @Override
+    public long getWaitMaxMicros() {
+        return stats.getWaitTime().getMaxMicros();
+    }
+
+    @Override
+    public long getHoldP50Micros() {
+        return stats.getHoldTime().getPercentileMicros(0.5);
+    }
+
+    @Override
+    public long getHoldP99Micros() {
+        return stats.getHoldTime().getPercentileMicros(0.99);
+    }
+
+    @Override
+    public long getHoldP999Micros() {
+        return stats.getHoldTime().getPercentileMicros(0.999);
+    }
+
+    @Override
+    public long getHoldMaxMicros() {
+        return stats.getHoldTime().getMaxMicros();
+    }
+
+    @Override
+    public String getLastWaiterSample() {
+        return stats.getLastSample();
+    }
+
+    @Override
+    public String[] getTopContendedMailboxes(int count) {
+        // Snapshot the totals first; they keep changing while we sort.
+        List<Pair<Long, Mailbox>> waits = new ArrayList<Pair<Long, Mailbox>>();
+        try {
+            for (Mailbox mbox : MailboxManager.getInstance().getAllLoadedMailboxes()) {
+                waits.add(new Pair<Long, Mailbox>(mbox.lock.getStats().getWaitTime().getTotalMicros(), mbox));
+            }
+        } catch (ServiceException e) {
+            ZimbraLog.perf.warn("Unable to list loaded mailboxes.", e);
+        }
+        Collections.sort(waits, new Comparator<Pair<Long, Mailbox>>() {
+            @Override
+            public int compare(Pair<Long, Mailbox> p1, Pair<Long, Mailbox> p2) {
+                return Long.compare(p2.getFirst(), p1.getFirst());
+            }
+        });
+        List<String> result = new ArrayList<String>();
+        for (Pair<Long, Mailbox> wait : waits.subList(0, Math.max(0, Math.min(count, waits.size())))) {
+            Mailbox mbox = wait.getSecond();
+            result.add(mbox.getId() + " " + mbox.getAccountId() + " " + mbox.lock.getStats());
+        }
+        return result.toArray(new String[result.size()]);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.stats;
+
+/**
+ * Mailbox lock contention, for all mailboxes on the server and for the most contended loaded mailboxes.
+ * Times are in microseconds.
+ */
+public interface JmxMailboxLockStatsMBean {
+    long getLockAcquires();
+    long getContendedLockAcquires();
+    long getLockFailures();
+    long getOptimisticReads();
+    int getMaxQueueDepth();
+    long getWaitP50Micros();
+    long getWaitP99Micros();
+    long getWaitP999Micros();
+    long getWaitMaxMicros();
+    long getHoldP50Micros();
+    long getHoldP99Micros();
+    long getHoldP999Micros();
+    long getHoldMaxMicros();
+    String getLastWaiterSample();
+
+    /**
+     * Returns one line per loaded mailbox, for the {@code count} mailboxes that spent the most time waiting
+     * for their lock.
+     */
+    String[] getTopContendedMailboxes(int count);
+}
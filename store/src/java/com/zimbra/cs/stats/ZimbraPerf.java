@@ -40,6 +40,7 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Accumulator;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.stats.DeltaCalculator;
+import com.zimbra.common.stats.PercentileCalculator;
 import com.zimbra.common.stats.RealtimeStats;
 import com.zimbra.common.stats.RealtimeStatsCallback;
 import com.zimbra.common.stats.StatsDumper;
@@ -112,12 +113,27 @@ public class ZimbraPerf {
     @Description("Number of message structures cached in memory")
     public static final String RTS_MSG_CACHE_SIZE = "msg_cache_size";
 
+    @Description("Number of bytes of message data held by the message cache")
+    public static final String RTS_MSG_CACHE_BYTES = "msg_cache_bytes";
+
+    @Description("Number of mail items cached in memory for all mailboxes")
+    public static final String RTS_ITEM_CACHE_SIZE = "item_cache_size";
+
+    @Description("Estimated number of bytes held by the mail item cache")
+    public static final String RTS_ITEM_CACHE_BYTES = "item_cache_bytes";
+
     @Description("Number of open file descriptors that reference message content")
     public static final String RTS_FD_CACHE_SIZE = "fd_cache_size";
 
     @Description("File descriptor cache hit rate")
     public static final String RTS_FD_CACHE_HIT_RATE = "fd_cache_hit_rate";
 
+    @Description("Number of open file descriptors that are currently being read")
+    public static final String RTS_FD_CACHE_IN_USE = "fd_cache_in_use";
+
+    @Description("Number of cached file descriptors that are open but not being read")
+    public static final String RTS_FD_CACHE_IDLE = "fd_cache_idle";
+
     // LDAP provisioning caches.
     @Description("LDAP ACL cache hit rate")
     public static final String RTS_ACL_CACHE_HIT_RATE = "acl_cache_hit_rate";
@@ -181,23 +197,42 @@ public class ZimbraPerf {
     public static final StopWatch STOPWATCH_LDAP_DC = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_ADD_MSG = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_GET = new StopWatch();         // Mailbox accessor response time
+    public static final StopWatch STOPWATCH_MBOX_LOCK_WAIT = new StopWatch();   // Contended mailbox lock waits
+    public static final StopWatch STOPWATCH_MBOX_LOCK_HOLD = new StopWatch();   // Mailbox write lock hold time
     public static final Counter COUNTER_MBOX_CACHE = new Counter();           // Mailbox cache hit rate
     public static final Counter COUNTER_MBOX_MSG_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_MSG_CACHE_HITS = new Counter();
+    public static final Counter COUNTER_MBOX_MSG_CACHE_MISSES = new Counter();
+    public static final Counter COUNTER_MBOX_MSG_CACHE_EVICTIONS = new Counter();
     public static final Counter COUNTER_MBOX_ITEM_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_ITEM_CACHE_EVICTIONS = new Counter();
+    public static final Counter COUNTER_MBOX_ITEM_CACHE_REJECTS = new Counter();
     public static final StopWatch STOPWATCH_SOAP = new StopWatch();
     public static final StopWatch STOPWATCH_IMAP = new StopWatch();
     public static final StopWatch STOPWATCH_POP = new StopWatch();
+    public static final Counter COUNTER_IMAP_ZERO_COPY_BYTES = new Counter();
+    public static final Counter COUNTER_POP_ZERO_COPY_BYTES = new Counter();
     public static final Counter COUNTER_IDX_WRT = new Counter();
     public static final Counter COUNTER_IDX_WRT_OPENED = new Counter();
     public static final Counter COUNTER_IDX_WRT_OPENED_CACHE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_MEM_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_LRU_SIZE = new Counter();
+    public static final Counter COUNTER_CALENDAR_CACHE_DAY_HIT = new Counter();
+    public static final Counter COUNTER_CALENDAR_CACHE_WEEK_HIT = new Counter();
+    public static final Counter COUNTER_CALENDAR_CACHE_MONTH_HIT = new Counter();
+    public static final Counter COUNTER_CALENDAR_CACHE_LONG_RANGE_HIT = new Counter();
     public static final Counter COUNTER_IDX_BYTES_WRITTEN = new Counter();
     public static final Counter COUNTER_IDX_BYTES_READ = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_READ = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_SEEK_RATE = new Counter();
+    public static final Counter COUNTER_BLOB_DEDUPE_RATE = new Counter();
+    public static final Counter COUNTER_BLOB_DEDUPE_BYTES = new Counter();
     public static final StopWatch STOPWATCH_EWS = new StopWatch();
+    public static final Counter COUNTER_LDAP_CACHE_HITS = new Counter();
+    public static final Counter COUNTER_LDAP_CACHE_MISSES = new Counter();
+    public static final Counter COUNTER_LDAP_CACHE_REFRESHES = new Counter();
+    public static final Counter COUNTER_LDAP_CACHE_REFRESH_FAILURES = new Counter();
 
     public static final ActivityTracker SOAP_TRACKER = new ActivityTracker("soap.csv");
     public static final ActivityTracker IMAP_TRACKER = new ActivityTracker("imap.csv");
@@ -219,8 +254,9 @@ public class ZimbraPerf {
             RTS_POP_CONN, RTS_POP_THREADS, RTS_POP_SSL_CONN, RTS_POP_SSL_THREADS,
             RTS_IMAP_CONN, RTS_IMAP_THREADS, RTS_IMAP_SSL_CONN, RTS_IMAP_SSL_THREADS,
             RTS_HTTP_IDLE_THREADS, RTS_HTTP_THREADS, RTS_SOAP_SESSIONS,
-            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE,
-            RTS_FD_CACHE_SIZE, RTS_FD_CACHE_HIT_RATE,
+            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE, RTS_MSG_CACHE_BYTES,
+            RTS_ITEM_CACHE_SIZE, RTS_ITEM_CACHE_BYTES,
+            RTS_FD_CACHE_SIZE, RTS_FD_CACHE_HIT_RATE, RTS_FD_CACHE_IN_USE, RTS_FD_CACHE_IDLE,
             RTS_ACL_CACHE_HIT_RATE,
             RTS_ACCOUNT_CACHE_SIZE, RTS_ACCOUNT_CACHE_HIT_RATE,
             RTS_COS_CACHE_SIZE, RTS_COS_CACHE_HIT_RATE,
@@ -276,15 +312,42 @@ public class ZimbraPerf {
     @Description("Average latency (ms) of getting a mailbox from the cache")
     private static final String DC_MBOX_GET_MS_AVG = "mbox_get_ms_avg";
 
+    @Description("Number of times that a thread had to wait for a mailbox lock")
+    private static final String DC_MBOX_LOCK_WAIT_COUNT = "mbox_lock_wait_count";
+
+    @Description("Average time (ms) that a thread waited for a contended mailbox lock")
+    private static final String DC_MBOX_LOCK_WAIT_MS_AVG = "mbox_lock_wait_ms_avg";
+
+    @Description("Number of times that a mailbox write lock was released")
+    private static final String DC_MBOX_LOCK_HOLD_COUNT = "mbox_lock_hold_count";
+
+    @Description("Average time (ms) that a mailbox write lock was held")
+    private static final String DC_MBOX_LOCK_HOLD_MS_AVG = "mbox_lock_hold_ms_avg";
+
     @Description("Mailbox cache hit rate")
     private static final String DC_MBOX_CACHE = "mbox_cache";
 
     @Description("Message cache hit rate")
     private static final String DC_MBOX_MSG_CACHE = "mbox_msg_cache";
 
+    @Description("Number of message cache hits")
+    private static final String DC_MBOX_MSG_CACHE_HITS = "mbox_msg_cache_hits";
+
+    @Description("Number of message cache misses")
+    private static final String DC_MBOX_MSG_CACHE_MISSES = "mbox_msg_cache_misses";
+
+    @Description("Number of messages evicted from the message cache")
+    private static final String DC_MBOX_MSG_CACHE_EVICTIONS = "mbox_msg_cache_evictions";
+
     @Description("Item cache hit rate")
     private static final String DC_MBOX_ITEM_CACHE = "mbox_item_cache";
 
+    @Description("Number of items evicted from the item cache")
+    private static final String DC_MBOX_ITEM_CACHE_EVICTIONS = "mbox_item_cache_evictions";
+
+    @Description("Number of items not admitted to the item cache because it was full")
+    private static final String DC_MBOX_ITEM_CACHE_REJECTS = "mbox_item_cache_rejects";
+
     @Description("Number of SOAP requests received")
     private static final String DC_SOAP_COUNT = "soap_count";
 
@@ -303,12 +366,36 @@ public class ZimbraPerf {
     @Description("Average processing time (ms) of POP3 requests")
     private static final String DC_POP_MS_AVG = "pop_ms_avg";
 
+    @Description("Number of bytes of message content that IMAP sent straight from blob files")
+    private static final String DC_IMAP_ZERO_COPY_BYTES = "imap_zero_copy_bytes";
+
+    @Description("Number of bytes of message content that POP3 sent straight from blob files")
+    private static final String DC_POP_ZERO_COPY_BYTES = "pop_zero_copy_bytes";
+
     @Description("Number of times that the file descriptor cache read message data from disk")
     private static final String DC_BIS_READ = "bis_read";
 
     @Description("Percentage of file descriptor cache disk reads that required a seek")
     private static final String DC_BIS_SEEK_RATE = "bis_seek_rate";
 
+    @Description("Percentage of message blobs stored with deduplication on that were linked to an existing copy")
+    private static final String DC_BLOB_DEDUPE_RATE = "blob_dedupe_rate";
+
+    @Description("Number of bytes of message blobs that were linked to an existing copy rather than written")
+    private static final String DC_BLOB_DEDUPE_BYTES = "blob_dedupe_bytes";
+
+    @Description("Number of LDAP account and named entry cache lookups that found the entry")
+    private static final String DC_LDAP_CACHE_HITS = "ldap_cache_hits";
+
+    @Description("Number of LDAP account and named entry cache lookups that did not find the entry, or found it expired")
+    private static final String DC_LDAP_CACHE_MISSES = "ldap_cache_misses";
+
+    @Description("Number of cached LDAP entries reloaded in the background before they expired")
+    private static final String DC_LDAP_CACHE_REFRESHES = "ldap_cache_refreshes";
+
+    @Description("Number of background reloads of cached LDAP entries that failed")
+    private static final String DC_LDAP_CACHE_REFRESH_FAILURES = "ldap_cache_refresh_failures";
+
     @Description("Average number of concurrent index writers")
     private static final String DC_IDX_WRT_AVG = "idx_wrt_avg";
 
@@ -339,8 +426,25 @@ public class ZimbraPerf {
     @Description("Number of calendars (folders) in the calendar summary cache LRU in Java heap")
     private static final String DC_CALCACHE_LRU_SIZE = "calcache_lru_size";
 
+    @Description("Memory hit rate of calendar summary cache for ranges up to a day")
+    private static final String DC_CALCACHE_DAY_HIT = "calcache_day_hit";
+
+    @Description("Memory hit rate of calendar summary cache for ranges up to a week")
+    private static final String DC_CALCACHE_WEEK_HIT = "calcache_week_hit";
+
+    @Description("Memory hit rate of calendar summary cache for ranges up to a month")
+    private static final String DC_CALCACHE_MONTH_HIT = "calcache_month_hit";
+
+    @Description("Memory hit rate of calendar summary cache for ranges longer than a month")
+    private static final String DC_CALCACHE_LONG_RANGE_HIT = "calcache_long_range_hit";
+
     private static CopyOnWriteArrayList<Accumulator> sAccumulators = null;
 
+    private static final String MS_AVG_SUFFIX = "_ms_avg";
+    private static final String[] PERCENTILE_DESCRIPTIONS = {
+            "Median", "90th percentile", "99th percentile", "99.9th percentile", "Maximum"
+    };
+
     private static final long CSV_DUMP_FREQUENCY = Constants.MILLIS_PER_MINUTE;
     private static boolean sIsInitialized = false;
     private static boolean isPrepared = false;
@@ -372,6 +476,7 @@ public class ZimbraPerf {
                     if (o instanceof String) {
                         String description = f.getAnnotation(Description.class).value();
                         descriptions.put((String) o, description);
+                        addPercentileDescriptions((String) o, description);
                     }
                 } catch (IllegalAccessException e) {
                     ZimbraLog.perf.warn("Unexpected @Description annotation on field %s.", f.getName(), e);
@@ -380,6 +485,33 @@ public class ZimbraPerf {
         }
     }
 
+    /**
+     * Describes the percentile columns that {@link #percentiles} adds for a stopwatch average,
+     * e.g. "99th percentile processing time (ms) of SOAP requests" for <tt>soap_ms_p99</tt>.
+     */
+    private static void addPercentileDescriptions(String averageName, String averageDescription) {
+        if (!averageName.endsWith(MS_AVG_SUFFIX) || !averageDescription.startsWith("Average ")) {
+            return;
+        }
+        String what = averageDescription.substring("Average ".length());
+        List<String> names = PercentileCalculator.getNames(percentilePrefix(averageName));
+        for (int i = 0; i < names.size(); i++) {
+            descriptions.put(names.get(i), PERCENTILE_DESCRIPTIONS[i] + " " + what);
+        }
+    }
+
+    /**
+     * Reports the percentiles of the given stopwatch under the name of its average, e.g.
+     * <tt>soap_ms_p99</tt> for <tt>soap_ms_avg</tt>.
+     */
+    private static PercentileCalculator percentiles(StopWatch stopWatch, String averageName) {
+        return new PercentileCalculator(stopWatch.getHistogram(), percentilePrefix(averageName));
+    }
+
+    private static String percentilePrefix(String averageName) {
+        return averageName.substring(0, averageName.length() - "_avg".length());
+    }
+
     /**
      * Returns all the latest stats as a key-value <tt>Map</tt>.
      */
@@ -477,15 +609,29 @@ public class ZimbraPerf {
                                     .setAverageName(DC_MBOX_ADD_MSG_MS_AVG),
                             new DeltaCalculator(STOPWATCH_MBOX_GET).setCountName(DC_MBOX_GET_COUNT)
                                     .setAverageName(DC_MBOX_GET_MS_AVG),
+                            new DeltaCalculator(STOPWATCH_MBOX_LOCK_WAIT).setCountName(DC_MBOX_LOCK_WAIT_COUNT)
+                                    .setAverageName(DC_MBOX_LOCK_WAIT_MS_AVG),
+                            new DeltaCalculator(STOPWATCH_MBOX_LOCK_HOLD).setCountName(DC_MBOX_LOCK_HOLD_COUNT)
+                                    .setAverageName(DC_MBOX_LOCK_HOLD_MS_AVG),
                             new DeltaCalculator(COUNTER_MBOX_CACHE).setAverageName(DC_MBOX_CACHE),
                             new DeltaCalculator(COUNTER_MBOX_MSG_CACHE).setAverageName(DC_MBOX_MSG_CACHE),
+                            new DeltaCalculator(COUNTER_MBOX_MSG_CACHE_HITS).setTotalName(DC_MBOX_MSG_CACHE_HITS),
+                            new DeltaCalculator(COUNTER_MBOX_MSG_CACHE_MISSES).setTotalName(DC_MBOX_MSG_CACHE_MISSES),
+                            new DeltaCalculator(COUNTER_MBOX_MSG_CACHE_EVICTIONS)
+                                    .setTotalName(DC_MBOX_MSG_CACHE_EVICTIONS),
                             new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE).setAverageName(DC_MBOX_ITEM_CACHE),
+                            new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE_EVICTIONS)
+                                    .setTotalName(DC_MBOX_ITEM_CACHE_EVICTIONS),
+                            new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE_REJECTS)
+                                    .setTotalName(DC_MBOX_ITEM_CACHE_REJECTS),
                             new DeltaCalculator(STOPWATCH_SOAP).setCountName(DC_SOAP_COUNT)
                                     .setAverageName(DC_SOAP_MS_AVG),
                             new DeltaCalculator(STOPWATCH_IMAP).setCountName(DC_IMAP_COUNT)
                                     .setAverageName(DC_IMAP_MS_AVG),
                             new DeltaCalculator(STOPWATCH_POP).setCountName(DC_POP_COUNT)
                                     .setAverageName(DC_POP_MS_AVG),
+                            new DeltaCalculator(COUNTER_IMAP_ZERO_COPY_BYTES).setTotalName(DC_IMAP_ZERO_COPY_BYTES),
+                            new DeltaCalculator(COUNTER_POP_ZERO_COPY_BYTES).setTotalName(DC_POP_ZERO_COPY_BYTES),
                             new DeltaCalculator(COUNTER_IDX_WRT).setAverageName(DC_IDX_WRT_AVG),
                             new DeltaCalculator(COUNTER_IDX_WRT_OPENED).setTotalName(DC_IDX_WRT_OPENED),
                             new DeltaCalculator(COUNTER_IDX_WRT_OPENED_CACHE_HIT)
@@ -495,6 +641,14 @@ public class ZimbraPerf {
                                     .setAverageName(DC_CALCACHE_MEM_HIT),
                             new DeltaCalculator(COUNTER_CALENDAR_CACHE_LRU_SIZE)
                                     .setAverageName(DC_CALCACHE_LRU_SIZE),
+                            new DeltaCalculator(COUNTER_CALENDAR_CACHE_DAY_HIT)
+                                    .setAverageName(DC_CALCACHE_DAY_HIT),
+                            new DeltaCalculator(COUNTER_CALENDAR_CACHE_WEEK_HIT)
+                                    .setAverageName(DC_CALCACHE_WEEK_HIT),
+                            new DeltaCalculator(COUNTER_CALENDAR_CACHE_MONTH_HIT)
+                                    .setAverageName(DC_CALCACHE_MONTH_HIT),
+                            new DeltaCalculator(COUNTER_CALENDAR_CACHE_LONG_RANGE_HIT)
+                                    .setAverageName(DC_CALCACHE_LONG_RANGE_HIT),
                             new DeltaCalculator(COUNTER_IDX_BYTES_WRITTEN)
                                     .setTotalName(DC_IDX_BYTES_WRITTEN)
                                     .setAverageName(DC_IDX_BYTES_WRITTTEN_AVG),
@@ -503,6 +657,22 @@ public class ZimbraPerf {
                             new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_READ).setTotalName(DC_BIS_READ),
                             new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_SEEK_RATE)
                                     .setAverageName(DC_BIS_SEEK_RATE),
+                            new DeltaCalculator(COUNTER_BLOB_DEDUPE_RATE).setAverageName(DC_BLOB_DEDUPE_RATE),
+                            new DeltaCalculator(COUNTER_BLOB_DEDUPE_BYTES).setTotalName(DC_BLOB_DEDUPE_BYTES),
+                            new DeltaCalculator(COUNTER_LDAP_CACHE_HITS).setTotalName(DC_LDAP_CACHE_HITS),
+                            new DeltaCalculator(COUNTER_LDAP_CACHE_MISSES).setTotalName(DC_LDAP_CACHE_MISSES),
+                            new DeltaCalculator(COUNTER_LDAP_CACHE_REFRESHES).setTotalName(DC_LDAP_CACHE_REFRESHES),
+                            new DeltaCalculator(COUNTER_LDAP_CACHE_REFRESH_FAILURES)
+                                    .setTotalName(DC_LDAP_CACHE_REFRESH_FAILURES),
+                            percentiles(STOPWATCH_DB_CONN, DC_DB_CONN_MS_AVG),
+                            percentiles(STOPWATCH_LDAP_DC, DC_LDAP_DC_MS_AVG),
+                            percentiles(STOPWATCH_MBOX_ADD_MSG, DC_MBOX_ADD_MSG_MS_AVG),
+                            percentiles(STOPWATCH_MBOX_GET, DC_MBOX_GET_MS_AVG),
+                            percentiles(STOPWATCH_MBOX_LOCK_WAIT, DC_MBOX_LOCK_WAIT_MS_AVG),
+                            percentiles(STOPWATCH_MBOX_LOCK_HOLD, DC_MBOX_LOCK_HOLD_MS_AVG),
+                            percentiles(STOPWATCH_SOAP, DC_SOAP_MS_AVG),
+                            percentiles(STOPWATCH_IMAP, DC_IMAP_MS_AVG),
+                            percentiles(STOPWATCH_POP, DC_POP_MS_AVG),
                             realtimeStats
                     }
                 );
@@ -513,6 +683,7 @@ public class ZimbraPerf {
                     new Accumulator[] {
                             new DeltaCalculator(STOPWATCH_IMAP)
                                     .setCountName(DC_IMAP_COUNT).setAverageName(DC_IMAP_MS_AVG),
+                            percentiles(STOPWATCH_IMAP, DC_IMAP_MS_AVG),
                             realtimeStats
                     }
                 );
@@ -555,6 +726,12 @@ public class ZimbraPerf {
         } catch (Exception e) {
             ZimbraLog.perf.warn("Unable to register JMX interface.", e);
         }
+        try {
+            jmxServer.registerMBean(new JmxMailboxLockStats(),
+                    new ObjectName("ZimbraCollaborationSuite:type=MailboxLockStats"));
+        } catch (Exception e) {
+            ZimbraLog.perf.warn("Unable to register mailbox lock JMX interface.", e);
+        }
         StatsDumper.schedule(new Stats("mailboxd.csv", sAccumulators, jmxServerStats), CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(SOAP_TRACKER, CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(IMAP_TRACKER, CSV_DUMP_FREQUENCY);
@@ -14,21 +14,22 @@
  * If not, see <https://www.gnu.org/licenses/>.
  * ***** END LICENSE BLOCK *****
  */
-
 package com.zimbra.cs.store;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.zip.GZIPInputStream;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.util.FileCache;
@@ -44,16 +45,21 @@ import com.zimbra.cs.account.Server;
  * uses a {@link FileCache} to access the uncompressed data.  Cache entries
  * that reference uncompressed blobs keep the file descriptor open until {@link #remove}
  * is called or the cache entry is aged out.
+ * <p>
+ * Lookups don't take a lock, and all readers of a blob share one descriptor through
+ * positional reads.  The max size is a budget on open descriptors: entries that are
+ * aged out while a thread is still reading stay open on an inactive list until the
+ * last reader is done, and they count against the budget until then.
  */
 public class FileDescriptorCache
 {
     private static final Log sLog = LogFactory.getLog(FileDescriptorCache.class);
 
-    // Create the file cache with default LinkedHashMap values, but sorted by last access time.
-    private final LinkedHashMap<String, SharedFile> mCache = new LinkedHashMap<String, SharedFile>(16, 0.75f, true);
-    // Create a concurrent list for the SharedFies for which the mapping has been removed but is still in use by some threads.
-    private final List<SharedFileInfo> mInactiveCache = Collections.synchronizedList(new ArrayList<SharedFileInfo>());
-    private int mMaxSize = 1000;
+    // Sorted by last access time; entries that are aged out are closed, or parked on the inactive list if in use.
+    private final ConcurrentLinkedHashMap<String, SharedFile> mCache;
+    // SharedFiles for which the mapping has been removed but are still in use by some threads.
+    private final Queue<SharedFileInfo> mInactiveCache = new ConcurrentLinkedQueue<SharedFileInfo>();
+    private volatile int mMaxSize = 1000;
     private final FileCache<String> mUncompressedFileCache;
     private final Counter mHitRate = new Counter();
 
@@ -69,14 +75,25 @@ public class FileDescriptorCache
 
     public FileDescriptorCache(FileCache<String> uncompressedCache) {
         mUncompressedFileCache = uncompressedCache;
+        mCache = new ConcurrentLinkedHashMap.Builder<String, SharedFile>()
+            .maximumWeightedCapacity(mMaxSize)
+            .listener(new EvictionListener<String, SharedFile>() {
+                @Override
+                public void onEviction(String path, SharedFile file) {
+                    sLog.debug("Aging out file descriptor for %s.", path);
+                    retire(path, file);
+                }
+            })
+            .build();
     }
 
-    public synchronized FileDescriptorCache setMaxSize(int maxSize) {
+    public FileDescriptorCache setMaxSize(int maxSize) {
         if (maxSize < 0)
             throw new IllegalArgumentException("maxSize value of " + maxSize + " is invalid (must be at least 0)");
 
         mMaxSize = maxSize;
         mHitRate.reset(); // Recalculate hit rate based on the new size.
+        mCache.setCapacity(maxSize);
         pruneIfNecessary();
         return this;
     }
@@ -97,13 +114,11 @@ public class FileDescriptorCache
      * Closes all file descriptors, clears the cache, and removes any files from
      * the uncompressed cache.
      */
-    public synchronized void shutdown() {
-        Iterator<Map.Entry<String, SharedFile>> iEntries = mCache.entrySet().iterator();
-        while (iEntries.hasNext()) {
-            Map.Entry<String, SharedFile> entry = iEntries.next();
-            String path = entry.getKey();
-            SharedFile file = entry.getValue();
-            iEntries.remove();
+    public void shutdown() {
+        for (String path : mCache.keySet()) {
+            SharedFile file = mCache.remove(path);
+            if (file == null)
+                continue;
             try {
                 boolean success = close(file, path);
                 if (!success)
@@ -120,46 +135,74 @@ public class FileDescriptorCache
     public int read(String path, long rawSize, long fileOffset, byte[] buf, int bufferOffset, int len)
     throws IOException {
         sLog.debug("Reading %s.  rawSize=%d, fileOffset=%d, bufferOffset=%d, len=%d.", path, rawSize, fileOffset, bufferOffset, len);
-        SharedFile file = null;
-        int numRead;
-
-        try {
-            file = getSharedFile(path, rawSize);
-            numRead = file.read(fileOffset, buf, bufferOffset, len);
-        } finally {
-            if (file != null) {
-               file.doneReading();
+        for (boolean retried = false; ; retried = true) {
+            SharedFile file = null;
+            try {
+                file = getSharedFile(path, rawSize);
+                return file.read(fileOffset, buf, bufferOffset, len);
+            } catch (ClosedChannelException e) {
+                if (retried || e instanceof ClosedByInterruptException) {
+                    throw e;
+                }
+                // Another reader was interrupted, which closed the descriptor for all of us.  Read from a new one.
+                sLog.debug("File descriptor for %s was closed by an interrupted reader.  Reopening.", path);
+            } finally {
+                if (file != null) {
+                   file.doneReading();
+                   // We may have been the last reader of a descriptor that was aged out.
+                   if (!mInactiveCache.isEmpty())
+                       quietCloseInactiveCache();
+                }
             }
         }
-
-        return numRead;
     }
 
     boolean contains(String path) {
-        synchronized (this) {
-            return mCache.containsKey(path);
-        }
+        return mCache.containsKey(path);
     }
 
     /**
      * Returns the existing cache entry or creates a new one.  Implicitly
      * increments the number of readers for the <tt>SharedFile</tt>.
      */
-    private SharedFile getSharedFile(String path, long rawSize) throws IOException {
-        SharedFile sharedFile = null;
+    @VisibleForTesting
+    SharedFile getSharedFile(String path, long rawSize) throws IOException {
+        while (true) {
+            SharedFile sharedFile = mCache.get(path);
+            if (sharedFile != null) {
+                if (sharedFile.aboutToRead()) {
+                    sLog.debug("Found existing file descriptor for %s, rawSize=%d.", path, rawSize);
+                    mHitRate.increment(100);
+                    return sharedFile;
+                }
+                // Closed, or broken by an interrupted reader, between the lookup and now.  Drop the stale
+                // mapping and try again.
+                if (mCache.remove(path, sharedFile)) {
+                    retire(path, sharedFile);
+                }
+                continue;
+            }
 
-        synchronized (this) {
-            sharedFile = mCache.get(path);
-        }
-        if (sharedFile != null) {
-            sLog.debug("Found existing file descriptor for %s, rawSize=%d.", path, rawSize);
+            // Open a new file descriptor.
+            mHitRate.increment(0);
+            sharedFile = open(path, rawSize);
+            // Register as a reader before publishing, so that the entry can't be closed out from under us.
             sharedFile.aboutToRead();
-            mHitRate.increment(100);
+
+            SharedFile existing = mCache.putIfAbsent(path, sharedFile);
+            if (existing != null) {
+                sLog.debug("Another thread just opened the same file.  Closing our copy and returning the other one.");
+                sharedFile.doneReading();
+                sharedFile.close();
+                continue;
+            }
+            sLog.debug("Caching file descriptor: path=%s, sharedFile=%s", path, sharedFile);
+            pruneIfNecessary();
             return sharedFile;
         }
+    }
 
-        // Open a new file descriptor.
-        mHitRate.increment(0);
+    private SharedFile open(String path, long rawSize) throws IOException {
         File file = new File(path);
 
         if (file.length() != rawSize && FileUtil.isGzipped(file)) {
@@ -176,26 +219,11 @@ public class FileDescriptorCache
                     throw new IOException("Unable to get uncompressed file for " + path);
                 }
             }
-            sharedFile = new SharedFile(uncompressed.file);
+            return new SharedFile(uncompressed.file);
         } else {
             sLog.debug("Opening new file descriptor for %s.", path);
-            sharedFile = new SharedFile(file);
-        }
-
-        synchronized (this) {
-            if (mCache.containsKey(path)) {
-                sLog.debug("Another thread just opened the same file.  Closing our copy and returning the other one.");
-                sharedFile.close();
-                sharedFile = mCache.get(path);
-            } else {
-                sLog.debug("Caching file descriptor: path=%s, sharedFile=%s", path, sharedFile);
-                mCache.put(path, sharedFile);
-            }
+            return new SharedFile(file);
         }
-        sharedFile.aboutToRead();
-        pruneIfNecessary();
-
-        return sharedFile;
     }
 
     /**
@@ -203,11 +231,7 @@ public class FileDescriptorCache
      * descriptor is not in the cache.
      */
     public void remove(String path) throws IOException {
-        SharedFile file = null;
-
-        synchronized (this) {
-            file = mCache.remove(path);
-        }
+        SharedFile file = mCache.remove(path);
 
         if (file != null) {
             boolean success = close(file, path);
@@ -221,6 +245,21 @@ public class FileDescriptorCache
         quietCloseInactiveCache();
     }
 
+    /**
+     * Closes a file whose mapping has been removed, or parks it on the inactive list
+     * if it's still in use.
+     */
+    private void retire(String path, SharedFile file) {
+        try {
+            boolean success = close(file, path);
+            if (!success) {
+                mInactiveCache.add(new SharedFileInfo(path, file));
+            }
+        } catch (IOException e) {
+            ZimbraLog.store.warn("Unable to close file descriptor for " + path, e);
+        }
+    }
+
     /**
      * Close the file if it is not in use.
      * @return true if the file is closed, false otherwise.
@@ -230,15 +269,12 @@ public class FileDescriptorCache
         if (file != null) {
             sLog.debug("Closing file descriptor for %s, %s", path, file);
 
-            if (file.getNumReaders() == 0) {
-                file.close();
+            if (file.close()) {
                 if (mUncompressedFileCache != null) {
-                    synchronized (this) {
-                        if (!mCache.containsKey(path)) {
-                            mUncompressedFileCache.remove(path);
-                        } else {
-                            sLog.debug("Not removing %s from the uncompressed cache.  Another thread reopened it.");
-                        }
+                    if (!mCache.containsKey(path)) {
+                        mUncompressedFileCache.remove(path);
+                    } else {
+                        sLog.debug("Not removing %s from the uncompressed cache.  Another thread reopened it.", path);
                     }
                 }
                 return true;
@@ -249,58 +285,74 @@ public class FileDescriptorCache
     }
 
     private void quietCloseInactiveCache() {
-        synchronized (mInactiveCache) {
-            Iterator<SharedFileInfo> iter = mInactiveCache.iterator();
-            while (iter.hasNext()) {
-                SharedFileInfo info = iter.next();
-                try {
-                    boolean success = close(info.file, info.path);
-                    if (success)
-                        iter.remove();
-                } catch (IOException e) {
-                    ZimbraLog.store.warn("Unable to close file descriptor for " + info.path, e);
+        Iterator<SharedFileInfo> iter = mInactiveCache.iterator();
+        while (iter.hasNext()) {
+            SharedFileInfo info = iter.next();
+            try {
+                boolean success = close(info.file, info.path);
+                if (success)
                     iter.remove();
-                }
+            } catch (IOException e) {
+                ZimbraLog.store.warn("Unable to close file descriptor for " + info.path, e);
+                iter.remove();
             }
         }
     }
 
-    public synchronized int getSize() {
+    public int getSize() {
         return mCache.size();
     }
 
+    /**
+     * Returns the number of open file descriptors that are currently being read, including
+     * those that have been aged out of the cache but not closed yet.
+     */
+    public int getInUseCount() {
+        int inUse = 0;
+        for (SharedFile file : mCache.values()) {
+            if (file.getNumReaders() > 0)
+                inUse++;
+        }
+        for (SharedFileInfo info : mInactiveCache) {
+            if (!info.file.isClosed())
+                inUse++;
+        }
+        return inUse;
+    }
+
+    /**
+     * Returns the number of cached file descriptors that are open but not being read.
+     */
+    public int getIdleCount() {
+        int idle = 0;
+        for (SharedFile file : mCache.values()) {
+            if (file.getNumReaders() == 0 && !file.isClosed())
+                idle++;
+        }
+        return idle;
+    }
+
     public double getHitRate() {
         return mHitRate.getAverage();
     }
 
+    /**
+     * Ages out the least recently used entries while the number of open descriptors,
+     * including the ones on the inactive list, exceeds the max size.  Descriptors that
+     * are still being read are closed by their last reader.
+     */
     private void pruneIfNecessary() {
-         if (getSize() <= mMaxSize)
-            return;
+        quietCloseInactiveCache();
 
-        List<Map.Entry<String, SharedFile>> removeList = new ArrayList<Map.Entry<String, SharedFile>>();
+        int excess = mCache.size() + mInactiveCache.size() - mMaxSize;
+        if (excess <= 0)
+            return;
 
-        synchronized (this) {
-            Iterator<Map.Entry<String, SharedFile>> iEntries = mCache.entrySet().iterator();
-            while (iEntries.hasNext() && mCache.size() > mMaxSize) {
-                Map.Entry<String, SharedFile> mapEntry = iEntries.next();
-                iEntries.remove();
-                removeList.add(mapEntry);
-            }
-        }
-        for (Map.Entry<String, SharedFile> mapEntry : removeList) {
-            String path = mapEntry.getKey();
-            SharedFile file = mapEntry.getValue();
-            try {
-                boolean success = close(file, path);
-                if (!success) {
-                    mInactiveCache.add(new SharedFileInfo(path, file));
-                }
-            } catch (IOException e) {
-                ZimbraLog.store.warn("Unable to close file descriptor for " + path, e);
+        for (String path : mCache.ascendingKeySetWithLimit(excess)) {
+            SharedFile file = mCache.remove(path);
+            if (file != null) {
+                retire(path, file);
             }
         }
-
-        // Close if there are any SharedFiles in the inactive cache.
-        quietCloseInactiveCache();
     }
 }
@@ -22,36 +22,58 @@ package com.zimbra.cs.store;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.zimbra.cs.stats.ZimbraPerf;
 
 /**
- * Synchronized container for a <tt>RandomAccessFile</tt> object.  Used by multiple
+ * Container for a read-only <tt>FileChannel</tt>.  Used by multiple
  * <tt>BlobInputStream</tt> objects that share a single file descriptor.
+ * <p>
+ * Reads are positional, so there is no shared seek state and concurrent readers of the
+ * same file don't serialize on each other.  The descriptor is closed only once no thread
+ * is reading from it; after that, {@link #aboutToRead} fails and the caller has to open
+ * a new <tt>SharedFile</tt>.  The same goes once a reader has been interrupted: a
+ * <tt>FileChannel</tt> closes itself when a thread blocked on it is interrupted, which
+ * takes the descriptor down for every reader.
  */
 public class SharedFile {
 
-    private File mFile;
-    private RandomAccessFile mRAF;
-    private long mPos = 0;
-    
+    private final File mFile;
+    private final FileChannel mChannel;
+
     /**
      * Keep track of the number of threads that are reading from this file.
      * We do this so that we don't delete a file that's being read on
-     * Windows (bug 43497).
+     * Windows (bug 43497).  Set to <tt>-1</tt> once the file has been closed.
+     */
+    private final AtomicInteger mNumReaders = new AtomicInteger();
+
+    /**
+     * Set once a read found the channel closed, typically because another reader was interrupted.
      */
-    private int mNumReaders;
-    
+    private volatile boolean mBroken = false;
+
+    /**
+     * Offset just past the last read, used only to report how often readers jump around
+     * in the file.
+     */
+    private volatile long mNextOffset = 0;
+
     /**
      * Remember the file's length, in case we have an open file descriptor and the
      * uncompressed cache deletes this file from disk.
      */
-    private long mLength;
+    private final long mLength;
 
     /**
      * Creates a new <tt>SharedFile</tt> and opens the underlying
      * file descriptor.
      */
+    @SuppressWarnings("resource")
     SharedFile(File file)
     throws IOException {
         if (file == null) {
@@ -62,70 +84,82 @@ public class SharedFile {
         }
         mFile = file;
         mLength = file.length();
-        openIfNecessary();
+        mChannel = new RandomAccessFile(file, "r").getChannel();
     }
 
-    synchronized long getLength() {
+    long getLength() {
         return mLength;
     }
-    
-    synchronized int read(long fileOffset, byte[] b, int off, int len)
+
+    /**
+     * Reads up to <tt>len</tt> bytes starting at <tt>fileOffset</tt>.  The caller must
+     * have successfully called {@link #aboutToRead} first.
+     */
+    int read(long fileOffset, byte[] b, int off, int len)
     throws IOException {
-        int numRead = 0;
-        boolean seeked = false;
-        openIfNecessary();
-        
-        if (mPos != fileOffset) {
-            mRAF.seek(fileOffset);
-            mPos = fileOffset;
-            seeked = true;
-        }
-        numRead = mRAF.read(b, off, len);
-        mPos += numRead;
-        
-        if (seeked) {
-            ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_SEEK_RATE.increment(100);
-        } else {
-            ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_SEEK_RATE.increment(0);
+        int numRead;
+        try {
+            numRead = mChannel.read(ByteBuffer.wrap(b, off, len), fileOffset);
+        } catch (ClosedChannelException e) {
+            mBroken = true;
+            throw e;
         }
+
+        ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_SEEK_RATE.increment(fileOffset == mNextOffset ? 0 : 100);
         ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_READ.increment();
+        if (numRead > 0) {
+            mNextOffset = fileOffset + numRead;
+        }
         return numRead;
     }
-    
-    synchronized void aboutToRead() {
-        mNumReaders++;
-    }
-    
-    synchronized void doneReading() {
-        if (mNumReaders > 0) {
-            mNumReaders--;
+
+    /**
+     * Registers a reader.
+     * @return <tt>false</tt> if the file has already been closed
+     */
+    boolean aboutToRead() {
+        while (true) {
+            int readers = mNumReaders.get();
+            if (readers < 0 || mBroken) {
+                return false;
+            }
+            if (mNumReaders.compareAndSet(readers, readers + 1)) {
+                return true;
+            }
         }
     }
-    
-    synchronized int getNumReaders() {
-        return mNumReaders;
-    }
-    
-    private synchronized void openIfNecessary()
-    throws IOException {
-        if (mRAF == null) {
-            if (!mFile.exists()) {
-                throw new IOException(mFile.getPath() + " does not exist.");
+
+    void doneReading() {
+        while (true) {
+            int readers = mNumReaders.get();
+            if (readers <= 0 || mNumReaders.compareAndSet(readers, readers - 1)) {
+                return;
             }
-            mRAF = new RandomAccessFile(mFile, "r");
-            mPos = 0;
         }
     }
-    
-    synchronized void close()
+
+    int getNumReaders() {
+        return Math.max(mNumReaders.get(), 0);
+    }
+
+    boolean isClosed() {
+        return mNumReaders.get() < 0 || mBroken;
+    }
+
+    /**
+     * Closes the file descriptor if nobody is reading from it.
+     * @return <tt>true</tt> if the file is closed, <tt>false</tt> if it is still in use
+     */
+    boolean close()
     throws IOException {
-        if (mRAF != null) {
-            mRAF.close();
-            mPos = 0;
-            mRAF = null;
+        if (mNumReaders.compareAndSet(0, -1)) {
+            mChannel.close();
+            return true;
         }
+        return isClosed();
     }
-    
+
+    @Override
     public String toString() {
         return mFile.toString();
     }
@@ -0,0 +1,206 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2026 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.TimerTask;
+
+import org.apache.commons.codec.binary.Hex;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.FileUtil;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.store.Blob;
+import com.zimbra.cs.util.Zimbra;
+import com.zimbra.cs.volume.Volume;
+import com.zimbra.cs.volume.VolumeManager;
+
+/**
+ * Index of the blobs of a volume by content, with which {@link FileBlobStore} stores a new blob as another hard link
+ * to an existing copy of the same content rather than as a new file.  Unlike {@link BlobDeduper}, which links the
+ * duplicates of a volume after the fact, this happens as blobs are delivered, so bulk mail to many mailboxes over many
+ * deliveries takes the space of one copy per volume from the start.
+ * <p>
+ * The index is the {@code dedupe} directory at the root of each message volume, holding one link per indexed
+ * content, named after its digest (and whether the file is compressed).  The link count of a file is thus the
+ * reference count of the content: once all blobs linking to it are deleted, moved to another volume by HSM, or gone
+ * with their mailbox, only the index entry is left and the sweeper removes it.  Blob files are never written to once
+ * they are created, so that sharing them is safe, and the index is only a hint: an entry that disappears (or is
+ * swept) between looking it up and linking to it makes the blob be written out as usual.
+ */
+final class BlobDedupeIndex {
+
+    private static final String DEDUPE_DIR = "dedupe";
+
+    private static TimerTask sweeper;
+
+    private BlobDedupeIndex() {
+    }
+
+    /**
+     * Returns {@code true} if new blobs like this one are looked up in, and added to, the index.
+     */
+    static boolean isEnabled(Blob blob) throws IOException {
+        return LC.zimbra_store_dedupe_enabled.booleanValue() &&
+                blob.getRawSize() >= LC.zimbra_store_dedupe_min_size.longValue();
+    }
+
+    /**
+     * Returns the index entry of the content on the volume, or {@code null} if the digest isn't one.
+     */
+    static File getEntry(Volume volume, String digest, boolean compressed) {
+        byte[] hash = digest == null ? null : ByteUtil.decodeFSSafeBase64(digest);
+        if (hash == null || hash.length < 16) {
+            return null;
+        }
+        // hex rather than the digest itself, which would be ambiguous on a case insensitive file system
+        String name = new String(Hex.encodeHex(hash));
+        return new File(volume.getRootPath() + File.separator + DEDUPE_DIR + File.separator + name.substring(0, 2) +
+                File.separator + name.substring(2, 4) + File.separator + name + (compressed ? ".gz" : ""));
+    }
+
+    /**
+     * Creates {@code dest} as a link to the indexed copy of the content of {@code src} on the volume, and returns
+     * {@code true}; or returns {@code false} if there's none, and the caller writes out {@code dest} by itself and
+     * then {@link #publish}es it.
+     *
+     * @param compressed whether {@code dest} is to be compressed
+     */
+    static boolean link(Blob src, boolean compressed, File dest, short volumeId) {
+        File entry;
+        try {
+            entry = getEntry(VolumeManager.getInstance().getVolume(volumeId), src.getDigest(), compressed);
+            if (entry == null || !entry.exists() || (!compressed && entry.length() != src.getRawSize())) {
+                ZimbraPerf.COUNTER_BLOB_DEDUPE_RATE.increment(0);
+                return false;
+            }
+            Files.createLink(dest.toPath(), entry.toPath());
+        } catch (ServiceException | IOException | UnsupportedOperationException e) {
+            // entry swept in the meantime, dest left over from an uncommitted item, ...: store the blob as usual
+            ZimbraLog.store.debug("Unable to link %s to an existing copy.", dest.getPath(), e);
+            ZimbraPerf.COUNTER_BLOB_DEDUPE_RATE.increment(0);
+            return false;
+        }
+        ZimbraLog.store.debug("Linked %s to existing copy %s.", dest.getPath(), entry.getPath());
+        if (!entry.equals(src.getFile()) && !isSameFile(entry, src.getFile())) {
+            // unless the blob was linked to the copy of the same delivery, which it would have been anyway
+            ZimbraPerf.COUNTER_BLOB_DEDUPE_RATE.increment(100);
+            ZimbraPerf.COUNTER_BLOB_DEDUPE_BYTES.increment(entry.length());
+        }
+        return true;
+    }
+
+    /**
+     * Adds {@code dest}, just written out with the content of {@code src}, to the index unless the index already has
+     * a copy of the content.
+     */
+    static void publish(Blob src, boolean compressed, File dest, short volumeId) {
+        try {
+            File entry = getEntry(VolumeManager.getInstance().getVolume(volumeId), src.getDigest(), compressed);
+            if (entry == null) {
+                return;
+            }
+            FileUtil.ensureDirExists(entry.getParentFile());
+            Files.createLink(entry.toPath(), dest.toPath());
+        } catch (FileAlreadyExistsException e) {
+            // indexed by another delivery of the same content in the meantime
+        } catch (ServiceException | IOException | UnsupportedOperationException e) {
+            ZimbraLog.store.debug("Unable to index %s.", dest.getPath(), e);
+        }
+    }
+
+    private static boolean isSameFile(File file1, File file2) {
+        try {
+            return Files.isSameFile(file1.toPath(), file2.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes the index entries of the volume that no blob links to any more, and returns how many it removed.
+     */
+    static int sweep(Volume volume) throws IOException {
+        File root = new File(volume.getRootPath() + File.separator + DEDUPE_DIR);
+        if (!root.isDirectory()) {
+            return 0;
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root.toPath())) {
+            for (Path dir : dirs) {
+                try (DirectoryStream<Path> subdirs = Files.newDirectoryStream(dir)) {
+                    for (Path subdir : subdirs) {
+                        try (DirectoryStream<Path> entries = Files.newDirectoryStream(subdir)) {
+                            for (Path entry : entries) {
+                                // a blob linking to the entry in the meantime keeps its content either way
+                                if (((Number) Files.getAttribute(entry, "unix:nlink")).intValue() <= 1 &&
+                                        Files.deleteIfExists(entry)) {
+                                    removed++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Starts sweeping the indexes of all message volumes every {@code zimbra_store_dedupe_sweep_interval} minutes.
+     */
+    static synchronized void startSweeper() {
+        long interval = LC.zimbra_store_dedupe_sweep_interval.longValue() * 60 * 1000;
+        if (sweeper != null || !LC.zimbra_store_dedupe_enabled.booleanValue() || interval <= 0) {
+            return;
+        }
+        sweeper = new TimerTask() {
+            @Override
+            public void run() {
+                for (Volume volume : VolumeManager.getInstance().getAllVolumes()) {
+                    if (volume.getType() != Volume.TYPE_MESSAGE && volume.getType() != Volume.TYPE_MESSAGE_SECONDARY) {
+                        continue;
+                    }
+                    try {
+                        int removed = sweep(volume);
+                        ZimbraLog.store.debug("Removed %d unreferenced dedupe entries of volume %s.", removed,
+                                volume.getName());
+                    } catch (IOException | RuntimeException e) {
+                        // e.g. a file system without link counts, where entries stay until the volume is cleaned up
+                        ZimbraLog.store.warn("Unable to sweep dedupe entries of volume %s.", volume.getName(), e);
+                    }
+                }
+            }
+        };
+        Zimbra.sTimer.schedule(sweeper, interval, interval);
+    }
+
+    static synchronized void stopSweeper() {
+        if (sweeper != null) {
+            sweeper.cancel();
+            sweeper = null;
+        }
+    }
+}
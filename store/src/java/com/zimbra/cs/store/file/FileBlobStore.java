@@ -57,11 +57,13 @@ public final class FileBlobStore extends StoreManager {
         FileCache<String> ufCache = FileCache.Builder.createWithStringKey(ufCacheDir, false)
             .minLifetime(LC.uncompressed_cache_min_lifetime.longValue()).build();
         BlobInputStream.setFileDescriptorCache(new FileDescriptorCache(ufCache).loadSettings());
+        BlobDedupeIndex.startSweeper();
     }
 
     @Override
     public void shutdown() {
         IncomingDirectory.stopSweeper();
+        BlobDedupeIndex.stopSweeper();
         BlobInputStream.getFileDescriptorCache().shutdown();
     }
 
@@ -170,22 +172,21 @@ public final class FileBlobStore extends StoreManager {
 
         ensureParentDirExists(dest);
 
-        boolean destCompressed;
-        if (destVolume.isCompressBlobs()) {
-            if (src.isCompressed() || srcFile.length() <= destVolume.getCompressionThreshold()) {
+        boolean destCompressed = destVolume.isCompressBlobs() &&
+                (src.isCompressed() || srcFile.length() > destVolume.getCompressionThreshold());
+        boolean dedupe = BlobDedupeIndex.isEnabled(src);
+        if (!dedupe || !BlobDedupeIndex.link(src, destCompressed, dest, destVolume.getId())) {
+            removeStale(dest);
+            if (destCompressed == src.isCompressed()) {
                 FileUtil.copy(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
-                destCompressed = src.isCompressed();
-            } else {
+            } else if (destCompressed) {
                 FileUtil.compress(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
-                destCompressed = true;
-            }
-        } else {
-            if (src.isCompressed()) {
-                FileUtil.uncompress(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
             } else {
-                FileUtil.copy(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
+                FileUtil.uncompress(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
+            }
+            if (dedupe) {
+                BlobDedupeIndex.publish(src, destCompressed, dest, destVolume.getId());
             }
-            destCompressed = false;
         }
 
         VolumeBlob newBlob = (VolumeBlob) new VolumeBlob(dest, destVolume.getId()).copyCachedDataFrom(src).setCompressed(destCompressed);
@@ -222,41 +223,48 @@ public final class FileBlobStore extends StoreManager {
         ensureParentDirExists(dest);
 
         short srcVolumeId = ((VolumeBlob) src).getVolumeId();
-        if (srcVolumeId == destVolumeId) {
-            try {
-                IO.link(srcPath, destPath);
-            } catch (IOException e) {
-                // Did it fail because the destination file already exists?
-                // This can happen if we stored a file (or link), and we failed to
-                // commit (say because of a server crash), and a subsequent new
-                // item gets the ID of the uncommitted item
-                if (dest.exists()) {
-                    File destBak = new File(destPath + ".bak");
-                    ZimbraLog.store.warn("Destination file exists.  Backing up to " + destBak.getAbsolutePath());
-                    if (destBak.exists()) {
-                        String bak = destBak.getAbsolutePath();
-                        ZimbraLog.store.warn(bak + " already exists.  Deleting to make room for new backup file");
-                        if (!destBak.delete()) {
-                            ZimbraLog.store.warn("Unable to delete " + bak);
+        boolean dedupe = BlobDedupeIndex.isEnabled(src);
+        if (!dedupe || !BlobDedupeIndex.link(src, src.isCompressed(), dest, destVolumeId)) {
+            if (srcVolumeId == destVolumeId) {
+                try {
+                    IO.link(srcPath, destPath);
+                } catch (IOException e) {
+                    // Did it fail because the destination file already exists?
+                    // This can happen if we stored a file (or link), and we failed to
+                    // commit (say because of a server crash), and a subsequent new
+                    // item gets the ID of the uncommitted item
+                    if (dest.exists()) {
+                        File destBak = new File(destPath + ".bak");
+                        ZimbraLog.store.warn("Destination file exists.  Backing up to " + destBak.getAbsolutePath());
+                        if (destBak.exists()) {
+                            String bak = destBak.getAbsolutePath();
+                            ZimbraLog.store.warn(bak + " already exists.  Deleting to make room for new backup file");
+                            if (!destBak.delete()) {
+                                ZimbraLog.store.warn("Unable to delete " + bak);
+                                throw e;
+                            }
+                        }
+                        File destTmp = new File(destPath);
+                        if (!destTmp.renameTo(destBak)) {
+                            ZimbraLog.store.warn("Can't rename " + destTmp.getAbsolutePath() + " to .bak");
                             throw e;
                         }
-                    }
-                    File destTmp = new File(destPath);
-                    if (!destTmp.renameTo(destBak)) {
-                        ZimbraLog.store.warn("Can't rename " + destTmp.getAbsolutePath() + " to .bak");
+                        // Existing file is now renamed to <file>.bak.
+                        // Retry link creation.
+                        IO.link(srcPath, destPath);
+                    } else {
                         throw e;
                     }
-                    // Existing file is now renamed to <file>.bak.
-                    // Retry link creation.
-                    IO.link(srcPath, destPath);
-                } else {
-                    throw e;
                 }
+            } else {
+                // src and dest are on different volumes and can't be hard linked.
+                // Do a copy instead.
+                removeStale(dest);
+                FileUtil.copy(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
+            }
+            if (dedupe) {
+                BlobDedupeIndex.publish(src, src.isCompressed(), dest, destVolumeId);
             }
-        } else {
-            // src and dest are on different volumes and can't be hard linked.
-            // Do a copy instead.
-            FileUtil.copy(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
         }
         String destLocator = Short.toString(destVolumeId);
         VolumeBlob vblob = (VolumeBlob) new VolumeBlob(dest, destVolumeId).copyCachedDataFrom(src);
@@ -287,22 +295,32 @@ public final class FileBlobStore extends StoreManager {
         }
 
         short srcVolumeId = blob.getVolumeId();
-        if (srcVolumeId == volume.getId()) {
-            boolean renamed = srcFile.renameTo(destFile);
-            if (SystemUtil.ON_WINDOWS) {
-                // On Windows renameTo fails if the dest already exists.  So delete
-                // the destination and try the rename again
-                if (!renamed && destFile.exists()) {
-                    destFile.delete();
-                    renamed = srcFile.renameTo(destFile);
+        boolean dedupe = BlobDedupeIndex.isEnabled(blob);
+        if (dedupe && BlobDedupeIndex.link(blob, blob.isCompressed(), destFile, volume.getId())) {
+            // the volume already has a copy of the content, so the incoming file isn't needed
+            srcFile.delete();
+        } else {
+            if (srcVolumeId == volume.getId()) {
+                boolean renamed = srcFile.renameTo(destFile);
+                if (SystemUtil.ON_WINDOWS) {
+                    // On Windows renameTo fails if the dest already exists.  So delete
+                    // the destination and try the rename again
+                    if (!renamed && destFile.exists()) {
+                        destFile.delete();
+                        renamed = srcFile.renameTo(destFile);
+                    }
                 }
+                if (!renamed)
+                    throw new IOException("Unable to rename " + srcPath + " to " + destPath);
+            } else {
+                // Can't rename across volumes.  Copy then delete instead.
+                removeStale(destFile);
+                FileUtil.copy(srcFile, destFile, !DebugConfig.disableMessageStoreFsync);
+                srcFile.delete();
+            }
+            if (dedupe) {
+                BlobDedupeIndex.publish(blob, blob.isCompressed(), destFile, volume.getId());
             }
-            if (!renamed)
-                throw new IOException("Unable to rename " + srcPath + " to " + destPath);
-        } else {
-            // Can't rename across volumes.  Copy then delete instead.
-            FileUtil.copy(srcFile, destFile, !DebugConfig.disableMessageStoreFsync);
-            srcFile.delete();
         }
 
         VolumeBlob vblob = (VolumeBlob) new VolumeBlob(destFile, volume.getId()).copyCachedDataFrom(blob);
@@ -428,6 +446,16 @@ public final class FileBlobStore extends StoreManager {
         return buf.toString();
     }
 
+    /**
+     * Removes a file left at the path of a blob about to be written out, e.g. by an item that was never committed,
+     * rather than overwriting content that other blobs may share through hard links.
+     */
+    private static void removeStale(File dest) throws IOException {
+        if (dest.exists() && !dest.delete()) {
+            throw new IOException("Unable to delete stale blob file " + dest.getAbsolutePath());
+        }
+    }
+
     private static void ensureDirExists(File dir) throws IOException {
         if (!FileUtil.mkdirs(dir)) {
             throw new IOException("Unable to create blob store directory " + dir.getAbsolutePath());
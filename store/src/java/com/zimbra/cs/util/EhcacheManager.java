@@ -53,6 +53,7 @@ public final class EhcacheManager {
     public static final String IMAP_ACTIVE_SESSION_CACHE = "imap-active-session-cache";
     public static final String IMAP_INACTIVE_SESSION_CACHE = "imap-inactive-session-cache";
     public static final String SYNC_STATE_ITEM_CACHE = "sync-state-item-cache";
+    public static final String IMAP_STRUCTURE_CACHE = "imap-structure-cache";
 
     private EhcacheManager(Service service) {
         cacheManager = CacheManagerBuilder.newCacheManagerBuilder()
@@ -66,6 +67,9 @@ public final class EhcacheManager {
             cacheManager.createCache(IMAP_INACTIVE_SESSION_CACHE, createImapInactiveSessionCache());
             cacheManager.createCache(SYNC_STATE_ITEM_CACHE, createActiveSyncStateItemCache());
         }
+        if (LC.imap_use_ehcache.booleanValue() && LC.imap_structure_cache_memory_size.longValue() > 0) {
+            cacheManager.createCache(IMAP_STRUCTURE_CACHE, createImapStructureCache());
+        }
     }
 
     public static EhcacheManager getInstance() {
@@ -155,6 +159,18 @@ public final class EhcacheManager {
                 .build();
     }
 
+    private CacheConfiguration<String, byte[]> createImapStructureCache() {
+        long offHeap = Math.max(LC.imap_structure_cache_memory_size.longValue(), 1024 * 1024);
+        long disk = LC.imap_structure_cache_disk_size.longValue();
+        ResourcePoolsBuilder pools = ResourcePoolsBuilder.newResourcePoolsBuilder()
+                .heap(1000, EntryUnit.ENTRIES)
+                .offheap(offHeap, MemoryUnit.B);
+        if (disk > offHeap) {
+            pools = pools.disk(disk, MemoryUnit.B, true); // disk backed persistent store
+        }
+        return CacheConfigurationBuilder.newCacheConfigurationBuilder(String.class, byte[].class, pools).build();
+    }
+
     public Cache<String, ImapFolder> getEhcache(String cacheName) {
         return cacheManager.getCache(cacheName, String.class, ImapFolder.class);
     }
@@ -163,6 +179,11 @@ public final class EhcacheManager {
         return cacheManager.getCache(SYNC_STATE_ITEM_CACHE, String.class, String.class);
     }
 
+    /** Returns the cache of IMAP message structures, or {@code null} if it is disabled. */
+    public Cache<String, byte[]> getImapStructureEhcache() {
+        return cacheManager.getCache(IMAP_STRUCTURE_CACHE, String.class, byte[].class);
+    }
+
     public void shutdown() {
         cacheManager.close();
     }
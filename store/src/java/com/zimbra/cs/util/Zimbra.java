@@ -64,6 +64,7 @@ import com.zimbra.cs.session.WaitSetMgr;
 import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.store.StoreManager;
 import com.zimbra.cs.zookeeper.CuratorManager;
+import com.zimbra.soap.JaxbUtil;
 import com.zimbra.znative.Util;
 
 /**
@@ -211,6 +212,18 @@ public final class Zimbra {
 
         checkForClasses();
 
+        if (sIsMailboxd) {
+            // overlaps with the rest of startup; requests arriving first just find fewer marshallers waiting
+            Thread warmUp = new Thread("JaxbWarmUp") {
+                @Override
+                public void run() {
+                    JaxbUtil.warmUp();
+                }
+            };
+            warmUp.setDaemon(true);
+            warmUp.start();
+        }
+
         ZimbraApplication app = ZimbraApplication.getInstance();
 
         ZimbraPerf.prepare(ZimbraPerf.ServerID.ZIMBRA);
@@ -492,7 +492,14 @@ public class SoapEngine {
             } else {
                 String id = doc.getAttribute(A_REQUEST_CORRELATOR, null);
                 long start = System.currentTimeMillis();
-                responseBody = dispatchRequest(handler, doc, context, zsc);
+                // only a response the servlet writes straight to the client may be marshaled as it is built; the
+                // parts of a BatchRequest and requests proxied in-process are handed to code that may inspect them
+                zsc.setResponseOnlyMarshaled(Boolean.TRUE.equals(context.get(SoapServlet.RESPONSE_ONLY_MARSHALED)));
+                try {
+                    responseBody = dispatchRequest(handler, doc, context, zsc);
+                } finally {
+                    zsc.setResponseOnlyMarshaled(false);
+                }
                 if (!isResumed) {
                     ZimbraLog.soap.info("%s elapsed=%d", doc.getName(), System.currentTimeMillis() - start);
                 }
@@ -553,7 +560,14 @@ public class SoapEngine {
                     ServiceException.INVALID_REQUEST("no document specified", null));
         }
         DocumentHandler handler = dispatcher.getHandler(request);
-        return dispatchRequest(handler, request, context,zsc);
+        // the caller gets the response back in-process
+        boolean marshaled = zsc.isResponseOnlyMarshaled();
+        zsc.setResponseOnlyMarshaled(false);
+        try {
+            return dispatchRequest(handler, request, context,zsc);
+        } finally {
+            zsc.setResponseOnlyMarshaled(marshaled);
+        }
     }
 
     /**
@@ -17,6 +17,7 @@
 
 package com.zimbra.soap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -75,6 +76,12 @@ public class SoapServlet extends ZimbraServlet {
     public static final String SERVLET_RESPONSE = "servlet.response";
     /** If this is a request sent to the admin port */
     public static final String IS_ADMIN_REQUEST = "zimbra.isadminreq";
+    /**
+     * Set when the response is only going to be serialized to the client, so handlers may replace finished
+     * parts of it with their serialized form.  {@link SoapEngine} applies it to the top-level request only, not
+     * to the parts of a BatchRequest.  See {@link ZimbraSoapContext#isResponseOnlyMarshaled()}.
+     */
+    public static final String RESPONSE_ONLY_MARSHALED = "zimbra.responseOnlyMarshaled";
     /** Flag for requests that want to force invalidation of client cookies */
     public static final String INVALIDATE_COOKIES = "zimbra.invalidateCookies";
 
@@ -285,6 +292,7 @@ public class SoapServlet extends ZimbraServlet {
         context.put(SERVLET_CONTEXT, getServletContext());
         context.put(SERVLET_REQUEST, req);
         context.put(SERVLET_RESPONSE, resp);
+        context.put(RESPONSE_ONLY_MARSHALED, Boolean.TRUE);
 
         try {
             Boolean isAdminReq = isAdminRequest(req);
@@ -377,9 +385,13 @@ public class SoapServlet extends ZimbraServlet {
             out.flush();
         } else {
             // serialize the envelope to a byte array and send the response with Content-Length header.
-            byte[] soapBytes = envelope.toUTF8();
-            resp.setContentLength(soapBytes.length);
-            resp.getOutputStream().write(soapBytes);
+            // Encoding straight into the byte array avoids also building the whole response as a String.
+            ByteArrayOutputStream soapBytes = new ByteArrayOutputStream(Math.max(responseBufferSize, 8192));
+            ZimbraServletOutputStream out = new ZimbraServletOutputStream(soapBytes);
+            envelope.output(out);
+            out.flush();
+            resp.setContentLength(soapBytes.size());
+            soapBytes.writeTo(resp.getOutputStream());
             resp.getOutputStream().flush();
         }
         envelope.destroy();
@@ -156,6 +156,7 @@ public final class ZimbraSoapContext {
     private boolean mIsProxyRequest;
     private int mHopCount;
     private boolean mMountpointTraversed;
+    private boolean mResponseOnlyMarshaled;
 
     private String mOriginalUserAgent;
     private String mUserAgent;
@@ -1019,6 +1020,19 @@ public final class ZimbraSoapContext {
         return mIsProxyRequest;
     }
 
+    /**
+     * Returns {@code true} if the response is only going to be serialized to the client, rather than inspected
+     * by the caller, so a handler producing many children may hand each finished one to
+     * {@link Element#marshalChild(Element)} instead of keeping the whole response tree until it is written.
+     */
+    public boolean isResponseOnlyMarshaled() {
+        return mResponseOnlyMarshaled;
+    }
+
+    public void setResponseOnlyMarshaled(boolean value) {
+        mResponseOnlyMarshaled = value;
+    }
+
     public String getOriginalUserAgent() {
         return mOriginalUserAgent;
     }